@@ -0,0 +1,74 @@
+/*
+ * Copyright 2016 JBoss Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.apiman.plugins.auth_common;
+
+import io.apiman.gateway.engine.beans.ApiRequest;
+
+/**
+ * Extracts bearer tokens (RFC 6750) from requests. The scheme is matched in
+ * place, ignoring case and surrounding whitespace, so the only copy made is
+ * the token itself.
+ */
+public final class BearerTokens {
+
+    /** The header the token is sent in. */
+    public static final String AUTHORIZATION_KEY = "Authorization"; //$NON-NLS-1$
+    /** The query parameter the token is sent in when there's no header. */
+    public static final String ACCESS_TOKEN_QUERY_KEY = "access_token"; //$NON-NLS-1$
+
+    private static final String BEARER = "Bearer "; //$NON-NLS-1$
+
+    private BearerTokens() {
+    }
+
+    /**
+     * Returns the token of a request: from its Authorization header if it has
+     * a bearer one, otherwise from its access_token query parameter.
+     *
+     * @param request the request
+     * @return the token, or null if the request has none
+     */
+    public static String extract(ApiRequest request) {
+        String token = fromAuthorization(request.getHeaders().get(AUTHORIZATION_KEY));
+        return token != null ? token : request.getQueryParams().get(ACCESS_TOKEN_QUERY_KEY);
+    }
+
+    /**
+     * @param authorization the value of an Authorization header, may be null
+     * @return the bearer token, or null if the value isn't a bearer token
+     */
+    public static String fromAuthorization(String authorization) {
+        if (authorization == null) {
+            return null;
+        }
+        int start = 0;
+        int end = authorization.length();
+        while (start < end && authorization.charAt(start) <= ' ') {
+            start++;
+        }
+        while (end > start && authorization.charAt(end - 1) <= ' ') {
+            end--;
+        }
+        if (!authorization.regionMatches(true, start, BEARER, 0, BEARER.length())) {
+            return null;
+        }
+        start += BEARER.length();
+        while (start < end && authorization.charAt(start) == ' ') {
+            start++;
+        }
+        return start < end ? authorization.substring(start, end) : null;
+    }
+}
@@ -0,0 +1,369 @@
+/*
+ * Copyright 2016 JBoss Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.apiman.plugins.auth_common;
+
+import io.apiman.common.logging.IApimanLogger;
+import io.apiman.gateway.engine.async.IAsyncHandler;
+import io.apiman.gateway.engine.components.IHttpClientComponent;
+import io.apiman.gateway.engine.components.IPeriodicComponent;
+import io.apiman.gateway.engine.components.http.HttpMethod;
+import io.apiman.gateway.engine.components.http.IHttpClientRequest;
+import io.apiman.gateway.engine.components.http.IHttpClientResponse;
+import io.apiman.gateway.engine.policy.IPolicyContext;
+
+import java.io.IOException;
+import java.math.BigInteger;
+import java.security.AlgorithmParameters;
+import java.security.GeneralSecurityException;
+import java.security.Key;
+import java.security.KeyFactory;
+import java.security.spec.ECGenParameterSpec;
+import java.security.spec.ECParameterSpec;
+import java.security.spec.ECPoint;
+import java.security.spec.ECPublicKeySpec;
+import java.security.spec.RSAPublicKeySpec;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * The public keys published at a JWKS endpoint (such as a Keycloak realm's
+ * certs endpoint), by key id. The key set is fetched when first needed and then
+ * refreshed in the background on a periodic timer, so keys can be rotated
+ * without reconfiguring the APIs. Lookups of known keys never wait for the
+ * endpoint once the first fetch is done. A request for a key that isn't known
+ * yet waits for the next fetch instead (see
+ * {@link #whenFetched(IPolicyContext, IAsyncHandler)}): the one in progress,
+ * or a new one. Unknown keys start a new fetch at most once every
+ * {@link #MIN_REFETCH_INTERVAL} milliseconds, so tokens with made up key ids
+ * can't flood the endpoint; requests that come in between wait for the next
+ * allowed fetch rather than fail, so they can't keep a newly rotated key from
+ * being found either. Only one fetch runs at a time, and a response without a
+ * key set leaves the current keys in place.
+ * <p>
+ * Key sets are shared by all the configurations that use the same endpoint,
+ * up to {@link #MAX_KEY_SETS} of them. A key set that hasn't been used for a
+ * whole refresh interval stops refreshing and is no longer shared; it starts
+ * again when it is next used.
+ */
+@SuppressWarnings("nls")
+public class PublicKeySet {
+
+    /** As the minimum time between JWKS requests of the Keycloak adapters. */
+    public static final long MIN_REFETCH_INTERVAL = 10000;
+    static final int MAX_KEY_SETS = 100;
+    private static final int CONNECT_TIMEOUT = 5000;
+    private static final int READ_TIMEOUT = 10000;
+    private static final ConcurrentMap<String, PublicKeySet> KEY_SETS = new ConcurrentHashMap<>();
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+    private static final Map<String, String> CURVES = new HashMap<>();
+    static {
+        CURVES.put("P-256", "secp256r1");
+        CURVES.put("P-384", "secp384r1");
+        CURVES.put("P-521", "secp521r1");
+    }
+
+    private final String name;
+    private final String uri;
+    private final long refreshInterval;
+    private final AtomicBoolean started = new AtomicBoolean();
+    private final AtomicBoolean fetching = new AtomicBoolean();
+    private final AtomicBoolean refetchScheduled = new AtomicBoolean();
+    private final List<IAsyncHandler<Void>> waiting = new ArrayList<>();
+    private volatile Map<String, Key> keys = Collections.emptyMap();
+    private volatile boolean loaded;
+    private volatile long lastRefetch;
+    private volatile boolean used;
+    private volatile IHttpClientComponent httpClient;
+    private volatile IPeriodicComponent periodic;
+    private volatile IApimanLogger logger;
+
+    /**
+     * @param uri the JWKS endpoint
+     * @param refreshInterval the number of milliseconds between refreshes
+     */
+    PublicKeySet(String uri, long refreshInterval) {
+        this.name = name(uri, refreshInterval);
+        this.uri = uri;
+        this.refreshInterval = refreshInterval;
+    }
+
+    /**
+     * Returns the key set of an endpoint, creating it on first use. Once
+     * {@link #MAX_KEY_SETS} key sets are shared, the key sets of further
+     * endpoints are not.
+     *
+     * @param uri the JWKS endpoint
+     * @param refreshInterval the number of milliseconds between refreshes
+     * @return the key set
+     */
+    public static PublicKeySet of(String uri, long refreshInterval) {
+        PublicKeySet keySet = KEY_SETS.get(name(uri, refreshInterval));
+        if (keySet != null) {
+            return keySet;
+        }
+        if (KEY_SETS.size() >= MAX_KEY_SETS) {
+            return new PublicKeySet(uri, refreshInterval);
+        }
+        return KEY_SETS.computeIfAbsent(name(uri, refreshInterval), k -> new PublicKeySet(uri, refreshInterval));
+    }
+
+    private static String name(String uri, long refreshInterval) {
+        return uri + " " + refreshInterval;
+    }
+
+    /**
+     * Calls a handler once the key set has been fetched for the first time,
+     * whether the fetch worked or not; straight away if it already has been.
+     * The first call starts the background refreshes, as does the first call
+     * after they have stopped.
+     *
+     * @param context the policy context, for the HTTP client and timers
+     * @param handler the handler
+     */
+    public void whenLoaded(IPolicyContext context, IAsyncHandler<Void> handler) {
+        markUsed();
+        start(context);
+        if (!loaded) {
+            synchronized (waiting) {
+                if (!loaded) {
+                    waiting.add(handler);
+                    return;
+                }
+            }
+        }
+        handler.handle(null);
+    }
+
+    /**
+     * Calls a handler once the key set has next been fetched, whether the
+     * fetch worked or not, for a request that needs a key the set doesn't have
+     * (yet). A fetch in progress is joined; otherwise the key set is fetched
+     * straight away, or once {@link #MIN_REFETCH_INTERVAL} milliseconds have
+     * passed since the last fetch for an unknown key.
+     *
+     * @param context the policy context, for the HTTP client and timers
+     * @param handler the handler
+     */
+    public void whenFetched(IPolicyContext context, IAsyncHandler<Void> handler) {
+        markUsed();
+        start(context);
+        synchronized (waiting) {
+            waiting.add(handler);
+        }
+        // Handlers are released after the fetching flag, so one in progress will release this one
+        if (fetching.get()) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        long due = lastRefetch + MIN_REFETCH_INTERVAL;
+        if (now >= due) {
+            lastRefetch = now;
+            fetch();
+        } else if (refetchScheduled.compareAndSet(false, true)) {
+            periodic.setOneshotTimer(due - now, timerId -> {
+                refetchScheduled.set(false);
+                lastRefetch = System.currentTimeMillis();
+                fetch();
+            });
+        }
+    }
+
+    /**
+     * @return true once the key set has been fetched for the first time
+     */
+    public boolean isLoaded() {
+        return loaded;
+    }
+
+    /**
+     * @return the keys, by key id
+     */
+    public Map<String, Key> getKeys() {
+        return keys;
+    }
+
+    /**
+     * Returns the key of a key id. The only key of the set is used for tokens
+     * without a key id. A key that isn't found may not have been fetched yet,
+     * see {@link #whenFetched(IPolicyContext, IAsyncHandler)}.
+     *
+     * @param kid the key id, may be null
+     * @return the key, or null if the set doesn't have it
+     */
+    public Key resolve(String kid) {
+        markUsed();
+        Map<String, Key> keys = this.keys;
+        Key key = keys.get(kid);
+        if (key == null && kid == null && keys.size() == 1) {
+            key = keys.values().iterator().next();
+        }
+        return key;
+    }
+
+    /**
+     * Keeps the key set refreshing, restarting it if it had stopped.
+     */
+    private void markUsed() {
+        if (!used) {
+            used = true;
+            if (periodic != null) {
+                schedule();
+            }
+        }
+    }
+
+    private void start(IPolicyContext context) {
+        if (!started.get()) {
+            httpClient = context.getComponent(IHttpClientComponent.class);
+            logger = context.getLogger(PublicKeySet.class);
+            periodic = context.getComponent(IPeriodicComponent.class);
+            schedule();
+        }
+    }
+
+    /**
+     * Fetches the key set and starts refreshing it, unless it already is.
+     */
+    private void schedule() {
+        if (started.compareAndSet(false, true)) {
+            if (KEY_SETS.size() < MAX_KEY_SETS) {
+                KEY_SETS.putIfAbsent(name, this);
+            }
+            periodic.setPeriodicTimer(refreshInterval, refreshInterval, this::refresh);
+            fetch();
+        }
+    }
+
+    /**
+     * Fetches the key set if it has been used since the last refresh, and
+     * otherwise stops refreshing it.
+     */
+    private void refresh(long timerId) {
+        if (used) {
+            used = false;
+            fetch();
+        } else {
+            periodic.cancelTimer(timerId);
+            KEY_SETS.remove(name, this);
+            started.set(false);
+        }
+    }
+
+    private void fetch() {
+        if (!fetching.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            IHttpClientRequest request = httpClient.request(uri, HttpMethod.GET, result -> {
+                try {
+                    if (result.isSuccess()) {
+                        IHttpClientResponse response = result.getResult();
+                        try {
+                            if (response.getResponseCode() == 200) {
+                                keys = parseKeys(response.getBody());
+                            } else {
+                                logger.warn("Could not fetch JWKS from {}: {} {}", uri, response.getResponseCode(),
+                                        response.getResponseMessage());
+                            }
+                        } finally {
+                            response.close();
+                        }
+                    } else {
+                        logger.error(result.getError(), "Could not fetch JWKS from {}", uri);
+                    }
+                } catch (IOException | GeneralSecurityException | RuntimeException e) {
+                    logger.error(e, "Invalid JWKS at {}", uri);
+                } finally {
+                    fetching.set(false);
+                    fetched();
+                }
+            });
+            // The handler has to be called for the fetch to be released
+            request.setConnectTimeout(CONNECT_TIMEOUT);
+            request.setReadTimeout(READ_TIMEOUT);
+            request.addHeader("Accept", "application/json");
+            request.end();
+        } catch (RuntimeException e) {
+            logger.error(e, "Could not fetch JWKS from {}", uri);
+            fetching.set(false);
+            fetched();
+        }
+    }
+
+    private void fetched() {
+        List<IAsyncHandler<Void>> handlers;
+        synchronized (waiting) {
+            loaded = true;
+            if (waiting.isEmpty()) {
+                return;
+            }
+            handlers = new ArrayList<>(waiting);
+            waiting.clear();
+        }
+        for (IAsyncHandler<Void> handler : handlers) {
+            handler.handle(null);
+        }
+    }
+
+    /**
+     * Parses a JWKS document, keeping the RSA and EC keys that can be used for
+     * signatures.
+     *
+     * @param json the JWKS document
+     * @return the keys, by key id
+     * @throws IOException if the document isn't JSON or has no keys array
+     */
+    public static Map<String, Key> parseKeys(String json) throws IOException, GeneralSecurityException {
+        JsonNode jwks = MAPPER.readTree(json);
+        if (jwks == null || !jwks.path("keys").isArray()) {
+            throw new IOException("No keys array in JWKS");
+        }
+        Map<String, Key> keys = new HashMap<>();
+        for (JsonNode jwk : jwks.path("keys")) {
+            if (jwk.hasNonNull("use") && !"sig".equals(jwk.get("use").asText())) {
+                continue;
+            }
+            String kid = jwk.hasNonNull("kid") ? jwk.get("kid").asText() : null;
+            String kty = jwk.path("kty").asText();
+            if ("RSA".equals(kty)) {
+                keys.put(kid, KeyFactory.getInstance("RSA").generatePublic(
+                        new RSAPublicKeySpec(integer(jwk, "n"), integer(jwk, "e"))));
+            } else if ("EC".equals(kty) && CURVES.containsKey(jwk.path("crv").asText())) {
+                AlgorithmParameters parameters = AlgorithmParameters.getInstance("EC");
+                parameters.init(new ECGenParameterSpec(CURVES.get(jwk.get("crv").asText())));
+                ECPoint point = new ECPoint(integer(jwk, "x"), integer(jwk, "y"));
+                keys.put(kid, KeyFactory.getInstance("EC").generatePublic(
+                        new ECPublicKeySpec(point, parameters.getParameterSpec(ECParameterSpec.class))));
+            }
+        }
+        return Collections.unmodifiableMap(keys);
+    }
+
+    private static BigInteger integer(JsonNode jwk, String member) {
+        return new BigInteger(1, Base64.getUrlDecoder().decode(jwk.path(member).asText()));
+    }
+}
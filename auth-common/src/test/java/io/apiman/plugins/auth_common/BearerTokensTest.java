@@ -0,0 +1,37 @@
+package io.apiman.plugins.auth_common;
+
+import io.apiman.gateway.engine.beans.ApiRequest;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+@SuppressWarnings("nls")
+public class BearerTokensTest {
+
+    @Test
+    public void schemeIsMatchedIgnoringCaseAndWhitespace() {
+        Assert.assertEquals("a.b.c", BearerTokens.fromAuthorization("Bearer a.b.c"));
+        Assert.assertEquals("a.b.c", BearerTokens.fromAuthorization("bEARER a.b.c"));
+        Assert.assertEquals("a.b.c", BearerTokens.fromAuthorization(" \tBearer   a.b.c \r\n"));
+    }
+
+    @Test
+    public void otherSchemesHaveNoToken() {
+        Assert.assertNull(BearerTokens.fromAuthorization(null));
+        Assert.assertNull(BearerTokens.fromAuthorization("Basic dXNlcjpwYXNz"));
+        Assert.assertNull(BearerTokens.fromAuthorization("Bearer"));
+        Assert.assertNull(BearerTokens.fromAuthorization("Bearer   "));
+        Assert.assertNull(BearerTokens.fromAuthorization("Bearera.b.c"));
+    }
+
+    @Test
+    public void queryParameterIsUsedWithoutBearerHeader() {
+        ApiRequest request = new ApiRequest();
+        request.getQueryParams().put("access_token", "d.e.f");
+        Assert.assertEquals("d.e.f", BearerTokens.extract(request));
+        request.getHeaders().put("Authorization", "Basic dXNlcjpwYXNz");
+        Assert.assertEquals("d.e.f", BearerTokens.extract(request));
+        request.getHeaders().put("Authorization", "Bearer a.b.c");
+        Assert.assertEquals("a.b.c", BearerTokens.extract(request));
+    }
+}
@@ -0,0 +1,78 @@
+package io.apiman.plugins.benchmarks;
+
+import io.apiman.gateway.engine.beans.ApiRequest;
+import io.apiman.plugins.auth_common.BearerTokens;
+import io.apiman.plugins.benchmarks.support.Exchanges;
+
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.lang.StringUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Extraction of the bearer token from a request, as the JWT and Keycloak
+ * policies do on every request. The jwtPolicy and keycloakPolicy benchmarks
+ * are the extractions the policies did before they shared
+ * {@link BearerTokens}; run with {@code -prof gc} to compare the bytes
+ * allocated per extraction.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+@SuppressWarnings("nls")
+public class BearerTokensBenchmark {
+
+    @Param({ "1024", "8192" })
+    public int tokenLength;
+
+    private ApiRequest request;
+
+    @Setup
+    public void setup() {
+        StringBuilder token = new StringBuilder(tokenLength);
+        for (int i = 0; i < tokenLength; i++) {
+            token.append((char) ('a' + i % 26));
+        }
+        request = Exchanges.request("GET", "/items", 4);
+        request.getHeaders().put("Authorization", "Bearer " + token);
+    }
+
+    @Benchmark
+    public String extract() {
+        return BearerTokens.extract(request);
+    }
+
+    @Benchmark
+    public String jwtPolicy() {
+        return Optional.ofNullable(request.getHeaders().get("Authorization"))
+                .filter(e -> e.toLowerCase().startsWith("bearer "))
+                .map(e -> e.substring("bearer ".length(), e.length()))
+                .orElse(request.getQueryParams().get("access_token"));
+    }
+
+    @Benchmark
+    public String keycloakPolicy() {
+        String rawToken = StringUtils.strip(request.getHeaders().get("Authorization"));
+        if (rawToken != null && StringUtils.startsWithIgnoreCase(rawToken, "Bearer ")) {
+            rawToken = StringUtils.removeStartIgnoreCase(rawToken, "Bearer ");
+        } else {
+            rawToken = request.getQueryParams().get("access_token");
+        }
+        return rawToken;
+    }
+
+}
@@ -0,0 +1,52 @@
+package io.apiman.plugins.benchmarks;
+
+import java.io.File;
+
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the benchmarks once per thread count and writes a JSON report for each
+ * run, named after the version being measured, so that reports of two versions
+ * can be compared with any JMH report viewer or diff tool. Configured with
+ * system properties:
+ * <ul>
+ * <li>{@code benchmarks.version}: the label of the reports (default {@code snapshot})</li>
+ * <li>{@code benchmarks.threads}: comma separated thread counts (default {@code 1,4})</li>
+ * <li>{@code benchmarks.include}: a regular expression selecting the benchmarks (default all)</li>
+ * <li>{@code benchmarks.output}: the directory of the reports (default {@code target/jmh})</li>
+ * </ul>
+ * Other JMH options can be given as usual by running {@code org.openjdk.jmh.Main}
+ * from the benchmarks jar instead.
+ */
+public final class BenchmarkRunner {
+
+    private BenchmarkRunner() {
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        String version = System.getProperty("benchmarks.version", "snapshot"); //$NON-NLS-1$ //$NON-NLS-2$
+        String threads = System.getProperty("benchmarks.threads", "1,4"); //$NON-NLS-1$ //$NON-NLS-2$
+        String include = System.getProperty("benchmarks.include", ".*"); //$NON-NLS-1$ //$NON-NLS-2$
+        File output = new File(System.getProperty("benchmarks.output", "target/jmh")); //$NON-NLS-1$ //$NON-NLS-2$
+        if (!output.isDirectory() && !output.mkdirs()) {
+            throw new IllegalArgumentException("Can't create " + output); //$NON-NLS-1$
+        }
+
+        for (String count : threads.split(",")) { //$NON-NLS-1$
+            int threadCount = Integer.parseInt(count.trim());
+            File report = new File(output, version + "-t" + threadCount + ".json"); //$NON-NLS-1$ //$NON-NLS-2$
+            Options options = new OptionsBuilder()
+                    .include(include)
+                    .threads(threadCount)
+                    .resultFormat(ResultFormatType.JSON)
+                    .result(report.getPath())
+                    .build();
+            new Runner(options).run();
+        }
+    }
+
+}
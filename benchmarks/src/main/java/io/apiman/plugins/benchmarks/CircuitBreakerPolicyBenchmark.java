@@ -0,0 +1,105 @@
+package io.apiman.plugins.benchmarks;
+
+import io.apiman.gateway.engine.beans.ApiRequest;
+import io.apiman.gateway.engine.beans.ApiResponse;
+import io.apiman.plugins.benchmarks.support.BenchmarkPolicyChain;
+import io.apiman.plugins.benchmarks.support.BenchmarkPolicyContext;
+import io.apiman.plugins.benchmarks.support.Exchanges;
+import io.apiman.plugins.circuit_breaker.CircuitBreakerPolicy;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The circuit breaker policy on a healthy API: every response is checked
+ * against all the configured error codes and none of them match. Applying a
+ * response should not allocate, whatever the number of error codes; check
+ * with {@code -prof gc} that {@code responseApply}'s
+ * {@code gc.alloc.rate.norm} stays at zero.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+@SuppressWarnings("nls")
+public class CircuitBreakerPolicyBenchmark {
+
+    @Param({ "1", "10", "100" })
+    public int errorCodeCount;
+
+    @Param({ "4", "32" })
+    public int headerCount;
+
+    private CircuitBreakerPolicy policy;
+    private Object config;
+
+    @Setup
+    public void setup() {
+        StringBuilder errorCodes = new StringBuilder();
+        for (int i = 0; i < errorCodeCount; i++) {
+            errorCodes.append(i > 0 ? "," : "").append('"').append(500 + i).append('"');
+        }
+        policy = new CircuitBreakerPolicy();
+        config = policy.parseConfiguration("{ \"errorCodes\": [" + errorCodes + "], \"window\": 60, "
+                + "\"limit\": 5, \"reset\": 30, \"failureCode\": 503 }");
+        // Creates the API's circuit up front, so the threads only ever read the registry
+        Exchange exchange = new Exchange();
+        exchange.setup(this);
+        exchange(exchange);
+    }
+
+    /**
+     * The state of one benchmark thread's exchanges.
+     */
+    @State(Scope.Thread)
+    public static class Exchange {
+        BenchmarkPolicyContext context = new BenchmarkPolicyContext();
+        BenchmarkPolicyChain<ApiRequest> requestChain = new BenchmarkPolicyChain<>();
+        BenchmarkPolicyChain<ApiResponse> responseChain = new BenchmarkPolicyChain<>();
+        ApiRequest request;
+        ApiResponse response;
+
+        @Setup
+        public void setup(CircuitBreakerPolicyBenchmark benchmark) {
+            request = Exchanges.request("GET", "/items", benchmark.headerCount);
+            response = Exchanges.response(200, benchmark.headerCount);
+            // The request's attributes, for the benchmarks that only apply responses
+            benchmark.policy.apply(request, context, benchmark.config, requestChain);
+        }
+    }
+
+    @Benchmark
+    public Object requestApply(Exchange exchange) {
+        exchange.context.reset();
+        policy.apply(exchange.request, exchange.context, config, exchange.requestChain);
+        return exchange.requestChain.getHead();
+    }
+
+    @Benchmark
+    public Object responseApply(Exchange exchange) {
+        policy.apply(exchange.response, exchange.context, config, exchange.responseChain);
+        return exchange.responseChain.getHead();
+    }
+
+    @Benchmark
+    public Object exchange(Exchange exchange) {
+        exchange.context.reset();
+        policy.apply(exchange.request, exchange.context, config, exchange.requestChain);
+        policy.apply(exchange.response, exchange.context, config, exchange.responseChain);
+        return exchange.responseChain.getHead();
+    }
+
+}
@@ -0,0 +1,105 @@
+package io.apiman.plugins.benchmarks;
+
+import io.apiman.gateway.engine.beans.ApiRequest;
+import io.apiman.plugins.benchmarks.support.BenchmarkPolicyChain;
+import io.apiman.plugins.benchmarks.support.BenchmarkPolicyContext;
+import io.apiman.plugins.benchmarks.support.Exchanges;
+import io.apiman.plugins.jwt.JWTPolicy;
+import io.jsonwebtoken.JwtBuilder;
+import io.jsonwebtoken.Jwts;
+import io.jsonwebtoken.SignatureAlgorithm;
+
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.util.Base64;
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The JWT policy validating an RS256 signed bearer token, checking a required
+ * claim and forwarding another as a header.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+@SuppressWarnings("nls")
+public class JWTPolicyBenchmark {
+
+    @Param({ "1", "20" })
+    public int claimCount;
+
+    @Param({ "4", "32" })
+    public int headerCount;
+
+    private JWTPolicy policy;
+    private Object config;
+    private String authorization;
+
+    @Setup
+    public void setup() throws Exception {
+        KeyPair keyPair = KeyPairGenerator.getInstance("RSA").generateKeyPair();
+        JwtBuilder token = Jwts.builder()
+                .setSubject("benchmark")
+                .setIssuer("apiman")
+                .setExpiration(new Date(System.currentTimeMillis() + TimeUnit.DAYS.toMillis(1)));
+        for (int i = 0; i < claimCount; i++) {
+            token.claim("claim-" + i, "value-" + i);
+        }
+        authorization = "Bearer " + token.signWith(SignatureAlgorithm.RS256, keyPair.getPrivate()).compact();
+
+        policy = new JWTPolicy();
+        config = policy.parseConfiguration("{\n" +
+                "  \"requireJWT\": true,\n" +
+                "  \"requireSigned\": true,\n" +
+                "  \"requireTransportSecurity\": false,\n" +
+                "  \"stripTokens\": false,\n" +
+                "  \"signingKeyString\": \"" + Base64.getEncoder().encodeToString(keyPair.getPublic().getEncoded()) + "\",\n" +
+                "  \"allowedClockSkew\": 0,\n" +
+                "  \"requiredClaims\": [{ \"claimName\": \"sub\", \"claimValue\": \"benchmark\" }],\n" +
+                "  \"forwardAuthInfo\": [{ \"header\": \"X-Issuer\", \"field\": \"iss\" }]\n" +
+                "}");
+    }
+
+    /**
+     * The state of one benchmark thread's exchanges.
+     */
+    @State(Scope.Thread)
+    public static class Exchange {
+        BenchmarkPolicyContext context = new BenchmarkPolicyContext();
+        BenchmarkPolicyChain<ApiRequest> chain = new BenchmarkPolicyChain<>();
+        ApiRequest request;
+
+        @Setup
+        public void setup(JWTPolicyBenchmark benchmark) {
+            request = Exchanges.request("GET", "/items", benchmark.headerCount);
+            request.getHeaders().put("Authorization", benchmark.authorization);
+            benchmark.requestApply(this);
+            if (chain.getHead() == null) {
+                throw new IllegalStateException(chain.getFailure().getMessage());
+            }
+        }
+    }
+
+    @Benchmark
+    public Object requestApply(Exchange exchange) {
+        exchange.context.reset();
+        policy.apply(exchange.request, exchange.context, config, exchange.chain);
+        return exchange.chain.getHead();
+    }
+
+}
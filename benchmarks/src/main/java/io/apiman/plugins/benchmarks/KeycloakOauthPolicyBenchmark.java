@@ -0,0 +1,136 @@
+package io.apiman.plugins.benchmarks;
+
+import io.apiman.gateway.engine.beans.ApiRequest;
+import io.apiman.plugins.benchmarks.support.BenchmarkPolicyChain;
+import io.apiman.plugins.benchmarks.support.BenchmarkPolicyContext;
+import io.apiman.plugins.benchmarks.support.Exchanges;
+import io.apiman.plugins.keycloak_oauth_policy.KeycloakOauthPolicy;
+
+import java.io.StringWriter;
+import java.math.BigInteger;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.Security;
+import java.security.cert.X509Certificate;
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+
+import javax.security.auth.x500.X500Principal;
+
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.bouncycastle.util.io.pem.PemObject;
+import org.bouncycastle.util.io.pem.PemWriter;
+import org.bouncycastle.x509.X509V1CertificateGenerator;
+import org.keycloak.common.util.Time;
+import org.keycloak.jose.jws.JWSBuilder;
+import org.keycloak.representations.AccessToken;
+import org.keycloak.representations.AccessToken.Access;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The Keycloak OAuth policy verifying a realm-signed access token and
+ * forwarding its roles.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+@SuppressWarnings({ "nls", "deprecation" })
+public class KeycloakOauthPolicyBenchmark {
+
+    private static final String REALM = "apiman-realm";
+
+    @Param({ "1", "20" })
+    public int roleCount;
+
+    @Param({ "4", "32" })
+    public int headerCount;
+
+    private KeycloakOauthPolicy policy;
+    private Object config;
+    private String authorization;
+
+    @Setup
+    public void setup() throws Exception {
+        if (Security.getProvider("BC") == null) {
+            Security.addProvider(new BouncyCastleProvider());
+        }
+        KeyPair keyPair = KeyPairGenerator.getInstance("RSA").generateKeyPair();
+
+        X509V1CertificateGenerator certificateGenerator = new X509V1CertificateGenerator();
+        certificateGenerator.setSerialNumber(BigInteger.valueOf(System.currentTimeMillis()));
+        certificateGenerator.setIssuerDN(new X500Principal("CN=IDP"));
+        certificateGenerator.setSubjectDN(new X500Principal("CN=IDP"));
+        certificateGenerator.setNotBefore(new Date(System.currentTimeMillis() - TimeUnit.DAYS.toMillis(1)));
+        certificateGenerator.setNotAfter(new Date(System.currentTimeMillis() + TimeUnit.DAYS.toMillis(1)));
+        certificateGenerator.setPublicKey(keyPair.getPublic());
+        certificateGenerator.setSignatureAlgorithm("SHA256WithRSAEncryption");
+        X509Certificate certificate = certificateGenerator.generate(keyPair.getPrivate(), "BC");
+
+        AccessToken token = new AccessToken();
+        token.type("Bearer").subject("CN=Client").issuer(REALM);
+        token.notBefore(Time.currentTime() - 100);
+        token.expiration(Time.currentTime() + (int) TimeUnit.DAYS.toSeconds(1));
+        Access access = token.addAccess("apiman-api");
+        for (int i = 0; i < roleCount; i++) {
+            access.addRole("role-" + i);
+        }
+        authorization = "Bearer " + new JWSBuilder().jsonContent(token).rsa256(keyPair.getPrivate());
+
+        StringWriter pem = new StringWriter();
+        try (PemWriter writer = new PemWriter(pem)) {
+            writer.writeObject(new PemObject("CERTIFICATE", certificate.getEncoded()));
+        }
+
+        policy = new KeycloakOauthPolicy();
+        config = policy.parseConfiguration("{\n" +
+                "  \"requireOauth\": true,\n" +
+                "  \"requireTransportSecurity\": false,\n" +
+                "  \"blacklistUnsafeTokens\": false,\n" +
+                "  \"stripTokens\": false,\n" +
+                "  \"realm\": \"" + REALM + "\",\n" +
+                "  \"realmCertificateString\": \"" + pem.toString().replace("\r", "").replace("\n", "\\n") + "\",\n" +
+                "  \"forwardRoles\": { \"active\": true, \"applicationName\": \"apiman-api\" }\n" +
+                "}");
+    }
+
+    /**
+     * The state of one benchmark thread's exchanges.
+     */
+    @State(Scope.Thread)
+    public static class Exchange {
+        BenchmarkPolicyContext context = new BenchmarkPolicyContext();
+        BenchmarkPolicyChain<ApiRequest> chain = new BenchmarkPolicyChain<>();
+        ApiRequest request;
+
+        @Setup
+        public void setup(KeycloakOauthPolicyBenchmark benchmark) {
+            request = Exchanges.request("GET", "/items", benchmark.headerCount);
+            request.getHeaders().put("Authorization", benchmark.authorization);
+            benchmark.requestApply(this);
+            if (chain.getHead() == null) {
+                throw new IllegalStateException(chain.getFailure().getMessage());
+            }
+        }
+    }
+
+    @Benchmark
+    public Object requestApply(Exchange exchange) {
+        exchange.context.reset();
+        policy.apply(exchange.request, exchange.context, config, exchange.chain);
+        return exchange.chain.getHead();
+    }
+
+}
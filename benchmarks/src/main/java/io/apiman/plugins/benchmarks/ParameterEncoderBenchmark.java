@@ -0,0 +1,63 @@
+package io.apiman.plugins.benchmarks;
+
+import io.apiman.plugins.auth3scale.util.ParameterEncoder;
+import io.apiman.plugins.auth3scale.util.ParameterMap;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Encoding of the 3scale authrep and report parameters, done for every request
+ * the 3scale policy authorizes or reports.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+@SuppressWarnings("nls")
+public class ParameterEncoderBenchmark {
+
+    @Param({ "1", "10", "100" })
+    public int transactionCount;
+
+    private ParameterEncoder encoder;
+    private ParameterMap params;
+
+    @Setup
+    public void setup() {
+        encoder = new ParameterEncoder();
+        params = new ParameterMap();
+        params.add("service_token", "0123456789abcdef");
+        params.add("service_id", "2555417735060");
+        ParameterMap[] transactions = new ParameterMap[transactionCount];
+        for (int i = 0; i < transactionCount; i++) {
+            ParameterMap usage = new ParameterMap();
+            usage.add("hits", "1");
+            ParameterMap transaction = new ParameterMap();
+            transaction.add("user_key", "user key " + i);
+            transaction.add("timestamp", "2018-06-12 17:49:00 +0000");
+            transaction.add("usage", usage);
+            transactions[i] = transaction;
+        }
+        params.add("transactions", transactions);
+    }
+
+    @Benchmark
+    public String encode() {
+        return encoder.encode(params);
+    }
+
+}
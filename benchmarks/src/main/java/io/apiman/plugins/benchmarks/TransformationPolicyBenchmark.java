@@ -0,0 +1,164 @@
+package io.apiman.plugins.benchmarks;
+
+import io.apiman.gateway.engine.beans.ApiRequest;
+import io.apiman.gateway.engine.beans.ApiResponse;
+import io.apiman.gateway.engine.components.IBufferFactoryComponent;
+import io.apiman.gateway.engine.io.IReadWriteStream;
+import io.apiman.plugins.benchmarks.support.BenchmarkPolicyChain;
+import io.apiman.plugins.benchmarks.support.BenchmarkPolicyContext;
+import io.apiman.plugins.benchmarks.support.DataSink;
+import io.apiman.plugins.benchmarks.support.Exchanges;
+import io.apiman.plugins.transformation_policy.TransformationPolicy;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The transformation policy: a JSON client of an XML API, with request bodies
+ * transformed from JSON to XML and response bodies from XML to JSON.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+@SuppressWarnings("nls")
+public class TransformationPolicyBenchmark {
+
+    private static final int CHUNK_SIZE = 8192;
+
+    @Param({ "1024", "65536", "1048576" })
+    public int payloadSize;
+
+    @Param({ "4", "32" })
+    public int headerCount;
+
+    @Param({ "false", "true" })
+    public boolean streaming;
+
+    private TransformationPolicy policy;
+    private Object config;
+    private List<byte[]> jsonChunks;
+    private List<byte[]> xmlChunks;
+
+    @Setup
+    public void setup() {
+        policy = new TransformationPolicy();
+        config = policy.parseConfiguration("{ \"clientFormat\": \"JSON\", \"serverFormat\": \"XML\", "
+                + "\"streaming\": " + streaming + " }");
+        jsonChunks = chunks(json(payloadSize));
+        xmlChunks = chunks(xml(payloadSize));
+    }
+
+    /**
+     * The state of one benchmark thread's exchanges.
+     */
+    @State(Scope.Thread)
+    public static class Exchange {
+        BenchmarkPolicyContext context = new BenchmarkPolicyContext();
+        BenchmarkPolicyChain<ApiRequest> requestChain = new BenchmarkPolicyChain<>();
+        BenchmarkPolicyChain<ApiResponse> responseChain = new BenchmarkPolicyChain<>();
+        DataSink sink = new DataSink();
+        ApiRequest request;
+        ApiResponse response;
+
+        @Setup
+        public void setup(TransformationPolicyBenchmark benchmark) {
+            request = Exchanges.request("POST", "/items", benchmark.headerCount);
+            response = Exchanges.response(200, benchmark.headerCount);
+        }
+
+        void begin(String requestContentType, String responseContentType) {
+            context.reset();
+            request.getHeaders().put("Content-Type", requestContentType);
+            response.getHeaders().put("Content-Type", responseContentType);
+        }
+    }
+
+    @Benchmark
+    public Object requestApply(Exchange exchange) {
+        exchange.begin("application/json", "application/xml");
+        policy.apply(exchange.request, exchange.context, config, exchange.requestChain);
+        return exchange.requestChain.getHead();
+    }
+
+    @Benchmark
+    public long requestData(Exchange exchange) {
+        exchange.begin("application/json", "application/xml");
+        policy.apply(exchange.request, exchange.context, config, exchange.requestChain);
+        return send(policy.getRequestDataHandler(exchange.request, exchange.context, config), jsonChunks,
+                exchange);
+    }
+
+    @Benchmark
+    public long responseData(Exchange exchange) {
+        exchange.begin("application/json", "application/xml");
+        policy.apply(exchange.request, exchange.context, config, exchange.requestChain);
+        policy.apply(exchange.response, exchange.context, config, exchange.responseChain);
+        return send(policy.getResponseDataHandler(exchange.response, exchange.context, config), xmlChunks,
+                exchange);
+    }
+
+    private static long send(IReadWriteStream<?> handler, List<byte[]> chunks, Exchange exchange) {
+        IBufferFactoryComponent bufferFactory = exchange.context.getComponent(IBufferFactoryComponent.class);
+        exchange.sink.attach(handler);
+        for (byte[] chunk : chunks) {
+            handler.write(bufferFactory.createBuffer(chunk));
+        }
+        handler.end();
+        return exchange.sink.getBytes();
+    }
+
+    private static List<byte[]> chunks(String body) {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        List<byte[]> chunks = new ArrayList<>();
+        for (int offset = 0; offset < bytes.length; offset += CHUNK_SIZE) {
+            chunks.add(Arrays.copyOfRange(bytes, offset, Math.min(bytes.length, offset + CHUNK_SIZE)));
+        }
+        return chunks;
+    }
+
+    /**
+     * @return a JSON document of about the given size
+     */
+    static String json(int size) {
+        StringBuilder json = new StringBuilder("{\"items\":{\"item\":[");
+        for (int i = 0; json.length() < size; i++) {
+            if (i > 0) {
+                json.append(',');
+            }
+            json.append("{\"id\":").append(i).append(",\"name\":\"item ").append(i)
+                    .append("\",\"price\":").append(i).append(".99,\"tags\":[\"a\",\"b\"]}");
+        }
+        return json.append("]}}").toString();
+    }
+
+    /**
+     * @return an XML document of about the given size
+     */
+    static String xml(int size) {
+        StringBuilder xml = new StringBuilder("<?xml version=\"1.0\" encoding=\"UTF-8\"?><items>");
+        for (int i = 0; xml.length() < size; i++) {
+            xml.append("<item id=\"").append(i).append("\"><name>item ").append(i).append("</name><price>")
+                    .append(i).append(".99</price><tag>a</tag><tag>b</tag></item>");
+        }
+        return xml.append("</items>").toString();
+    }
+
+}
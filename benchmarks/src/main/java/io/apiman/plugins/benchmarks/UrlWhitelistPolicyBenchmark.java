@@ -0,0 +1,79 @@
+package io.apiman.plugins.benchmarks;
+
+import io.apiman.gateway.engine.beans.ApiRequest;
+import io.apiman.plugins.benchmarks.support.BenchmarkPolicyChain;
+import io.apiman.plugins.benchmarks.support.BenchmarkPolicyContext;
+import io.apiman.plugins.benchmarks.support.Exchanges;
+import io.apiman.plugins.urlwhitelist.UrlWhitelistPolicy;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The URL whitelist policy, with a request that only the last of the rules
+ * permits.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+@SuppressWarnings("nls")
+public class UrlWhitelistPolicyBenchmark {
+
+    @Param({ "1", "10", "100" })
+    public int ruleCount;
+
+    @Param({ "4", "32" })
+    public int headerCount;
+
+    private UrlWhitelistPolicy policy;
+    private Object config;
+
+    @Setup
+    public void setup() {
+        StringBuilder rules = new StringBuilder();
+        for (int i = 0; i < ruleCount; i++) {
+            rules.append(i > 0 ? "," : "").append("{ \"regex\": \"/resources/").append(i)
+                    .append("(/.*)?\", \"methodGet\": true }");
+        }
+        policy = new UrlWhitelistPolicy();
+        config = policy.parseConfiguration("{ \"removePathPrefix\": true, \"whitelist\": [" + rules + "] }");
+    }
+
+    /**
+     * The state of one benchmark thread's exchanges.
+     */
+    @State(Scope.Thread)
+    public static class Exchange {
+        BenchmarkPolicyContext context = new BenchmarkPolicyContext();
+        BenchmarkPolicyChain<ApiRequest> chain = new BenchmarkPolicyChain<>();
+        ApiRequest request;
+
+        @Setup
+        public void setup(UrlWhitelistPolicyBenchmark benchmark) {
+            request = Exchanges.request("GET", "/resources/" + (benchmark.ruleCount - 1) + "/items",
+                    benchmark.headerCount);
+        }
+    }
+
+    @Benchmark
+    public Object requestApply(Exchange exchange) {
+        exchange.context.reset();
+        policy.apply(exchange.request, exchange.context, config, exchange.chain);
+        return exchange.chain.getHead();
+    }
+
+}
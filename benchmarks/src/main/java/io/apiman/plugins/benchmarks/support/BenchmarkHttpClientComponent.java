@@ -0,0 +1,119 @@
+package io.apiman.plugins.benchmarks.support;
+
+import io.apiman.gateway.engine.async.AsyncResultImpl;
+import io.apiman.gateway.engine.async.IAsyncResultHandler;
+import io.apiman.gateway.engine.components.IHttpClientComponent;
+import io.apiman.gateway.engine.components.http.HttpMethod;
+import io.apiman.gateway.engine.components.http.IHttpClientRequest;
+import io.apiman.gateway.engine.components.http.IHttpClientResponse;
+import io.apiman.gateway.engine.io.IApimanBuffer;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * An HTTP client that answers from canned responses instead of the network, so
+ * that policies calling out (token endpoints, key sets, backends) can be
+ * measured without measuring a server. Requests complete synchronously on
+ * {@link IHttpClientRequest#end()}; URLs without a canned response get a 404.
+ */
+public class BenchmarkHttpClientComponent implements IHttpClientComponent {
+
+    private final Map<String, CannedResponse> responses = new ConcurrentHashMap<>();
+
+    /**
+     * Sets the response to the given URL.
+     * @param url the URL
+     * @param code the response code
+     * @param headers the response headers
+     * @param body the response body
+     * @return this component
+     */
+    public BenchmarkHttpClientComponent respond(String url, int code, Map<String, String> headers, String body) {
+        responses.put(url, new CannedResponse(code, headers, body));
+        return this;
+    }
+
+    @Override
+    public IHttpClientRequest request(String endpoint, HttpMethod method,
+            IAsyncResultHandler<IHttpClientResponse> handler) {
+        return new IHttpClientRequest() {
+
+            @Override
+            public void setConnectTimeout(int connectTimeoutMs) {
+            }
+
+            @Override
+            public void setReadTimeout(int readTimeoutMs) {
+            }
+
+            @Override
+            public void addHeader(String header, String value) {
+            }
+
+            @Override
+            public void removeHeader(String header) {
+            }
+
+            @Override
+            public void write(IApimanBuffer buffer) {
+            }
+
+            @Override
+            public void write(byte[] data) {
+            }
+
+            @Override
+            public void write(String body, String charsetName) {
+            }
+
+            @Override
+            public void end() {
+                CannedResponse response = responses.get(endpoint);
+                handler.handle(AsyncResultImpl.<IHttpClientResponse>create(
+                        response != null ? response : CannedResponse.NOT_FOUND));
+            }
+        };
+    }
+
+    private static final class CannedResponse implements IHttpClientResponse {
+
+        static final CannedResponse NOT_FOUND = new CannedResponse(404, Collections.emptyMap(), ""); //$NON-NLS-1$
+
+        private final int code;
+        private final Map<String, String> headers;
+        private final String body;
+
+        CannedResponse(int code, Map<String, String> headers, String body) {
+            this.code = code;
+            this.headers = headers;
+            this.body = body;
+        }
+
+        @Override
+        public int getResponseCode() {
+            return code;
+        }
+
+        @Override
+        public String getResponseMessage() {
+            return String.valueOf(code);
+        }
+
+        @Override
+        public String getHeader(String header) {
+            return headers.get(header);
+        }
+
+        @Override
+        public String getBody() {
+            return body;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+}
@@ -0,0 +1,72 @@
+package io.apiman.plugins.benchmarks.support;
+
+import io.apiman.gateway.engine.beans.PolicyFailure;
+import io.apiman.gateway.engine.policy.IPolicyChain;
+
+/**
+ * A policy chain that remembers how the last policy finished, so benchmarks
+ * can hand the outcome to JMH and check it in their setup. Errors are thrown
+ * straight away since a benchmark that errors measures nothing useful.
+ *
+ * @param <H> the head type
+ */
+public class BenchmarkPolicyChain<H> implements IPolicyChain<H> {
+
+    private H head;
+    private PolicyFailure failure;
+    private long applied;
+    private long failed;
+
+    @Override
+    public void doApply(H head) {
+        this.head = head;
+        this.failure = null;
+        applied++;
+    }
+
+    @Override
+    public void doSkip(H head) {
+        doApply(head);
+    }
+
+    @Override
+    public void doFailure(PolicyFailure failure) {
+        this.head = null;
+        this.failure = failure;
+        failed++;
+    }
+
+    @Override
+    public void throwError(Throwable error) {
+        throw new IllegalStateException(error);
+    }
+
+    /**
+     * @return the head passed on by the last policy, or null if it failed
+     */
+    public H getHead() {
+        return head;
+    }
+
+    /**
+     * @return the failure reported by the last policy, or null if it didn't fail
+     */
+    public PolicyFailure getFailure() {
+        return failure;
+    }
+
+    /**
+     * @return the number of times a policy passed the head on
+     */
+    public long getApplied() {
+        return applied;
+    }
+
+    /**
+     * @return the number of times a policy failed
+     */
+    public long getFailed() {
+        return failed;
+    }
+
+}
@@ -0,0 +1,121 @@
+package io.apiman.plugins.benchmarks.support;
+
+import io.apiman.common.logging.IApimanLogger;
+import io.apiman.common.logging.impl.NoOpLoggerFactory;
+import io.apiman.gateway.engine.IComponent;
+import io.apiman.gateway.engine.IConnectorConfig;
+import io.apiman.gateway.engine.beans.exceptions.ComponentNotFoundException;
+import io.apiman.gateway.engine.beans.exceptions.InterceptorAlreadyRegisteredException;
+import io.apiman.gateway.engine.components.IBufferFactoryComponent;
+import io.apiman.gateway.engine.components.IPolicyFailureFactoryComponent;
+import io.apiman.gateway.engine.components.ISharedStateComponent;
+import io.apiman.gateway.engine.impl.ByteBufferFactoryComponent;
+import io.apiman.gateway.engine.impl.DefaultPolicyFailureFactoryComponent;
+import io.apiman.gateway.engine.impl.InMemorySharedStateComponent;
+import io.apiman.gateway.engine.policy.IConnectorInterceptor;
+import io.apiman.gateway.engine.policy.IPolicyContext;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * An in-memory policy context. The components a gateway would usually provide
+ * (buffers, failures, shared state) are registered up front and more can be
+ * added with {@link #register(Class, IComponent)}. A context belongs to a single
+ * benchmark thread, like a real one belongs to a single exchange, and is
+ * {@link #reset()} between exchanges.
+ */
+public class BenchmarkPolicyContext implements IPolicyContext {
+
+    private static final IApimanLogger LOGGER = new NoOpLoggerFactory();
+
+    private final Map<String, Object> attributes = new HashMap<>();
+    private final Map<Class<?>, IComponent> components = new HashMap<>();
+    private IConnectorInterceptor connectorInterceptor;
+    private IConnectorConfig connectorConfig;
+
+    /**
+     * Constructor.
+     */
+    public BenchmarkPolicyContext() {
+        register(IBufferFactoryComponent.class, new ByteBufferFactoryComponent());
+        register(IPolicyFailureFactoryComponent.class, new DefaultPolicyFailureFactoryComponent());
+        register(ISharedStateComponent.class, new InMemorySharedStateComponent());
+    }
+
+    /**
+     * Registers a component, replacing any registered for the same type.
+     * @param type the component type
+     * @param component the component
+     * @return this context
+     */
+    public <T extends IComponent> BenchmarkPolicyContext register(Class<T> type, T component) {
+        components.put(type, component);
+        return this;
+    }
+
+    /**
+     * Forgets the attributes and interceptor of the previous exchange.
+     */
+    public void reset() {
+        attributes.clear();
+        connectorInterceptor = null;
+        connectorConfig = null;
+    }
+
+    @Override
+    public void setAttribute(String name, Object value) {
+        attributes.put(name, value);
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public <T> T getAttribute(String name, T defaultValue) {
+        Object value = attributes.get(name);
+        return value == null ? defaultValue : (T) value;
+    }
+
+    @Override
+    public boolean removeAttribute(String name) {
+        return attributes.remove(name) != null;
+    }
+
+    @Override
+    public <T extends IComponent> T getComponent(Class<T> componentClass) throws ComponentNotFoundException {
+        IComponent component = components.get(componentClass);
+        if (component == null) {
+            throw new ComponentNotFoundException(componentClass.getName());
+        }
+        return componentClass.cast(component);
+    }
+
+    @Override
+    public void setConnectorInterceptor(IConnectorInterceptor connectorInterceptor)
+            throws InterceptorAlreadyRegisteredException {
+        if (this.connectorInterceptor != null) {
+            throw new InterceptorAlreadyRegisteredException(this.connectorInterceptor.getClass());
+        }
+        this.connectorInterceptor = connectorInterceptor;
+    }
+
+    @Override
+    public IConnectorInterceptor getConnectorInterceptor() {
+        return connectorInterceptor;
+    }
+
+    @Override
+    public IApimanLogger getLogger(Class<?> klazz) {
+        return LOGGER;
+    }
+
+    @Override
+    public IConnectorConfig getConnectorConfiguration() {
+        return connectorConfig;
+    }
+
+    @Override
+    public void setConnectorConfiguration(IConnectorConfig connectorConfig) {
+        this.connectorConfig = connectorConfig;
+    }
+
+}
@@ -0,0 +1,50 @@
+package io.apiman.plugins.benchmarks.support;
+
+import io.apiman.gateway.engine.async.IAsyncHandler;
+import io.apiman.gateway.engine.io.IApimanBuffer;
+import io.apiman.gateway.engine.io.IReadWriteStream;
+
+/**
+ * Receives what a policy's data handler writes downstream, counting the bytes.
+ */
+public class DataSink {
+
+    private long bytes;
+    private boolean ended;
+
+    /**
+     * Makes this sink the downstream of a data handler.
+     * @param handler the data handler
+     */
+    public void attach(IReadWriteStream<?> handler) {
+        bytes = 0;
+        ended = false;
+        handler.bodyHandler(new IAsyncHandler<IApimanBuffer>() {
+            @Override
+            public void handle(IApimanBuffer chunk) {
+                bytes += chunk.length();
+            }
+        });
+        handler.endHandler(new IAsyncHandler<Void>() {
+            @Override
+            public void handle(Void result) {
+                ended = true;
+            }
+        });
+    }
+
+    /**
+     * @return the number of bytes received
+     */
+    public long getBytes() {
+        return bytes;
+    }
+
+    /**
+     * @return true once the data handler has ended
+     */
+    public boolean isEnded() {
+        return ended;
+    }
+
+}
@@ -0,0 +1,58 @@
+package io.apiman.plugins.benchmarks.support;
+
+import io.apiman.gateway.engine.beans.ApiRequest;
+import io.apiman.gateway.engine.beans.ApiResponse;
+import io.apiman.gateway.engine.beans.util.HeaderMap;
+
+/**
+ * Builds the requests and responses the benchmarks send through the policies.
+ */
+public final class Exchanges {
+
+    public static final String ORG_ID = "BenchmarkOrg"; //$NON-NLS-1$
+    public static final String API_ID = "BenchmarkApi"; //$NON-NLS-1$
+    public static final String API_VERSION = "1.0"; //$NON-NLS-1$
+
+    private Exchanges() {
+    }
+
+    /**
+     * Returns a request to the benchmark API.
+     * @param method the HTTP method
+     * @param path the path of the request within the API
+     * @param headerCount the number of headers the request carries
+     */
+    public static ApiRequest request(String method, String path, int headerCount) {
+        ApiRequest request = new ApiRequest();
+        request.setType(method);
+        request.setApiOrgId(ORG_ID);
+        request.setApiId(API_ID);
+        request.setApiVersion(API_VERSION);
+        request.setDestination(path);
+        request.setUrl("http://localhost:8080/apiman-gateway/" + ORG_ID + '/' + API_ID + '/' //$NON-NLS-1$
+                + API_VERSION + path);
+        request.setRemoteAddr("127.0.0.1"); //$NON-NLS-1$
+        addHeaders(request.getHeaders(), headerCount);
+        return request;
+    }
+
+    /**
+     * Returns a response from the benchmark API.
+     * @param code the response code
+     * @param headerCount the number of headers the response carries
+     */
+    public static ApiResponse response(int code, int headerCount) {
+        ApiResponse response = new ApiResponse();
+        response.setCode(code);
+        response.setMessage(String.valueOf(code));
+        addHeaders(response.getHeaders(), headerCount);
+        return response;
+    }
+
+    private static void addHeaders(HeaderMap headers, int count) {
+        for (int i = 0; i < count; i++) {
+            headers.put("X-Benchmark-Header-" + i, "value-" + i); //$NON-NLS-1$ //$NON-NLS-2$
+        }
+    }
+
+}
@@ -16,26 +16,88 @@
 
 package io.apiman.plugins.circuit_breaker;
 
-import java.util.Date;
-import java.util.HashSet;
-import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
+ * A circuit, closed (requests go through), broken (requests fail immediately)
+ * or being reset (a limited number of probe requests go through to see whether
+ * the back-end API has recovered).  The state, the number of probes in flight
+ * and the number of successful probes are kept in a single atomic word, so
+ * concurrent requests agree on who gets to probe.  Once the circuit closes
+ * again, traffic can be let back in gradually over a ramp up time.  A circuit
+ * can also trip when too many of its calls are slow, see
+ * {@link #slowCalls(int, int, int, int)}.  What goes on is counted in the
+ * circuit's {@link CircuitMetrics}, and state changes can be pushed to a
+ * {@link CircuitListener}.
+ *
  * @author eric.wittmann@gmail.com
  */
 public class Circuit {
-    
+
+    /**
+     * What a request may do, decided by {@link Circuit#admit()}.
+     */
+    public enum Admission {
+        /** The request goes through. */
+        PASS,
+        /** The request goes through as a probe of a circuit being reset. */
+        PROBE,
+        /** The request must fail. */
+        REJECT
+    }
+
+    /**
+     * The state of a circuit.
+     */
+    public enum State {
+        /** Requests go through. */
+        CLOSED,
+        /** Requests fail immediately. */
+        BROKEN,
+        /** Probe requests go through. */
+        RESETTING
+    }
+
+    private static final long CLOSED = 0;
+    private static final long BROKEN = 1;
+    private static final long RESETTING = 2;
+    private static final int STATE_BITS = 2;
+    private static final long STATE_MASK = (1L << STATE_BITS) - 1;
+    private static final int COUNT_BITS = 20;
+    private static final long COUNT_MASK = (1L << COUNT_BITS) - 1;
+    private static final int PROBES_SHIFT = STATE_BITS;
+    private static final int SUCCESSES_SHIFT = STATE_BITS + COUNT_BITS;
+    private static final int MIN_PROBE_TIMEOUT_MILLIS = 30000;
+
     private final int limit;
     private final int timeWindowMillis;
     private final int resetMillis;
-    
-    private boolean broken;
-    private Set<CircuitFault> faults = new HashSet<>();
-    private Date resetOn;
-    private Date hardResetOn;
-    
-    private boolean resetting;
-    
+    private final int probes;
+    private final int probeSuccesses;
+    private final int rampUpMillis;
+    private final int rampUpStart;
+    private final int probeTimeoutMillis;
+
+    private final AtomicLong state = new AtomicLong(CLOSED);
+    private final FaultCounter faults;
+    private volatile long resetOn;
+    private volatile long probesExpireOn;
+    private volatile long rampUpUntil;
+    private volatile int remoteFaults;
+    private final AtomicLong nextSync = new AtomicLong();
+    private volatile boolean syncPending;
+
+    private LatencyHistogram latencies;
+    private int slowCallRate;
+    private int slowCallPercentile;
+    private int minimumCalls;
+    private long slowCallMillis;
+
+    private final CircuitMetrics metrics = new CircuitMetrics(this);
+    private CircuitKey key;
+    private CircuitListener listener;
+
     /**
      * Constructor.
      * @param limit the # of faults that will trip the circuit
@@ -43,36 +105,264 @@ public class Circuit {
      * @param reset the reset time in seconds
      */
     public Circuit(int limit, int timeWindow, int reset) {
+        this(limit, timeWindow, reset, 1, 1, 0, 100);
+    }
+
+    /**
+     * Constructor.
+     * @param limit the # of faults that will trip the circuit
+     * @param timeWindow the time window in seconds
+     * @param reset the reset time in seconds
+     * @param probes the # of probes let through at once while resetting
+     * @param probeSuccesses the # of successful probes that close the circuit
+     * @param rampUp the ramp up time in seconds
+     * @param rampUpStart the percentage of requests let through when the ramp up starts
+     */
+    public Circuit(int limit, int timeWindow, int reset, int probes, int probeSuccesses, int rampUp,
+            int rampUpStart) {
         this.limit = limit;
         this.timeWindowMillis = timeWindow * 1000;
         this.resetMillis = reset * 1000;
+        this.probes = (int) Math.min(COUNT_MASK, Math.max(1, probes));
+        this.probeSuccesses = (int) Math.min(COUNT_MASK, Math.max(1, probeSuccesses));
+        this.rampUpMillis = Math.max(0, rampUp) * 1000;
+        this.rampUpStart = Math.min(100, Math.max(0, rampUpStart));
+        this.probeTimeoutMillis = Math.max(this.resetMillis, MIN_PROBE_TIMEOUT_MILLIS);
+        this.faults = new FaultCounter(this.timeWindowMillis);
     }
 
     /**
-     * @return the broken
+     * Turns on slow call detection: the circuit trips once, within the time
+     * window, the given percentage of its calls took at least the slow call
+     * time, or the given percentile of its response times reached it.  Must
+     * be called before the circuit is used.
+     * @param slowCall the response time in milliseconds from which a call is slow, 0 to turn detection off
+     * @param slowCallRate the percentage of slow calls that trips the circuit, 0 for none
+     * @param slowCallPercentile the response time percentile that trips the circuit, 0 for none
+     * @param minimumCalls the # of calls in the time window needed to tell that the back end is slow
+     * @return this circuit
      */
-    public boolean isBroken() {
-        if (this.hardResetOn != null) {
-            long now = System.currentTimeMillis();
-            if (now >= this.hardResetOn.getTime()) {
-                reset();
+    public Circuit slowCalls(int slowCall, int slowCallRate, int slowCallPercentile, int minimumCalls) {
+        if (slowCall > 0 && (slowCallRate > 0 || slowCallPercentile > 0)) {
+            this.slowCallMillis = slowCall;
+            this.slowCallRate = Math.min(100, slowCallRate);
+            this.slowCallPercentile = Math.min(100, slowCallPercentile);
+            this.minimumCalls = Math.max(1, minimumCalls);
+            this.latencies = new LatencyHistogram(this.timeWindowMillis, slowCall);
+        }
+        return this;
+    }
+
+    /**
+     * Pushes the state changes of the circuit to a listener.  Must be called
+     * before the circuit is used.
+     * @param key the API of the circuit
+     * @param listener the listener
+     * @return this circuit
+     */
+    public Circuit observe(CircuitKey key, CircuitListener listener) {
+        this.key = key;
+        this.listener = listener;
+        return this;
+    }
+
+    /**
+     * @return the metrics of the circuit
+     */
+    public CircuitMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * @return the state of the circuit
+     */
+    public State getState() {
+        return State.values()[(int) (state.get() & STATE_MASK)];
+    }
+
+    /**
+     * @return true if slow call detection is on
+     */
+    public boolean isDetectingSlowCalls() {
+        return latencies != null;
+    }
+
+    /**
+     * @param latencyMillis a response time
+     * @return true if a call that took that long is slow
+     */
+    public boolean isSlowCall(long latencyMillis) {
+        return latencies != null && latencyMillis >= slowCallMillis;
+    }
+
+    /**
+     * Records the response time of a call that went through the closed circuit,
+     * tripping it if the back end has become too slow.
+     * @param latencyMillis the response time
+     */
+    public void addCall(long latencyMillis) {
+        if (latencies == null) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        // Only a slow call can make things worse, so only a slow call is worth a look
+        if (latencies.record(now, latencyMillis)) {
+            metrics.slowCalls.increment();
+            if (state.get() == CLOSED && isTooSlow(now)) {
+                trip();
             }
         }
-        return broken;
+    }
+
+    private boolean isTooSlow(long now) {
+        long calls = latencies.getCalls(now);
+        if (calls < minimumCalls) {
+            return false;
+        }
+        if (slowCallRate > 0 && latencies.getSlowCalls(now) * 100 >= slowCallRate * calls) {
+            return true;
+        }
+        return slowCallPercentile > 0 && latencies.isPercentileSlow(now, slowCallPercentile);
+    }
+
+    /**
+     * Decides whether a request may go through the circuit.  A request let
+     * through as a {@link Admission#PROBE} must be followed by a call to
+     * {@link #trip()} or {@link #probeSucceeded()} once its outcome is known.
+     */
+    public Admission admit() {
+        long now = System.currentTimeMillis();
+        while (true) {
+            long word = state.get();
+            long current = word & STATE_MASK;
+            if (current == CLOSED) {
+                return counted(rampUp(now) ? Admission.PASS : Admission.REJECT);
+            }
+            if (current == BROKEN) {
+                if (now < resetOn) {
+                    return counted(Admission.REJECT);
+                }
+                if (state.compareAndSet(word, RESETTING | (1L << PROBES_SHIFT))) {
+                    probesExpireOn = now + probeTimeoutMillis;
+                    changed(BROKEN, RESETTING, now);
+                    return counted(Admission.PROBE);
+                }
+            } else {
+                long inFlight = (word >>> PROBES_SHIFT) & COUNT_MASK;
+                if (inFlight < probes) {
+                    if (state.compareAndSet(word, word + (1L << PROBES_SHIFT))) {
+                        probesExpireOn = now + probeTimeoutMillis;
+                        return counted(Admission.PROBE);
+                    }
+                } else if (now >= probesExpireOn) {
+                    // Probes that never came back (e.g. the connection failed) give up their
+                    // permits after the reset time (at least 30s)
+                    long reclaimed = (word & ~(COUNT_MASK << PROBES_SHIFT)) | (1L << PROBES_SHIFT);
+                    if (state.compareAndSet(word, reclaimed)) {
+                        probesExpireOn = now + probeTimeoutMillis;
+                        return counted(Admission.PROBE);
+                    }
+                } else {
+                    return counted(Admission.REJECT);
+                }
+            }
+        }
+    }
+
+    private Admission counted(Admission admission) {
+        if (admission == Admission.REJECT) {
+            metrics.rejections.increment();
+        } else {
+            metrics.calls.increment();
+            if (admission == Admission.PROBE) {
+                metrics.probes.increment();
+            }
+        }
+        return admission;
+    }
+
+    /**
+     * Counts a state change and tells the listener about it.
+     */
+    private void changed(long from, long to, long now) {
+        if (to == BROKEN) {
+            metrics.trips.increment();
+            if (from == CLOSED) {
+                metrics.opened(now);
+            }
+        } else if (to == RESETTING) {
+            metrics.resets.increment();
+        } else {
+            metrics.closes.increment();
+            metrics.closed(now);
+        }
+        CircuitListener listener = this.listener;
+        if (listener != null) {
+            try {
+                listener.stateChanged(key, State.values()[(int) from], State.values()[(int) to], metrics);
+            } catch (RuntimeException e) {
+                // A failing listener must not fail the request that changed the state
+            }
+        }
+    }
+
+    /**
+     * Returns true if a request may go through a closed circuit that may still
+     * be ramping up.
+     */
+    private boolean rampUp(long now) {
+        long until = rampUpUntil;
+        if (until == 0 || now >= until) {
+            return true;
+        }
+        long elapsed = rampUpMillis - (until - now);
+        long percent = rampUpStart + (100 - rampUpStart) * elapsed / rampUpMillis;
+        return ThreadLocalRandom.current().nextInt(100) < percent;
+    }
+
+    /**
+     * Records a successful probe, closing the circuit once enough of them have
+     * succeeded.
+     */
+    public void probeSucceeded() {
+        while (true) {
+            long word = state.get();
+            if ((word & STATE_MASK) != RESETTING) {
+                return;
+            }
+            long inFlight = (word >>> PROBES_SHIFT) & COUNT_MASK;
+            long successes = ((word >>> SUCCESSES_SHIFT) & COUNT_MASK) + 1;
+            if (successes >= probeSuccesses) {
+                if (close(word)) {
+                    return;
+                }
+            } else if (state.compareAndSet(word, RESETTING | (Math.max(0, inFlight - 1) << PROBES_SHIFT)
+                    | (successes << SUCCESSES_SHIFT))) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * @return true if the circuit is broken or being reset
+     */
+    public boolean isBroken() {
+        return (state.get() & STATE_MASK) != CLOSED;
     }
 
     /**
      * Trip (open) the circuit.
      */
     public void trip() {
-        synchronized (faults) {
-            this.resetOn = new Date(System.currentTimeMillis() + this.resetMillis);
-            if (this.hardResetOn == null) {
-                this.hardResetOn = new Date(System.currentTimeMillis() + this.resetMillis * 10);
-            }
-            this.broken = true;
-            this.faults.clear();
-            this.resetting = false;
+        long now = System.currentTimeMillis();
+        resetOn = now + this.resetMillis;
+        long previous = state.getAndSet(BROKEN) & STATE_MASK;
+        faults.clear();
+        clearLatencies();
+        remoteFaults = 0;
+        syncPending = true;
+        if (previous != BROKEN) {
+            changed(previous, BROKEN, now);
         }
     }
 
@@ -81,77 +371,124 @@ public class Circuit {
      * is successful.
      */
     public boolean reset() {
-        if (this.resetting == false) {
+        long word = state.get();
+        return (word & STATE_MASK) == RESETTING && close(word);
+    }
+
+    private boolean close(long word) {
+        if (!state.compareAndSet(word, CLOSED)) {
             return false;
         }
-        synchronized (faults) {
-            faults.clear();
-            broken = false;
-            resetOn = null;
-            hardResetOn = null;
-            resetting = false;
-            return true;
+        faults.clear();
+        clearLatencies();
+        remoteFaults = 0;
+        long now = System.currentTimeMillis();
+        if (rampUpMillis > 0 && rampUpStart < 100) {
+            rampUpUntil = now + rampUpMillis;
+        }
+        changed(RESETTING, CLOSED, now);
+        return true;
+    }
+
+    private void clearLatencies() {
+        if (latencies != null) {
+            latencies.clear();
         }
     }
 
     /**
-     * Adds a fault to the circuit.  
+     * Adds a fault to the circuit.  A fault while the circuit is being reset
+     * breaks it again.
      */
     public void addFault() {
-        synchronized (faults) {
-            faults.add(new CircuitFault());
-            filterFaults();
-            if (faults.size() >= this.limit || isResetting()) {
-                trip();
-            }
+        metrics.faults.increment();
+        if (isResetting()) {
+            trip();
+            return;
+        }
+        int count = faults.record(System.currentTimeMillis()) + remoteFaults;
+        if (count >= this.limit && (state.get() & STATE_MASK) == CLOSED) {
+            trip();
         }
     }
 
     /**
-     * Filter the faults based on the time window.
+     * Folds in the state shared by the other gateway nodes: the faults they have
+     * seen count towards the limit, and a circuit broken by one of them breaks
+     * this one until the same time.
+     * @param remoteFaults the faults seen by the other nodes
+     * @param brokenUntil the time until which another node has broken the circuit, or 0
      */
-    private void filterFaults() {
-        long from = System.currentTimeMillis() - this.timeWindowMillis;
-        long to = System.currentTimeMillis();
-        Set<CircuitFault> toRemove = new HashSet<>();
-        for (CircuitFault fault : faults) {
-            if (!fault.isInWindow(from, to)) {
-                toRemove.add(fault);
+    public void reconcile(int remoteFaults, long brokenUntil) {
+        long now = System.currentTimeMillis();
+        long word = state.get();
+        if (word != CLOSED) {
+            return;
+        }
+        this.remoteFaults = remoteFaults;
+        if (brokenUntil > now) {
+            resetOn = brokenUntil;
+            if (state.compareAndSet(word, BROKEN)) {
+                faults.clear();
+                this.remoteFaults = 0;
+                changed(CLOSED, BROKEN, now);
             }
+        } else if (faults.count(now) + remoteFaults >= this.limit) {
+            trip();
+        }
+    }
+
+    /**
+     * @param now the current time
+     * @return the faults seen by this node within the time window
+     */
+    public int getLocalFaults(long now) {
+        return faults.count(now);
+    }
+
+    /**
+     * @return the time until which the circuit is broken, or 0 if it isn't
+     */
+    public long getBrokenUntil() {
+        return (state.get() & STATE_MASK) == BROKEN ? resetOn : 0;
+    }
+
+    /**
+     * Claims the next synchronization with the other gateway nodes, which is
+     * due once the interval has passed or as soon as the circuit breaks.
+     * Returns true if the caller should synchronize now.
+     * @param now the current time
+     * @param intervalMillis the synchronization interval
+     */
+    public boolean claimSync(long now, long intervalMillis) {
+        long next = nextSync.get();
+        if ((now >= next || syncPending) && nextSync.compareAndSet(next, now + intervalMillis)) {
+            syncPending = false;
+            return true;
         }
-        faults.removeAll(toRemove);
+        return false;
     }
 
     /**
      * @return true if the circuit can be reset
      */
     public boolean isResettable() {
-        if (resetting == true) {
-            return false;
-        } else if (!broken) {
-            return false;
-        } else {
-            long now = System.currentTimeMillis();
-            return now >= this.resetOn.getTime();
-        }
+        return (state.get() & STATE_MASK) == BROKEN && System.currentTimeMillis() >= resetOn;
     }
 
     /**
-     * Called to start resetting the circuit.  Returns true if 
+     * Called to start resetting the circuit.  Returns true if the caller may
+     * probe the back-end API.
      */
     public boolean startReset() {
-        if (!isResettable()) {
-            return false;
-        }
-        resetting = true;
-        return true;
+        return isResettable() && admit() == Admission.PROBE;
     }
 
     /**
      * @return true if the circuit is currently being reset
      */
     public boolean isResetting() {
-        return resetting;
+        return (state.get() & STATE_MASK) == RESETTING;
     }
 
 }
@@ -16,29 +16,52 @@
 
 package io.apiman.plugins.circuit_breaker;
 
+import io.apiman.gateway.engine.IApiConnector;
 import io.apiman.gateway.engine.beans.ApiRequest;
 import io.apiman.gateway.engine.beans.ApiResponse;
 import io.apiman.gateway.engine.beans.PolicyFailure;
 import io.apiman.gateway.engine.beans.PolicyFailureType;
+import io.apiman.gateway.engine.beans.exceptions.ConfigurationParseException;
+import io.apiman.gateway.engine.beans.util.HeaderMap;
+import io.apiman.gateway.engine.beans.util.QueryMap;
+import io.apiman.gateway.engine.components.IBufferFactoryComponent;
 import io.apiman.gateway.engine.components.IPolicyFailureFactoryComponent;
+import io.apiman.gateway.engine.io.AbstractStream;
+import io.apiman.gateway.engine.io.IApimanBuffer;
+import io.apiman.gateway.engine.io.IReadWriteStream;
 import io.apiman.gateway.engine.policies.AbstractMappedPolicy;
+import io.apiman.gateway.engine.policy.IConnectorInterceptor;
+import io.apiman.gateway.engine.policy.IDataPolicy;
 import io.apiman.gateway.engine.policy.IPolicyChain;
 import io.apiman.gateway.engine.policy.IPolicyContext;
 import io.apiman.plugins.circuit_breaker.beans.CircuitBreakerConfigBean;
 
-import java.util.HashMap;
-import java.util.Map;
+import java.io.ByteArrayOutputStream;
+import java.util.concurrent.TimeUnit;
 
 /**
- * A policy that implements basic circuit breaker functionality.
+ * A policy that implements basic circuit breaker functionality.  While a
+ * circuit is broken, GET requests can optionally be answered with the last
+ * successful response of their endpoint rather than failed.
  * 
  * @author eric.wittmann@gmail.com
  */
-public class CircuitBreakerPolicy extends AbstractMappedPolicy<CircuitBreakerConfigBean> {
+public class CircuitBreakerPolicy extends AbstractMappedPolicy<CircuitBreakerConfigBean> implements IDataPolicy {
 
     private static final int BROKEN_CIRCUIT_FAILURE_CODE = 20001;
+    private static final String CIRCUIT_ATTRIBUTE = CircuitBreakerPolicy.class.getName() + ".circuit"; //$NON-NLS-1$
+    private static final String CIRCUIT_KEY_ATTRIBUTE = CircuitBreakerPolicy.class.getName() + ".key"; //$NON-NLS-1$
+    private static final String API_KEY_ATTRIBUTE = CircuitBreakerPolicy.class.getName() + ".apiKey"; //$NON-NLS-1$
+    private static final String ADMISSION_ATTRIBUTE = CircuitBreakerPolicy.class.getName() + ".admission"; //$NON-NLS-1$
+    private static final String START_ATTRIBUTE = CircuitBreakerPolicy.class.getName() + ".start"; //$NON-NLS-1$
+    private static final String ENDPOINT_ATTRIBUTE = CircuitBreakerPolicy.class.getName() + ".endpoint"; //$NON-NLS-1$
+    private static final String KEEP_RESPONSE_ATTRIBUTE = CircuitBreakerPolicy.class.getName() + ".keep"; //$NON-NLS-1$
+    private static final String REQUEST_HEADERS_ATTRIBUTE = CircuitBreakerPolicy.class.getName() + ".requestHeaders"; //$NON-NLS-1$
+    private static final String CONTENT_LENGTH = "Content-Length"; //$NON-NLS-1$
 
-    private final Map<CircuitKey, Circuit> circuits = new HashMap<CircuitKey, Circuit>();
+    private final CircuitRegistry circuits = new CircuitRegistry();
+    private final CircuitSynchronizer synchronizer = new CircuitSynchronizer();
+    private final StaleResponseCache staleResponses = new StaleResponseCache();
     
     /**
      * Constructor.
@@ -46,6 +69,13 @@ public class CircuitBreakerPolicy extends AbstractMappedPolicy<CircuitBreakerCon
     public CircuitBreakerPolicy() {
     }
     
+    /**
+     * @return the circuits of the APIs the policy has been applied to
+     */
+    public CircuitRegistry getCircuits() {
+        return circuits;
+    }
+
     /**
      * @see io.apiman.gateway.engine.policies.AbstractMappedPolicy#getConfigurationClass()
      */
@@ -53,6 +83,23 @@ public class CircuitBreakerPolicy extends AbstractMappedPolicy<CircuitBreakerCon
     protected Class<CircuitBreakerConfigBean> getConfigurationClass() {
         return CircuitBreakerConfigBean.class;
     }
+
+    /**
+     * @see io.apiman.gateway.engine.policies.AbstractMappedPolicy#parseConfiguration(java.lang.String)
+     */
+    @Override
+    public CircuitBreakerConfigBean parseConfiguration(String jsonConfiguration)
+            throws ConfigurationParseException {
+        CircuitBreakerConfigBean config = super.parseConfiguration(jsonConfiguration);
+        // Compile the error codes and resources now rather than on the first request
+        config.getErrorCodeMatcher();
+        try {
+            config.getCircuitRouter();
+        } catch (IllegalArgumentException e) {
+            throw new ConfigurationParseException(e);
+        }
+        return config;
+    }
     
     /**
      * @see io.apiman.gateway.engine.policies.AbstractMappedPolicy#doApply(io.apiman.gateway.engine.beans.ApiRequest, io.apiman.gateway.engine.policy.IPolicyContext, java.lang.Object, io.apiman.gateway.engine.policy.IPolicyChain)
@@ -60,29 +107,59 @@ public class CircuitBreakerPolicy extends AbstractMappedPolicy<CircuitBreakerCon
     @Override
     protected void doApply(ApiRequest request, IPolicyContext context, CircuitBreakerConfigBean config,
             IPolicyChain<ApiRequest> chain) {
-        CircuitKey ckey = new CircuitKey(request.getApiOrgId(), request.getApiId(), request.getApiVersion());
-        Circuit circuit = circuits.get(ckey);
-        if (circuit == null) {
-            circuit = new Circuit(config.getLimit(), config.getWindow(), config.getReset());
-            circuits.put(ckey, circuit);
-        }
-        
-        context.setAttribute(CircuitBreakerPolicy.class.getName() + ".circuit", circuit); //$NON-NLS-1$
-
-        // Is the circuit broken?  If so, either immediately send a failure, or else
-        // if the circuit is ready to be reset (the reset time has elapsed) then try
-        // to reset the circuit by letting through the request and seeing what happens.
-        if (circuit.isBroken()) {
-            // Can the circuit possibly be reset?  If so, try...otherwise fail.
-            if (circuit.isResettable()) {
-                circuit.startReset();
-                super.doApply(request, context, config, chain);
-            } else {
-                IPolicyFailureFactoryComponent failureFactory = context.getComponent(IPolicyFailureFactoryComponent.class);
-                PolicyFailure failure = failureFactory.createFailure(PolicyFailureType.Other, BROKEN_CIRCUIT_FAILURE_CODE, "Circuit broken."); //$NON-NLS-1$
-                failure.setResponseCode(config.getFailureCode());
-                chain.doFailure(failure);
-            }
+        CircuitKey apiKey = getApiKey(request, config);
+        CircuitKey ckey = config.getCircuitRouter().route(request, apiKey);
+        Circuit circuit = circuits.get(ckey, config);
+        if (config.isDistributed()) {
+            synchronizer.synchronize(ckey, circuit, config, context);
+        }
+        Circuit.Admission admission = circuit.admit();
+
+        context.setAttribute(CIRCUIT_ATTRIBUTE, circuit);
+        if (config.isDistributed()) {
+            context.setAttribute(CIRCUIT_KEY_ATTRIBUTE, ckey);
+        }
+        String endpoint = null;
+        if (config.isStaleResponses() && "GET".equals(request.getType())) { //$NON-NLS-1$
+            QueryMap query = request.getQueryParams();
+            endpoint = StaleResponseCache.key(request.getDestination(), query == null ? null : query.toQueryString());
+            context.setAttribute(ENDPOINT_ATTRIBUTE, endpoint);
+            context.setAttribute(API_KEY_ATTRIBUTE, apiKey);
+            // A copy, as the policies after this one may remove credentials from the request
+            HeaderMap requestHeaders = new HeaderMap();
+            requestHeaders.addAll(request.getHeaders());
+            context.setAttribute(REQUEST_HEADERS_ATTRIBUTE, requestHeaders);
+        }
+        context.setAttribute(ADMISSION_ATTRIBUTE, admission);
+        if (circuit.isDetectingSlowCalls()) {
+            context.setAttribute(START_ATTRIBUTE, System.nanoTime());
+        }
+
+        // Is the circuit broken (or still letting traffic back in)?  If so, immediately
+        // send a failure, unless the request is one of the probes that see whether the
+        // back end has recovered.
+        StaleResponse staleResponse = null;
+        if (admission == Circuit.Admission.REJECT && endpoint != null) {
+            // Responses are kept per API, a host's circuit may be shared by several of them
+            staleResponse = staleResponses.get(apiKey, endpoint, request.getHeaders(),
+                    TimeUnit.SECONDS.toMillis(config.getStaleResponseMaxAge()), System.currentTimeMillis());
+        }
+        if (staleResponse != null) {
+            // Answer with the last good response instead of calling the back end
+            final StaleResponseConnector connector = new StaleResponseConnector(staleResponse,
+                    context.getComponent(IBufferFactoryComponent.class));
+            context.setConnectorInterceptor(new IConnectorInterceptor() {
+                @Override
+                public IApiConnector createConnector() {
+                    return connector;
+                }
+            });
+            chain.doSkip(request);
+        } else if (admission == Circuit.Admission.REJECT) {
+            IPolicyFailureFactoryComponent failureFactory = context.getComponent(IPolicyFailureFactoryComponent.class);
+            PolicyFailure failure = failureFactory.createFailure(PolicyFailureType.Other, BROKEN_CIRCUIT_FAILURE_CODE, "Circuit broken."); //$NON-NLS-1$
+            failure.setResponseCode(config.getFailureCode());
+            chain.doFailure(failure);
         } else {
             super.doApply(request, context, config, chain);
         }
@@ -94,22 +171,141 @@ public class CircuitBreakerPolicy extends AbstractMappedPolicy<CircuitBreakerCon
     @Override
     protected void doApply(ApiResponse response, IPolicyContext context, CircuitBreakerConfigBean config,
             IPolicyChain<ApiResponse> chain) {
-        Circuit circuit = context.getAttribute(CircuitBreakerPolicy.class.getName() + ".circuit", (Circuit) null); //$NON-NLS-1$
+        Circuit circuit = context.getAttribute(CIRCUIT_ATTRIBUTE, (Circuit) null);
+        Circuit.Admission admission = context.getAttribute(ADMISSION_ATTRIBUTE, Circuit.Admission.PASS);
+        if (admission == Circuit.Admission.REJECT) {
+            // A stale response, the back end wasn't called
+            super.doApply(response, context, config, chain);
+            return;
+        }
         boolean isFault = isCircuitFault(response, config);
-        if (circuit.isResetting()) {
+        long latency = -1;
+        if (circuit.isDetectingSlowCalls()) {
+            Long start = context.getAttribute(START_ATTRIBUTE, (Long) null);
+            if (start != null) {
+                latency = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+            }
+        }
+        boolean isSlow = circuit.isSlowCall(latency);
+        if (admission == Circuit.Admission.PROBE) {
+            // A probe that was slow hasn't shown that the back end has recovered
             if (isFault) {
+                circuit.addFault();
+            } else if (isSlow) {
                 circuit.trip();
             } else {
-                circuit.reset();
+                circuit.probeSucceeded();
             }
         } else {
             if (isFault) {
                 circuit.addFault();
             }
+            if (latency >= 0) {
+                circuit.addCall(latency);
+            }
+        }
+        if ((isFault || isSlow) && config.isDistributed() && circuit.isBroken()) {
+            // Let the other nodes know without waiting for the interval
+            CircuitKey ckey = context.getAttribute(CIRCUIT_KEY_ATTRIBUTE, (CircuitKey) null);
+            synchronizer.synchronize(ckey, circuit, config, context);
+        }
+        HeaderMap requestHeaders = context.getAttribute(REQUEST_HEADERS_ATTRIBUTE, (HeaderMap) null);
+        if (response.getCode() == 200 && !isFault && !isSlow && !circuit.isBroken() && requestHeaders != null
+                && StaleResponse.isStorable(requestHeaders, response)) {
+            context.setAttribute(KEEP_RESPONSE_ATTRIBUTE, Boolean.TRUE);
         }
         super.doApply(response, context, config, chain);
     }
 
+    /**
+     * @see io.apiman.gateway.engine.policy.IDataPolicy#getRequestDataHandler(io.apiman.gateway.engine.beans.ApiRequest, io.apiman.gateway.engine.policy.IPolicyContext, java.lang.Object)
+     */
+    @Override
+    public IReadWriteStream<ApiRequest> getRequestDataHandler(ApiRequest request, IPolicyContext context,
+            Object policyConfiguration) {
+        return null;
+    }
+
+    /**
+     * Keeps a copy of the body of successful GET responses, as it goes by, for
+     * the APIs that serve stale responses.  The handler is created before the
+     * response goes through {@link #doApply(ApiResponse, IPolicyContext, CircuitBreakerConfigBean, IPolicyChain)},
+     * so whether the response is kept is only decided once it has been read.
+     * @see io.apiman.gateway.engine.policy.IDataPolicy#getResponseDataHandler(io.apiman.gateway.engine.beans.ApiResponse, io.apiman.gateway.engine.policy.IPolicyContext, java.lang.Object)
+     */
+    @Override
+    public IReadWriteStream<ApiResponse> getResponseDataHandler(final ApiResponse response,
+            final IPolicyContext context, Object policyConfiguration) {
+        if (response.getCode() != 200 || context.getAttribute(ENDPOINT_ATTRIBUTE, (String) null) == null
+                || context.getAttribute(ADMISSION_ATTRIBUTE, Circuit.Admission.PASS) != Circuit.Admission.PASS) {
+            return null;
+        }
+        final CircuitBreakerConfigBean config = (CircuitBreakerConfigBean) policyConfiguration;
+        final int maxSize = config.getStaleResponseMaxSize();
+        String contentLength = response.getHeaders().get(CONTENT_LENGTH);
+        if (contentLength != null && Long.parseLong(contentLength) > maxSize) {
+            return null;
+        }
+        final CircuitKey apiKey = context.getAttribute(API_KEY_ATTRIBUTE, (CircuitKey) null);
+        final String endpoint = context.getAttribute(ENDPOINT_ATTRIBUTE, (String) null);
+        final HeaderMap requestHeaders = context.getAttribute(REQUEST_HEADERS_ATTRIBUTE, (HeaderMap) null);
+
+        return new AbstractStream<ApiResponse>() {
+
+            private ByteArrayOutputStream body = new ByteArrayOutputStream();
+
+            @Override
+            public ApiResponse getHead() {
+                return response;
+            }
+
+            @Override
+            protected void handleHead(ApiResponse head) {
+            }
+
+            @Override
+            public void write(IApimanBuffer chunk) {
+                if (body != null) {
+                    if (body.size() + chunk.length() > maxSize) {
+                        // Too big to keep, let it through untouched
+                        body = null;
+                    } else {
+                        byte[] bytes = chunk.getBytes();
+                        body.write(bytes, 0, bytes.length);
+                    }
+                }
+                super.write(chunk);
+            }
+
+            @Override
+            public void end() {
+                if (body != null && context.getAttribute(KEEP_RESPONSE_ATTRIBUTE, Boolean.FALSE)) {
+                    staleResponses.put(apiKey, endpoint,
+                            new StaleResponse(response, requestHeaders, body.toByteArray(), System.currentTimeMillis()),
+                            config.getStaleResponseEndpoints());
+                }
+                super.end();
+            }
+        };
+    }
+
+    /**
+     * Returns the key of the request's API.  The config of a policy usually
+     * belongs to a single API, so the API's key is kept with it rather than
+     * created for every request; the key of the request's circuit is then
+     * found by the config's router.
+     * @param request
+     * @param config
+     */
+    private static CircuitKey getApiKey(ApiRequest request, CircuitBreakerConfigBean config) {
+        CircuitKey ckey = config.getCircuitKey();
+        if (ckey == null || !ckey.matches(request.getApiOrgId(), request.getApiId(), request.getApiVersion())) {
+            ckey = new CircuitKey(request.getApiOrgId(), request.getApiId(), request.getApiVersion());
+            config.setCircuitKey(ckey);
+        }
+        return ckey;
+    }
+
     /**
      * Returns true if the API response represents a circuit fault.  This depends on
      * the return code from the back end API as well as the configuration of the policy.
@@ -117,13 +313,7 @@ public class CircuitBreakerPolicy extends AbstractMappedPolicy<CircuitBreakerCon
      * @param config
      */
     protected static boolean isCircuitFault(ApiResponse response, CircuitBreakerConfigBean config) {
-        int code = response.getCode();
-        for (String codePattern : config.getErrorCodes()) {
-            if (isMatch(code, codePattern)) {
-                return true;
-            }
-        }
-        return false;
+        return config.getErrorCodeMatcher().matches(response.getCode());
     }
 
     /**
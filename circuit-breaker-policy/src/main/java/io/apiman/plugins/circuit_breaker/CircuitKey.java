@@ -16,14 +16,28 @@
 
 package io.apiman.plugins.circuit_breaker;
 
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
 /**
+ * The key of a circuit: an API, or one of its resources (see
+ * {@link CircuitRouter}).  The key of an API keeps the keys of its resources
+ * so that routing a request doesn't create a new key each time, up to
+ * {@link #MAX_RESOURCES} of them; beyond that, resources share the API's
+ * circuit.
+ *
  * @author eric.wittmann@gmail.com
  */
 public class CircuitKey {
 
+    static final int MAX_RESOURCES = 100;
+
     private final String orgId;
     private final String apiId;
     private final String version;
+    private final String resource;
+    private final int hashCode;
+    private final ConcurrentMap<String, CircuitKey> resourceKeys;
     
     /**
      * Constructor.
@@ -32,9 +46,55 @@ public class CircuitKey {
      * @param version
      */
     public CircuitKey(String orgId, String apiId, String version) {
+        this(orgId, apiId, version, null);
+    }
+
+    /**
+     * Constructor.
+     * @param orgId
+     * @param apiId
+     * @param version
+     * @param resource the resource of the API, or null for the whole API
+     */
+    public CircuitKey(String orgId, String apiId, String version, String resource) {
         this.orgId = orgId;
         this.apiId = apiId;
         this.version = version;
+        this.resource = resource;
+        this.hashCode = computeHashCode();
+        this.resourceKeys = resource == null ? new ConcurrentHashMap<>() : null;
+    }
+
+    /**
+     * Returns the key of one of the API's resources.
+     * @param resource the resource, or null for the whole API
+     */
+    public CircuitKey forResource(String resource) {
+        if (resource == null || resourceKeys == null) {
+            return this;
+        }
+        CircuitKey key = resourceKeys.get(resource);
+        if (key == null) {
+            if (resourceKeys.size() >= MAX_RESOURCES) {
+                return this;
+            }
+            key = resourceKeys.computeIfAbsent(resource, r -> new CircuitKey(orgId, apiId, version, r));
+        }
+        return key;
+    }
+
+    /**
+     * Returns true if this is the key of the given API.
+     * @param orgId
+     * @param apiId
+     * @param version
+     */
+    public boolean matches(String orgId, String apiId, String version) {
+        return equals(this.orgId, orgId) && equals(this.apiId, apiId) && equals(this.version, version);
+    }
+
+    private static boolean equals(String a, String b) {
+        return a == null ? b == null : a.equals(b);
     }
 
     /**
@@ -58,16 +118,28 @@ public class CircuitKey {
         return version;
     }
 
+    /**
+     * @return the resource, or null for the whole API
+     */
+    public String getResource() {
+        return resource;
+    }
+
     /**
      * @see java.lang.Object#hashCode()
      */
     @Override
     public int hashCode() {
+        return hashCode;
+    }
+
+    private int computeHashCode() {
         final int prime = 31;
         int result = 1;
         result = prime * result + ((apiId == null) ? 0 : apiId.hashCode());
         result = prime * result + ((orgId == null) ? 0 : orgId.hashCode());
         result = prime * result + ((version == null) ? 0 : version.hashCode());
+        result = prime * result + ((resource == null) ? 0 : resource.hashCode());
         return result;
     }
 
@@ -83,6 +155,8 @@ public class CircuitKey {
         if (getClass() != obj.getClass())
             return false;
         CircuitKey other = (CircuitKey) obj;
+        if (hashCode != other.hashCode)
+            return false;
         if (apiId == null) {
             if (other.apiId != null)
                 return false;
@@ -98,6 +172,11 @@ public class CircuitKey {
                 return false;
         } else if (!version.equals(other.version))
             return false;
+        if (resource == null) {
+            if (other.resource != null)
+                return false;
+        } else if (!resource.equals(other.resource))
+            return false;
         return true;
     }
     
@@ -0,0 +1,37 @@
+/*
+ * Copyright 2016 JBoss Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.apiman.plugins.circuit_breaker;
+
+/**
+ * Told about the state changes of the circuits of a {@link CircuitRegistry}.
+ * Listeners are called on the thread of the request that changed the state,
+ * so they should return quickly.  Implementations listed in
+ * {@code META-INF/services/io.apiman.plugins.circuit_breaker.CircuitListener}
+ * are registered with every registry.
+ */
+public interface CircuitListener {
+
+    /**
+     * Called when a circuit changes state.
+     * @param key the API of the circuit
+     * @param from the state the circuit was in
+     * @param to the state the circuit is in now
+     * @param metrics the metrics of the circuit
+     */
+    void stateChanged(CircuitKey key, Circuit.State from, Circuit.State to, CircuitMetrics metrics);
+
+}
@@ -0,0 +1,144 @@
+/*
+ * Copyright 2016 JBoss Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.apiman.plugins.circuit_breaker;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The counters of a circuit since it was created.  They are updated by every
+ * request going through the circuit, so they are kept in {@link LongAdder}s,
+ * which concurrent requests can update without contending on a single field.
+ */
+public class CircuitMetrics {
+
+    private final Circuit circuit;
+    final LongAdder calls = new LongAdder();
+    final LongAdder faults = new LongAdder();
+    final LongAdder slowCalls = new LongAdder();
+    final LongAdder rejections = new LongAdder();
+    final LongAdder probes = new LongAdder();
+    final LongAdder trips = new LongAdder();
+    final LongAdder resets = new LongAdder();
+    final LongAdder closes = new LongAdder();
+    private final LongAdder openMillis = new LongAdder();
+    private volatile long openedOn;
+
+    /**
+     * Constructor.
+     * @param circuit the circuit
+     */
+    CircuitMetrics(Circuit circuit) {
+        this.circuit = circuit;
+    }
+
+    /**
+     * Records that the circuit left the closed state.
+     */
+    void opened(long now) {
+        openedOn = now;
+    }
+
+    /**
+     * Records that the circuit closed again.
+     */
+    void closed(long now) {
+        long since = openedOn;
+        if (since > 0) {
+            openMillis.add(now - since);
+            openedOn = 0;
+        }
+    }
+
+    /**
+     * @return the state of the circuit
+     */
+    public Circuit.State getState() {
+        return circuit.getState();
+    }
+
+    /**
+     * @return the # of requests let through the circuit, probes included
+     */
+    public long getCalls() {
+        return calls.sum();
+    }
+
+    /**
+     * @return the # of faults seen
+     */
+    public long getFaults() {
+        return faults.sum();
+    }
+
+    /**
+     * @return the # of faults seen within the time window by this node
+     */
+    public int getFaultsInWindow() {
+        return circuit.getLocalFaults(System.currentTimeMillis());
+    }
+
+    /**
+     * @return the # of slow calls seen
+     */
+    public long getSlowCalls() {
+        return slowCalls.sum();
+    }
+
+    /**
+     * @return the # of requests failed without calling the back end
+     */
+    public long getRejections() {
+        return rejections.sum();
+    }
+
+    /**
+     * @return the # of requests let through as probes
+     */
+    public long getProbes() {
+        return probes.sum();
+    }
+
+    /**
+     * @return the # of times the circuit broke
+     */
+    public long getTrips() {
+        return trips.sum();
+    }
+
+    /**
+     * @return the # of times the circuit started being reset
+     */
+    public long getResets() {
+        return resets.sum();
+    }
+
+    /**
+     * @return the # of times the circuit closed again
+     */
+    public long getCloses() {
+        return closes.sum();
+    }
+
+    /**
+     * @return the time (in milliseconds) the circuit has spent broken or being reset
+     */
+    public long getTimeOpen() {
+        long since = openedOn;
+        return openMillis.sum() + (since > 0 ? System.currentTimeMillis() - since : 0);
+    }
+
+}
@@ -0,0 +1,195 @@
+/*
+ * Copyright 2016 JBoss Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.apiman.plugins.circuit_breaker;
+
+import io.apiman.plugins.circuit_breaker.beans.CircuitBreakerConfigBean;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.ServiceLoader;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The circuits of the APIs a circuit breaker policy is applied to.  Circuits
+ * are created on first use, at most once per API even when concurrent requests
+ * race for it.  Circuits that haven't been used for a while (e.g. those of
+ * retired API versions) are dropped, as are the least recently used ones when
+ * there are more than the registry holds.
+ *
+ * The registry also gives access to the {@link CircuitMetrics} of each
+ * circuit, and tells its {@link CircuitListener}s when circuits change state.
+ */
+public class CircuitRegistry {
+
+    static final int DEFAULT_MAX_CIRCUITS = 10000;
+    static final long DEFAULT_IDLE_MILLIS = TimeUnit.HOURS.toMillis(1);
+    private static final long SWEEP_INTERVAL_MILLIS = TimeUnit.MINUTES.toMillis(1);
+    private static final long TOUCH_INTERVAL_MILLIS = TimeUnit.SECONDS.toMillis(1);
+
+    private final ConcurrentMap<CircuitKey, Entry> circuits = new ConcurrentHashMap<>();
+    private final int maxCircuits;
+    private final long idleMillis;
+    private final AtomicLong nextSweep = new AtomicLong();
+    private final List<CircuitListener> listeners = new CopyOnWriteArrayList<>();
+
+    /**
+     * Constructor.
+     */
+    public CircuitRegistry() {
+        this(DEFAULT_MAX_CIRCUITS, DEFAULT_IDLE_MILLIS);
+    }
+
+    /**
+     * Constructor.
+     * @param maxCircuits the maximum number of circuits kept
+     * @param idleMillis how long an unused circuit is kept
+     */
+    CircuitRegistry(int maxCircuits, long idleMillis) {
+        this.maxCircuits = maxCircuits;
+        this.idleMillis = idleMillis;
+        for (CircuitListener listener : ServiceLoader.load(CircuitListener.class,
+                CircuitListener.class.getClassLoader())) {
+            listeners.add(listener);
+        }
+    }
+
+    /**
+     * @param listener a listener to tell about the state changes of the circuits
+     */
+    public void addListener(CircuitListener listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * @param listener a listener added with {@link #addListener(CircuitListener)}
+     */
+    public void removeListener(CircuitListener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Returns the circuit of an API, creating it from the config if needed.
+     * @param key the API
+     * @param config the policy config
+     */
+    public Circuit get(CircuitKey key, CircuitBreakerConfigBean config) {
+        return get(key, config, System.currentTimeMillis());
+    }
+
+    Circuit get(CircuitKey key, CircuitBreakerConfigBean config, long now) {
+        Entry entry = circuits.get(key);
+        if (entry == null) {
+            entry = circuits.computeIfAbsent(key, k -> new Entry(new Circuit(config.getLimit(),
+                    config.getWindow(), config.getReset(), config.getProbes(), config.getProbeSuccesses(),
+                    config.getRampUp(), config.getRampUpStart()).slowCalls(config.getSlowCall(),
+                    config.getSlowCallRate(), config.getSlowCallPercentile(), config.getMinimumCalls())
+                    .observe(k, this::stateChanged), now));
+            if (circuits.size() > maxCircuits) {
+                sweep(now);
+            }
+        }
+        entry.touch(now);
+
+        long sweepAt = nextSweep.get();
+        if (now >= sweepAt && nextSweep.compareAndSet(sweepAt, now + SWEEP_INTERVAL_MILLIS)) {
+            sweep(now);
+        }
+        return entry.circuit;
+    }
+
+    /**
+     * @return the APIs that have a circuit (a live view)
+     */
+    public Set<CircuitKey> getKeys() {
+        return circuits.keySet();
+    }
+
+    /**
+     * @param key the API
+     * @return the metrics of the API's circuit, or null if it has none
+     */
+    public CircuitMetrics getMetrics(CircuitKey key) {
+        Entry entry = circuits.get(key);
+        return entry == null ? null : entry.circuit.getMetrics();
+    }
+
+    /**
+     * @return the number of circuits
+     */
+    public int size() {
+        return circuits.size();
+    }
+
+    /**
+     * Drops the idle circuits and, if there are still too many, the least
+     * recently used tenth, so that a full registry isn't swept again on every
+     * new API.
+     */
+    private void sweep(long now) {
+        circuits.values().removeIf(entry -> now - entry.lastUsed > idleMillis);
+        if (circuits.size() <= maxCircuits) {
+            return;
+        }
+        int excess = circuits.size() - (maxCircuits - Math.max(1, maxCircuits / 10));
+        if (excess > 0) {
+            List<Map.Entry<CircuitKey, Entry>> entries = new ArrayList<>(circuits.entrySet());
+            entries.sort(Comparator.comparingLong(e -> e.getValue().lastUsed));
+            for (int idx = 0; idx < excess && idx < entries.size(); idx++) {
+                Map.Entry<CircuitKey, Entry> eldest = entries.get(idx);
+                circuits.remove(eldest.getKey(), eldest.getValue());
+            }
+        }
+    }
+
+    private void stateChanged(CircuitKey key, Circuit.State from, Circuit.State to, CircuitMetrics metrics) {
+        for (CircuitListener listener : listeners) {
+            try {
+                listener.stateChanged(key, from, to, metrics);
+            } catch (RuntimeException e) {
+                // One failing listener must not keep the others from being told
+            }
+        }
+    }
+
+    private static final class Entry {
+        final Circuit circuit;
+        volatile long lastUsed;
+
+        Entry(Circuit circuit, long now) {
+            this.circuit = circuit;
+            this.lastUsed = now;
+        }
+
+        /**
+         * Marks the circuit as used, writing the shared field at most once a
+         * second so busy APIs don't keep invalidating it across cores.
+         */
+        void touch(long now) {
+            if (now - lastUsed >= TOUCH_INTERVAL_MILLIS) {
+                lastUsed = now;
+            }
+        }
+    }
+
+}
@@ -0,0 +1,198 @@
+/*
+ * Copyright 2016 JBoss Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.apiman.plugins.circuit_breaker;
+
+import io.apiman.gateway.engine.beans.Api;
+import io.apiman.gateway.engine.beans.ApiRequest;
+import io.apiman.plugins.circuit_breaker.beans.CircuitGranularity;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.regex.Pattern;
+
+/**
+ * Routes requests to circuits according to the granularity of a circuit
+ * breaker config.  Resources are compiled once from entries such as
+ * {@code /reports/{id}/export}, {@code GET /items/**} or
+ * {@code ^/search/.*}: an optional HTTP method, then either a path template
+ * ({@code {name}} or {@code *} matches one segment, {@code **} the rest of
+ * the path) or a regular expression starting with {@code ^}.  Templates are
+ * matched without allocating.  A request goes to the circuit of the first
+ * resource it matches, or to its API's circuit if none.
+ */
+public class CircuitRouter {
+
+    static final int MAX_HOSTS = 1000;
+    private static final String ANY_SEGMENT = "*"; //$NON-NLS-1$
+    private static final String REST = "**"; //$NON-NLS-1$
+
+    private final CircuitGranularity granularity;
+    private final Resource[] resources;
+    private final ConcurrentMap<String, CircuitKey> hostKeys = new ConcurrentHashMap<>();
+
+    /**
+     * Constructor.
+     * @param granularity what a circuit covers, API if null
+     * @param resources the resources, for {@link CircuitGranularity#RESOURCE}
+     * @throws IllegalArgumentException if a regular expression is invalid
+     */
+    public CircuitRouter(CircuitGranularity granularity, Collection<String> resources) {
+        this.granularity = granularity == null ? CircuitGranularity.API : granularity;
+        List<Resource> compiled = new ArrayList<>();
+        if (resources != null) {
+            for (String resource : resources) {
+                if (resource != null && !resource.trim().isEmpty()) {
+                    compiled.add(new Resource(resource.trim()));
+                }
+            }
+        }
+        this.resources = compiled.toArray(new Resource[compiled.size()]);
+    }
+
+    /**
+     * Returns the key of the circuit a request goes through.
+     * @param request the request
+     * @param apiKey the key of the request's API
+     */
+    public CircuitKey route(ApiRequest request, CircuitKey apiKey) {
+        switch (granularity) {
+        case METHOD:
+            return apiKey.forResource(request.getType());
+        case RESOURCE:
+            String method = request.getType();
+            String path = request.getDestination() == null ? "" : request.getDestination(); //$NON-NLS-1$
+            for (Resource resource : resources) {
+                if (resource.matches(method, path)) {
+                    return apiKey.forResource(resource.name);
+                }
+            }
+            return apiKey;
+        case HOST:
+            Api api = request.getApi();
+            return api == null || api.getEndpoint() == null ? apiKey : hostKey(api.getEndpoint(), apiKey);
+        default:
+            return apiKey;
+        }
+    }
+
+    /**
+     * Returns the key of an endpoint's host.  At most {@link #MAX_HOSTS} of
+     * them are kept; beyond that, the endpoints' APIs use their own circuits.
+     */
+    private CircuitKey hostKey(String endpoint, CircuitKey apiKey) {
+        CircuitKey key = hostKeys.get(endpoint);
+        if (key != null) {
+            return key;
+        }
+        if (hostKeys.size() >= MAX_HOSTS) {
+            return apiKey;
+        }
+        String host;
+        try {
+            host = URI.create(endpoint).getHost();
+        } catch (IllegalArgumentException e) {
+            host = null;
+        }
+        if (host == null) {
+            return apiKey;
+        }
+        key = new CircuitKey(null, null, null, host);
+        CircuitKey existing = hostKeys.putIfAbsent(endpoint, key);
+        return existing == null ? key : existing;
+    }
+
+    /**
+     * A compiled resource entry.
+     */
+    private static final class Resource {
+        final String name;
+        final String method;
+        final String[] segments;
+        final Pattern pattern;
+
+        Resource(String entry) {
+            this.name = entry;
+            int space = entry.indexOf(' ');
+            String path = entry;
+            if (space > 0) {
+                method = entry.substring(0, space);
+                path = entry.substring(space + 1).trim();
+            } else {
+                method = null;
+            }
+            if (path.startsWith("^")) { //$NON-NLS-1$
+                pattern = Pattern.compile(path);
+                segments = null;
+            } else {
+                pattern = null;
+                List<String> parts = new ArrayList<>();
+                for (String segment : path.split("/")) { //$NON-NLS-1$
+                    if (segment.isEmpty()) {
+                        continue;
+                    }
+                    if (segment.startsWith("{") && segment.endsWith("}") || segment.equals(ANY_SEGMENT)) { //$NON-NLS-1$ //$NON-NLS-2$
+                        parts.add(ANY_SEGMENT);
+                    } else if (segment.equals(REST)) {
+                        parts.add(REST);
+                        break;
+                    } else {
+                        parts.add(segment);
+                    }
+                }
+                segments = parts.toArray(new String[parts.size()]);
+            }
+        }
+
+        boolean matches(String requestMethod, String path) {
+            if (method != null && !method.equalsIgnoreCase(requestMethod)) {
+                return false;
+            }
+            if (pattern != null) {
+                return pattern.matcher(path).matches();
+            }
+            int length = path.length();
+            int pos = length > 0 && path.charAt(0) == '/' ? 1 : 0;
+            for (String segment : segments) {
+                if (segment == REST) {
+                    return true;
+                }
+                if (pos > length) {
+                    return false;
+                }
+                int end = path.indexOf('/', pos);
+                if (end < 0) {
+                    end = length;
+                }
+                if (segment == ANY_SEGMENT) {
+                    if (end == pos) {
+                        return false;
+                    }
+                } else if (end - pos != segment.length() || !path.regionMatches(pos, segment, 0, segment.length())) {
+                    return false;
+                }
+                pos = end + 1;
+            }
+            // A trailing slash is fine
+            return pos >= length;
+        }
+    }
+
+}
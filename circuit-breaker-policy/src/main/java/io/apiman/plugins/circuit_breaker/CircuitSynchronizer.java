@@ -0,0 +1,137 @@
+/*
+ * Copyright 2016 JBoss Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.apiman.plugins.circuit_breaker;
+
+import io.apiman.gateway.engine.components.IPeriodicComponent;
+import io.apiman.gateway.engine.components.ISharedStateComponent;
+import io.apiman.gateway.engine.policy.IPolicyContext;
+import io.apiman.plugins.circuit_breaker.beans.CircuitBreakerConfigBean;
+
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Shares circuits between gateway nodes through the gateway's shared state, so
+ * that the faults seen by all nodes count towards the limit and a circuit
+ * broken by one node is broken on all of them.
+ *
+ * Requests never touch the shared state: each node decides locally, using
+ * the faults the other nodes had reported at the last synchronization.  A
+ * request only queues its circuit, at most once per interval (or straight
+ * away once it breaks), and the queued circuits are synchronized together on
+ * a timer.  A synchronization reads the shared state, folds it into the local
+ * circuit, and writes back this node's fault count along with the others,
+ * asynchronously.  Two nodes writing at once may lose each other's update;
+ * it is replaced at the next interval.
+ */
+public class CircuitSynchronizer {
+
+    static final String NAMESPACE = "apiman-circuit-breaker"; //$NON-NLS-1$
+    /** Milliseconds between synchronizations of the queued circuits. */
+    static final long FLUSH_INTERVAL = 1000;
+
+    private final String nodeId;
+    private final ConcurrentMap<CircuitKey, Queued> queued = new ConcurrentHashMap<>();
+    private final AtomicBoolean started = new AtomicBoolean();
+
+    /**
+     * Constructor.
+     */
+    public CircuitSynchronizer() {
+        this(UUID.randomUUID().toString());
+    }
+
+    /**
+     * Constructor.
+     * @param nodeId the id of this node
+     */
+    CircuitSynchronizer(String nodeId) {
+        this.nodeId = nodeId;
+    }
+
+    /**
+     * Queues the circuit for synchronization if its interval has passed or it
+     * has just broken.
+     * @param key the key of the circuit
+     * @param circuit the circuit
+     * @param config the policy config
+     * @param context the policy context, for the shared state and the timer on first use
+     */
+    public void synchronize(CircuitKey key, Circuit circuit, CircuitBreakerConfigBean config,
+            IPolicyContext context) {
+        if (!circuit.claimSync(System.currentTimeMillis(), config.getSyncInterval() * 1000L)) {
+            return;
+        }
+        if (started.compareAndSet(false, true)) {
+            ISharedStateComponent sharedState = context.getComponent(ISharedStateComponent.class);
+            context.getComponent(IPeriodicComponent.class).setPeriodicTimer(FLUSH_INTERVAL, FLUSH_INTERVAL,
+                    id -> flush(sharedState));
+        }
+        queued.put(key, new Queued(circuit, config));
+    }
+
+    /**
+     * Synchronizes the queued circuits.
+     * @param sharedState the gateway's shared state
+     */
+    void flush(ISharedStateComponent sharedState) {
+        for (Map.Entry<CircuitKey, Queued> entry : queued.entrySet()) {
+            if (queued.remove(entry.getKey(), entry.getValue())) {
+                publish(entry.getKey(), entry.getValue(), sharedState);
+            }
+        }
+    }
+
+    private void publish(CircuitKey key, Queued entry, ISharedStateComponent sharedState) {
+        Circuit circuit = entry.circuit;
+        CircuitBreakerConfigBean config = entry.config;
+        String property = property(key);
+        sharedState.<String> getProperty(NAMESPACE, property, "", result -> { //$NON-NLS-1$
+            if (result.isError()) {
+                return;
+            }
+            long time = System.currentTimeMillis();
+            SharedCircuitState state = SharedCircuitState.parse(result.getResult());
+            long since = Math.max(time - config.getWindow() * 1000L,
+                    state.getBrokenUntil() - config.getReset() * 1000L);
+            circuit.reconcile(state.getFaults(nodeId, since), state.getBrokenUntil());
+
+            state.breakUntil(circuit.getBrokenUntil());
+            state.update(nodeId, circuit.getLocalFaults(time), time, since);
+            sharedState.setProperty(NAMESPACE, property, state.toString(), done -> {});
+        });
+    }
+
+    private static String property(CircuitKey key) {
+        String name = key.getOrgId() + ':' + key.getApiId() + ':' + key.getVersion();
+        return key.getResource() == null ? name : name + ':' + key.getResource();
+    }
+
+    private static final class Queued {
+        final Circuit circuit;
+        final CircuitBreakerConfigBean config;
+
+        Queued(Circuit circuit, CircuitBreakerConfigBean config) {
+            this.circuit = circuit;
+            this.config = config;
+        }
+    }
+
+}
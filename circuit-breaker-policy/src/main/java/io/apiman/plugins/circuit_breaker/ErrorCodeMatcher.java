@@ -0,0 +1,65 @@
+/*
+ * Copyright 2016 JBoss Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.apiman.plugins.circuit_breaker;
+
+import java.util.Collection;
+
+/**
+ * The error codes of a circuit breaker config, compiled into a table with an
+ * entry for each HTTP status code so that classifying a response is a single
+ * lookup.  Codes outside of the table (there shouldn't be any) are matched
+ * against the patterns themselves.
+ */
+public class ErrorCodeMatcher {
+
+    static final int TABLE_SIZE = 600;
+
+    private final String[] patterns;
+    private final boolean[] table = new boolean[TABLE_SIZE];
+
+    /**
+     * Constructor.
+     * @param patterns the error code patterns (* wildcard allowed)
+     */
+    public ErrorCodeMatcher(Collection<String> patterns) {
+        this.patterns = patterns.toArray(new String[patterns.size()]);
+        for (int code = 0; code < TABLE_SIZE; code++) {
+            table[code] = matchesPatterns(code);
+        }
+    }
+
+    /**
+     * @param code an HTTP status code
+     * @return true if the code is one of the error codes
+     */
+    public boolean matches(int code) {
+        if (code >= 0 && code < TABLE_SIZE) {
+            return table[code];
+        }
+        return matchesPatterns(code);
+    }
+
+    private boolean matchesPatterns(int code) {
+        for (String pattern : patterns) {
+            if (CircuitBreakerPolicy.isMatch(code, pattern)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+}
@@ -0,0 +1,96 @@
+/*
+ * Copyright 2016 JBoss Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.apiman.plugins.circuit_breaker;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counts the faults of a circuit over a sliding time window.  The window is
+ * split into a ring of slices, each holding the number of faults seen during
+ * one slice of time, so recording a fault is a single CAS on one slot and
+ * never allocates or locks.  A slot packs the index of the slice it counts
+ * with the count itself; a slot still holding an old slice is simply
+ * overwritten when a fault lands on it again.
+ *
+ * The count covers the current slice and the ones before it that together
+ * make up the window, so faults drop out of the window with the granularity
+ * of a slice (a tenth of the window).
+ */
+public class FaultCounter {
+
+    static final int SLICES = 10;
+    private static final int COUNT_BITS = 20;
+    private static final long COUNT_MASK = (1L << COUNT_BITS) - 1;
+
+    private final long sliceMillis;
+    private final AtomicLongArray slots = new AtomicLongArray(SLICES);
+
+    /**
+     * Constructor.
+     * @param windowMillis the time window in milliseconds
+     */
+    public FaultCounter(long windowMillis) {
+        this.sliceMillis = Math.max(1, (windowMillis + SLICES - 1) / SLICES);
+    }
+
+    /**
+     * Records a fault and returns the number of faults in the window, including it.
+     * @param now the current time in milliseconds
+     */
+    public int record(long now) {
+        long slice = now / sliceMillis;
+        int idx = (int) (slice % SLICES);
+        long slot;
+        long updated;
+        do {
+            slot = slots.get(idx);
+            if ((slot >>> COUNT_BITS) == slice) {
+                updated = (slot & COUNT_MASK) == COUNT_MASK ? slot : slot + 1;
+            } else {
+                updated = (slice << COUNT_BITS) | 1;
+            }
+        } while (!slots.compareAndSet(idx, slot, updated));
+        return count(now);
+    }
+
+    /**
+     * @param now the current time in milliseconds
+     * @return the number of faults in the window
+     */
+    public int count(long now) {
+        long slice = now / sliceMillis;
+        long total = 0;
+        for (int idx = 0; idx < SLICES; idx++) {
+            long slot = slots.get(idx);
+            long age = slice - (slot >>> COUNT_BITS);
+            if (age >= 0 && age < SLICES) {
+                total += slot & COUNT_MASK;
+            }
+        }
+        return (int) Math.min(Integer.MAX_VALUE, total);
+    }
+
+    /**
+     * Forgets all faults.
+     */
+    public void clear() {
+        for (int idx = 0; idx < SLICES; idx++) {
+            slots.set(idx, 0);
+        }
+    }
+
+}
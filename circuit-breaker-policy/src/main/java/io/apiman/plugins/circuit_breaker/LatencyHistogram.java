@@ -0,0 +1,211 @@
+/*
+ * Copyright 2016 JBoss Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.apiman.plugins.circuit_breaker;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Response times of a circuit over a sliding time window, split into slices
+ * like {@link FaultCounter}.  Each slice holds the number of calls, the number
+ * of slow calls, and a histogram of the response times in log-scale buckets
+ * (four per power of two, so a bucket is within 25% of the times it holds),
+ * all in one {@link AtomicLongArray}.  Times of half an hour and more share
+ * the last bucket.
+ *
+ * A slice is cleared by the first call that lands on it once its time has
+ * come round again; calls recorded by other threads at that very moment may
+ * be lost, which is fine for spotting a slow back end.
+ */
+public class LatencyHistogram {
+
+    private static final int SLICES = FaultCounter.SLICES;
+    private static final int SUB_BUCKET_BITS = 2;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int MAX_POWER = 20;
+    static final int BUCKETS = (MAX_POWER - SUB_BUCKET_BITS + 2) * SUB_BUCKETS;
+    private static final int CALLS = 0;
+    private static final int SLOW_CALLS = 1;
+    private static final int FIRST_BUCKET = 2;
+    private static final int ROW = FIRST_BUCKET + BUCKETS;
+
+    private final long sliceMillis;
+    private final long slowMillis;
+    private final AtomicLongArray epochs = new AtomicLongArray(SLICES);
+    private final AtomicLongArray cells = new AtomicLongArray(SLICES * ROW);
+
+    /**
+     * Constructor.
+     * @param windowMillis the time window in milliseconds
+     * @param slowMillis the response time from which a call is slow
+     */
+    public LatencyHistogram(long windowMillis, long slowMillis) {
+        this.sliceMillis = Math.max(1, (windowMillis + SLICES - 1) / SLICES);
+        this.slowMillis = slowMillis;
+    }
+
+    /**
+     * Records a call and returns whether it was slow.
+     * @param now the current time in milliseconds
+     * @param latencyMillis the response time of the call
+     */
+    public boolean record(long now, long latencyMillis) {
+        long slice = now / sliceMillis;
+        int row = (int) (slice % SLICES);
+        long epoch = epochs.get(row);
+        if (epoch != slice && epochs.compareAndSet(row, epoch, slice)) {
+            for (int idx = row * ROW; idx < (row + 1) * ROW; idx++) {
+                cells.set(idx, 0);
+            }
+        }
+        boolean slow = latencyMillis >= slowMillis;
+        int base = row * ROW;
+        cells.incrementAndGet(base + CALLS);
+        if (slow) {
+            cells.incrementAndGet(base + SLOW_CALLS);
+        }
+        cells.incrementAndGet(base + FIRST_BUCKET + bucket(latencyMillis));
+        return slow;
+    }
+
+    /**
+     * @param now the current time in milliseconds
+     * @return the number of calls in the window
+     */
+    public long getCalls(long now) {
+        return sum(now, CALLS);
+    }
+
+    /**
+     * @param now the current time in milliseconds
+     * @return the number of slow calls in the window
+     */
+    public long getSlowCalls(long now) {
+        return sum(now, SLOW_CALLS);
+    }
+
+    /**
+     * Returns whether the response time that the given percentage of the calls
+     * in the window did not exceed is slow.  Unlike comparing
+     * {@link #getPercentile(long, double)} with the slow call time, this is
+     * exact: it counts the calls that were faster.
+     * @param now the current time in milliseconds
+     * @param percentile the percentile, between 0 and 100
+     */
+    public boolean isPercentileSlow(long now, double percentile) {
+        long calls = getCalls(now);
+        if (calls == 0) {
+            return false;
+        }
+        long rank = (long) Math.ceil(calls * percentile / 100);
+        return calls - getSlowCalls(now) < Math.max(1, rank);
+    }
+
+    /**
+     * Returns the response time that the given percentage of the calls in the
+     * window did not exceed, rounded up to the largest time of its bucket.
+     * @param now the current time in milliseconds
+     * @param percentile the percentile, between 0 and 100
+     */
+    public long getPercentile(long now, double percentile) {
+        long slice = now / sliceMillis;
+        long[] counts = new long[BUCKETS];
+        long total = 0;
+        for (int row = 0; row < SLICES; row++) {
+            if (inWindow(slice, row)) {
+                int base = row * ROW + FIRST_BUCKET;
+                for (int bucket = 0; bucket < BUCKETS; bucket++) {
+                    long count = cells.get(base + bucket);
+                    counts[bucket] += count;
+                    total += count;
+                }
+            }
+        }
+        if (total == 0) {
+            return 0;
+        }
+        long rank = (long) Math.ceil(total * percentile / 100);
+        long seen = 0;
+        for (int bucket = 0; bucket < BUCKETS; bucket++) {
+            seen += counts[bucket];
+            if (seen >= rank && counts[bucket] > 0) {
+                return upperBound(bucket);
+            }
+        }
+        return upperBound(BUCKETS - 1);
+    }
+
+    /**
+     * Forgets all calls.
+     */
+    public void clear() {
+        for (int row = 0; row < SLICES; row++) {
+            epochs.set(row, 0);
+        }
+        for (int idx = 0; idx < cells.length(); idx++) {
+            cells.set(idx, 0);
+        }
+    }
+
+    private long sum(long now, int column) {
+        long slice = now / sliceMillis;
+        long total = 0;
+        for (int row = 0; row < SLICES; row++) {
+            if (inWindow(slice, row)) {
+                total += cells.get(row * ROW + column);
+            }
+        }
+        return total;
+    }
+
+    private boolean inWindow(long slice, int row) {
+        long age = slice - epochs.get(row);
+        return age >= 0 && age < SLICES;
+    }
+
+    /**
+     * @return the bucket of a response time
+     */
+    static int bucket(long latencyMillis) {
+        if (latencyMillis < SUB_BUCKETS) {
+            return (int) Math.max(0, latencyMillis);
+        }
+        int power = Math.min(MAX_POWER, 63 - Long.numberOfLeadingZeros(latencyMillis));
+        long sub = power == MAX_POWER && latencyMillis >= (2L << MAX_POWER) ? SUB_BUCKETS - 1
+                : (latencyMillis >>> (power - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return (power - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + (int) sub;
+    }
+
+    /**
+     * @return the smallest response time of a bucket
+     */
+    static long lowerBound(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        int power = bucket / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+        long sub = bucket % SUB_BUCKETS;
+        return (SUB_BUCKETS + sub) << (power - SUB_BUCKET_BITS);
+    }
+
+    /**
+     * @return the largest response time of a bucket
+     */
+    static long upperBound(int bucket) {
+        return bucket == BUCKETS - 1 ? Long.MAX_VALUE : lowerBound(bucket + 1) - 1;
+    }
+
+}
@@ -0,0 +1,124 @@
+/*
+ * Copyright 2016 JBoss Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.apiman.plugins.circuit_breaker;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The state of a circuit as shared between gateway nodes: the time until which
+ * some node has broken the circuit, and the number of faults each node has seen
+ * in its time window, as of its last update.  Stored as a string so that it
+ * fits any shared state implementation:
+ * <pre>brokenUntil;node=faults@updatedOn;node=faults@updatedOn...</pre>
+ */
+public class SharedCircuitState {
+
+    private long brokenUntil;
+    private final Map<String, long[]> nodes = new LinkedHashMap<>();
+
+    /**
+     * Parses a shared state, ignoring anything it doesn't understand.
+     * @param value the stored value, may be null or empty
+     */
+    public static SharedCircuitState parse(String value) {
+        SharedCircuitState state = new SharedCircuitState();
+        if (value == null || value.isEmpty()) {
+            return state;
+        }
+        try {
+            String[] parts = value.split(";"); //$NON-NLS-1$
+            state.brokenUntil = Long.parseLong(parts[0]);
+            for (int idx = 1; idx < parts.length; idx++) {
+                int eq = parts[idx].indexOf('=');
+                int at = parts[idx].indexOf('@', eq);
+                if (eq > 0 && at > eq) {
+                    state.nodes.put(parts[idx].substring(0, eq), new long[] {
+                            Long.parseLong(parts[idx].substring(eq + 1, at)),
+                            Long.parseLong(parts[idx].substring(at + 1)) });
+                }
+            }
+        } catch (NumberFormatException e) {
+            return new SharedCircuitState();
+        }
+        return state;
+    }
+
+    /**
+     * @return the time until which the circuit is broken, or 0
+     */
+    public long getBrokenUntil() {
+        return brokenUntil;
+    }
+
+    /**
+     * Extends the time until which the circuit is broken.
+     * @param brokenUntil the time
+     */
+    public void breakUntil(long brokenUntil) {
+        this.brokenUntil = Math.max(this.brokenUntil, brokenUntil);
+    }
+
+    /**
+     * Returns the faults seen by the other nodes, counting only their updates
+     * made within the window and after the circuit was last broken.
+     * @param nodeId this node
+     * @param since the oldest update to count
+     */
+    public int getFaults(String nodeId, long since) {
+        long total = 0;
+        for (Map.Entry<String, long[]> node : nodes.entrySet()) {
+            if (!node.getKey().equals(nodeId) && node.getValue()[1] >= since) {
+                total += node.getValue()[0];
+            }
+        }
+        return (int) Math.min(Integer.MAX_VALUE, total);
+    }
+
+    /**
+     * Sets the faults seen by a node and drops the updates older than the
+     * given time.
+     * @param nodeId the node
+     * @param faults the faults the node has seen in its window
+     * @param now the current time
+     * @param since the oldest update to keep
+     */
+    public void update(String nodeId, int faults, long now, long since) {
+        nodes.put(nodeId, new long[] { faults, now });
+        Iterator<long[]> updates = nodes.values().iterator();
+        while (updates.hasNext()) {
+            if (updates.next()[1] < since) {
+                updates.remove();
+            }
+        }
+    }
+
+    /**
+     * @see java.lang.Object#toString()
+     */
+    @Override
+    public String toString() {
+        StringBuilder value = new StringBuilder().append(brokenUntil);
+        for (Map.Entry<String, long[]> node : nodes.entrySet()) {
+            value.append(';').append(node.getKey()).append('=').append(node.getValue()[0]).append('@')
+                    .append(node.getValue()[1]);
+        }
+        return value.toString();
+    }
+
+}
@@ -0,0 +1,148 @@
+/*
+ * Copyright 2016 JBoss Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.apiman.plugins.circuit_breaker;
+
+import io.apiman.gateway.engine.beans.ApiResponse;
+import io.apiman.gateway.engine.beans.util.HeaderMap;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * A successful response of the back-end API, kept to be served while its
+ * circuit is broken.  Only responses that any client may see are kept (see
+ * {@link #isStorable(HeaderMap, ApiResponse)}), and a response is only served
+ * to requests with the same values for the headers it varies on.
+ */
+public class StaleResponse {
+
+    private static final String AUTHORIZATION = "Authorization"; //$NON-NLS-1$
+    private static final String CACHE_CONTROL = "Cache-Control"; //$NON-NLS-1$
+    private static final String SET_COOKIE = "Set-Cookie"; //$NON-NLS-1$
+    private static final String VARY = "Vary"; //$NON-NLS-1$
+
+    private final int code;
+    private final String message;
+    private final HeaderMap headers;
+    private final byte[] body;
+    private final long storedOn;
+    private final String[] varyNames;
+    private final String[] varyValues;
+
+    /**
+     * Constructor.
+     * @param head the response
+     * @param requestHeaders the headers of the request the response answered
+     * @param body the body of the response
+     * @param storedOn when the response was received
+     */
+    public StaleResponse(ApiResponse head, HeaderMap requestHeaders, byte[] body, long storedOn) {
+        this.code = head.getCode();
+        this.message = head.getMessage();
+        this.headers = new HeaderMap();
+        this.headers.addAll(head.getHeaders());
+        this.headers.remove(SET_COOKIE);
+        this.body = body;
+        this.storedOn = storedOn;
+        List<String> names = varyNames(head.getHeaders());
+        this.varyNames = names.toArray(new String[names.size()]);
+        this.varyValues = new String[varyNames.length];
+        for (int i = 0; i < varyNames.length; i++) {
+            varyValues[i] = requestHeaders.get(varyNames[i]);
+        }
+    }
+
+    /**
+     * Returns true if a response may be served to other clients than the one
+     * it was meant for: the request didn't carry credentials, and the response
+     * doesn't set cookies, isn't marked private or no-store, and doesn't vary
+     * on everything.
+     * @param requestHeaders the headers of the request the response answered
+     * @param response the response
+     */
+    public static boolean isStorable(HeaderMap requestHeaders, ApiResponse response) {
+        HeaderMap headers = response.getHeaders();
+        if (requestHeaders.containsKey(AUTHORIZATION) || headers.containsKey(SET_COOKIE)) {
+            return false;
+        }
+        for (String cacheControl : headers.getAll(CACHE_CONTROL)) {
+            for (String directive : cacheControl.split(",")) { //$NON-NLS-1$
+                String name = directive.trim().toLowerCase(Locale.ROOT);
+                if (name.startsWith("private") || name.equals("no-store")) { //$NON-NLS-1$ //$NON-NLS-2$
+                    return false;
+                }
+            }
+        }
+        return !varyNames(headers).contains("*"); //$NON-NLS-1$
+    }
+
+    /**
+     * @param requestHeaders the headers of a request
+     * @return true if the request has the same values as the one this response
+     *         answered for the headers the response varies on
+     */
+    public boolean matches(HeaderMap requestHeaders) {
+        for (int i = 0; i < varyNames.length; i++) {
+            String value = requestHeaders.get(varyNames[i]);
+            if (value == null ? varyValues[i] != null : !value.equals(varyValues[i])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static List<String> varyNames(HeaderMap headers) {
+        List<String> names = new ArrayList<>();
+        for (String vary : headers.getAll(VARY)) {
+            for (String name : vary.split(",")) { //$NON-NLS-1$
+                if (!name.trim().isEmpty()) {
+                    names.add(name.trim());
+                }
+            }
+        }
+        return names;
+    }
+
+    /**
+     * @return a new copy of the response, which policies may change
+     */
+    public ApiResponse newHead() {
+        ApiResponse response = new ApiResponse();
+        response.setCode(code);
+        response.setMessage(message);
+        HeaderMap copy = new HeaderMap();
+        copy.addAll(headers);
+        response.setHeaders(copy);
+        return response;
+    }
+
+    /**
+     * @return the body
+     */
+    public byte[] getBody() {
+        return body;
+    }
+
+    /**
+     * @return when the response was received
+     */
+    public long getStoredOn() {
+        return storedOn;
+    }
+
+}
@@ -0,0 +1,102 @@
+/*
+ * Copyright 2016 JBoss Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.apiman.plugins.circuit_breaker;
+
+import io.apiman.gateway.engine.beans.util.HeaderMap;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * The last successful GET responses of each endpoint of the APIs that serve
+ * stale responses while their circuit is broken.  Each API has its own least
+ * recently used cache, bounded by the number of endpoints it holds.
+ */
+public class StaleResponseCache {
+
+    private final ConcurrentMap<CircuitKey, ApiCache> caches = new ConcurrentHashMap<>();
+
+    /**
+     * Returns the key a request's response is cached under.
+     * @param destination the destination of the request
+     * @param queryString the query string of the request, may be empty
+     */
+    public static String key(String destination, String queryString) {
+        if (queryString == null || queryString.isEmpty()) {
+            return destination;
+        }
+        return destination + '?' + queryString;
+    }
+
+    /**
+     * @param api the API
+     * @param endpoint the key of the endpoint
+     * @param requestHeaders the headers of the request to answer
+     * @param maxAge how long (in milliseconds) a response is served for
+     * @param now the current time
+     * @return the last response of the endpoint, or null if there is none, it
+     *         is too old, or it varies on a header the request has another value for
+     */
+    public StaleResponse get(CircuitKey api, String endpoint, HeaderMap requestHeaders, long maxAge, long now) {
+        ApiCache cache = caches.get(api);
+        if (cache == null) {
+            return null;
+        }
+        StaleResponse response = cache.get(endpoint);
+        if (response == null || now - response.getStoredOn() > maxAge || !response.matches(requestHeaders)) {
+            return null;
+        }
+        return response;
+    }
+
+    /**
+     * Keeps the last response of an endpoint.
+     * @param api the API
+     * @param endpoint the key of the endpoint
+     * @param response the response
+     * @param maxEndpoints the maximum number of endpoints kept for the API
+     */
+    public void put(CircuitKey api, String endpoint, StaleResponse response, int maxEndpoints) {
+        caches.computeIfAbsent(api, k -> new ApiCache()).put(endpoint, response, Math.max(1, maxEndpoints));
+    }
+
+    /**
+     * The responses kept for one API, in access order.
+     */
+    private static final class ApiCache {
+        private final LinkedHashMap<String, StaleResponse> responses = new LinkedHashMap<>(16, 0.75f, true);
+
+        synchronized StaleResponse get(String endpoint) {
+            return responses.get(endpoint);
+        }
+
+        synchronized void put(String endpoint, StaleResponse response, int maxEndpoints) {
+            responses.put(endpoint, response);
+            if (responses.size() > maxEndpoints) {
+                Iterator<Map.Entry<String, StaleResponse>> eldest = responses.entrySet().iterator();
+                while (responses.size() > maxEndpoints && eldest.hasNext()) {
+                    eldest.next();
+                    eldest.remove();
+                }
+            }
+        }
+    }
+
+}
@@ -0,0 +1,133 @@
+/*
+ * Copyright 2016 JBoss Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.apiman.plugins.circuit_breaker;
+
+import io.apiman.gateway.engine.IApiConnection;
+import io.apiman.gateway.engine.IApiConnectionResponse;
+import io.apiman.gateway.engine.IApiConnector;
+import io.apiman.gateway.engine.async.AsyncResultImpl;
+import io.apiman.gateway.engine.async.IAsyncHandler;
+import io.apiman.gateway.engine.async.IAsyncResultHandler;
+import io.apiman.gateway.engine.beans.ApiRequest;
+import io.apiman.gateway.engine.beans.ApiResponse;
+import io.apiman.gateway.engine.beans.exceptions.ConnectorException;
+import io.apiman.gateway.engine.components.IBufferFactoryComponent;
+import io.apiman.gateway.engine.io.IApimanBuffer;
+
+/**
+ * A connector that doesn't call the back-end API (its circuit is broken) but
+ * answers with a stale response instead.
+ */
+public class StaleResponseConnector implements IApiConnector {
+
+    static final String WARNING_HEADER = "Warning"; //$NON-NLS-1$
+    static final String STALE_WARNING = "110 - \"Response is Stale\""; //$NON-NLS-1$
+
+    private final StaleResponse staleResponse;
+    private final IBufferFactoryComponent bufferFactory;
+
+    /**
+     * Constructor.
+     * @param staleResponse the response to answer with
+     * @param bufferFactory the buffer factory
+     */
+    public StaleResponseConnector(StaleResponse staleResponse, IBufferFactoryComponent bufferFactory) {
+        this.staleResponse = staleResponse;
+        this.bufferFactory = bufferFactory;
+    }
+
+    /**
+     * @see io.apiman.gateway.engine.IApiConnector#connect(io.apiman.gateway.engine.beans.ApiRequest, io.apiman.gateway.engine.async.IAsyncResultHandler)
+     */
+    @Override
+    public IApiConnection connect(ApiRequest request, IAsyncResultHandler<IApiConnectionResponse> handler)
+            throws ConnectorException {
+        return new StaleResponseConnection(handler);
+    }
+
+    /**
+     * A connection that ignores the request and plays back the stale response.
+     */
+    private class StaleResponseConnection implements IApiConnection, IApiConnectionResponse {
+        private final IAsyncResultHandler<IApiConnectionResponse> responseHandler;
+        private final ApiResponse response;
+        private IAsyncHandler<IApimanBuffer> bodyHandler;
+        private IAsyncHandler<Void> endHandler;
+        private boolean finished = false;
+
+        StaleResponseConnection(IAsyncResultHandler<IApiConnectionResponse> handler) {
+            responseHandler = handler;
+            response = staleResponse.newHead();
+            response.getHeaders().add(WARNING_HEADER, STALE_WARNING);
+        }
+
+        @Override
+        public void abort() {
+        }
+
+        @Override
+        public void abort(Throwable t) {
+        }
+
+        @Override
+        public boolean isFinished() {
+            return finished;
+        }
+
+        @Override
+        public boolean isConnected() {
+            return !finished;
+        }
+
+        @Override
+        public void write(IApimanBuffer chunk) {
+        }
+
+        @Override
+        public void end() {
+            responseHandler.handle(AsyncResultImpl.<IApiConnectionResponse> create(this));
+        }
+
+        @Override
+        public void transmit() {
+            byte[] body = staleResponse.getBody();
+            if (body.length > 0 && bodyHandler != null) {
+                IApimanBuffer buffer = bufferFactory.createBuffer(body.length);
+                buffer.append(body);
+                bodyHandler.handle(buffer);
+            }
+            endHandler.handle((Void) null);
+            finished = true;
+        }
+
+        @Override
+        public void bodyHandler(IAsyncHandler<IApimanBuffer> bodyHandler) {
+            this.bodyHandler = bodyHandler;
+        }
+
+        @Override
+        public void endHandler(IAsyncHandler<Void> endHandler) {
+            this.endHandler = endHandler;
+        }
+
+        @Override
+        public ApiResponse getHead() {
+            return response;
+        }
+    }
+
+}
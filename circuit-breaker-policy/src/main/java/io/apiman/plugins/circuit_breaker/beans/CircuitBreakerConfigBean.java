@@ -16,9 +16,16 @@
 
 package io.apiman.plugins.circuit_breaker.beans;
 
+import io.apiman.plugins.circuit_breaker.CircuitKey;
+import io.apiman.plugins.circuit_breaker.CircuitRouter;
+import io.apiman.plugins.circuit_breaker.ErrorCodeMatcher;
+
+import java.util.ArrayList;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonProperty;
 
 /**
@@ -31,6 +38,10 @@ public class CircuitBreakerConfigBean {
     @JsonProperty
     private Set<String> errorCodes = new HashSet<>();
     @JsonProperty
+    private CircuitGranularity granularity = CircuitGranularity.API;
+    @JsonProperty
+    private List<String> resources = new ArrayList<>();
+    @JsonProperty
     private int window;
     @JsonProperty
     private int limit;
@@ -38,6 +49,38 @@ public class CircuitBreakerConfigBean {
     private int reset;
     @JsonProperty
     private int failureCode;
+    @JsonProperty
+    private int probes = 1;
+    @JsonProperty
+    private int probeSuccesses = 1;
+    @JsonProperty
+    private int rampUp;
+    @JsonProperty
+    private int rampUpStart = 10;
+    @JsonProperty
+    private boolean distributed;
+    @JsonProperty
+    private int syncInterval = 5;
+    @JsonProperty
+    private int slowCall;
+    @JsonProperty
+    private int slowCallRate = 50;
+    @JsonProperty
+    private int slowCallPercentile;
+    @JsonProperty
+    private int minimumCalls = 10;
+    @JsonProperty
+    private boolean staleResponses;
+    @JsonProperty
+    private int staleResponseMaxAge = 300;
+    @JsonProperty
+    private int staleResponseMaxSize = 65536;
+    @JsonProperty
+    private int staleResponseEndpoints = 100;
+
+    private transient volatile CircuitKey circuitKey;
+    private transient volatile ErrorCodeMatcher errorCodeMatcher;
+    private transient volatile CircuitRouter circuitRouter;
 
     /**
      * Constructor.
@@ -57,6 +100,63 @@ public class CircuitBreakerConfigBean {
      */
     public void setErrorCodes(Set<String> errorCodes) {
         this.errorCodes = errorCodes;
+        this.errorCodeMatcher = null;
+    }
+
+    /**
+     * @return the errorCodes, compiled for fast matching
+     */
+    @JsonIgnore
+    public ErrorCodeMatcher getErrorCodeMatcher() {
+        ErrorCodeMatcher matcher = errorCodeMatcher;
+        if (matcher == null) {
+            matcher = new ErrorCodeMatcher(errorCodes);
+            errorCodeMatcher = matcher;
+        }
+        return matcher;
+    }
+
+    /**
+     * @return the granularity
+     */
+    public CircuitGranularity getGranularity() {
+        return granularity;
+    }
+
+    /**
+     * @param granularity what a circuit covers
+     */
+    public void setGranularity(CircuitGranularity granularity) {
+        this.granularity = granularity;
+        this.circuitRouter = null;
+    }
+
+    /**
+     * @return the resources
+     */
+    public List<String> getResources() {
+        return resources;
+    }
+
+    /**
+     * @param resources the resources that get their own circuit (path templates or regexes)
+     */
+    public void setResources(List<String> resources) {
+        this.resources = resources;
+        this.circuitRouter = null;
+    }
+
+    /**
+     * @return the granularity and resources, compiled for fast routing
+     */
+    @JsonIgnore
+    public CircuitRouter getCircuitRouter() {
+        CircuitRouter router = circuitRouter;
+        if (router == null) {
+            router = new CircuitRouter(granularity, resources);
+            circuitRouter = router;
+        }
+        return router;
     }
 
     /**
@@ -114,4 +214,217 @@ public class CircuitBreakerConfigBean {
     public void setFailureCode(int failureCode) {
         this.failureCode = failureCode;
     }
+
+    /**
+     * @return the probes
+     */
+    public int getProbes() {
+        return probes;
+    }
+
+    /**
+     * @param probes the # of requests let through at once while the circuit is being reset
+     */
+    public void setProbes(int probes) {
+        this.probes = probes;
+    }
+
+    /**
+     * @return the probeSuccesses
+     */
+    public int getProbeSuccesses() {
+        return probeSuccesses;
+    }
+
+    /**
+     * @param probeSuccesses the # of successful probes needed to close the circuit
+     */
+    public void setProbeSuccesses(int probeSuccesses) {
+        this.probeSuccesses = probeSuccesses;
+    }
+
+    /**
+     * @return the rampUp
+     */
+    public int getRampUp() {
+        return rampUp;
+    }
+
+    /**
+     * @param rampUp the time (in seconds) over which traffic is let back in once the circuit closes
+     */
+    public void setRampUp(int rampUp) {
+        this.rampUp = rampUp;
+    }
+
+    /**
+     * @return the rampUpStart
+     */
+    public int getRampUpStart() {
+        return rampUpStart;
+    }
+
+    /**
+     * @param rampUpStart the percentage of traffic let through when the ramp up starts
+     */
+    public void setRampUpStart(int rampUpStart) {
+        this.rampUpStart = rampUpStart;
+    }
+
+    /**
+     * @return the distributed
+     */
+    public boolean isDistributed() {
+        return distributed;
+    }
+
+    /**
+     * @param distributed whether the circuit is shared by all gateway nodes
+     */
+    public void setDistributed(boolean distributed) {
+        this.distributed = distributed;
+    }
+
+    /**
+     * @return the syncInterval
+     */
+    public int getSyncInterval() {
+        return syncInterval;
+    }
+
+    /**
+     * @param syncInterval how often (in seconds) a node shares its circuit with the others
+     */
+    public void setSyncInterval(int syncInterval) {
+        this.syncInterval = syncInterval;
+    }
+
+    /**
+     * @return the slowCall
+     */
+    public int getSlowCall() {
+        return slowCall;
+    }
+
+    /**
+     * @param slowCall the response time (in milliseconds) from which a call is slow, 0 for none
+     */
+    public void setSlowCall(int slowCall) {
+        this.slowCall = slowCall;
+    }
+
+    /**
+     * @return the slowCallRate
+     */
+    public int getSlowCallRate() {
+        return slowCallRate;
+    }
+
+    /**
+     * @param slowCallRate the percentage of slow calls that trips the circuit
+     */
+    public void setSlowCallRate(int slowCallRate) {
+        this.slowCallRate = slowCallRate;
+    }
+
+    /**
+     * @return the slowCallPercentile
+     */
+    public int getSlowCallPercentile() {
+        return slowCallPercentile;
+    }
+
+    /**
+     * @param slowCallPercentile the response time percentile that trips the circuit when it is slow
+     */
+    public void setSlowCallPercentile(int slowCallPercentile) {
+        this.slowCallPercentile = slowCallPercentile;
+    }
+
+    /**
+     * @return the minimumCalls
+     */
+    public int getMinimumCalls() {
+        return minimumCalls;
+    }
+
+    /**
+     * @param minimumCalls the # of calls within the window before slow calls can trip the circuit
+     */
+    public void setMinimumCalls(int minimumCalls) {
+        this.minimumCalls = minimumCalls;
+    }
+
+    /**
+     * @return the staleResponses
+     */
+    public boolean isStaleResponses() {
+        return staleResponses;
+    }
+
+    /**
+     * @param staleResponses whether the last good GET responses are served while the circuit is broken
+     */
+    public void setStaleResponses(boolean staleResponses) {
+        this.staleResponses = staleResponses;
+    }
+
+    /**
+     * @return the staleResponseMaxAge
+     */
+    public int getStaleResponseMaxAge() {
+        return staleResponseMaxAge;
+    }
+
+    /**
+     * @param staleResponseMaxAge how long (in seconds) a response may be served once stale
+     */
+    public void setStaleResponseMaxAge(int staleResponseMaxAge) {
+        this.staleResponseMaxAge = staleResponseMaxAge;
+    }
+
+    /**
+     * @return the staleResponseMaxSize
+     */
+    public int getStaleResponseMaxSize() {
+        return staleResponseMaxSize;
+    }
+
+    /**
+     * @param staleResponseMaxSize the size (in bytes) of the largest body kept
+     */
+    public void setStaleResponseMaxSize(int staleResponseMaxSize) {
+        this.staleResponseMaxSize = staleResponseMaxSize;
+    }
+
+    /**
+     * @return the staleResponseEndpoints
+     */
+    public int getStaleResponseEndpoints() {
+        return staleResponseEndpoints;
+    }
+
+    /**
+     * @param staleResponseEndpoints the # of endpoints whose last response is kept
+     */
+    public void setStaleResponseEndpoints(int staleResponseEndpoints) {
+        this.staleResponseEndpoints = staleResponseEndpoints;
+    }
+
+    /**
+     * @return the key of the circuit last used with this config, or null
+     */
+    @JsonIgnore
+    public CircuitKey getCircuitKey() {
+        return circuitKey;
+    }
+
+    /**
+     * @param circuitKey the key of the circuit used with this config
+     */
+    @JsonIgnore
+    public void setCircuitKey(CircuitKey circuitKey) {
+        this.circuitKey = circuitKey;
+    }
+
 }
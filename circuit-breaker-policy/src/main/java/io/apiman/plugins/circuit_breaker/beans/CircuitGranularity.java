@@ -0,0 +1,33 @@
+/*
+ * Copyright 2016 JBoss Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.apiman.plugins.circuit_breaker.beans;
+
+/**
+ * What a circuit covers.
+ */
+public enum CircuitGranularity {
+
+    /** One circuit per API version. */
+    API,
+    /** One circuit per HTTP method of an API version. */
+    METHOD,
+    /** One circuit per configured resource (path template or regex) of an API version. */
+    RESOURCE,
+    /** One circuit per back-end host, shared by all the APIs it serves. */
+    HOST
+
+}
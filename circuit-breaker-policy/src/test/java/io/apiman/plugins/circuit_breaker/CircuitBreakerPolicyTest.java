@@ -120,4 +120,73 @@ public class CircuitBreakerPolicyTest extends ApimanPolicyTest {
         }
     }
     
+    @Test
+    @Configuration("{" + 
+            "    \"errorCodes\" : [ \"5**\" ]," + 
+            "    \"window\" : 60," + 
+            "    \"limit\" : 1," + 
+            "    \"reset\" : 60," + 
+            "    \"failureCode\" : 503," + 
+            "    \"staleResponses\" : true" + 
+            "}")
+    public void testStaleResponses() throws PolicyFailureError, Throwable {
+        PolicyTestRequest okRequest = PolicyTestRequest.build(PolicyTestRequestType.GET, "/path/to/resource");
+        PolicyTestRequest errorRequest = PolicyTestRequest.build(PolicyTestRequestType.GET, "/path/to/resource");
+        errorRequest.header("X-Echo-ErrorCode", "500");
+
+        PolicyTestResponse response = send(okRequest);
+        Assert.assertEquals(200, response.code());
+        String body = response.body();
+        Assert.assertNull(response.header("Warning"));
+
+        // Trips the circuit
+        response = send(errorRequest);
+        Assert.assertEquals(500, response.code());
+
+        // The last good response of the endpoint is served instead
+        response = send(okRequest);
+        Assert.assertEquals(200, response.code());
+        Assert.assertEquals(body, response.body());
+        Assert.assertEquals("110 - \"Response is Stale\"", response.header("Warning"));
+
+        // Other endpoints have nothing to serve
+        try {
+            send(PolicyTestRequest.build(PolicyTestRequestType.GET, "/path/to/other"));
+            Assert.fail("Expected the circuit to be broken");
+        } catch (PolicyFailureError pf) {
+            Assert.assertEquals(503, pf.getFailure().getResponseCode());
+        }
+    }
+
+    @Test
+    @Configuration("{" + 
+            "    \"errorCodes\" : [ \"5**\" ]," + 
+            "    \"window\" : 60," + 
+            "    \"limit\" : 1," + 
+            "    \"reset\" : 60," + 
+            "    \"failureCode\" : 503," + 
+            "    \"staleResponses\" : true" + 
+            "}")
+    public void testStaleResponsesAreNotKeptForCredentials() throws PolicyFailureError, Throwable {
+        PolicyTestRequest okRequest = PolicyTestRequest.build(PolicyTestRequestType.GET, "/path/to/resource");
+        okRequest.header("Authorization", "Bearer alice");
+        PolicyTestRequest errorRequest = PolicyTestRequest.build(PolicyTestRequestType.GET, "/path/to/resource");
+        errorRequest.header("X-Echo-ErrorCode", "500");
+
+        PolicyTestResponse response = send(okRequest);
+        Assert.assertEquals(200, response.code());
+
+        // Trips the circuit
+        response = send(errorRequest);
+        Assert.assertEquals(500, response.code());
+
+        // The response to the request with credentials wasn't kept, so there is nothing to serve
+        try {
+            send(PolicyTestRequest.build(PolicyTestRequestType.GET, "/path/to/resource"));
+            Assert.fail("Expected the circuit to be broken");
+        } catch (PolicyFailureError pf) {
+            Assert.assertEquals(503, pf.getFailure().getResponseCode());
+        }
+    }
+
 }
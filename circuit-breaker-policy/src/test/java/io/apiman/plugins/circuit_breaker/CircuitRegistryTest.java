@@ -0,0 +1,137 @@
+/*
+ * Copyright 2016 JBoss Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.apiman.plugins.circuit_breaker;
+
+import io.apiman.plugins.circuit_breaker.beans.CircuitBreakerConfigBean;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class CircuitRegistryTest {
+
+    private static final long T0 = 1500000000000L;
+    private static final long HOUR = 3600000L;
+
+    private final CircuitBreakerConfigBean config = new CircuitBreakerConfigBean();
+
+    @Test
+    public void testOneCircuitPerApi() {
+        CircuitRegistry registry = new CircuitRegistry();
+        Circuit circuit = registry.get(new CircuitKey("org", "api", "1.0"), config);
+        Assert.assertSame(circuit, registry.get(new CircuitKey("org", "api", "1.0"), config));
+        Assert.assertNotSame(circuit, registry.get(new CircuitKey("org", "api", "2.0"), config));
+        Assert.assertEquals(2, registry.size());
+    }
+
+    @Test
+    public void testConcurrentRequestsShareCircuit() throws InterruptedException {
+        final CircuitRegistry registry = new CircuitRegistry();
+        final Set<Circuit> circuits = Collections.synchronizedSet(
+                Collections.newSetFromMap(new IdentityHashMap<Circuit, Boolean>()));
+        final CountDownLatch start = new CountDownLatch(1);
+        Thread[] threads = new Thread[8];
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                circuits.add(registry.get(new CircuitKey("org", "api", "1.0"), config));
+            });
+            threads[i].start();
+        }
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        Assert.assertEquals(1, circuits.size());
+    }
+
+    @Test
+    public void testIdleCircuitsAreDropped() {
+        CircuitRegistry registry = new CircuitRegistry(100, HOUR);
+        Circuit retired = registry.get(new CircuitKey("org", "api", "1.0"), config, T0);
+        registry.get(new CircuitKey("org", "api", "2.0"), config, T0);
+        // only 2.0 is still used
+        registry.get(new CircuitKey("org", "api", "2.0"), config, T0 + HOUR);
+        registry.get(new CircuitKey("org", "api", "2.0"), config, T0 + HOUR + 120000);
+        Assert.assertEquals(1, registry.size());
+        Assert.assertNotSame(retired, registry.get(new CircuitKey("org", "api", "1.0"), config, T0 + HOUR + 120000));
+    }
+
+    @Test
+    public void testLeastRecentlyUsedCircuitsAreDroppedBeyondSize() {
+        CircuitRegistry registry = new CircuitRegistry(10, HOUR);
+        List<Circuit> circuits = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            circuits.add(registry.get(new CircuitKey("org", "api", i + ".0"), config, T0 + i * 1000));
+        }
+        registry.get(new CircuitKey("org", "api", "0.0"), config, T0 + 10000);
+        registry.get(new CircuitKey("org", "api", "10.0"), config, T0 + 11000);
+        // a tenth of the registry is freed, so the next new API doesn't sweep it again
+        Assert.assertEquals(9, registry.size());
+        registry.get(new CircuitKey("org", "api", "11.0"), config, T0 + 12000);
+        Assert.assertEquals(10, registry.size());
+
+        Assert.assertSame(circuits.get(0), registry.get(new CircuitKey("org", "api", "0.0"), config, T0 + 13000));
+        Assert.assertSame(circuits.get(3), registry.get(new CircuitKey("org", "api", "3.0"), config, T0 + 13000));
+        Assert.assertNotSame(circuits.get(1), registry.get(new CircuitKey("org", "api", "1.0"), config, T0 + 13000));
+        Assert.assertNotSame(circuits.get(2), registry.get(new CircuitKey("org", "api", "2.0"), config, T0 + 13000));
+    }
+
+    @Test
+    public void testListenersAndMetrics() {
+        CircuitRegistry registry = new CircuitRegistry();
+        List<String> changes = new ArrayList<>();
+        registry.addListener((key, from, to, metrics) -> {
+            throw new IllegalStateException();
+        });
+        registry.addListener((key, from, to, metrics) -> changes.add(key.getVersion() + ":" + from + "->" + to));
+        config.setLimit(2);
+        config.setWindow(60);
+        config.setReset(60);
+        CircuitKey key = new CircuitKey("org", "api", "1.0");
+        Circuit circuit = registry.get(key, config);
+        Assert.assertNull(registry.getMetrics(new CircuitKey("org", "api", "2.0")));
+        Assert.assertSame(circuit.getMetrics(), registry.getMetrics(key));
+        Assert.assertTrue(registry.getKeys().contains(key));
+
+        circuit.admit();
+        circuit.addFault();
+        circuit.admit();
+        circuit.addFault();
+        Assert.assertEquals(Collections.singletonList("1.0:CLOSED->BROKEN"), changes);
+        Assert.assertEquals(Circuit.Admission.REJECT, circuit.admit());
+
+        CircuitMetrics metrics = registry.getMetrics(key);
+        Assert.assertEquals(Circuit.State.BROKEN, metrics.getState());
+        Assert.assertEquals(2, metrics.getCalls());
+        Assert.assertEquals(2, metrics.getFaults());
+        Assert.assertEquals(1, metrics.getRejections());
+        Assert.assertEquals(1, metrics.getTrips());
+        Assert.assertEquals(0, metrics.getCloses());
+    }
+
+}
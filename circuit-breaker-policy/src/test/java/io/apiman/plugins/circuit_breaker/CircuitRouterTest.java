@@ -0,0 +1,124 @@
+/*
+ * Copyright 2016 JBoss Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.apiman.plugins.circuit_breaker;
+
+import io.apiman.gateway.engine.beans.Api;
+import io.apiman.gateway.engine.beans.ApiRequest;
+import io.apiman.plugins.circuit_breaker.beans.CircuitGranularity;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+@SuppressWarnings("nls")
+public class CircuitRouterTest {
+
+    private final CircuitKey apiKey = new CircuitKey("org", "api", "1.0");
+
+    @Test
+    public void testApi() {
+        CircuitRouter router = new CircuitRouter(CircuitGranularity.API, Collections.<String>emptyList());
+        Assert.assertSame(apiKey, router.route(request("GET", "/items"), apiKey));
+    }
+
+    @Test
+    public void testMethod() {
+        CircuitRouter router = new CircuitRouter(CircuitGranularity.METHOD, null);
+        CircuitKey get = router.route(request("GET", "/items"), apiKey);
+        Assert.assertEquals("GET", get.getResource());
+        Assert.assertEquals("api", get.getApiId());
+        Assert.assertSame(get, router.route(request("GET", "/other"), apiKey));
+        Assert.assertNotEquals(get, router.route(request("POST", "/items"), apiKey));
+    }
+
+    @Test
+    public void testResources() {
+        CircuitRouter router = new CircuitRouter(CircuitGranularity.RESOURCE,
+                Arrays.asList("/reports/{id}/export", "GET /items/**", "^/search/.*", "/status"));
+        Assert.assertEquals("/reports/{id}/export", resource(router, "GET", "/reports/42/export"));
+        Assert.assertEquals("/reports/{id}/export", resource(router, "POST", "/reports/42/export/"));
+        Assert.assertNull(resource(router, "GET", "/reports/42"));
+        Assert.assertNull(resource(router, "GET", "/reports//export"));
+        Assert.assertNull(resource(router, "GET", "/reports/42/export/all"));
+        Assert.assertEquals("GET /items/**", resource(router, "GET", "/items/1/parts"));
+        Assert.assertEquals("GET /items/**", resource(router, "GET", "/items"));
+        Assert.assertNull(resource(router, "DELETE", "/items/1"));
+        Assert.assertEquals("^/search/.*", resource(router, "GET", "/search/books"));
+        Assert.assertEquals("/status", resource(router, "GET", "/status"));
+        Assert.assertNull(resource(router, "GET", "/statuses"));
+        Assert.assertNull(resource(router, "GET", "/"));
+    }
+
+    @Test
+    public void testHost() {
+        CircuitRouter router = new CircuitRouter(CircuitGranularity.HOST, null);
+        CircuitKey key = router.route(request("GET", "/items", "http://backend.example.com:8080/api"), apiKey);
+        Assert.assertEquals("backend.example.com", key.getResource());
+        CircuitKey other = router.route(request("GET", "/items", "http://backend.example.com:8080/api"),
+                new CircuitKey("org", "other", "2.0"));
+        Assert.assertEquals(key, other);
+        Assert.assertSame(apiKey, router.route(request("GET", "/items"), apiKey));
+    }
+
+    @Test
+    public void testResourcesPerApiAreBounded() {
+        CircuitRouter router = new CircuitRouter(CircuitGranularity.METHOD, null);
+        for (int i = 0; i < CircuitKey.MAX_RESOURCES; i++) {
+            Assert.assertNotSame(apiKey, router.route(request("M" + i, "/"), apiKey));
+        }
+        Assert.assertSame(apiKey, router.route(request("ONE-TOO-MANY", "/"), apiKey));
+        Assert.assertNotSame(apiKey, router.route(request("M0", "/"), apiKey));
+    }
+
+    @Test
+    public void testHostsAreBounded() {
+        CircuitRouter router = new CircuitRouter(CircuitGranularity.HOST, null);
+        for (int i = 0; i < CircuitRouter.MAX_HOSTS; i++) {
+            Assert.assertNotSame(apiKey, router.route(request("GET", "/", "http://host" + i + ".example.com/"), apiKey));
+        }
+        Assert.assertSame(apiKey, router.route(request("GET", "/", "http://one-too-many.example.com/"), apiKey));
+        Assert.assertNotSame(apiKey, router.route(request("GET", "/", "http://host0.example.com/"), apiKey));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidRegex() {
+        new CircuitRouter(CircuitGranularity.RESOURCE, Arrays.asList("^/items/("));
+    }
+
+    private String resource(CircuitRouter router, String method, String path) {
+        return router.route(request(method, path), apiKey).getResource();
+    }
+
+    private static ApiRequest request(String method, String path) {
+        return request(method, path, null);
+    }
+
+    private static ApiRequest request(String method, String path, String endpoint) {
+        ApiRequest request = new ApiRequest();
+        request.setType(method);
+        request.setDestination(path);
+        if (endpoint != null) {
+            Api api = new Api();
+            api.setEndpoint(endpoint);
+            request.setApi(api);
+        }
+        return request;
+    }
+
+}
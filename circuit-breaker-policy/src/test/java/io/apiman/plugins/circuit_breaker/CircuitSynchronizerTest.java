@@ -0,0 +1,181 @@
+/*
+ * Copyright 2016 JBoss Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.apiman.plugins.circuit_breaker;
+
+import io.apiman.common.logging.impl.NoOpLoggerFactory;
+import io.apiman.gateway.engine.IComponent;
+import io.apiman.gateway.engine.IComponentRegistry;
+import io.apiman.gateway.engine.async.IAsyncHandler;
+import io.apiman.gateway.engine.components.IPeriodicComponent;
+import io.apiman.gateway.engine.components.ISharedStateComponent;
+import io.apiman.gateway.engine.impl.InMemorySharedStateComponent;
+import io.apiman.gateway.engine.policy.IPolicyContext;
+import io.apiman.gateway.engine.policy.PolicyContextImpl;
+import io.apiman.plugins.circuit_breaker.beans.CircuitBreakerConfigBean;
+
+import java.util.Arrays;
+import java.util.Collection;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class CircuitSynchronizerTest {
+
+    private static final CircuitKey KEY = new CircuitKey("org", "api", "1.0");
+
+    @Test
+    public void testSharedStateFormat() {
+        SharedCircuitState state = SharedCircuitState.parse("");
+        Assert.assertEquals(0, state.getBrokenUntil());
+        state.update("a", 3, 1000, 0);
+        state.update("b", 2, 2000, 0);
+        state.breakUntil(5000);
+        Assert.assertEquals("5000;a=3@1000;b=2@2000", state.toString());
+
+        SharedCircuitState parsed = SharedCircuitState.parse(state.toString());
+        Assert.assertEquals(5000, parsed.getBrokenUntil());
+        Assert.assertEquals(2, parsed.getFaults("a", 0));
+        Assert.assertEquals(5, parsed.getFaults("c", 0));
+        // updates before 1500 don't count
+        Assert.assertEquals(2, parsed.getFaults("c", 1500));
+        parsed.update("c", 1, 3000, 1500);
+        Assert.assertEquals("5000;b=2@2000;c=1@3000", parsed.toString());
+
+        Assert.assertEquals("0", SharedCircuitState.parse("garbage;a=1@2").toString());
+    }
+
+    @Test
+    public void testFaultsOfAllNodesCount() {
+        ISharedStateComponent sharedState = new InMemorySharedStateComponent();
+        CircuitBreakerConfigBean config = config();
+        CircuitSynchronizer nodeA = new CircuitSynchronizer("a");
+        CircuitSynchronizer nodeB = new CircuitSynchronizer("b");
+        TestTimer timerA = new TestTimer();
+        TestTimer timerB = new TestTimer();
+        IPolicyContext contextA = context(sharedState, timerA);
+        IPolicyContext contextB = context(sharedState, timerB);
+        Circuit circuitA = new Circuit(config.getLimit(), config.getWindow(), config.getReset());
+        Circuit circuitB = new Circuit(config.getLimit(), config.getWindow(), config.getReset());
+
+        circuitA.addFault();
+        circuitA.addFault();
+        nodeA.synchronize(KEY, circuitA, config, contextA);
+        timerA.tick();
+        nodeB.synchronize(KEY, circuitB, config, contextB);
+        timerB.tick();
+
+        // B has only seen 2 of the 4 faults itself
+        circuitB.addFault();
+        Assert.assertFalse(circuitB.isBroken());
+        circuitB.addFault();
+        Assert.assertTrue(circuitB.isBroken());
+        Assert.assertFalse(circuitA.isBroken());
+
+        // B breaking the circuit breaks it on A
+        nodeB.synchronize(KEY, circuitB, config, contextB);
+        timerB.tick();
+        nodeA.synchronize(KEY, circuitA, config, contextA);
+        timerA.tick();
+        Assert.assertTrue(circuitA.isBroken());
+        Assert.assertFalse(circuitA.isResettable());
+    }
+
+    @Test
+    public void testCircuitsAreSynchronizedOnTheTimer() {
+        ISharedStateComponent sharedState = new InMemorySharedStateComponent();
+        CircuitBreakerConfigBean config = config();
+        CircuitSynchronizer node = new CircuitSynchronizer("a");
+        TestTimer timer = new TestTimer();
+        IPolicyContext context = context(sharedState, timer);
+        CircuitKey other = new CircuitKey("org", "api", "2.0");
+        Circuit circuit = new Circuit(config.getLimit(), config.getWindow(), config.getReset());
+        circuit.addFault();
+
+        node.synchronize(KEY, circuit, config, context);
+        node.synchronize(KEY, circuit, config, context);
+        node.synchronize(other, circuit, config, context);
+        Assert.assertEquals(1, timer.timers);
+        Assert.assertEquals("", property(sharedState, "org:api:1.0"));
+
+        timer.tick();
+        Assert.assertTrue(property(sharedState, "org:api:1.0").startsWith("0;a=1@"));
+        Assert.assertTrue(property(sharedState, "org:api:2.0").startsWith("0;a=1@"));
+    }
+
+    private static String property(ISharedStateComponent sharedState, String name) {
+        String[] value = new String[1];
+        sharedState.<String> getProperty(CircuitSynchronizer.NAMESPACE, name, "", result -> value[0] = result.getResult());
+        return value[0];
+    }
+
+    private static IPolicyContext context(ISharedStateComponent sharedState, IPeriodicComponent timer) {
+        return new PolicyContextImpl(new IComponentRegistry() {
+            @Override
+            public Collection<IComponent> getComponents() {
+                return Arrays.<IComponent>asList(sharedState, timer);
+            }
+
+            @Override
+            @SuppressWarnings("unchecked")
+            public <T extends IComponent> T getComponent(Class<T> componentType) {
+                return (T) (componentType == IPeriodicComponent.class ? timer : sharedState);
+            }
+        }, new NoOpLoggerFactory());
+    }
+
+    /**
+     * A timer that only fires when told to.
+     */
+    private static final class TestTimer implements IPeriodicComponent {
+        int timers;
+        IAsyncHandler<Long> handler;
+
+        @Override
+        public long setPeriodicTimer(long period, long initialDelay, IAsyncHandler<Long> handler) {
+            this.handler = handler;
+            return ++timers;
+        }
+
+        @Override
+        public long setOneshotTimer(long deadline, IAsyncHandler<Long> handler) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void cancelTimer(long timerId) {
+        }
+
+        @Override
+        public void cancelAll() {
+        }
+
+        void tick() {
+            handler.handle((long) timers);
+        }
+    }
+
+    private static CircuitBreakerConfigBean config() {
+        CircuitBreakerConfigBean config = new CircuitBreakerConfigBean();
+        config.setLimit(4);
+        config.setWindow(60);
+        config.setReset(60);
+        config.setDistributed(true);
+        config.setSyncInterval(0);
+        return config;
+    }
+
+}
@@ -16,6 +16,9 @@
 
 package io.apiman.plugins.circuit_breaker;
 
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
 import org.junit.Assert;
 import org.junit.Test;
 
@@ -120,4 +123,193 @@ public class CircuitTest {
         Assert.assertTrue(circuit.reset());
     }
 
+    /**
+     * Test method for {@link io.apiman.plugins.circuit_breaker.Circuit#admit()}.
+     */
+    @Test
+    public void testCircuit_ProbesAndSuccesses() {
+        Circuit circuit = new Circuit(/*limit*/ 1, /*window*/ 1, /*reset*/ 0, /*probes*/ 2, /*successes*/ 2,
+                /*rampUp*/ 0, /*rampUpStart*/ 100);
+        Assert.assertEquals(Circuit.Admission.PASS, circuit.admit());
+        circuit.addFault();
+        Assert.assertTrue(circuit.isBroken());
+
+        // Two probes at once, no more
+        Assert.assertEquals(Circuit.Admission.PROBE, circuit.admit());
+        Assert.assertEquals(Circuit.Admission.PROBE, circuit.admit());
+        Assert.assertEquals(Circuit.Admission.REJECT, circuit.admit());
+
+        // The first success frees a permit, the second closes the circuit
+        circuit.probeSucceeded();
+        Assert.assertTrue(circuit.isResetting());
+        Assert.assertEquals(Circuit.Admission.PROBE, circuit.admit());
+        circuit.probeSucceeded();
+        Assert.assertFalse(circuit.isBroken());
+        Assert.assertEquals(Circuit.Admission.PASS, circuit.admit());
+
+        // A failed probe breaks the circuit again
+        circuit.addFault();
+        Assert.assertEquals(Circuit.Admission.PROBE, circuit.admit());
+        circuit.trip();
+        Assert.assertFalse(circuit.isResetting());
+        Assert.assertTrue(circuit.isBroken());
+    }
+
+    /**
+     * Test method for {@link io.apiman.plugins.circuit_breaker.Circuit#admit()}.
+     */
+    @Test
+    public void testCircuit_ConcurrentProbes() throws InterruptedException {
+        final Circuit circuit = new Circuit(/*limit*/ 1, /*window*/ 1, /*reset*/ 0, /*probes*/ 3, /*successes*/ 1,
+                /*rampUp*/ 0, /*rampUpStart*/ 100);
+        circuit.trip();
+        final AtomicInteger probes = new AtomicInteger();
+        final CountDownLatch start = new CountDownLatch(1);
+        Thread[] threads = new Thread[8];
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                for (int j = 0; j < 100; j++) {
+                    if (circuit.admit() == Circuit.Admission.PROBE) {
+                        probes.incrementAndGet();
+                    }
+                }
+            });
+            threads[i].start();
+        }
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        Assert.assertEquals(3, probes.get());
+    }
+
+    /**
+     * Test method for {@link io.apiman.plugins.circuit_breaker.Circuit#admit()}.
+     */
+    @Test
+    public void testCircuit_RampUp() {
+        Circuit circuit = new Circuit(/*limit*/ 1, /*window*/ 1, /*reset*/ 0, /*probes*/ 1, /*successes*/ 1,
+                /*rampUp*/ 60, /*rampUpStart*/ 0);
+        circuit.trip();
+        Assert.assertEquals(Circuit.Admission.PROBE, circuit.admit());
+        circuit.probeSucceeded();
+        Assert.assertFalse(circuit.isBroken());
+
+        // Right after closing, hardly any traffic is let in
+        int passed = 0;
+        for (int i = 0; i < 1000; i++) {
+            if (circuit.admit() == Circuit.Admission.PASS) {
+                passed++;
+            }
+        }
+        Assert.assertTrue(passed < 100);
+    }
+
+    @Test
+    public void testCircuit_SlowCallRate() {
+        Circuit circuit = new Circuit(/*limit*/ 5, /*window*/ 60, /*reset*/ 2).slowCalls(/*slowCall*/ 1000,
+                /*rate*/ 50, /*percentile*/ 0, /*minimumCalls*/ 10);
+        Assert.assertTrue(circuit.isDetectingSlowCalls());
+        Assert.assertFalse(circuit.isSlowCall(999));
+        Assert.assertTrue(circuit.isSlowCall(1000));
+        // Not enough calls to tell yet
+        for (int i = 0; i < 9; i++) {
+            circuit.addCall(5000);
+        }
+        Assert.assertFalse(circuit.isBroken());
+        for (int i = 0; i < 20; i++) {
+            circuit.addCall(10);
+        }
+        // 10 slow calls out of 30
+        circuit.addCall(5000);
+        Assert.assertFalse(circuit.isBroken());
+        for (int i = 0; i < 5; i++) {
+            circuit.addCall(5000);
+        }
+        // 15 out of 35
+        Assert.assertFalse(circuit.isBroken());
+        for (int i = 0; i < 5; i++) {
+            circuit.addCall(5000);
+        }
+        // 20 out of 40
+        Assert.assertTrue(circuit.isBroken());
+    }
+
+    @Test
+    public void testCircuit_SlowCallPercentile() {
+        Circuit circuit = new Circuit(/*limit*/ 5, /*window*/ 60, /*reset*/ 2).slowCalls(/*slowCall*/ 1000,
+                /*rate*/ 0, /*percentile*/ 90, /*minimumCalls*/ 10);
+        for (int i = 0; i < 90; i++) {
+            circuit.addCall(10);
+        }
+        for (int i = 0; i < 10; i++) {
+            circuit.addCall(3000);
+        }
+        Assert.assertFalse(circuit.isBroken());
+        circuit.addCall(3000);
+        Assert.assertTrue(circuit.isBroken());
+    }
+
+    @Test
+    public void testCircuit_SlowCallPercentileJustAboveSlowCall() {
+        Circuit circuit = new Circuit(/*limit*/ 5, /*window*/ 60, /*reset*/ 2).slowCalls(/*slowCall*/ 1000,
+                /*rate*/ 0, /*percentile*/ 99, /*minimumCalls*/ 10);
+        // 999 ms shares its histogram bucket with 1000 ms, but isn't slow
+        for (int i = 0; i < 20; i++) {
+            circuit.addCall(999);
+        }
+        Assert.assertFalse(circuit.isBroken());
+
+        circuit = new Circuit(/*limit*/ 5, /*window*/ 60, /*reset*/ 2).slowCalls(/*slowCall*/ 1000,
+                /*rate*/ 0, /*percentile*/ 99, /*minimumCalls*/ 10);
+        for (int i = 0; i < 9; i++) {
+            circuit.addCall(1000 + i);
+        }
+        Assert.assertFalse(circuit.isBroken());
+        circuit.addCall(1023);
+        Assert.assertTrue(circuit.isBroken());
+    }
+
+    @Test
+    public void testCircuit_SlowCallsOff() {
+        Circuit circuit = new Circuit(/*limit*/ 5, /*window*/ 60, /*reset*/ 2).slowCalls(0, 50, 0, 10);
+        Assert.assertFalse(circuit.isDetectingSlowCalls());
+        for (int i = 0; i < 100; i++) {
+            circuit.addCall(60000);
+        }
+        Assert.assertFalse(circuit.isBroken());
+    }
+
+    @Test
+    public void testCircuit_Metrics() throws InterruptedException {
+        Circuit circuit = new Circuit(/*limit*/ 1, /*window*/ 60, /*reset*/ 0);
+        CircuitMetrics metrics = circuit.getMetrics();
+        Assert.assertEquals(Circuit.State.CLOSED, circuit.getState());
+        Assert.assertEquals(Circuit.Admission.PASS, circuit.admit());
+        circuit.addFault();
+        Assert.assertEquals(Circuit.State.BROKEN, circuit.getState());
+        Thread.sleep(20);
+        Assert.assertEquals(Circuit.Admission.PROBE, circuit.admit());
+        Assert.assertEquals(Circuit.State.RESETTING, circuit.getState());
+        circuit.probeSucceeded();
+        Assert.assertEquals(Circuit.State.CLOSED, circuit.getState());
+
+        Assert.assertEquals(2, metrics.getCalls());
+        Assert.assertEquals(1, metrics.getProbes());
+        Assert.assertEquals(1, metrics.getFaults());
+        Assert.assertEquals(1, metrics.getTrips());
+        Assert.assertEquals(1, metrics.getResets());
+        Assert.assertEquals(1, metrics.getCloses());
+        long open = metrics.getTimeOpen();
+        Assert.assertTrue(open >= 20);
+        Thread.sleep(20);
+        // Closed, so no longer adding up
+        Assert.assertEquals(open, metrics.getTimeOpen());
+    }
+
 }
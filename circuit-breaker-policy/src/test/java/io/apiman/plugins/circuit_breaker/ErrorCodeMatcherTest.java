@@ -0,0 +1,54 @@
+/*
+ * Copyright 2016 JBoss Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.apiman.plugins.circuit_breaker;
+
+import java.util.Arrays;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+@SuppressWarnings("nls")
+public class ErrorCodeMatcherTest {
+
+    @Test
+    public void testMatchesLikePatterns() {
+        ErrorCodeMatcher matcher = new ErrorCodeMatcher(Arrays.asList("5**", "404", "42*"));
+        for (int code = 0; code < 1000; code++) {
+            boolean expected = CircuitBreakerPolicy.isMatch(code, "5**") || CircuitBreakerPolicy.isMatch(code, "404")
+                    || CircuitBreakerPolicy.isMatch(code, "42*");
+            Assert.assertEquals(String.valueOf(code), expected, matcher.matches(code));
+        }
+        Assert.assertFalse(matcher.matches(-1));
+        Assert.assertFalse(matcher.matches(5000));
+    }
+
+    @Test
+    public void testCodesBeyondTable() {
+        ErrorCodeMatcher matcher = new ErrorCodeMatcher(Arrays.asList("***"));
+        Assert.assertTrue(matcher.matches(599));
+        Assert.assertTrue(matcher.matches(600));
+        Assert.assertTrue(matcher.matches(999));
+        Assert.assertFalse(matcher.matches(99));
+    }
+
+    @Test
+    public void testNoErrorCodes() {
+        ErrorCodeMatcher matcher = new ErrorCodeMatcher(Arrays.<String>asList());
+        Assert.assertFalse(matcher.matches(500));
+    }
+
+}
@@ -0,0 +1,80 @@
+/*
+ * Copyright 2016 JBoss Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.apiman.plugins.circuit_breaker;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class FaultCounterTest {
+
+    private static final long T0 = 1500000000000L;
+
+    @Test
+    public void testCountsFaultsInWindow() {
+        FaultCounter counter = new FaultCounter(1000);
+        Assert.assertEquals(0, counter.count(T0));
+        Assert.assertEquals(1, counter.record(T0));
+        Assert.assertEquals(2, counter.record(T0 + 10));
+        Assert.assertEquals(3, counter.record(T0 + 500));
+        Assert.assertEquals(3, counter.count(T0 + 999));
+    }
+
+    @Test
+    public void testFaultsLeaveWindow() {
+        FaultCounter counter = new FaultCounter(1000);
+        counter.record(T0);
+        counter.record(T0 + 500);
+        // the first slice has left the window
+        Assert.assertEquals(1, counter.count(T0 + 1000));
+        // a slot holding an old slice starts over
+        Assert.assertEquals(2, counter.record(T0 + 1050));
+        Assert.assertEquals(0, counter.count(T0 + 2000));
+    }
+
+    @Test
+    public void testClear() {
+        FaultCounter counter = new FaultCounter(1000);
+        counter.record(T0);
+        counter.record(T0);
+        counter.clear();
+        Assert.assertEquals(0, counter.count(T0));
+        Assert.assertEquals(1, counter.record(T0));
+    }
+
+    @Test
+    public void testConcurrentFaultsAreAllCounted() throws InterruptedException {
+        final FaultCounter counter = new FaultCounter(60000);
+        final long now = System.currentTimeMillis();
+        Thread[] threads = new Thread[4];
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int j = 0; j < 10000; j++) {
+                        counter.record(now);
+                    }
+                }
+            });
+            threads[i].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        Assert.assertEquals(40000, counter.count(now));
+    }
+
+}
@@ -0,0 +1,90 @@
+/*
+ * Copyright 2016 JBoss Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.apiman.plugins.circuit_breaker;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class LatencyHistogramTest {
+
+    private static final long T0 = 1500000000000L;
+
+    @Test
+    public void testBuckets() {
+        for (long latency : new long[] { 0, 1, 3, 4, 7, 8, 100, 999, 1000, 20000, 1L << 20 }) {
+            int bucket = LatencyHistogram.bucket(latency);
+            long lower = LatencyHistogram.lowerBound(bucket);
+            Assert.assertTrue(lower <= latency);
+            Assert.assertTrue(latency < LatencyHistogram.lowerBound(bucket + 1));
+            Assert.assertEquals(LatencyHistogram.lowerBound(bucket + 1) - 1, LatencyHistogram.upperBound(bucket));
+            Assert.assertTrue(latency - lower <= latency / 4);
+        }
+        Assert.assertEquals(LatencyHistogram.BUCKETS - 1, LatencyHistogram.bucket(Long.MAX_VALUE));
+    }
+
+    @Test
+    public void testCallsAndPercentiles() {
+        LatencyHistogram histogram = new LatencyHistogram(1000, 500);
+        for (int i = 0; i < 90; i++) {
+            Assert.assertFalse(histogram.record(T0, 10));
+        }
+        for (int i = 0; i < 10; i++) {
+            Assert.assertTrue(histogram.record(T0 + 100, 2000));
+        }
+        Assert.assertEquals(100, histogram.getCalls(T0 + 100));
+        Assert.assertEquals(10, histogram.getSlowCalls(T0 + 100));
+        // rounded up to the end of the buckets, 10..11 and 1792..2047
+        Assert.assertEquals(11, histogram.getPercentile(T0 + 100, 50));
+        Assert.assertEquals(11, histogram.getPercentile(T0 + 100, 90));
+        Assert.assertEquals(2047, histogram.getPercentile(T0 + 100, 99));
+        Assert.assertFalse(histogram.isPercentileSlow(T0 + 100, 90));
+        Assert.assertTrue(histogram.isPercentileSlow(T0 + 100, 91));
+    }
+
+    @Test
+    public void testCallsJustAboveSlowCall() {
+        LatencyHistogram histogram = new LatencyHistogram(1000, 1000);
+        for (int i = 0; i < 24; i++) {
+            Assert.assertTrue(histogram.record(T0, 1000 + i));
+        }
+        Assert.assertTrue(histogram.getPercentile(T0, 99) >= 1000);
+        Assert.assertTrue(histogram.isPercentileSlow(T0, 1));
+        Assert.assertTrue(histogram.isPercentileSlow(T0, 99));
+        Assert.assertTrue(histogram.isPercentileSlow(T0, 100));
+
+        histogram.clear();
+        for (int i = 0; i < 24; i++) {
+            Assert.assertFalse(histogram.record(T0, 999 - i));
+        }
+        Assert.assertFalse(histogram.isPercentileSlow(T0, 100));
+    }
+
+    @Test
+    public void testCallsLeaveWindow() {
+        LatencyHistogram histogram = new LatencyHistogram(1000, 500);
+        histogram.record(T0, 1000);
+        histogram.record(T0 + 500, 10);
+        Assert.assertEquals(1, histogram.getCalls(T0 + 1000));
+        Assert.assertEquals(0, histogram.getSlowCalls(T0 + 1000));
+        Assert.assertEquals(11, histogram.getPercentile(T0 + 1000, 99));
+        histogram.record(T0 + 1050, 10);
+        Assert.assertEquals(2, histogram.getCalls(T0 + 1050));
+        Assert.assertEquals(0, histogram.getCalls(T0 + 2000));
+        Assert.assertEquals(0, histogram.getPercentile(T0 + 2000, 99));
+    }
+
+}
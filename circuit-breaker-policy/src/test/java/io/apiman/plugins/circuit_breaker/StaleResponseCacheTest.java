@@ -0,0 +1,86 @@
+/*
+ * Copyright 2016 JBoss Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.apiman.plugins.circuit_breaker;
+
+import io.apiman.gateway.engine.beans.ApiResponse;
+import io.apiman.gateway.engine.beans.util.HeaderMap;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+@SuppressWarnings("nls")
+public class StaleResponseCacheTest {
+
+    private static final CircuitKey API = new CircuitKey("org", "api", "1.0");
+
+    private StaleResponseCache cache = new StaleResponseCache();
+
+    @Test
+    public void testPrivateResponsesAreNotStorable() {
+        Assert.assertTrue(StaleResponse.isStorable(new HeaderMap(), response()));
+        Assert.assertTrue(StaleResponse.isStorable(new HeaderMap(), response("Cache-Control", "public, max-age=60")));
+        Assert.assertFalse(StaleResponse.isStorable(headers("Authorization", "Bearer token"), response()));
+        Assert.assertFalse(StaleResponse.isStorable(new HeaderMap(), response("Set-Cookie", "session=1")));
+        Assert.assertFalse(StaleResponse.isStorable(new HeaderMap(), response("Cache-Control", "max-age=60, Private")));
+        Assert.assertFalse(StaleResponse.isStorable(new HeaderMap(), response("Cache-Control", "no-store")));
+        Assert.assertFalse(StaleResponse.isStorable(new HeaderMap(), response("Vary", "*")));
+    }
+
+    @Test
+    public void testSetCookieIsNotKept() {
+        StaleResponse stale = new StaleResponse(response("Set-Cookie", "session=1"), new HeaderMap(), new byte[0], 0);
+        Assert.assertNull(stale.newHead().getHeaders().get("Set-Cookie"));
+    }
+
+    @Test
+    public void testResponsesAreServedToMatchingVariants() {
+        cache.put(API, "/items", new StaleResponse(response("Vary", "Accept-Language, Accept"),
+                headers("Accept-Language", "fr"), new byte[0], 0), 10);
+
+        Assert.assertNotNull(cache.get(API, "/items", headers("Accept-Language", "fr"), 1000, 0));
+        Assert.assertNull(cache.get(API, "/items", headers("Accept-Language", "en"), 1000, 0));
+        Assert.assertNull(cache.get(API, "/items", new HeaderMap(), 1000, 0));
+        HeaderMap other = headers("Accept-Language", "fr");
+        other.put("Accept", "application/xml");
+        Assert.assertNull(cache.get(API, "/items", other, 1000, 0));
+    }
+
+    @Test
+    public void testOldResponsesAreNotServed() {
+        cache.put(API, "/items", new StaleResponse(response(), new HeaderMap(), new byte[0], 0), 10);
+
+        Assert.assertNotNull(cache.get(API, "/items", new HeaderMap(), 1000, 1000));
+        Assert.assertNull(cache.get(API, "/items", new HeaderMap(), 1000, 1001));
+        Assert.assertNull(cache.get(API, "/other", new HeaderMap(), 1000, 0));
+    }
+
+    private static HeaderMap headers(String name, String value) {
+        HeaderMap headers = new HeaderMap();
+        headers.put(name, value);
+        return headers;
+    }
+
+    private static ApiResponse response(String... headers) {
+        ApiResponse response = new ApiResponse();
+        response.setCode(200);
+        for (int i = 0; i < headers.length; i += 2) {
+            response.getHeaders().put(headers[i], headers[i + 1]);
+        }
+        return response;
+    }
+
+}
@@ -0,0 +1,90 @@
+/*
+ * Copyright 2016 JBoss Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.apiman.plugins.jwt;
+
+import io.jsonwebtoken.lang.Objects;
+
+import java.util.Map;
+import java.util.regex.Pattern;
+
+/**
+ * A forwarded field, compiled when the configuration is parsed: either the
+ * whole encoded token, or a claim named by its javascript dot syntax path
+ * (e.g. <tt>address.country</tt>). A claim whose name itself contains dots
+ * (such as a URI) is found under its full name first.
+ *
+ * @author Marc Savy {@literal <msavy@redhat.com>}
+ */
+public class ClaimPath {
+
+    private static final String ACCESS_TOKEN = "access_token"; //$NON-NLS-1$
+    private static final Pattern DOT = Pattern.compile("\\."); //$NON-NLS-1$
+
+    private final String name;
+    private final String[] segments;
+    private final boolean accessToken;
+
+    /**
+     * @param field the forwarded field
+     */
+    public ClaimPath(String field) {
+        this.name = field;
+        this.accessToken = ACCESS_TOKEN.equals(field);
+        this.segments = field == null || field.indexOf('.') < 0 ? null : DOT.split(field);
+    }
+
+    /**
+     * @return true if the field is the whole encoded token
+     */
+    public boolean isAccessToken() {
+        return accessToken;
+    }
+
+    /**
+     * @param claims the claims of a token
+     * @return the claim, or null if the token doesn't have it
+     */
+    @SuppressWarnings("unchecked")
+    public Object resolve(Map<String, Object> claims) {
+        Object value = claims.get(name);
+        if (value != null || segments == null) {
+            return value;
+        }
+        Map<String, Object> object = claims;
+        for (int i = 0; i < segments.length - 1; i++) {
+            Object child = object.get(segments[i]);
+            if (!(child instanceof Map)) {
+                return null;
+            }
+            object = (Map<String, Object>) child;
+        }
+        return object.get(segments[segments.length - 1]);
+    }
+
+    /**
+     * @param rawToken the encoded token
+     * @param claims the claims of the token
+     * @return the value forwarded for the field, or null if there is none
+     */
+    public String toHeaderValue(String rawToken, Map<String, Object> claims) {
+        Object value = accessToken ? rawToken : resolve(claims);
+        if (value == null || value instanceof String) {
+            return (String) value;
+        }
+        return Objects.nullSafeToString(value);
+    }
+}
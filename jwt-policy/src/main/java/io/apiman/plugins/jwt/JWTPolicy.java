@@ -17,23 +17,21 @@
 package io.apiman.plugins.jwt;
 
 import io.apiman.gateway.engine.beans.ApiRequest;
+import io.apiman.gateway.engine.beans.exceptions.ConfigurationParseException;
 import io.apiman.gateway.engine.policies.AbstractMappedPolicy;
 import io.apiman.gateway.engine.policy.IPolicyChain;
 import io.apiman.gateway.engine.policy.IPolicyContext;
+import io.apiman.plugins.auth_common.BearerTokens;
 import io.apiman.plugins.jwt.beans.ForwardAuthInfo;
 import io.apiman.plugins.jwt.beans.JWTPolicyBean;
 import io.jsonwebtoken.ExpiredJwtException;
 import io.jsonwebtoken.InvalidClaimException;
-import io.jsonwebtoken.JwtParser;
-import io.jsonwebtoken.Jwts;
 import io.jsonwebtoken.MalformedJwtException;
 import io.jsonwebtoken.PrematureJwtException;
 import io.jsonwebtoken.SignatureException;
 import io.jsonwebtoken.UnsupportedJwtException;
-import io.jsonwebtoken.lang.Objects;
 
 import java.util.Map;
-import java.util.Optional;
 
 /**
  * Generic JWT/S Policy.
@@ -44,7 +42,6 @@ public class JWTPolicy extends AbstractMappedPolicy<JWTPolicyBean> {
 
     private static final String AUTHORIZATION_KEY = "Authorization"; //$NON-NLS-1$
     private static final String ACCESS_TOKEN_QUERY_KEY = "access_token"; //$NON-NLS-1$
-    private static final String BEARER = "bearer "; //$NON-NLS-1$
     private static final PolicyFailureFactory FAILURE_FACTORY = PolicyFailureFactory.getInstance();
 
     @Override
@@ -52,15 +49,21 @@ public class JWTPolicy extends AbstractMappedPolicy<JWTPolicyBean> {
         return JWTPolicyBean.class;
     }
 
+    @Override
+    public JWTPolicyBean parseConfiguration(String jsonConfiguration) throws ConfigurationParseException {
+        JWTPolicyBean config = super.parseConfiguration(jsonConfiguration);
+        // Set up the parser and forwarded claims now rather than on the first request
+        JwtValidator.of(config);
+        for (ForwardAuthInfo entry : config.getForwardAuthInfo()) {
+            entry.getClaimPath();
+        }
+        return config;
+    }
+
     @Override
     protected void doApply(ApiRequest request, IPolicyContext context, JWTPolicyBean config, IPolicyChain<ApiRequest> chain) {
-        String jwt = Optional.ofNullable(request.getHeaders().get(AUTHORIZATION_KEY))
-                // If seems to be bearer token
-                .filter(e -> e.toLowerCase().startsWith(BEARER))
-                // Get out token value
-                .map(e -> e.substring(BEARER.length(), e.length()))
-                // Otherwise attempt to get from the access_token query param
-                .orElse(request.getQueryParams().get(ACCESS_TOKEN_QUERY_KEY));
+        // Bearer token, otherwise the access_token query param
+        String jwt = BearerTokens.extract(request);
 
         // If transport security required and is not secure.
         if (config.getRequireTransportSecurity() && !request.isTransportSecure()) {
@@ -75,42 +78,56 @@ public class JWTPolicy extends AbstractMappedPolicy<JWTPolicyBean> {
         }
 
         if (jwt != null) {
-            try {
-                Map<String, Object> claims = validateJwt(jwt, request, config);
-                forwardHeaders(request, config, jwt, claims);
-                stripAuthTokens(request, config);
-                chain.doApply(request);
-            } catch (ExpiredJwtException e) {
-                chain.doFailure(FAILURE_FACTORY.jwtExpired(context, e));
-            } catch (PrematureJwtException e) {
-                chain.doFailure(FAILURE_FACTORY.jwtPremature(context, e));
-            } catch (MalformedJwtException e) {
-                chain.doFailure(FAILURE_FACTORY.jwtMalformed(context, e));
-            } catch (SignatureException e) {
-                chain.doFailure(FAILURE_FACTORY.signatureException(context, e));
-            } catch (InvalidClaimException e) {
-                chain.doFailure(FAILURE_FACTORY.invalidClaim(context, e));
-            } catch (UnsupportedJwtException e) {
-                chain.doFailure(FAILURE_FACTORY.unsupportedJwt(context, e));
-            } catch (Exception e) {
-                chain.doFailure(FAILURE_FACTORY.genericFailure(context, e));
+            JwksKeySet keySet = JwtValidator.of(config).getKeySet();
+            if (keySet != null && !keySet.isLoaded()) {
+                // Only until the key set has first been fetched; it is refreshed in the background after that
+                keySet.whenLoaded(context, loaded -> authenticate(jwt, request, context, config, chain, null));
+            } else {
+                authenticate(jwt, request, context, config, chain, keySet);
             }
         } else {
             chain.doApply(request);
         }
     }
 
+    /**
+     * @param keySet the key set to fetch again if the token is signed with a key
+     *        it doesn't have, or null to fail the request
+     */
+    private void authenticate(String jwt, ApiRequest request, IPolicyContext context, JWTPolicyBean config,
+            IPolicyChain<ApiRequest> chain, JwksKeySet keySet) {
+        try {
+            Map<String, Object> claims = validateJwt(jwt, request, config);
+            forwardHeaders(request, config, jwt, claims);
+            stripAuthTokens(request, config);
+            chain.doApply(request);
+        } catch (ExpiredJwtException e) {
+            chain.doFailure(FAILURE_FACTORY.jwtExpired(context, e));
+        } catch (PrematureJwtException e) {
+            chain.doFailure(FAILURE_FACTORY.jwtPremature(context, e));
+        } catch (MalformedJwtException e) {
+            chain.doFailure(FAILURE_FACTORY.jwtMalformed(context, e));
+        } catch (JwksKeySet.UnknownKeyException e) {
+            if (keySet != null) {
+                // The key may be new: try again once the key set has been fetched
+                keySet.whenFetched(context, fetched -> authenticate(jwt, request, context, config, chain, null));
+            } else {
+                chain.doFailure(FAILURE_FACTORY.signatureException(context, e));
+            }
+        } catch (SignatureException e) {
+            chain.doFailure(FAILURE_FACTORY.signatureException(context, e));
+        } catch (InvalidClaimException e) {
+            chain.doFailure(FAILURE_FACTORY.invalidClaim(context, e));
+        } catch (UnsupportedJwtException e) {
+            chain.doFailure(FAILURE_FACTORY.unsupportedJwt(context, e));
+        } catch (Exception e) {
+            chain.doFailure(FAILURE_FACTORY.genericFailure(context, e));
+        }
+    }
+
     private Map<String, Object> validateJwt(String token, ApiRequest request, JWTPolicyBean config)
             throws ExpiredJwtException, PrematureJwtException, MalformedJwtException, SignatureException, InvalidClaimException {
-        JwtParser parser = Jwts.parser()
-                .setSigningKey(config.getSigningKey())
-                .setAllowedClockSkewSeconds(config.getAllowedClockSkew());
-
-        // Set all claims
-        config.getRequiredClaims().stream() // TODO add type variable to allow dates, etc
-            .forEach(requiredClaim -> parser.require(requiredClaim.getClaimName(), requiredClaim.getClaimValue()));
-
-        return parser.parse(token, new ConfigCheckingJwtHandler(config));
+        return JwtValidator.of(config).validate(token);
     }
 
     private void stripAuthTokens(ApiRequest request, JWTPolicyBean config) {
@@ -123,9 +140,9 @@ public class JWTPolicy extends AbstractMappedPolicy<JWTPolicyBean> {
     private void forwardHeaders(ApiRequest request, JWTPolicyBean config, String rawToken, Map<String, Object> claims) {
         for (ForwardAuthInfo entry : config.getForwardAuthInfo()) {
             // Add the header if we've been able to look it up, else it'll just be empty.
-            Object claimValue = ACCESS_TOKEN_QUERY_KEY.equals(entry.getField()) ? rawToken : claims.get(entry.getField());
-            if (claimValue != null) {
-                request.getHeaders().put(entry.getHeader(), Objects.nullSafeToString(claimValue));
+            String headerValue = entry.getClaimPath().toHeaderValue(rawToken, claims);
+            if (headerValue != null) {
+                request.getHeaders().put(entry.getHeader(), headerValue);
             }
         }
     }
@@ -0,0 +1,124 @@
+/*
+ * Copyright 2016 JBoss Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.apiman.plugins.jwt;
+
+import io.apiman.gateway.engine.async.IAsyncHandler;
+import io.apiman.gateway.engine.policy.IPolicyContext;
+import io.apiman.plugins.auth_common.PublicKeySet;
+import io.jsonwebtoken.Claims;
+import io.jsonwebtoken.JwsHeader;
+import io.jsonwebtoken.SigningKeyResolverAdapter;
+import io.jsonwebtoken.SignatureException;
+
+import java.security.Key;
+import java.util.Map;
+
+/**
+ * The signing keys published at a JWKS endpoint, by key id, as a signing key
+ * resolver. The keys are those of the endpoint's shared {@link PublicKeySet},
+ * which fetches them and refreshes them in the background. A token signed with
+ * a key that isn't known yet fails with an {@link UnknownKeyException}, after
+ * which the policy waits for the key set to be fetched again (see
+ * {@link #whenFetched(IPolicyContext, IAsyncHandler)}) and validates the token
+ * once more.
+ *
+ * @author Marc Savy {@literal <msavy@redhat.com>}
+ */
+@SuppressWarnings("nls")
+public class JwksKeySet extends SigningKeyResolverAdapter {
+
+    private final PublicKeySet keySet;
+
+    private JwksKeySet(PublicKeySet keySet) {
+        this.keySet = keySet;
+    }
+
+    /**
+     * Returns the key set of an endpoint, creating it on first use.
+     *
+     * @param uri the JWKS endpoint
+     * @param refreshInterval the number of milliseconds between refreshes
+     * @return the key set
+     */
+    public static JwksKeySet of(String uri, long refreshInterval) {
+        return new JwksKeySet(PublicKeySet.of(uri, refreshInterval));
+    }
+
+    /**
+     * @see PublicKeySet#whenLoaded(IPolicyContext, IAsyncHandler)
+     * @param context the policy context, for the HTTP client and timers
+     * @param handler the handler
+     */
+    public void whenLoaded(IPolicyContext context, IAsyncHandler<Void> handler) {
+        keySet.whenLoaded(context, handler);
+    }
+
+    /**
+     * @see PublicKeySet#whenFetched(IPolicyContext, IAsyncHandler)
+     * @param context the policy context, for the HTTP client and timers
+     * @param handler the handler
+     */
+    public void whenFetched(IPolicyContext context, IAsyncHandler<Void> handler) {
+        keySet.whenFetched(context, handler);
+    }
+
+    /**
+     * @return true once the key set has been fetched for the first time
+     */
+    public boolean isLoaded() {
+        return keySet.isLoaded();
+    }
+
+    /**
+     * @return the keys, by key id
+     */
+    public Map<String, Key> getKeys() {
+        return keySet.getKeys();
+    }
+
+    @Override
+    public Key resolveSigningKey(JwsHeader header, Claims claims) {
+        return resolve(header.getKeyId());
+    }
+
+    @Override
+    public Key resolveSigningKey(JwsHeader header, String plaintext) {
+        return resolve(header.getKeyId());
+    }
+
+    private Key resolve(String kid) {
+        Key key = keySet.resolve(kid);
+        if (key == null) {
+            throw new UnknownKeyException("No signing key found for key id " + kid);
+        }
+        return key;
+    }
+
+    /**
+     * Thrown when a token is signed with a key that isn't in the key set.
+     */
+    public static class UnknownKeyException extends SignatureException {
+        private static final long serialVersionUID = 1L;
+
+        /**
+         * @param message the message
+         */
+        public UnknownKeyException(String message) {
+            super(message);
+        }
+    }
+}
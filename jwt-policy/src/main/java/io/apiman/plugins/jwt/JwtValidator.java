@@ -0,0 +1,130 @@
+/*
+ * Copyright 2016 JBoss Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.apiman.plugins.jwt;
+
+import io.apiman.plugins.jwt.beans.JWTPolicyBean;
+import io.apiman.plugins.jwt.beans.RequiredClaim;
+import io.jsonwebtoken.ExpiredJwtException;
+import io.jsonwebtoken.InvalidClaimException;
+import io.jsonwebtoken.JwtParser;
+import io.jsonwebtoken.Jwts;
+import io.jsonwebtoken.MalformedJwtException;
+import io.jsonwebtoken.PrematureJwtException;
+import io.jsonwebtoken.SignatureException;
+
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * Validates JWTs against a policy configuration. The parser (signing key,
+ * clock skew and required claims) and its handler are set up once, when the
+ * configuration is first used, and then shared by all requests: neither
+ * changes once configured. When the configuration has a JWKS endpoint, the
+ * signing keys come from its {@link JwksKeySet} instead. Tokens that have been
+ * through validation are remembered in a {@link VerifiedTokenCache}, unless
+ * the configuration turns it off.
+ *
+ * @author Marc Savy {@literal <msavy@redhat.com>}
+ */
+public class JwtValidator {
+
+    private final JwtParser parser;
+    private final ConfigCheckingJwtHandler handler;
+    private final VerifiedTokenCache cache;
+    private final JwksKeySet keySet;
+
+    /**
+     * @param config the policy configuration
+     */
+    public JwtValidator(JWTPolicyBean config) {
+        parser = Jwts.parser()
+                .setAllowedClockSkewSeconds(config.getAllowedClockSkew());
+        if (config.getJwksUri() != null && !config.getJwksUri().isEmpty()) {
+            keySet = JwksKeySet.of(config.getJwksUri(), config.getJwksRefreshInterval() * 1000L);
+            parser.setSigningKeyResolver(keySet);
+        } else {
+            keySet = null;
+            parser.setSigningKey(config.getSigningKey());
+        }
+
+        // Set all claims
+        for (RequiredClaim requiredClaim : config.getRequiredClaims()) { // TODO add type variable to allow dates, etc
+            parser.require(requiredClaim.getClaimName(), requiredClaim.getClaimValue());
+        }
+        handler = new ConfigCheckingJwtHandler(config);
+        int ttl = config.getTokenCacheTtl() == null ? 0 : config.getTokenCacheTtl();
+        int size = config.getTokenCacheSize() == null ? 0 : config.getTokenCacheSize();
+        cache = ttl > 0 && size > 0
+                ? new VerifiedTokenCache(ttl * 1000L, config.getAllowedClockSkew() * 1000L, size)
+                : null;
+    }
+
+    /**
+     * Returns the validator of a configuration, setting it up on first use.
+     *
+     * @param config the policy configuration
+     * @return the validator
+     */
+    public static JwtValidator of(JWTPolicyBean config) {
+        JwtValidator validator = config.getValidator();
+        if (validator == null) {
+            validator = new JwtValidator(config);
+            config.setValidator(validator);
+        }
+        return validator;
+    }
+
+    /**
+     * @param token the encoded token
+     * @return the token's claims
+     */
+    public Map<String, Object> validate(String token)
+            throws ExpiredJwtException, PrematureJwtException, MalformedJwtException, SignatureException, InvalidClaimException {
+        if (cache == null) {
+            return parser.parse(token, handler);
+        }
+        String key = VerifiedTokenCache.key(token);
+        long now = System.currentTimeMillis();
+        Map<String, Object> claims = cache.get(key, now);
+        if (claims != null) {
+            return claims;
+        }
+        try {
+            claims = Collections.unmodifiableMap(parser.parse(token, handler));
+        } catch (MalformedJwtException e) {
+            cache.putFailure(key, e, now);
+            throw e;
+        }
+        cache.put(key, claims, now);
+        return claims;
+    }
+
+    /**
+     * @return the key set signatures are verified with, or null if the
+     *         configuration has a single signing key
+     */
+    public JwksKeySet getKeySet() {
+        return keySet;
+    }
+
+    /**
+     * @return the cache of verified tokens, or null if caching is off
+     */
+    public VerifiedTokenCache getCache() {
+        return cache;
+    }
+}
@@ -0,0 +1,182 @@
+/*
+ * Copyright 2016 JBoss Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.apiman.plugins.jwt;
+
+import io.apiman.plugins.auth_common.TokenDigests;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Cache of tokens that have already been through validation, so that clients
+ * reusing the same token skip decoding and signature verification. Tokens are
+ * looked up by a digest, never by the token itself. A verified token is kept
+ * with its claims until it expires (less the allowed clock skew) or until the
+ * cache's time to live is up, whichever comes first; a malformed token is kept
+ * with the exception it failed with, so it is rejected straight away when it
+ * comes back.
+ *
+ * @author Marc Savy {@literal <msavy@redhat.com>}
+ */
+public class VerifiedTokenCache {
+
+    private final ConcurrentMap<String, Entry> entries = new ConcurrentHashMap<>();
+    private final long ttl;
+    private final long skew;
+    private final int maxEntries;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder rejections = new LongAdder();
+
+    /**
+     * @param ttl the maximum number of milliseconds a token is cached for
+     * @param skew the allowed clock skew in milliseconds
+     * @param maxEntries the maximum number of tokens cached
+     */
+    public VerifiedTokenCache(long ttl, long skew, int maxEntries) {
+        this.ttl = ttl;
+        this.skew = skew;
+        this.maxEntries = maxEntries;
+    }
+
+    /**
+     * @param token the encoded token
+     * @return the key the token is cached under
+     */
+    static String key(String token) {
+        return TokenDigests.sha256(token);
+    }
+
+    /**
+     * Returns the claims of a token verified earlier, or rethrows the
+     * exception a malformed token failed with.
+     *
+     * @param key the key of the token
+     * @param now the current time in milliseconds
+     * @return the claims, or null if the token isn't cached
+     */
+    public Map<String, Object> get(String key, long now) {
+        Entry entry = entries.get(key);
+        if (entry != null && entry.expires <= now) {
+            entries.remove(key, entry);
+            entry = null;
+        }
+        if (entry == null) {
+            misses.increment();
+            return null;
+        }
+        if (entry.failure != null) {
+            rejections.increment();
+            throw entry.failure;
+        }
+        hits.increment();
+        return entry.claims;
+    }
+
+    /**
+     * Caches the claims of a verified token.
+     *
+     * @param key the key of the token
+     * @param claims the claims
+     * @param now the current time in milliseconds
+     */
+    public void put(String key, Map<String, Object> claims, long now) {
+        long expires = now + ttl;
+        Object exp = claims.get("exp"); //$NON-NLS-1$
+        if (exp instanceof Number) {
+            expires = Math.min(expires, ((Number) exp).longValue() * 1000 - skew);
+        }
+        if (expires > now) {
+            add(key, new Entry(claims, null, expires), now);
+        }
+    }
+
+    /**
+     * Caches the exception a malformed token failed with.
+     *
+     * @param key the key of the token
+     * @param failure the exception
+     * @param now the current time in milliseconds
+     */
+    public void putFailure(String key, RuntimeException failure, long now) {
+        add(key, new Entry(null, failure, now + ttl), now);
+    }
+
+    private void add(String key, Entry entry, long now) {
+        if (entries.size() >= maxEntries) {
+            evict(now);
+        }
+        entries.put(key, entry);
+    }
+
+    /**
+     * Drops the expired entries and, if that isn't enough, a tenth of the
+     * others, so that a full cache isn't swept again on every miss.
+     */
+    private void evict(long now) {
+        entries.values().removeIf(entry -> entry.expires <= now);
+        int target = maxEntries - Math.max(1, maxEntries / 10);
+        Iterator<Entry> it = entries.values().iterator();
+        while (entries.size() > target && it.hasNext()) {
+            it.next();
+            it.remove();
+        }
+    }
+
+    /**
+     * @return the number of lookups that found a verified token
+     */
+    public long getHits() {
+        return hits.sum();
+    }
+
+    /**
+     * @return the number of lookups that found nothing
+     */
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    /**
+     * @return the number of lookups that found a malformed token
+     */
+    public long getRejections() {
+        return rejections.sum();
+    }
+
+    /**
+     * @return the number of tokens cached, expired ones included
+     */
+    public int size() {
+        return entries.size();
+    }
+
+    private static final class Entry {
+        final Map<String, Object> claims;
+        final RuntimeException failure;
+        final long expires;
+
+        Entry(Map<String, Object> claims, RuntimeException failure, long expires) {
+            this.claims = claims;
+            this.failure = failure;
+            this.expires = expires;
+        }
+    }
+}
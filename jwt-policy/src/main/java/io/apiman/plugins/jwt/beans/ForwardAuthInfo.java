@@ -15,6 +15,8 @@
  */
 package io.apiman.plugins.jwt.beans;
 
+import io.apiman.plugins.jwt.ClaimPath;
+
 import java.util.HashMap;
 import java.util.Map;
 
@@ -55,6 +57,8 @@ public class ForwardAuthInfo {
     private String field;
     @JsonIgnore
     private Map<String, Object> additionalProperties = new HashMap<>();
+    @JsonIgnore
+    private transient volatile ClaimPath claimPath;
 
     /**
      * Header
@@ -109,13 +113,27 @@ public class ForwardAuthInfo {
     @JsonProperty("field")
     public void setField(String field) {
         this.field = field;
+        this.claimPath = null;
     }
 
     public ForwardAuthInfo withField(String field) {
-        this.field = field;
+        setField(field);
         return this;
     }
 
+    /**
+     * @return the field, compiled on first use
+     */
+    @JsonIgnore
+    public ClaimPath getClaimPath() {
+        ClaimPath path = claimPath;
+        if (path == null) {
+            path = new ClaimPath(field);
+            claimPath = path;
+        }
+        return path;
+    }
+
     @JsonAnyGetter
     public Map<String, Object> getAdditionalProperties() {
         return this.additionalProperties;
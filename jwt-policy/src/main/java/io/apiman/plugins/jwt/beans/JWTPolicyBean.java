@@ -15,6 +15,8 @@
  */
 package io.apiman.plugins.jwt.beans;
 
+import io.apiman.plugins.jwt.JwtValidator;
+
 import java.security.Key;
 import java.util.ArrayList;
 import java.util.HashMap;
@@ -40,7 +42,7 @@ import com.fasterxml.jackson.annotation.JsonPropertyOrder;
 @JsonInclude(JsonInclude.Include.NON_NULL)
 @Generated("org.jsonschema2pojo")
 @JsonPropertyOrder({ "requireJWT", "requireSigned", "requireTransportSecurity", "stripTokens", "signingKeyString", "allowedClockSkew",
-        "requiredClaims", "forwardAuthInfo" })
+        "requiredClaims", "forwardAuthInfo", "tokenCacheTtl", "tokenCacheSize", "jwksUri", "jwksRefreshInterval" })
 public class JWTPolicyBean {
 
     /**
@@ -116,8 +118,42 @@ public class JWTPolicyBean {
      */
     @JsonProperty("forwardAuthInfo")
     private List<ForwardAuthInfo> forwardAuthInfo = new ArrayList<>();
+    /**
+     * Token Cache TTL
+     * <p>
+     * Maximum number of seconds a validated token is remembered for, so that its signature
+     * isn't verified again when it is reused. A token is never remembered past its expiry.
+     * Zero turns the cache off.
+     */
+    @JsonProperty("tokenCacheTtl")
+    private Integer tokenCacheTtl = 60;
+    /**
+     * Token Cache Size
+     * <p>
+     * Maximum number of validated tokens remembered.
+     */
+    @JsonProperty("tokenCacheSize")
+    private Integer tokenCacheSize = 10000;
+    /**
+     * JWKS URI
+     * <p>
+     * Endpoint publishing the signing keys as a JSON Web Key Set. Keys are selected by the
+     * token's key id (kid) and refreshed in the background. When set, the signing key is not
+     * used.
+     */
+    @JsonProperty("jwksUri")
+    private String jwksUri;
+    /**
+     * JWKS Refresh Interval
+     * <p>
+     * Number of seconds between refreshes of the JSON Web Key Set.
+     */
+    @JsonProperty("jwksRefreshInterval")
+    private Integer jwksRefreshInterval = 600;
     @JsonIgnore
     private Map<String, Object> additionalProperties = new HashMap<>();
+    @JsonIgnore
+    private transient volatile JwtValidator validator;
 
     /**
      * Require JWT
@@ -174,10 +210,12 @@ public class JWTPolicyBean {
     @JsonProperty("requireSigned")
     public void setRequireSigned(Boolean requireSigned) {
         this.requireSigned = requireSigned;
+        this.validator = null;
     }
 
     public JWTPolicyBean withRequireSigned(Boolean requireSigned) {
         this.requireSigned = requireSigned;
+        this.validator = null;
         return this;
     }
 
@@ -270,14 +308,17 @@ public class JWTPolicyBean {
      */
     @JsonProperty("signingKeyString")
     public void setSigningKeyString(String signingKeyString) throws Exception {
-        if (signingKey == null) {
-            signingKey = PemUtils.decodePublicKey(signingKeyString);
-        }
+        signingKey = signingKeyString == null ? null : PemUtils.decodePublicKey(signingKeyString);
         this.signingKeyString = signingKeyString;
+        this.validator = null;
     }
 
     public JWTPolicyBean withSigningKeyString(String signingKeyString) {
-        this.signingKeyString = signingKeyString;
+        try {
+            setSigningKeyString(signingKeyString);
+        } catch (Exception e) {
+            throw new IllegalArgumentException(e);
+        }
         return this;
     }
 
@@ -306,10 +347,12 @@ public class JWTPolicyBean {
     @JsonProperty("allowedClockSkew")
     public void setAllowedClockSkew(Integer allowedClockSkew) {
         this.allowedClockSkew = allowedClockSkew;
+        this.validator = null;
     }
 
     public JWTPolicyBean withAllowedClockSkew(Integer allowedClockSkew) {
         this.allowedClockSkew = allowedClockSkew;
+        this.validator = null;
         return this;
     }
 
@@ -344,10 +387,12 @@ public class JWTPolicyBean {
     @JsonProperty("requiredClaims")
     public void setRequiredClaims(List<RequiredClaim> requiredClaims) {
         this.requiredClaims = requiredClaims;
+        this.validator = null;
     }
 
     public JWTPolicyBean withRequiredClaims(List<RequiredClaim> requiredClaims) {
         this.requiredClaims = requiredClaims;
+        this.validator = null;
         return this;
     }
 
@@ -395,6 +440,142 @@ public class JWTPolicyBean {
         return this;
     }
 
+    /**
+     * Token Cache TTL
+     * <p>
+     * Maximum number of seconds a validated token is remembered for, so that its signature
+     * isn't verified again when it is reused. A token is never remembered past its expiry.
+     * Zero turns the cache off.
+     *
+     * @return The tokenCacheTtl
+     */
+    @JsonProperty("tokenCacheTtl")
+    public Integer getTokenCacheTtl() {
+        return tokenCacheTtl;
+    }
+
+    /**
+     * Token Cache TTL
+     * <p>
+     * Maximum number of seconds a validated token is remembered for, so that its signature
+     * isn't verified again when it is reused. A token is never remembered past its expiry.
+     * Zero turns the cache off.
+     *
+     * @param tokenCacheTtl
+     *            The tokenCacheTtl
+     */
+    @JsonProperty("tokenCacheTtl")
+    public void setTokenCacheTtl(Integer tokenCacheTtl) {
+        this.tokenCacheTtl = tokenCacheTtl;
+        this.validator = null;
+    }
+
+    public JWTPolicyBean withTokenCacheTtl(Integer tokenCacheTtl) {
+        this.tokenCacheTtl = tokenCacheTtl;
+        this.validator = null;
+        return this;
+    }
+
+    /**
+     * Token Cache Size
+     * <p>
+     * Maximum number of validated tokens remembered.
+     *
+     * @return The tokenCacheSize
+     */
+    @JsonProperty("tokenCacheSize")
+    public Integer getTokenCacheSize() {
+        return tokenCacheSize;
+    }
+
+    /**
+     * Token Cache Size
+     * <p>
+     * Maximum number of validated tokens remembered.
+     *
+     * @param tokenCacheSize
+     *            The tokenCacheSize
+     */
+    @JsonProperty("tokenCacheSize")
+    public void setTokenCacheSize(Integer tokenCacheSize) {
+        this.tokenCacheSize = tokenCacheSize;
+        this.validator = null;
+    }
+
+    public JWTPolicyBean withTokenCacheSize(Integer tokenCacheSize) {
+        this.tokenCacheSize = tokenCacheSize;
+        this.validator = null;
+        return this;
+    }
+
+    /**
+     * JWKS URI
+     * <p>
+     * Endpoint publishing the signing keys as a JSON Web Key Set. Keys are selected by the
+     * token's key id (kid) and refreshed in the background. When set, the signing key is not
+     * used.
+     *
+     * @return The jwksUri
+     */
+    @JsonProperty("jwksUri")
+    public String getJwksUri() {
+        return jwksUri;
+    }
+
+    /**
+     * JWKS URI
+     * <p>
+     * Endpoint publishing the signing keys as a JSON Web Key Set. Keys are selected by the
+     * token's key id (kid) and refreshed in the background. When set, the signing key is not
+     * used.
+     *
+     * @param jwksUri
+     *            The jwksUri
+     */
+    @JsonProperty("jwksUri")
+    public void setJwksUri(String jwksUri) {
+        this.jwksUri = jwksUri;
+        this.validator = null;
+    }
+
+    public JWTPolicyBean withJwksUri(String jwksUri) {
+        this.jwksUri = jwksUri;
+        this.validator = null;
+        return this;
+    }
+
+    /**
+     * JWKS Refresh Interval
+     * <p>
+     * Number of seconds between refreshes of the JSON Web Key Set.
+     *
+     * @return The jwksRefreshInterval
+     */
+    @JsonProperty("jwksRefreshInterval")
+    public Integer getJwksRefreshInterval() {
+        return jwksRefreshInterval;
+    }
+
+    /**
+     * JWKS Refresh Interval
+     * <p>
+     * Number of seconds between refreshes of the JSON Web Key Set.
+     *
+     * @param jwksRefreshInterval
+     *            The jwksRefreshInterval
+     */
+    @JsonProperty("jwksRefreshInterval")
+    public void setJwksRefreshInterval(Integer jwksRefreshInterval) {
+        this.jwksRefreshInterval = jwksRefreshInterval;
+        this.validator = null;
+    }
+
+    public JWTPolicyBean withJwksRefreshInterval(Integer jwksRefreshInterval) {
+        this.jwksRefreshInterval = jwksRefreshInterval;
+        this.validator = null;
+        return this;
+    }
+
     @JsonAnyGetter
     public Map<String, Object> getAdditionalProperties() {
         return this.additionalProperties;
@@ -413,4 +594,20 @@ public class JWTPolicyBean {
     public Key getSigningKey() {
         return signingKey;
     }
+
+    /**
+     * @return the validator set up from this configuration, or null if none yet
+     */
+    @JsonIgnore
+    public JwtValidator getValidator() {
+        return validator;
+    }
+
+    /**
+     * @param validator the validator set up from this configuration
+     */
+    @JsonIgnore
+    public void setValidator(JwtValidator validator) {
+        this.validator = validator;
+    }
 }
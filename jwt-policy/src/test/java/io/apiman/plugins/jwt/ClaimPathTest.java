@@ -0,0 +1,47 @@
+package io.apiman.plugins.jwt;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * @author Marc Savy {@literal <msavy@redhat.com>}
+ */
+@SuppressWarnings("nls")
+public class ClaimPathTest {
+
+    private Map<String, Object> claims() {
+        Map<String, Object> address = new HashMap<>();
+        address.put("country", "Seychelles");
+        Map<String, Object> claims = new HashMap<>();
+        claims.put("sub", "france frichot");
+        claims.put("address", address);
+        claims.put("https://apiman.io/roles", Arrays.asList("user", "admin"));
+        claims.put("iat", 1500000000);
+        return claims;
+    }
+
+    @Test
+    public void nestedClaims() {
+        Assert.assertEquals("Seychelles", new ClaimPath("address.country").resolve(claims()));
+        Assert.assertNull(new ClaimPath("address.region").resolve(claims()));
+        Assert.assertNull(new ClaimPath("sub.country").resolve(claims()));
+    }
+
+    @Test
+    public void claimNamesWithDots() {
+        Assert.assertEquals("[user, admin]",
+                new ClaimPath("https://apiman.io/roles").toHeaderValue("a.b.c", claims()));
+    }
+
+    @Test
+    public void headerValues() {
+        Assert.assertEquals("france frichot", new ClaimPath("sub").toHeaderValue("a.b.c", claims()));
+        Assert.assertEquals("1500000000", new ClaimPath("iat").toHeaderValue("a.b.c", claims()));
+        Assert.assertEquals("a.b.c", new ClaimPath("access_token").toHeaderValue("a.b.c", claims()));
+        Assert.assertNull(new ClaimPath("email").toHeaderValue("a.b.c", claims()));
+    }
+}
@@ -0,0 +1,137 @@
+package io.apiman.plugins.jwt;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import io.apiman.common.logging.IApimanLogger;
+import io.apiman.gateway.engine.beans.ApiRequest;
+import io.apiman.gateway.engine.beans.PolicyFailure;
+import io.apiman.gateway.engine.components.IPolicyFailureFactoryComponent;
+import io.apiman.gateway.engine.impl.DefaultPolicyFailureFactoryComponent;
+import io.apiman.gateway.engine.policy.IPolicyChain;
+import io.apiman.gateway.engine.policy.IPolicyContext;
+import io.apiman.plugins.jwt.beans.JWTPolicyBean;
+import io.apiman.plugins.jwt.beans.RequiredClaim;
+import io.jsonwebtoken.JwtBuilder;
+import io.jsonwebtoken.Jwts;
+import io.jsonwebtoken.SignatureAlgorithm;
+
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.Date;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Changes the configuration of the policy after it has served a request, as
+ * the gateway does when a policy is reconfigured, and checks that the next
+ * request is validated against the new configuration.
+ *
+ * @author Marc Savy {@literal <msavy@redhat.com>}
+ */
+@SuppressWarnings({ "nls", "unchecked" })
+public class JWTPolicyReconfigurationTest {
+
+    private final JWTPolicy policy = new JWTPolicy();
+    private KeyPair keys;
+    private JWTPolicyBean config;
+    private IPolicyContext context;
+
+    @Before
+    public void setUp() throws Exception {
+        keys = keyPair();
+        config = policy.parseConfiguration("{\n" +
+                "  \"requireJWT\": true,\n" +
+                "  \"requireSigned\": true,\n" +
+                "  \"requireTransportSecurity\": false,\n" +
+                "  \"signingKeyString\": \"" + encode(keys) + "\",\n" +
+                "  \"allowedClockSkew\": 0,\n" +
+                "  \"requiredClaims\": [{ \"claimName\": \"sub\", \"claimValue\": \"france frichot\" }]\n" +
+                "}");
+        context = mock(IPolicyContext.class);
+        when(context.getComponent(IPolicyFailureFactoryComponent.class))
+                .thenReturn(new DefaultPolicyFailureFactoryComponent());
+        when(context.getLogger(any())).thenReturn(mock(IApimanLogger.class));
+    }
+
+    @Test
+    public void newSigningKeyIsUsed() throws Exception {
+        assertPasses(token(keys));
+
+        KeyPair rotated = keyPair();
+        config.setSigningKeyString(encode(rotated));
+        assertFails(token(keys));
+        assertPasses(token(rotated));
+    }
+
+    @Test
+    public void newClockSkewIsUsed() throws Exception {
+        String expired = token(keys).setExpiration(new Date(System.currentTimeMillis() - 30000)).compact();
+        assertPasses(token(keys));
+        assertFails(expired);
+
+        config.setAllowedClockSkew(60);
+        assertPasses(expired);
+    }
+
+    @Test
+    public void newRequiredClaimsAreUsed() throws Exception {
+        assertPasses(token(keys));
+
+        config.setRequiredClaims(Collections.singletonList(
+                new RequiredClaim().withClaimName("sub").withClaimValue("aride")));
+        assertFails(token(keys));
+        assertPasses(token(keys).setSubject("aride"));
+    }
+
+    private void assertPasses(JwtBuilder token) {
+        assertPasses(token.compact());
+    }
+
+    private void assertPasses(String token) {
+        IPolicyChain<ApiRequest> chain = mock(IPolicyChain.class);
+        ApiRequest request = request(token);
+        policy.apply(request, context, config, chain);
+        verify(chain).doApply(request);
+        verify(chain, never()).doFailure(any(PolicyFailure.class));
+    }
+
+    private void assertFails(JwtBuilder token) {
+        assertFails(token.compact());
+    }
+
+    private void assertFails(String token) {
+        IPolicyChain<ApiRequest> chain = mock(IPolicyChain.class);
+        ApiRequest request = request(token);
+        policy.apply(request, context, config, chain);
+        verify(chain).doFailure(any(PolicyFailure.class));
+        verify(chain, never()).doApply(request);
+    }
+
+    private static ApiRequest request(String token) {
+        ApiRequest request = new ApiRequest();
+        request.getHeaders().put("Authorization", "Bearer " + token);
+        return request;
+    }
+
+    private static JwtBuilder token(KeyPair keys) {
+        return Jwts.builder().setSubject("france frichot").signWith(SignatureAlgorithm.RS256, keys.getPrivate());
+    }
+
+    private static KeyPair keyPair() throws Exception {
+        KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+        generator.initialize(2048);
+        return generator.generateKeyPair();
+    }
+
+    private static String encode(KeyPair keys) {
+        return Base64.getEncoder().encodeToString(keys.getPublic().getEncoded());
+    }
+
+}
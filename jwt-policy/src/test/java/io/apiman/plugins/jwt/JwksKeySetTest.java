@@ -0,0 +1,243 @@
+package io.apiman.plugins.jwt;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import io.apiman.common.logging.IApimanLogger;
+import io.apiman.gateway.engine.async.AsyncResultImpl;
+import io.apiman.gateway.engine.beans.ApiRequest;
+import io.apiman.gateway.engine.beans.PolicyFailure;
+import io.apiman.gateway.engine.async.IAsyncHandler;
+import io.apiman.gateway.engine.async.IAsyncResultHandler;
+import io.apiman.gateway.engine.components.IHttpClientComponent;
+import io.apiman.gateway.engine.components.IPeriodicComponent;
+import io.apiman.gateway.engine.components.IPolicyFailureFactoryComponent;
+import io.apiman.gateway.engine.components.http.IHttpClientRequest;
+import io.apiman.gateway.engine.components.http.IHttpClientResponse;
+import io.apiman.gateway.engine.impl.DefaultPolicyFailureFactoryComponent;
+import io.apiman.gateway.engine.policy.IPolicyChain;
+import io.apiman.gateway.engine.policy.IPolicyContext;
+import io.apiman.plugins.jwt.beans.JWTPolicyBean;
+import io.jsonwebtoken.Jwts;
+import io.jsonwebtoken.SignatureAlgorithm;
+import io.jsonwebtoken.SignatureException;
+
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.interfaces.RSAPublicKey;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * @author Marc Savy {@literal <msavy@redhat.com>}
+ */
+@SuppressWarnings("nls")
+public class JwksKeySetTest {
+
+    private static int endpoints;
+
+    private final List<IAsyncResultHandler<IHttpClientResponse>> fetches = new ArrayList<>();
+    private IAsyncHandler<Long> refresh;
+    private IAsyncHandler<Long> refetch;
+    private IPolicyContext context;
+    private String uri;
+
+    @Before
+    public void setUp() {
+        IHttpClientComponent httpClient = (url, method, handler) -> {
+            fetches.add(handler);
+            return mock(IHttpClientRequest.class);
+        };
+        IPeriodicComponent periodic = new IPeriodicComponent() {
+            @Override
+            public long setPeriodicTimer(long period, long initialDelay, IAsyncHandler<Long> handler) {
+                refresh = handler;
+                return 1;
+            }
+
+            @Override
+            public long setOneshotTimer(long deltaMs, IAsyncHandler<Long> handler) {
+                refetch = handler;
+                return 2;
+            }
+
+            @Override
+            public void cancelTimer(long timerId) {
+            }
+
+            @Override
+            public void cancelAll() {
+            }
+        };
+        context = mock(IPolicyContext.class);
+        when(context.getComponent(IHttpClientComponent.class)).thenReturn(httpClient);
+        when(context.getComponent(IPeriodicComponent.class)).thenReturn(periodic);
+        when(context.getLogger(any())).thenReturn(mock(IApimanLogger.class));
+        // Key sets are shared by endpoint
+        uri = "http://localhost/jwks/" + endpoints++;
+    }
+
+    @Test
+    public void requestsWaitForTheFirstFetch() throws Exception {
+        JwksKeySet keySet = JwksKeySet.of(uri, 60000);
+        AtomicInteger called = new AtomicInteger();
+        keySet.whenLoaded(context, loaded -> called.incrementAndGet());
+        keySet.whenLoaded(context, loaded -> called.incrementAndGet());
+        Assert.assertEquals(1, fetches.size());
+        Assert.assertEquals(0, called.get());
+
+        respond(jwks("k1", generateKeyPair()));
+        Assert.assertEquals(2, called.get());
+        Assert.assertTrue(keySet.getKeys().containsKey("k1"));
+
+        keySet.whenLoaded(context, loaded -> called.incrementAndGet());
+        Assert.assertEquals(3, called.get());
+        Assert.assertTrue(fetches.isEmpty());
+    }
+
+    @Test
+    public void tokensAreVerifiedWithTheKeyOfTheirKid() throws Exception {
+        KeyPair k1 = generateKeyPair();
+        KeyPair k2 = generateKeyPair();
+        JwtValidator validator = new JwtValidator(new JWTPolicyBean().withJwksUri(uri).withJwksRefreshInterval(60));
+        validator.getKeySet().whenLoaded(context, loaded -> {});
+        respond("{\"keys\": [" + jwk("k1", k1) + ", " + jwk("k2", k2) + "]}");
+
+        Assert.assertEquals("france frichot", validator.validate(token("k2", k2)).get("sub"));
+        try {
+            validator.validate(token("k1", k2));
+            Assert.fail();
+        } catch (SignatureException expected) {
+        }
+    }
+
+    @Test
+    public void unknownKidsWaitForRateLimitedFetches() throws Exception {
+        KeyPair k1 = generateKeyPair();
+        KeyPair k2 = generateKeyPair();
+        JwtValidator validator = new JwtValidator(new JWTPolicyBean().withJwksUri(uri).withTokenCacheTtl(0));
+        JwksKeySet keySet = validator.getKeySet();
+        keySet.whenLoaded(context, loaded -> {});
+        respond(jwks("k1", k1));
+
+        try {
+            validator.validate(token("k2", k2));
+            Assert.fail();
+        } catch (JwksKeySet.UnknownKeyException expected) {
+        }
+        // Requests for unknown kids share a fetch, and are called once it is done
+        AtomicInteger called = new AtomicInteger();
+        keySet.whenFetched(context, fetched -> called.incrementAndGet());
+        keySet.whenFetched(context, fetched -> called.incrementAndGet());
+        Assert.assertEquals(1, fetches.size());
+        Assert.assertEquals(0, called.get());
+        respond(jwks("k1", k1));
+        Assert.assertEquals(2, called.get());
+
+        // The next unknown kid waits for the rate limit rather than fail
+        keySet.whenFetched(context, fetched -> called.incrementAndGet());
+        Assert.assertTrue(fetches.isEmpty());
+        Assert.assertEquals(2, called.get());
+        refetch.handle(2L);
+        respond(jwks("k2", k2));
+        Assert.assertEquals(3, called.get());
+        Assert.assertEquals("france frichot", validator.validate(token("k2", k2)).get("sub"));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void policyValidatesAgainOnceTheKeySetIsFetched() throws Exception {
+        KeyPair k1 = generateKeyPair();
+        KeyPair k2 = generateKeyPair();
+        JWTPolicy policy = new JWTPolicy();
+        JWTPolicyBean config = policy.parseConfiguration("{\"requireJWT\": true, \"requireSigned\": true, "
+                + "\"requireTransportSecurity\": false, \"jwksUri\": \"" + uri + "\"}");
+        when(context.getComponent(IPolicyFailureFactoryComponent.class))
+                .thenReturn(new DefaultPolicyFailureFactoryComponent());
+        IPolicyChain<ApiRequest> chain = mock(IPolicyChain.class);
+        ApiRequest first = request(token("k1", k1));
+        policy.apply(first, context, config, chain);
+        respond(jwks("k1", k1));
+        verify(chain).doApply(first);
+
+        // A rotated key is fetched before the request is answered
+        ApiRequest rotated = request(token("k2", k2));
+        policy.apply(rotated, context, config, chain);
+        verify(chain, never()).doApply(rotated);
+        respond(jwks("k2", k2));
+        verify(chain).doApply(rotated);
+
+        // A made up kid fails once the next allowed fetch hasn't found it either
+        policy.apply(request(token("garbage", k1)), context, config, chain);
+        Assert.assertTrue(fetches.isEmpty());
+        verify(chain, never()).doFailure(any(PolicyFailure.class));
+        refetch.handle(2L);
+        respond(jwks("k2", k2));
+        verify(chain).doFailure(any(PolicyFailure.class));
+    }
+
+    @Test
+    public void keysAreRefreshedInTheBackground() throws Exception {
+        KeyPair k1 = generateKeyPair();
+        KeyPair k2 = generateKeyPair();
+        JwksKeySet keySet = JwksKeySet.of(uri, 60000);
+        keySet.whenLoaded(context, loaded -> {});
+        respond(jwks("k1", k1));
+
+        refresh.handle(1L);
+        respond(jwks("k2", k2));
+        Assert.assertFalse(keySet.getKeys().containsKey("k1"));
+        Assert.assertTrue(keySet.getKeys().containsKey("k2"));
+
+        // A failed refresh keeps the keys (the key set has to be used for it to be refreshed)
+        keySet.whenLoaded(context, loaded -> {});
+        refresh.handle(1L);
+        fetches.remove(0).handle(AsyncResultImpl.create(new Exception("unreachable")));
+        Assert.assertTrue(keySet.getKeys().containsKey("k2"));
+    }
+
+    private void respond(String body) {
+        IHttpClientResponse response = mock(IHttpClientResponse.class);
+        when(response.getResponseCode()).thenReturn(200);
+        when(response.getBody()).thenReturn(body);
+        fetches.remove(0).handle(AsyncResultImpl.create(response));
+    }
+
+    private static ApiRequest request(String token) {
+        ApiRequest request = new ApiRequest();
+        request.getHeaders().put("Authorization", "Bearer " + token);
+        return request;
+    }
+
+    private static String jwks(String kid, KeyPair keyPair) {
+        return "{\"keys\": [" + jwk(kid, keyPair) + "]}";
+    }
+
+    private static String jwk(String kid, KeyPair keyPair) {
+        RSAPublicKey key = (RSAPublicKey) keyPair.getPublic();
+        Base64.Encoder encoder = Base64.getUrlEncoder().withoutPadding();
+        return "{\"kty\": \"RSA\", \"use\": \"sig\", \"kid\": \"" + kid + "\", \"n\": \""
+                + encoder.encodeToString(key.getModulus().toByteArray()) + "\", \"e\": \""
+                + encoder.encodeToString(key.getPublicExponent().toByteArray()) + "\"}";
+    }
+
+    private static String token(String kid, KeyPair keyPair) {
+        return Jwts.builder().setHeaderParam("kid", kid).setSubject("france frichot")
+                .signWith(SignatureAlgorithm.RS256, keyPair.getPrivate()).compact();
+    }
+
+    private static KeyPair generateKeyPair() throws Exception {
+        KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+        generator.initialize(2048);
+        return generator.generateKeyPair();
+    }
+}
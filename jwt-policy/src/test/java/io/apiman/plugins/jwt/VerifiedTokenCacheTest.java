@@ -0,0 +1,68 @@
+package io.apiman.plugins.jwt;
+
+import io.jsonwebtoken.MalformedJwtException;
+
+import java.util.Collections;
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * @author Marc Savy {@literal <msavy@redhat.com>}
+ */
+@SuppressWarnings("nls")
+public class VerifiedTokenCacheTest {
+
+    private VerifiedTokenCache cache = new VerifiedTokenCache(60000, 5000, 10);
+
+    @Test
+    public void keyIsADigestOfTheToken() {
+        String key = VerifiedTokenCache.key("a.b.c");
+        Assert.assertEquals(64, key.length());
+        Assert.assertEquals(key, VerifiedTokenCache.key("a.b.c"));
+        Assert.assertNotEquals(key, VerifiedTokenCache.key("a.b.d"));
+    }
+
+    @Test
+    public void hitsAndMisses() {
+        Map<String, Object> claims = Collections.singletonMap("sub", "france frichot");
+        Assert.assertNull(cache.get("k", 0));
+        cache.put("k", claims, 0);
+        Assert.assertSame(claims, cache.get("k", 1000));
+        Assert.assertNull(cache.get("k", 60000));
+        Assert.assertEquals(1, cache.getHits());
+        Assert.assertEquals(2, cache.getMisses());
+    }
+
+    @Test
+    public void tokensExpireBeforeTheirExpiryLessSkew() {
+        cache.put("k", Collections.singletonMap("exp", 20), 0);
+        Assert.assertNotNull(cache.get("k", 14999));
+        Assert.assertNull(cache.get("k", 15000));
+        cache.put("expired", Collections.singletonMap("exp", 5), 0);
+        Assert.assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void malformedTokensAreRejected() {
+        MalformedJwtException failure = new MalformedJwtException("bad");
+        cache.putFailure("k", failure, 0);
+        try {
+            cache.get("k", 1000);
+            Assert.fail();
+        } catch (MalformedJwtException e) {
+            Assert.assertSame(failure, e);
+        }
+        Assert.assertEquals(1, cache.getRejections());
+    }
+
+    @Test
+    public void sizeIsBounded() {
+        for (int i = 0; i < 100; i++) {
+            cache.put("k" + i, Collections.emptyMap(), 0);
+        }
+        Assert.assertTrue(cache.size() <= 10);
+        Assert.assertNotNull(cache.get("k99", 0));
+    }
+}
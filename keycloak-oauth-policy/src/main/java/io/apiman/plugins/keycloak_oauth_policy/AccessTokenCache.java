@@ -0,0 +1,135 @@
+/*
+ * Copyright 2015 JBoss Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.apiman.plugins.keycloak_oauth_policy;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.keycloak.common.util.Time;
+import org.keycloak.representations.AccessToken;
+
+/**
+ * Cache of the access tokens verified against a realm, so that a token reused
+ * by a client costs a lookup instead of a signature verification. Tokens are
+ * looked up by a digest, never by the token itself, and are dropped when they
+ * expire; tokens without an expiry aren't cached. When the cache is full the
+ * expired tokens go first, then those closest to expiring.
+ * <p>
+ * Caches are shared by all the configurations of a realm (and certificate),
+ * and sized by the first one.
+ *
+ * @author Marc Savy {@literal <msavy@redhat.com>}
+ */
+public class AccessTokenCache {
+
+    private static final ConcurrentMap<String, AccessTokenCache> REALMS = new ConcurrentHashMap<>();
+
+    private final ConcurrentMap<String, AccessToken> tokens = new ConcurrentHashMap<>();
+    private final int maxEntries;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    /**
+     * @param maxEntries the maximum number of tokens cached
+     */
+    public AccessTokenCache(int maxEntries) {
+        this.maxEntries = maxEntries;
+    }
+
+    /**
+     * Returns the cache of a realm, creating it on first use.
+     *
+     * @param realm the realm
+     * @param certificate the realm's certificate or certs endpoint, as configured
+     * @param maxEntries the maximum number of tokens cached for the realm
+     * @return the cache
+     */
+    public static AccessTokenCache forRealm(String realm, String certificate, int maxEntries) {
+        return REALMS.computeIfAbsent(realm + '\n' + certificate, key -> new AccessTokenCache(maxEntries));
+    }
+
+    /**
+     * @param key the digest of the token
+     * @return the token, or null if it isn't cached or is no longer active
+     */
+    public AccessToken get(String key) {
+        AccessToken token = tokens.get(key);
+        if (token != null && !token.isActive()) {
+            tokens.remove(key, token);
+            token = null;
+        }
+        if (token == null) {
+            misses.increment();
+            return null;
+        }
+        hits.increment();
+        return token;
+    }
+
+    /**
+     * Caches a verified token, unless it never expires.
+     *
+     * @param key the digest of the token
+     * @param token the token
+     */
+    public void put(String key, AccessToken token) {
+        if (token.getExpiration() == 0) {
+            return;
+        }
+        if (tokens.size() >= maxEntries) {
+            evict(Time.currentTime());
+        }
+        tokens.put(key, token);
+    }
+
+    /**
+     * Drops the expired tokens and, if that isn't enough, the tenth closest
+     * to expiring, so that a full cache isn't swept again on every miss.
+     */
+    private void evict(int now) {
+        tokens.values().removeIf(token -> token.getExpiration() <= now);
+        int excess = tokens.size() - (maxEntries - Math.max(1, maxEntries / 10));
+        if (excess > 0) {
+            int[] expirations = tokens.values().stream().mapToInt(AccessToken::getExpiration).toArray();
+            Arrays.sort(expirations);
+            int cutoff = expirations[Math.min(excess, expirations.length) - 1];
+            tokens.values().removeIf(token -> token.getExpiration() <= cutoff);
+        }
+    }
+
+    /**
+     * @return the number of lookups that found a token
+     */
+    public long getHits() {
+        return hits.sum();
+    }
+
+    /**
+     * @return the number of lookups that didn't find a token
+     */
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    /**
+     * @return the number of tokens cached, expired ones included
+     */
+    public int size() {
+        return tokens.size();
+    }
+}
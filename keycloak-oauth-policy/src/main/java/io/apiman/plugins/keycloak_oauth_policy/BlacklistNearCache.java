@@ -0,0 +1,132 @@
+/*
+ * Copyright 2015 JBoss Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.apiman.plugins.keycloak_oauth_policy;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import io.apiman.gateway.engine.components.ISharedStateComponent;
+
+/**
+ * Node local near-cache of the token blacklist kept in the shared state, so
+ * that most lookups are answered without a round trip to the shared state.
+ * <p>
+ * Tokens this node knows to be blacklisted are kept in a Bloom filter and a
+ * set of their digests. Tokens found not to be blacklisted are remembered with
+ * the time they were checked: for {@link #REFRESH_INTERVAL} milliseconds they
+ * are answered from the cache alone, after which the next request for the
+ * token waits for it to be checked again in the shared state (while requests
+ * that arrive during the check are still answered from the cache). A token
+ * blacklisted by another node is therefore caught within a refresh interval
+ * and a lookup; one blacklisted by this node is caught straight away.
+ *
+ * @author Marc Savy {@literal <msavy@redhat.com>}
+ */
+public class BlacklistNearCache {
+
+    /** Milliseconds a token found not to be blacklisted is trusted for without a check. */
+    static final long REFRESH_INTERVAL = 10000;
+    private static final int MAX_ENTRIES = 100000;
+    private static final ConcurrentMap<ISharedStateComponent, BlacklistNearCache> CACHES = new ConcurrentHashMap<>();
+
+    /**
+     * What the near-cache knows about a token.
+     */
+    public enum Status {
+        /** Blacklisted. */
+        BLACKLISTED,
+        /** Not blacklisted, as of less than a refresh interval ago. */
+        CLEAR,
+        /** Not blacklisted as of the last check, which is due again: the caller has to look the token up. */
+        STALE,
+        /** Unknown: the caller has to look the token up. */
+        UNKNOWN
+    }
+
+    private final DigestBloomFilter bloomFilter = new DigestBloomFilter(MAX_ENTRIES);
+    private final Set<String> blacklisted = ConcurrentHashMap.newKeySet();
+    private final ConcurrentMap<String, Long> cleared = new ConcurrentHashMap<>();
+
+    /**
+     * Returns the near-cache in front of a shared state store (in a gateway,
+     * there is only one).
+     *
+     * @param store the shared state store
+     * @return the near-cache
+     */
+    public static BlacklistNearCache of(ISharedStateComponent store) {
+        BlacklistNearCache cache = CACHES.get(store);
+        return cache != null ? cache : CACHES.computeIfAbsent(store, s -> new BlacklistNearCache());
+    }
+
+    /**
+     * @param digest the digest of the token
+     * @param now the current time in milliseconds
+     * @return what is known about the token; only one caller at a time gets
+     *         {@link Status#STALE} for a token, the others get {@link Status#CLEAR}
+     */
+    public Status status(String digest, long now) {
+        // Most tokens aren't blacklisted, which the Bloom filter tells without a lookup
+        if (bloomFilter.mightContain(digest) && blacklisted.contains(digest)) {
+            return Status.BLACKLISTED;
+        }
+        Long checked = cleared.get(digest);
+        if (checked == null) {
+            return Status.UNKNOWN;
+        }
+        if (now - checked < REFRESH_INTERVAL || !cleared.replace(digest, checked, now)) {
+            return Status.CLEAR;
+        }
+        return Status.STALE;
+    }
+
+    /**
+     * Records the result of a lookup in the shared state.
+     *
+     * @param digest the digest of the token
+     * @param isBlacklisted whether the token is blacklisted
+     * @param now the current time in milliseconds
+     */
+    public void checked(String digest, boolean isBlacklisted, long now) {
+        if (isBlacklisted) {
+            blacklisted(digest);
+        } else {
+            if (cleared.size() >= MAX_ENTRIES) {
+                cleared.values().removeIf(checked -> now - checked >= REFRESH_INTERVAL);
+                if (cleared.size() >= MAX_ENTRIES) {
+                    cleared.clear();
+                }
+            }
+            cleared.put(digest, now);
+        }
+    }
+
+    /**
+     * Records a token this node has blacklisted, or found blacklisted.
+     *
+     * @param digest the digest of the token
+     */
+    public void blacklisted(String digest) {
+        cleared.remove(digest);
+        bloomFilter.add(digest);
+        if (blacklisted.size() >= MAX_ENTRIES) {
+            // Forgotten tokens are looked up in the shared state again
+            blacklisted.clear();
+        }
+        blacklisted.add(digest);
+    }
+}
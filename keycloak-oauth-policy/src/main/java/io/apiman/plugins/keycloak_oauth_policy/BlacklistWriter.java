@@ -0,0 +1,115 @@
+/*
+ * Copyright 2015 JBoss Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.apiman.plugins.keycloak_oauth_policy;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import io.apiman.gateway.engine.components.IPeriodicComponent;
+import io.apiman.gateway.engine.components.ISharedStateComponent;
+import io.apiman.gateway.engine.policy.IPolicyContext;
+
+/**
+ * Writes the token blacklist to the shared state. Tokens are stored by
+ * digest, with the time they expire (in seconds since the epoch) as value:
+ * an entry past that time no longer blacklists anything. Blacklisted tokens
+ * are queued and written on a timer, once each however many requests
+ * blacklisted them, and the entries this node wrote are cleared from the
+ * shared state once they have expired. Entries left behind by a node that
+ * stopped before clearing them are cleared by the first node that reads them
+ * after they have expired; entries that nobody reads again stay in the shared
+ * state, where they blacklist nothing.
+ *
+ * @author Marc Savy {@literal <msavy@redhat.com>}
+ */
+public class BlacklistWriter {
+
+    /** The shared state namespace of the blacklist. */
+    public static final String NAMESPACE = "apiman-keycloak-blacklist"; //$NON-NLS-1$
+    /** Milliseconds between writes of the queued tokens. */
+    static final long FLUSH_INTERVAL = 1000;
+    private static final ConcurrentMap<ISharedStateComponent, BlacklistWriter> WRITERS = new ConcurrentHashMap<>();
+
+    private final ISharedStateComponent store;
+    private final ConcurrentMap<String, Long> queued = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, Long> written = new ConcurrentHashMap<>();
+    private final AtomicBoolean started = new AtomicBoolean();
+
+    /**
+     * @param store the shared state store
+     */
+    BlacklistWriter(ISharedStateComponent store) {
+        this.store = store;
+    }
+
+    /**
+     * @param store the shared state store
+     * @return the writer of the blacklist in the store
+     */
+    public static BlacklistWriter of(ISharedStateComponent store) {
+        BlacklistWriter writer = WRITERS.get(store);
+        return writer != null ? writer : WRITERS.computeIfAbsent(store, BlacklistWriter::new);
+    }
+
+    /**
+     * Queues a token to be blacklisted until it expires.
+     *
+     * @param context the policy context, for the timer on first use
+     * @param digest the digest of the token
+     * @param expires the time the token expires, in seconds since the epoch
+     */
+    public void blacklist(IPolicyContext context, String digest, long expires) {
+        if (started.compareAndSet(false, true)) {
+            context.getComponent(IPeriodicComponent.class).setPeriodicTimer(FLUSH_INTERVAL, FLUSH_INTERVAL,
+                    id -> flush(System.currentTimeMillis() / 1000));
+        }
+        queued.merge(digest, expires, Math::max);
+    }
+
+    /**
+     * @param value a value read from the blacklist
+     * @param now the current time, in seconds since the epoch
+     * @return true if the value blacklists its token
+     */
+    public static boolean isBlacklisted(Object value, long now) {
+        return value instanceof Number && ((Number) value).longValue() > now;
+    }
+
+    /**
+     * Writes the queued tokens, and clears the expired ones.
+     *
+     * @param now the current time, in seconds since the epoch
+     */
+    void flush(long now) {
+        for (Map.Entry<String, Long> entry : queued.entrySet()) {
+            String digest = entry.getKey();
+            Long expires = entry.getValue();
+            if (queued.remove(digest, expires) && expires > now) {
+                store.setProperty(NAMESPACE, digest, expires, result -> {});
+                written.merge(digest, expires, Math::max);
+            }
+        }
+        written.entrySet().removeIf(entry -> {
+            if (entry.getValue() > now) {
+                return false;
+            }
+            store.clearProperty(NAMESPACE, entry.getKey(), result -> {});
+            return true;
+        });
+    }
+}
@@ -16,6 +16,9 @@
 
 package io.apiman.plugins.keycloak_oauth_policy;
 
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
 import java.lang.reflect.Field;
 import java.util.ArrayDeque;
 import java.util.ArrayList;
@@ -24,6 +27,7 @@ import java.util.Deque;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.regex.Pattern;
 
 import org.keycloak.representations.AccessToken;
 import org.keycloak.representations.IDToken;
@@ -37,6 +41,8 @@ import com.fasterxml.jackson.annotation.JsonProperty;
 @SuppressWarnings("nls")
 public class ClaimLookup {
     private static final Map<String, List<Field>> STANDARD_CLAIMS_FIELD_MAP = new LinkedHashMap<>();
+    private static final Map<String, MethodHandle[]> STANDARD_CLAIMS_GETTER_MAP = new LinkedHashMap<>();
+    private static final Pattern DOT = Pattern.compile("\\.");
 
     static {
         Class<?> clazz = AccessToken.class;
@@ -46,6 +52,21 @@ public class ClaimLookup {
         // Legacy mappings, to ensure old configs keep working
         STANDARD_CLAIMS_FIELD_MAP.put("username", STANDARD_CLAIMS_FIELD_MAP.get(IDToken.PREFERRED_USERNAME));
         STANDARD_CLAIMS_FIELD_MAP.put("subject", STANDARD_CLAIMS_FIELD_MAP.get("sub"));
+        // Getters of the same chains, which skip the access checks of Field#get
+        MethodHandles.Lookup lookup = MethodHandles.lookup();
+        MethodType getterType = MethodType.methodType(Object.class, Object.class);
+        for (Map.Entry<String, List<Field>> entry : STANDARD_CLAIMS_FIELD_MAP.entrySet()) {
+            List<Field> fields = entry.getValue();
+            MethodHandle[] getters = new MethodHandle[fields.size()];
+            try {
+                for (int i = 0; i < getters.length; i++) {
+                    getters[i] = lookup.unreflectGetter(fields.get(i)).asType(getterType);
+                }
+            } catch (IllegalAccessException e) {
+                throw new IllegalStateException(e);
+            }
+            STANDARD_CLAIMS_GETTER_MAP.put(entry.getKey(), getters);
+        }
     }
 
     private static void getProperties(Class<?> klazz, String path, Deque<Field> fieldChain) {
@@ -76,6 +97,29 @@ public class ClaimLookup {
         return false;
     }
 
+    /**
+     * Compiles a claim once, so that looking it up in a token needs neither
+     * reflective access checks nor splitting its path.
+     *
+     * @param claim the claim (field key), or <tt>access_token</tt> for the whole token
+     * @return the compiled claim
+     */
+    public static Claim compile(String claim) {
+        if (claim == null) {
+            return new Claim(false, null, null);
+        }
+        if (claim.equalsIgnoreCase("access_token")) {
+            return new Claim(true, null, new String[] { claim });
+        }
+        // Get the standard claim field, if available
+        MethodHandle[] getters = STANDARD_CLAIMS_GETTER_MAP.get(claim);
+        if (getters != null) {
+            return new Claim(false, getters, null);
+        } else { // Otherwise look up 'other claims'
+            return new Claim(false, null, DOT.split(claim));
+        }
+    }
+
     /**
      *
      * @param token token to retrieve claim from
@@ -85,45 +129,87 @@ public class ClaimLookup {
     public static String getClaim(IDToken token, String claim) {
       if (claim == null || token == null)
           return null;
-      // Get the standard claim field, if available
-      if (STANDARD_CLAIMS_FIELD_MAP.containsKey(claim)) {
-          return callClaimChain(token, STANDARD_CLAIMS_FIELD_MAP.get(claim));
-      } else { // Otherwise look up 'other claims'
-          Object otherClaim = getOtherClaimValue(token, claim);
-          return otherClaim == null ? null : otherClaim.toString();
-      }
+      return compile(claim).get(token);
     }
 
-    private static String callClaimChain(Object rootObject, List<Field> list) {
-        try {
-            Object candidate = rootObject;
-            for (Field f : list) {
-                if ((candidate = f.get(candidate)) == null)
-                    break;
-            }
-            return (candidate == null) ? null : candidate.toString();
-        } catch (IllegalArgumentException | IllegalAccessException e) {
-            // TODO Use logger. These exceptions shouldn't occur, but if it somehow does happen we need to know.
-            System.err.println("Unexpected error looking up token field: " + e); //$NON-NLS-1$
-            e.printStackTrace();
+    /**
+     * A claim compiled by {@link ClaimLookup#compile(String)}.
+     */
+    public static final class Claim {
+        private final boolean accessToken;
+        private final MethodHandle[] getters;
+        private final String[] path;
+
+        private Claim(boolean accessToken, MethodHandle[] getters, String[] path) {
+            this.accessToken = accessToken;
+            this.getters = getters;
+            this.path = path;
+        }
+
+        /**
+         * @return true if the claim is the whole encoded token
+         */
+        public boolean isAccessToken() {
+            return accessToken;
         }
-        return null;
-    }
 
-    @SuppressWarnings("unchecked") // KC code - thanks.
-    private static Object getOtherClaimValue(JsonWebToken token, String claim) {
-        String[] split = claim.split("\\.");
-        Map<String, Object> jsonObject = token.getOtherClaims();
-        for (int i = 0; i < split.length; i++) {
-            if (i == split.length - 1) {
-                return jsonObject.get(split[i]);
+        /**
+         * @param rawToken the encoded token
+         * @param token the parsed token
+         * @return the value forwarded for the claim, or null if there is none
+         */
+        public String toHeaderValue(String rawToken, IDToken token) {
+            return accessToken ? rawToken : get(token);
+        }
+
+        /**
+         * @param token token to retrieve the claim from
+         * @return string representation of the claim, or null if the token doesn't have it
+         */
+        public String get(IDToken token) {
+            Object value;
+            if (token == null) {
+                value = null;
+            } else if (getters != null) {
+                value = callClaimChain(token);
+            } else if (path != null) {
+                value = getOtherClaimValue(token);
             } else {
-                Object val = jsonObject.get(split[i]);
-                if (!(val instanceof Map))
-                    return null;
-                jsonObject = (Map<String, Object>) val;
+                value = null;
+            }
+            return value == null ? null : value.toString();
+        }
+
+        private Object callClaimChain(Object rootObject) {
+            try {
+                Object candidate = rootObject;
+                for (MethodHandle getter : getters) {
+                    if ((candidate = getter.invokeExact(candidate)) == null)
+                        break;
+                }
+                return candidate;
+            } catch (Throwable e) {
+                // TODO Use logger. These exceptions shouldn't occur, but if it somehow does happen we need to know.
+                System.err.println("Unexpected error looking up token field: " + e); //$NON-NLS-1$
+                e.printStackTrace();
+            }
+            return null;
+        }
+
+        @SuppressWarnings("unchecked") // KC code - thanks.
+        private Object getOtherClaimValue(JsonWebToken token) {
+            Map<String, Object> jsonObject = token.getOtherClaims();
+            for (int i = 0; i < path.length; i++) {
+                if (i == path.length - 1) {
+                    return jsonObject.get(path[i]);
+                } else {
+                    Object val = jsonObject.get(path[i]);
+                    if (!(val instanceof Map))
+                        return null;
+                    jsonObject = (Map<String, Object>) val;
+                }
             }
+            return null;
         }
-        return null;
     }
 }
@@ -0,0 +1,85 @@
+/*
+ * Copyright 2015 JBoss Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.apiman.plugins.keycloak_oauth_policy;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A Bloom filter of token digests (as hex, see
+ * {@link io.apiman.plugins.auth_common.TokenDigests}): says for sure when a
+ * digest was never added, and may be wrong, about once in a hundred times at
+ * the expected number of entries, when it says a digest was.
+ *
+ * @author Marc Savy {@literal <msavy@redhat.com>}
+ */
+class DigestBloomFilter {
+
+    private static final double FALSE_POSITIVE_RATE = 0.01;
+
+    private final AtomicLongArray bits;
+    private final long size;
+    private final int hashes;
+
+    /**
+     * @param expectedEntries the number of digests the filter is sized for
+     */
+    DigestBloomFilter(int expectedEntries) {
+        long m = (long) Math.ceil(-expectedEntries * Math.log(FALSE_POSITIVE_RATE) / (Math.log(2) * Math.log(2)));
+        this.bits = new AtomicLongArray((int) ((m + 63) >>> 6));
+        this.size = (long) bits.length() << 6;
+        this.hashes = Math.max(1, (int) Math.round((double) size / expectedEntries * Math.log(2)));
+    }
+
+    /**
+     * @param digest the digest
+     */
+    void add(String digest) {
+        long h1 = hex(digest, 0);
+        long h2 = hex(digest, 16);
+        for (int i = 0; i < hashes; i++) {
+            long bit = Math.floorMod(h1 + i * h2, size);
+            long mask = 1L << bit;
+            bits.accumulateAndGet((int) (bit >>> 6), mask, (word, m) -> word | m);
+        }
+    }
+
+    /**
+     * @param digest the digest
+     * @return false if the digest was never added
+     */
+    boolean mightContain(String digest) {
+        long h1 = hex(digest, 0);
+        long h2 = hex(digest, 16);
+        for (int i = 0; i < hashes; i++) {
+            long bit = Math.floorMod(h1 + i * h2, size);
+            if ((bits.get((int) (bit >>> 6)) & (1L << bit)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Reads 16 hex digits (64 bits) of a digest, without allocating.
+     */
+    private static long hex(String digest, int from) {
+        long value = 0;
+        for (int i = from; i < from + 16; i++) {
+            value = (value << 4) | Character.digit(digest.charAt(i), 16);
+        }
+        return value;
+    }
+}
@@ -15,15 +15,20 @@
  */
 package io.apiman.plugins.keycloak_oauth_policy;
 
+import java.security.Key;
+import java.security.PublicKey;
 import java.util.Collections;
 
-import org.apache.commons.lang.StringUtils;
 import org.keycloak.RSATokenVerifier;
 import org.keycloak.common.VerificationException;
 import org.keycloak.common.constants.KerberosConstants;
+import org.keycloak.common.util.Time;
+import org.keycloak.jose.jws.JWSInput;
+import org.keycloak.jose.jws.JWSInputException;
 import org.keycloak.representations.AccessToken;
 import org.keycloak.representations.AccessToken.Access;
 
+import io.apiman.gateway.engine.async.AsyncResultImpl;
 import io.apiman.gateway.engine.async.IAsyncResult;
 import io.apiman.gateway.engine.async.IAsyncResultHandler;
 import io.apiman.gateway.engine.beans.ApiRequest;
@@ -35,6 +40,9 @@ import io.apiman.gateway.engine.policies.AuthorizationPolicy;
 import io.apiman.gateway.engine.policy.IPolicyChain;
 import io.apiman.gateway.engine.policy.IPolicyContext;
 import io.apiman.gateway.engine.policy.PolicyContextKeys;
+import io.apiman.plugins.auth_common.BearerTokens;
+import io.apiman.plugins.auth_common.PublicKeySet;
+import io.apiman.plugins.auth_common.TokenDigests;
 import io.apiman.plugins.keycloak_oauth_policy.beans.ForwardAuthInfo;
 import io.apiman.plugins.keycloak_oauth_policy.beans.KeycloakOauthConfigBean;
 import io.apiman.plugins.keycloak_oauth_policy.failures.PolicyFailureFactory;
@@ -49,7 +57,6 @@ public class KeycloakOauthPolicy extends AbstractMappedPolicy<KeycloakOauthConfi
 
     private static final String AUTHORIZATION_KEY = "Authorization"; //$NON-NLS-1$
     private static final String ACCESS_TOKEN_QUERY_KEY = "access_token"; //$NON-NLS-1$
-    private static final String BEARER = "Bearer "; //$NON-NLS-1$
     private static final String NEGOTIATE = "Negotiate "; //$NON-NLS-1$
     private final PolicyFailureFactory failureFactory = new PolicyFailureFactory();
 
@@ -71,28 +78,42 @@ public class KeycloakOauthPolicy extends AbstractMappedPolicy<KeycloakOauthConfi
             final KeycloakOauthConfigBean config, final IPolicyChain<ApiRequest> chain) {
 
         final String rawToken = getRawAuthToken(request);
-        final Holder<Boolean> successStatus = new Holder<>(true);
 
         if (rawToken == null) {
             if (config.getRequireOauth()) {
-                doFailure(successStatus, chain, failureFactory.noAuthenticationProvided(context));
+                chain.doFailure(failureFactory.noAuthenticationProvided(context));
             } else {
                 chain.doApply(request);
             }
-        } else if (doTokenAuth(successStatus, request, context, config, chain, rawToken).getValue()) {
+            return;
+        }
+
+        PublicKeySet keySet = config.getRealmKeySet();
+        if (keySet != null && !keySet.isLoaded()) {
+            // Carry on once the realm keys have been fetched, rather than blocking the thread
+            keySet.whenLoaded(context, loaded -> authenticate(request, context, config, chain, rawToken, null));
+        } else {
+            authenticate(request, context, config, chain, rawToken, keySet);
+        }
+    }
+
+    /**
+     * @param keySet the realm key set to fetch again if the token is signed with a
+     *        key it doesn't have, or null to fail the request
+     */
+    private void authenticate(final ApiRequest request, final IPolicyContext context,
+            final KeycloakOauthConfigBean config, final IPolicyChain<ApiRequest> chain, final String rawToken,
+            final PublicKeySet keySet) {
+        final Holder<Boolean> successStatus = new Holder<>(true);
+        final Holder<AccessToken> parsedToken = new Holder<>();
+
+        if (doTokenAuth(successStatus, parsedToken, request, context, config, chain, rawToken, keySet).getValue()) {
             // Transport security check
             if (config.getRequireTransportSecurity() && !request.isTransportSecure()) {
                 // If we've detected a situation where we should blacklist a
                 // token
                 if (config.getBlacklistUnsafeTokens()) {
-                    blacklistToken(context, rawToken, new IAsyncResultHandler<Void>() {
-                        @Override
-                        public void handle(IAsyncResult<Void> result) {
-                            if (result.isError()) {
-                                // TODO log the error (need a policy logger)
-                            }
-                        }
-                    });
+                    blacklistToken(context, rawToken, parsedToken.getValue());
                 }
 
                 doFailure(successStatus, chain, failureFactory.noTransportSecurity(context));
@@ -131,12 +152,12 @@ public class KeycloakOauthPolicy extends AbstractMappedPolicy<KeycloakOauthConfi
         successStatus.setValue(false);
     }
 
-    private Holder<Boolean> doTokenAuth(Holder<Boolean> successStatus, ApiRequest request,
-            IPolicyContext context, KeycloakOauthConfigBean config, IPolicyChain<ApiRequest> chain,
-            String rawToken) {
+    private Holder<Boolean> doTokenAuth(Holder<Boolean> successStatus, Holder<AccessToken> parsedTokenHolder,
+            ApiRequest request, IPolicyContext context, KeycloakOauthConfigBean config,
+            IPolicyChain<ApiRequest> chain, String rawToken, PublicKeySet keySet) {
         try {
-            AccessToken parsedToken = RSATokenVerifier.verifyToken(rawToken, config.getRealmCertificate()
-                    .getPublicKey(), config.getRealm());
+            AccessToken parsedToken = verifyToken(rawToken, config);
+            parsedTokenHolder.setValue(parsedToken);
 
             delegateKerberosTicket(request, config, parsedToken);
             forwardHeaders(request, config, rawToken, parsedToken);
@@ -149,6 +170,15 @@ public class KeycloakOauthPolicy extends AbstractMappedPolicy<KeycloakOauthConfi
             }
 
             return successStatus.setValue(true);
+        } catch (UnknownKeyException e) {
+            if (keySet != null) {
+                // The key may be new: try again once the realm keys have been fetched
+                keySet.whenFetched(context,
+                        fetched -> authenticate(request, context, config, chain, rawToken, null));
+            } else {
+                chain.doFailure(failureFactory.verificationException(context, e));
+            }
+            return successStatus.setValue(false);
         } catch (VerificationException e) {
             System.out.println(e);
             chain.doFailure(failureFactory.verificationException(context, e));
@@ -156,6 +186,39 @@ public class KeycloakOauthPolicy extends AbstractMappedPolicy<KeycloakOauthConfi
         }
     }
 
+    private AccessToken verifyToken(String rawToken, KeycloakOauthConfigBean config) throws VerificationException {
+        AccessTokenCache cache = config.getTokenCache();
+        if (cache == null) {
+            return RSATokenVerifier.verifyToken(rawToken, getRealmKey(rawToken, config), config.getRealm());
+        }
+        String key = TokenDigests.sha256(rawToken);
+        AccessToken token = cache.get(key);
+        if (token == null) {
+            token = RSATokenVerifier.verifyToken(rawToken, getRealmKey(rawToken, config), config.getRealm());
+            cache.put(key, token);
+        }
+        return token;
+    }
+
+    @SuppressWarnings("nls")
+    private PublicKey getRealmKey(String rawToken, KeycloakOauthConfigBean config) throws VerificationException {
+        PublicKeySet keySet = config.getRealmKeySet();
+        if (keySet == null) {
+            return config.getRealmCertificate().getPublicKey();
+        }
+        String kid;
+        try {
+            kid = new JWSInput(rawToken).getHeader().getKeyId();
+        } catch (JWSInputException e) {
+            throw new VerificationException("Couldn't parse token", e);
+        }
+        Key key = keySet.resolve(kid);
+        if (!(key instanceof PublicKey)) {
+            throw new UnknownKeyException("No realm key found for key id " + kid);
+        }
+        return (PublicKey) key;
+    }
+
     private void forwardAuthRoles(IPolicyContext context, KeycloakOauthConfigBean config,
             AccessToken parsedToken) {
 
@@ -187,15 +250,7 @@ public class KeycloakOauthPolicy extends AbstractMappedPolicy<KeycloakOauthConfi
     }
 
     private String getRawAuthToken(ApiRequest request) {
-        String rawToken = StringUtils.strip(request.getHeaders().get(AUTHORIZATION_KEY));
-
-        if (rawToken != null && StringUtils.startsWithIgnoreCase(rawToken, BEARER)) {
-            rawToken = StringUtils.removeStartIgnoreCase(rawToken, BEARER);
-        } else {
-            rawToken = request.getQueryParams().get(ACCESS_TOKEN_QUERY_KEY);
-        }
-
-        return rawToken;
+        return BearerTokens.extract(request);
     }
 
     private void stripAuthTokens(ApiRequest request, KeycloakOauthConfigBean config) {
@@ -208,33 +263,70 @@ public class KeycloakOauthPolicy extends AbstractMappedPolicy<KeycloakOauthConfi
     private void forwardHeaders(ApiRequest request, KeycloakOauthConfigBean config, String rawToken,
             AccessToken parsedToken) {
         for (ForwardAuthInfo entry : config.getForwardAuthInfo()) {
-            String headerValue = isToken(entry.getField()) ? rawToken :
-                ClaimLookup.getClaim(parsedToken, entry.getField());
+            String headerValue = entry.getClaim().toHeaderValue(rawToken, parsedToken);
             // Add the header if we've been able to look it up, else it'll just be empty.
             request.getHeaders().put(entry.getHeader(), headerValue);
         }
     }
 
-    @SuppressWarnings("nls")
-    private boolean isToken(String field) {
-        return field.toLowerCase().equals("access_token");
-    }
-
     private void isBlacklistedToken(IPolicyContext context, String rawToken,
             final IAsyncResultHandler<Boolean> resultHandler) {
         ISharedStateComponent dataStore = getDataStore(context);
-        dataStore.<Boolean> getProperty("apiman-keycloak-blacklist", rawToken, false, //$NON-NLS-1$
-                resultHandler);
+        BlacklistNearCache nearCache = BlacklistNearCache.of(dataStore);
+        String digest = TokenDigests.sha256(rawToken);
+        switch (nearCache.status(digest, System.currentTimeMillis())) {
+        case BLACKLISTED:
+            resultHandler.handle(AsyncResultImpl.create(Boolean.TRUE));
+            break;
+        case CLEAR:
+            resultHandler.handle(AsyncResultImpl.create(Boolean.FALSE));
+            break;
+        case STALE:
+            // The token may have been blacklisted by another node since it was checked
+        default:
+            lookUpBlacklistedToken(dataStore, nearCache, digest, resultHandler);
+        }
     }
 
-    private void blacklistToken(IPolicyContext context, String rawToken,
-            final IAsyncResultHandler<Void> resultHandler) {
+    private void lookUpBlacklistedToken(ISharedStateComponent dataStore, BlacklistNearCache nearCache,
+            String digest, IAsyncResultHandler<Boolean> resultHandler) {
+        dataStore.<Object> getProperty(BlacklistWriter.NAMESPACE, digest, null, result -> {
+            if (result.isError()) {
+                resultHandler.handle(AsyncResultImpl.create(result.getError(), Boolean.class));
+                return;
+            }
+            Object value = result.getResult();
+            boolean blacklisted = BlacklistWriter.isBlacklisted(value, Time.currentTime());
+            if (!blacklisted && value != null) {
+                // Expired, and the node that wrote it may be gone
+                dataStore.clearProperty(BlacklistWriter.NAMESPACE, digest, cleared -> {});
+            }
+            nearCache.checked(digest, blacklisted, System.currentTimeMillis());
+            resultHandler.handle(AsyncResultImpl.create(blacklisted));
+        });
+    }
+
+    private void blacklistToken(IPolicyContext context, String rawToken, AccessToken parsedToken) {
         ISharedStateComponent dataStore = getDataStore(context);
-        dataStore.<Boolean> setProperty("apiman-keycloak-blacklist", rawToken, true, //$NON-NLS-1$
-                resultHandler);
+        String digest = TokenDigests.sha256(rawToken);
+        BlacklistNearCache.of(dataStore).blacklisted(digest);
+        // Tokens that never expire stay blacklisted
+        long expires = parsedToken.getExpiration() == 0 ? Long.MAX_VALUE : parsedToken.getExpiration();
+        BlacklistWriter.of(dataStore).blacklist(context, digest, expires);
     }
 
     private ISharedStateComponent getDataStore(IPolicyContext context) {
         return context.getComponent(ISharedStateComponent.class);
     }
+
+    /**
+     * Thrown when a token is signed with a key that isn't among the realm keys.
+     */
+    private static class UnknownKeyException extends VerificationException {
+        private static final long serialVersionUID = 1L;
+
+        UnknownKeyException(String message) {
+            super(message);
+        }
+    }
 }
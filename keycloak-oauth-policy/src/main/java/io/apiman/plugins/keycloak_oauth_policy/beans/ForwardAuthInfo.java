@@ -15,6 +15,8 @@
  */
 package io.apiman.plugins.keycloak_oauth_policy.beans;
 
+import io.apiman.plugins.keycloak_oauth_policy.ClaimLookup;
+
 import java.util.HashMap;
 import java.util.Map;
 
@@ -44,6 +46,8 @@ public class ForwardAuthInfo {
     private String field;
     @JsonIgnore
     private Map<String, Object> additionalProperties = new HashMap<>();
+    @JsonIgnore
+    private transient volatile ClaimLookup.Claim claim;
 
     /**
      * @return The headers
@@ -75,6 +79,20 @@ public class ForwardAuthInfo {
     @JsonProperty("field")
     public void setField(String field) {
         this.field = field;
+        this.claim = null;
+    }
+
+    /**
+     * @return The field, compiled for lookups in tokens
+     */
+    @JsonIgnore
+    public ClaimLookup.Claim getClaim() {
+        ClaimLookup.Claim compiled = claim;
+        if (compiled == null) {
+            compiled = ClaimLookup.compile(field);
+            claim = compiled;
+        }
+        return compiled;
     }
 
     @Override
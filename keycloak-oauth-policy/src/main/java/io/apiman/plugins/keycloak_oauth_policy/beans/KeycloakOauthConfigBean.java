@@ -15,6 +15,9 @@
  */
 package io.apiman.plugins.keycloak_oauth_policy.beans;
 
+import io.apiman.plugins.auth_common.PublicKeySet;
+import io.apiman.plugins.keycloak_oauth_policy.AccessTokenCache;
+
 import java.security.cert.Certificate;
 import java.util.ArrayList;
 import java.util.HashMap;
@@ -38,7 +41,8 @@ import com.fasterxml.jackson.databind.annotation.JsonSerialize;
  */
 @JsonSerialize(include = JsonSerialize.Inclusion.NON_NULL)
 @JsonPropertyOrder({ "requireOauth", "requireTransportSecurity", "blacklistUnsafeTokens", "stripTokens",
-        "realm", "realmCertificateString", "forwardRoles", "delegateKerberosTicket", "forwardAuthInfo" })
+        "realm", "realmCertificateString", "forwardRoles", "delegateKerberosTicket", "forwardAuthInfo", "tokenCacheSize",
+        "realmCertsUri", "realmCertsRefreshInterval" })
 public class KeycloakOauthConfigBean {
 
     /**
@@ -112,9 +116,40 @@ public class KeycloakOauthConfigBean {
      */
     @JsonProperty("forwardAuthInfo")
     private List<ForwardAuthInfo> forwardAuthInfo = new ArrayList<>();
+
+    /**
+     * Token Cache Size
+     * <p>
+     * Maximum number of verified tokens remembered for the realm, until they expire, so that
+     * their signatures aren't verified again when they are reused. Zero turns the cache off.
+     */
+    @JsonProperty("tokenCacheSize")
+    private int tokenCacheSize = 10000;
+
+    /**
+     * Realm Certs URI
+     * <p>
+     * The realm's certs endpoint (e.g. https://mykeycloak.local/auth/realms/apimanrealm/protocol/openid-connect/certs).
+     * When set, tokens are verified with the realm key of their key id, fetched from the endpoint and refreshed in
+     * the background, instead of the realm certificate.
+     */
+    @JsonProperty("realmCertsUri")
+    private String realmCertsUri;
+
+    /**
+     * Realm Certs Refresh Interval
+     * <p>
+     * Number of seconds between refreshes of the realm keys.
+     */
+    @JsonProperty("realmCertsRefreshInterval")
+    private int realmCertsRefreshInterval = 600;
     @JsonIgnore
     private Map<String, Object> additionalProperties = new HashMap<>();
     private Certificate realmCertificate;
+    @JsonIgnore
+    private transient volatile AccessTokenCache tokenCache;
+    @JsonIgnore
+    private transient volatile PublicKeySet realmKeySet;
 
     /**
      * Require OAuth
@@ -234,6 +269,7 @@ public class KeycloakOauthConfigBean {
     @JsonProperty("realm")
     public void setRealm(String realm) {
         this.realm = realm;
+        this.tokenCache = null;
     }
 
     /**
@@ -259,6 +295,7 @@ public class KeycloakOauthConfigBean {
     public void setRealmCertificateString(String realmCertificateString) {
         this.realmCertificateString = realmCertificateString;
         realmCertificate = generateCertificate(realmCertificateString);
+        tokenCache = null;
     }
 
     /**
@@ -337,6 +374,119 @@ public class KeycloakOauthConfigBean {
         this.forwardAuthInfo = forwardAuthInfo;
     }
 
+    /**
+     * Token Cache Size
+     * <p>
+     * Maximum number of verified tokens remembered for the realm, until they expire, so that
+     * their signatures aren't verified again when they are reused. Zero turns the cache off.
+     *
+     * @return The tokenCacheSize
+     */
+    @JsonProperty("tokenCacheSize")
+    public int getTokenCacheSize() {
+        return tokenCacheSize;
+    }
+
+    /**
+     * Token Cache Size
+     * <p>
+     * Maximum number of verified tokens remembered for the realm, until they expire, so that
+     * their signatures aren't verified again when they are reused. Zero turns the cache off.
+     *
+     * @param tokenCacheSize The tokenCacheSize
+     */
+    @JsonProperty("tokenCacheSize")
+    public void setTokenCacheSize(int tokenCacheSize) {
+        this.tokenCacheSize = tokenCacheSize;
+        this.tokenCache = null;
+    }
+
+    /**
+     * Realm Certs URI
+     * <p>
+     * The realm's certs endpoint (e.g. https://mykeycloak.local/auth/realms/apimanrealm/protocol/openid-connect/certs).
+     * When set, tokens are verified with the realm key of their key id, fetched from the endpoint and refreshed in
+     * the background, instead of the realm certificate.
+     *
+     * @return The realmCertsUri
+     */
+    @JsonProperty("realmCertsUri")
+    public String getRealmCertsUri() {
+        return realmCertsUri;
+    }
+
+    /**
+     * Realm Certs URI
+     * <p>
+     * The realm's certs endpoint (e.g. https://mykeycloak.local/auth/realms/apimanrealm/protocol/openid-connect/certs).
+     * When set, tokens are verified with the realm key of their key id, fetched from the endpoint and refreshed in
+     * the background, instead of the realm certificate.
+     *
+     * @param realmCertsUri The realmCertsUri
+     */
+    @JsonProperty("realmCertsUri")
+    public void setRealmCertsUri(String realmCertsUri) {
+        this.realmCertsUri = realmCertsUri;
+        this.tokenCache = null;
+        this.realmKeySet = null;
+    }
+
+    /**
+     * Realm Certs Refresh Interval
+     * <p>
+     * Number of seconds between refreshes of the realm keys.
+     *
+     * @return The realmCertsRefreshInterval
+     */
+    @JsonProperty("realmCertsRefreshInterval")
+    public int getRealmCertsRefreshInterval() {
+        return realmCertsRefreshInterval;
+    }
+
+    /**
+     * Realm Certs Refresh Interval
+     * <p>
+     * Number of seconds between refreshes of the realm keys.
+     *
+     * @param realmCertsRefreshInterval The realmCertsRefreshInterval
+     */
+    @JsonProperty("realmCertsRefreshInterval")
+    public void setRealmCertsRefreshInterval(int realmCertsRefreshInterval) {
+        this.realmCertsRefreshInterval = realmCertsRefreshInterval;
+        this.realmKeySet = null;
+    }
+
+    /**
+     * @return the cache of the tokens verified against the realm, or null if caching is off
+     */
+    @JsonIgnore
+    public AccessTokenCache getTokenCache() {
+        AccessTokenCache cache = tokenCache;
+        if (cache == null && tokenCacheSize > 0) {
+            String keys = hasRealmCertsUri() ? realmCertsUri : realmCertificateString;
+            cache = AccessTokenCache.forRealm(realm, keys, tokenCacheSize);
+            tokenCache = cache;
+        }
+        return cache;
+    }
+
+    /**
+     * @return the keys of the realm's certs endpoint, or null if tokens are verified with the realm certificate
+     */
+    @JsonIgnore
+    public PublicKeySet getRealmKeySet() {
+        PublicKeySet keySet = realmKeySet;
+        if (keySet == null && hasRealmCertsUri()) {
+            keySet = PublicKeySet.of(realmCertsUri, realmCertsRefreshInterval * 1000L);
+            realmKeySet = keySet;
+        }
+        return keySet;
+    }
+
+    private boolean hasRealmCertsUri() {
+        return realmCertsUri != null && !realmCertsUri.trim().isEmpty();
+    }
+
     @Override
     public String toString() {
         return ToStringBuilder.reflectionToString(this);
@@ -0,0 +1,59 @@
+package io.apiman.plugins.keycloak_oauth_policy;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.keycloak.common.util.Time;
+import org.keycloak.representations.AccessToken;
+
+@SuppressWarnings("nls")
+public class AccessTokenCacheTest {
+
+    private AccessTokenCache cache = new AccessTokenCache(10);
+
+    @Test
+    public void hitsAndMisses() {
+        AccessToken token = token(60);
+        Assert.assertNull(cache.get("k"));
+        cache.put("k", token);
+        Assert.assertSame(token, cache.get("k"));
+        Assert.assertEquals(1, cache.getHits());
+        Assert.assertEquals(1, cache.getMisses());
+    }
+
+    @Test
+    public void expiredTokensAreDropped() {
+        cache.put("k", token(-1));
+        Assert.assertNull(cache.get("k"));
+        Assert.assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void tokensWithoutExpiryAreNotCached() {
+        cache.put("k", new AccessToken());
+        Assert.assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void tokensClosestToExpiringAreEvictedFirst() {
+        for (int i = 0; i < 20; i++) {
+            cache.put("k" + i, token(100 - i));
+        }
+        Assert.assertTrue(cache.size() <= 10);
+        Assert.assertNotNull(cache.get("k0"));
+        Assert.assertNotNull(cache.get("k19"));
+    }
+
+    @Test
+    public void realmsHaveTheirOwnCache() {
+        AccessTokenCache cache = AccessTokenCache.forRealm("apiman", "cert", 10);
+        Assert.assertSame(cache, AccessTokenCache.forRealm("apiman", "cert", 10));
+        Assert.assertNotSame(cache, AccessTokenCache.forRealm("apiman", "other cert", 10));
+        Assert.assertNotSame(cache, AccessTokenCache.forRealm("other", "cert", 10));
+    }
+
+    private static AccessToken token(int expiresIn) {
+        AccessToken token = new AccessToken();
+        token.expiration(Time.currentTime() + expiresIn);
+        return token;
+    }
+}
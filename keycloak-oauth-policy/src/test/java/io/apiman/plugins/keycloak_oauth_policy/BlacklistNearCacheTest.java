@@ -0,0 +1,56 @@
+package io.apiman.plugins.keycloak_oauth_policy;
+
+import io.apiman.gateway.engine.impl.InMemorySharedStateComponent;
+import io.apiman.plugins.auth_common.TokenDigests;
+import io.apiman.plugins.keycloak_oauth_policy.BlacklistNearCache.Status;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+@SuppressWarnings("nls")
+public class BlacklistNearCacheTest {
+
+    private BlacklistNearCache cache = new BlacklistNearCache();
+
+    @Test
+    public void clearedTokensAreRefreshedByOneCaller() {
+        String digest = TokenDigests.sha256("a.b.c");
+        Assert.assertEquals(Status.UNKNOWN, cache.status(digest, 0));
+        cache.checked(digest, false, 0);
+        Assert.assertEquals(Status.CLEAR, cache.status(digest, BlacklistNearCache.REFRESH_INTERVAL - 1));
+        Assert.assertEquals(Status.STALE, cache.status(digest, BlacklistNearCache.REFRESH_INTERVAL));
+        Assert.assertEquals(Status.CLEAR, cache.status(digest, BlacklistNearCache.REFRESH_INTERVAL));
+    }
+
+    @Test
+    public void blacklistingInvalidatesClearedTokens() {
+        String digest = TokenDigests.sha256("a.b.c");
+        cache.checked(digest, false, 0);
+        cache.blacklisted(digest);
+        Assert.assertEquals(Status.BLACKLISTED, cache.status(digest, 0));
+        Assert.assertEquals(Status.UNKNOWN, cache.status(TokenDigests.sha256("a.b.d"), 0));
+    }
+
+    @Test
+    public void bloomFilterHasNoFalseNegatives() {
+        DigestBloomFilter filter = new DigestBloomFilter(1000);
+        int falsePositives = 0;
+        for (int i = 0; i < 1000; i++) {
+            filter.add(TokenDigests.sha256("token " + i));
+        }
+        for (int i = 0; i < 1000; i++) {
+            Assert.assertTrue(filter.mightContain(TokenDigests.sha256("token " + i)));
+            if (filter.mightContain(TokenDigests.sha256("other " + i))) {
+                falsePositives++;
+            }
+        }
+        Assert.assertTrue(falsePositives < 50);
+    }
+
+    @Test
+    public void storesHaveTheirOwnNearCache() {
+        InMemorySharedStateComponent store = new InMemorySharedStateComponent();
+        Assert.assertSame(BlacklistNearCache.of(store), BlacklistNearCache.of(store));
+        Assert.assertNotSame(BlacklistNearCache.of(store), BlacklistNearCache.of(new InMemorySharedStateComponent()));
+    }
+}
@@ -0,0 +1,75 @@
+package io.apiman.plugins.keycloak_oauth_policy;
+
+import io.apiman.gateway.engine.async.IAsyncResultHandler;
+import io.apiman.gateway.engine.components.IPeriodicComponent;
+import io.apiman.gateway.engine.impl.InMemorySharedStateComponent;
+import io.apiman.gateway.engine.policy.IPolicyContext;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.mockito.BDDMockito;
+import org.mockito.Mockito;
+
+@SuppressWarnings("nls")
+public class BlacklistWriterTest {
+
+    private int writes;
+    private InMemorySharedStateComponent store = new InMemorySharedStateComponent() {
+        @Override
+        public <T> void setProperty(String namespace, String propertyName, T value,
+                IAsyncResultHandler<Void> resultHandler) {
+            writes++;
+            super.setProperty(namespace, propertyName, value, resultHandler);
+        }
+    };
+    private BlacklistWriter writer = new BlacklistWriter(store);
+
+    @Test
+    public void writesAreCoalesced() {
+        IPolicyContext context = context();
+        writer.blacklist(context, "digest", 200);
+        writer.blacklist(context, "digest", 200);
+        writer.blacklist(context, "digest", 100);
+        Assert.assertEquals(0, writes);
+
+        writer.flush(50);
+        Assert.assertEquals(1, writes);
+        Assert.assertEquals(200L, value("digest"));
+        writer.flush(60);
+        Assert.assertEquals(1, writes);
+    }
+
+    @Test
+    public void expiredEntriesAreCleared() {
+        IPolicyContext context = context();
+        writer.blacklist(context, "digest", 100);
+        writer.blacklist(context, "expired", 10);
+        writer.flush(50);
+        Assert.assertNull(value("expired"));
+        Assert.assertTrue(BlacklistWriter.isBlacklisted(value("digest"), 50));
+
+        writer.flush(100);
+        Assert.assertNull(value("digest"));
+    }
+
+    @Test
+    public void valuesBlacklistUntilTheyExpire() {
+        Assert.assertTrue(BlacklistWriter.isBlacklisted(101L, 100));
+        Assert.assertFalse(BlacklistWriter.isBlacklisted(100L, 100));
+        Assert.assertFalse(BlacklistWriter.isBlacklisted(null, 0));
+        Assert.assertFalse(BlacklistWriter.isBlacklisted(Boolean.TRUE, 0));
+    }
+
+    private static IPolicyContext context() {
+        IPolicyContext context = Mockito.mock(IPolicyContext.class);
+        BDDMockito.given(context.getComponent(IPeriodicComponent.class))
+                .willReturn(Mockito.mock(IPeriodicComponent.class));
+        return context;
+    }
+
+    private Object value(String digest) {
+        Object[] value = new Object[1];
+        store.getProperty(BlacklistWriter.NAMESPACE, digest, null, result -> value[0] = result.getResult());
+        return value[0];
+    }
+}
@@ -0,0 +1,44 @@
+package io.apiman.plugins.keycloak_oauth_policy;
+
+import java.util.Collections;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.keycloak.representations.AccessToken;
+import org.keycloak.representations.AddressClaimSet;
+
+@SuppressWarnings("nls")
+public class ClaimLookupTest {
+
+    @Test
+    public void standardClaimsAreResolvedThroughTheirFieldChain() {
+        AccessToken token = new AccessToken();
+        token.setPreferredUsername("apiman");
+        AddressClaimSet address = new AddressClaimSet();
+        address.setCountry("IE");
+        token.setAddress(address);
+
+        Assert.assertEquals("apiman", ClaimLookup.compile("preferred_username").get(token));
+        Assert.assertEquals("apiman", ClaimLookup.compile("username").get(token));
+        Assert.assertEquals("IE", ClaimLookup.compile("address.country").get(token));
+        Assert.assertNull(ClaimLookup.compile("email").get(token));
+    }
+
+    @Test
+    public void otherClaimsAreResolvedThroughTheirPath() {
+        AccessToken token = new AccessToken();
+        token.setOtherClaims("custom", Collections.singletonMap("nested", 42));
+
+        Assert.assertEquals("42", ClaimLookup.compile("custom.nested").get(token));
+        Assert.assertNull(ClaimLookup.compile("custom.nested.deeper").get(token));
+        Assert.assertNull(ClaimLookup.compile("missing").get(token));
+    }
+
+    @Test
+    public void accessTokenForwardsTheEncodedToken() {
+        ClaimLookup.Claim claim = ClaimLookup.compile("Access_Token");
+        Assert.assertTrue(claim.isAccessToken());
+        Assert.assertEquals("a.b.c", claim.toHeaderValue("a.b.c", new AccessToken()));
+        Assert.assertFalse(ClaimLookup.compile("email").isAccessToken());
+    }
+}
@@ -3,6 +3,7 @@ package io.apiman.plugins.keycloak_oauth_policy;
 import static org.mockito.BDDMockito.given;
 import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
@@ -10,12 +11,14 @@ import static org.mockito.Mockito.verify;
 import io.apiman.gateway.engine.beans.ApiRequest;
 import io.apiman.gateway.engine.beans.PolicyFailure;
 import io.apiman.gateway.engine.components.IPolicyFailureFactoryComponent;
+import io.apiman.gateway.engine.components.IPeriodicComponent;
 import io.apiman.gateway.engine.components.ISharedStateComponent;
 import io.apiman.gateway.engine.impl.DefaultPolicyFailureFactoryComponent;
 import io.apiman.gateway.engine.impl.InMemorySharedStateComponent;
 import io.apiman.gateway.engine.policies.AuthorizationPolicy;
 import io.apiman.gateway.engine.policy.IPolicyChain;
 import io.apiman.gateway.engine.policy.IPolicyContext;
+import io.apiman.plugins.auth_common.TokenDigests;
 import io.apiman.plugins.keycloak_oauth_policy.beans.ForwardAuthInfo;
 import io.apiman.plugins.keycloak_oauth_policy.beans.ForwardRoles;
 import io.apiman.plugins.keycloak_oauth_policy.beans.KeycloakOauthConfigBean;
@@ -135,6 +138,9 @@ public class KeycloakOauthPolicyTest {
         // Data store
         given(mContext.getComponent(ISharedStateComponent.class)).
             willReturn(new InMemorySharedStateComponent());
+        // Timers (blacklist writes)
+        given(mContext.getComponent(IPeriodicComponent.class)).
+            willReturn(mock(IPeriodicComponent.class));
     }
 
     private String generateAndSerializeToken() throws CertificateEncodingException, IOException {
@@ -257,6 +263,45 @@ public class KeycloakOauthPolicyTest {
         verify(mChain, never()).doApply(any(ApiRequest.class));
     }
 
+    @Test
+    public void shouldTerminateOnTokenBlacklistedByAnotherNode() throws CertificateEncodingException, IOException {
+        ISharedStateComponent store = new InMemorySharedStateComponent();
+        given(mContext.getComponent(ISharedStateComponent.class)).willReturn(store);
+        config.setBlacklistUnsafeTokens(true);
+        String encoded = generateAndSerializeToken();
+        String digest = TokenDigests.sha256(encoded);
+
+        // This node last found the token clear a refresh interval ago
+        BlacklistNearCache.of(store).checked(digest, false,
+                System.currentTimeMillis() - BlacklistNearCache.REFRESH_INTERVAL);
+        // Since then, another node has blacklisted it
+        store.setProperty(BlacklistWriter.NAMESPACE, digest, Long.MAX_VALUE, result -> {});
+
+        apiRequest.getHeaders().put("Authorization", "Bearer " + encoded);
+        keycloakOauthPolicy.apply(apiRequest, mContext, config, mChain);
+
+        verify(mChain, times(1)).doFailure(any(PolicyFailure.class));
+        verify(mChain, never()).doApply(any(ApiRequest.class));
+    }
+
+    @Test
+    public void shouldClearExpiredBlacklistEntries() throws CertificateEncodingException, IOException {
+        ISharedStateComponent store = new InMemorySharedStateComponent();
+        given(mContext.getComponent(ISharedStateComponent.class)).willReturn(store);
+        config.setBlacklistUnsafeTokens(true);
+        String encoded = generateAndSerializeToken();
+        String digest = TokenDigests.sha256(encoded);
+        // Left behind by a node that stopped before clearing it
+        store.setProperty(BlacklistWriter.NAMESPACE, digest, 1L, result -> {});
+
+        apiRequest.getHeaders().put("Authorization", "Bearer " + encoded);
+        keycloakOauthPolicy.apply(apiRequest, mContext, config, mChain);
+
+        verify(mChain, times(1)).doApply(apiRequest);
+        store.<Object> getProperty(BlacklistWriter.NAMESPACE, digest, null,
+                result -> Assert.assertNull(result.getResult()));
+    }
+
     @SuppressWarnings("serial")
     @Test
     public void shouldForwardAppRoles() throws CertificateEncodingException, IOException {
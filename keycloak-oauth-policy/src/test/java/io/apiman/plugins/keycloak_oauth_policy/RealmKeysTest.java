@@ -0,0 +1,332 @@
+package io.apiman.plugins.keycloak_oauth_policy;
+
+import static org.mockito.BDDMockito.given;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import io.apiman.common.logging.IApimanLogger;
+import io.apiman.gateway.engine.async.AsyncResultImpl;
+import io.apiman.gateway.engine.async.IAsyncHandler;
+import io.apiman.gateway.engine.async.IAsyncResultHandler;
+import io.apiman.gateway.engine.beans.ApiRequest;
+import io.apiman.gateway.engine.beans.PolicyFailure;
+import io.apiman.gateway.engine.components.IHttpClientComponent;
+import io.apiman.gateway.engine.components.IPeriodicComponent;
+import io.apiman.gateway.engine.components.IPolicyFailureFactoryComponent;
+import io.apiman.gateway.engine.components.http.HttpMethod;
+import io.apiman.gateway.engine.components.http.IHttpClientRequest;
+import io.apiman.gateway.engine.components.http.IHttpClientResponse;
+import io.apiman.gateway.engine.impl.DefaultPolicyFailureFactoryComponent;
+import io.apiman.gateway.engine.io.IApimanBuffer;
+import io.apiman.gateway.engine.policy.IPolicyChain;
+import io.apiman.gateway.engine.policy.IPolicyContext;
+import io.apiman.plugins.auth_common.PublicKeySet;
+import io.apiman.plugins.keycloak_oauth_policy.beans.ForwardRoles;
+import io.apiman.plugins.keycloak_oauth_policy.beans.KeycloakOauthConfigBean;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.Signature;
+import java.security.interfaces.RSAPublicKey;
+import java.util.Scanner;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.keycloak.common.util.Base64Url;
+import org.keycloak.representations.AccessToken;
+import org.keycloak.util.JsonSerialization;
+import org.mockito.ArgumentCaptor;
+
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Tests the {@link KeycloakOauthPolicy} with realm keys fetched from a stub
+ * certs endpoint.
+ *
+ * @author Marc Savy {@literal <msavy@redhat.com>}
+ */
+@SuppressWarnings("nls")
+public class RealmKeysTest {
+
+    private HttpServer server;
+    private volatile String certs;
+    private volatile CountDownLatch release = new CountDownLatch(0);
+    private final AtomicInteger fetches = new AtomicInteger();
+    private KeycloakOauthPolicy policy = new KeycloakOauthPolicy();
+    private KeycloakOauthConfigBean config = new KeycloakOauthConfigBean();
+    @SuppressWarnings("unchecked")
+    private IPolicyChain<ApiRequest> chain = mock(IPolicyChain.class);
+    private IPolicyContext context = mock(IPolicyContext.class);
+    private IPeriodicComponent periodic = mock(IPeriodicComponent.class);
+
+    @Before
+    public void setUp() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/certs", exchange -> {
+            try {
+                release.await(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            fetches.incrementAndGet();
+            byte[] body = certs.getBytes(StandardCharsets.UTF_8);
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        });
+        server.start();
+
+        config.setRealm("apiman-realm");
+        config.setRequireTransportSecurity(false);
+        config.setForwardRoles(new ForwardRoles());
+        config.setRealmCertsUri("http://localhost:" + server.getAddress().getPort() + "/certs");
+
+        given(context.getComponent(IPolicyFailureFactoryComponent.class))
+                .willReturn(new DefaultPolicyFailureFactoryComponent());
+        given(context.getComponent(IHttpClientComponent.class)).willReturn(new StubHttpClient());
+        given(context.getComponent(IPeriodicComponent.class)).willReturn(periodic);
+        given(context.getLogger(any())).willReturn(mock(IApimanLogger.class));
+    }
+
+    @After
+    public void tearDown() {
+        server.stop(0);
+    }
+
+    @Test
+    public void requestsDoNotBlockOnTheFirstFetch() throws Exception {
+        KeyPair k1 = generateKeyPair();
+        certs = jwks("k1", k1);
+        release = new CountDownLatch(1);
+
+        ApiRequest request = request(token("k1", k1));
+        policy.apply(request, context, config, chain);
+        // The request is waiting for the keys, not the thread
+        verify(chain, never()).doApply(request);
+
+        release.countDown();
+        verify(chain, timeout(5000)).doApply(request);
+        verify(chain, never()).doFailure(any(PolicyFailure.class));
+    }
+
+    @Test
+    public void rotatedKeysAreFetchedOnUnknownKid() throws Exception {
+        KeyPair k1 = generateKeyPair();
+        KeyPair k2 = generateKeyPair();
+        certs = jwks("k1", k1);
+        ApiRequest first = request(token("k1", k1));
+        policy.apply(first, context, config, chain);
+        verify(chain, timeout(5000)).doApply(first);
+
+        // The realm rotates its keys; tokens signed with the new key wait for them to be fetched
+        certs = jwks("k2", k2);
+        release = new CountDownLatch(1);
+        ApiRequest second = request(token("k2", k2));
+        ApiRequest third = request(token("k2", k2));
+        policy.apply(second, context, config, chain);
+        policy.apply(third, context, config, chain);
+        verify(chain, never()).doApply(second);
+
+        release.countDown();
+        verify(chain, timeout(5000)).doApply(second);
+        verify(chain, timeout(5000)).doApply(third);
+        verify(chain, never()).doFailure(any(PolicyFailure.class));
+        // The unknown kid triggered a single fetch
+        Assert.assertEquals(2, fetches.get());
+    }
+
+    @Test
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    public void unknownKidsDoNotHoldBackRotatedKeys() throws Exception {
+        KeyPair k1 = generateKeyPair();
+        KeyPair k2 = generateKeyPair();
+        certs = jwks("k1", k1);
+        ApiRequest first = request(token("k1", k1));
+        policy.apply(first, context, config, chain);
+        verify(chain, timeout(5000)).doApply(first);
+
+        // A made up kid fails once the fetch it triggered is done
+        ApiRequest garbage = request(token("garbage", generateKeyPair()));
+        policy.apply(garbage, context, config, chain);
+        verify(chain, timeout(5000)).doFailure(any(PolicyFailure.class));
+        Assert.assertEquals(2, fetches.get());
+
+        // The realm rotates its keys right after: the request waits for the next allowed fetch
+        certs = jwks("k2", k2);
+        ApiRequest rotated = request(token("k2", k2));
+        policy.apply(rotated, context, config, chain);
+        ArgumentCaptor<IAsyncHandler> refetch = ArgumentCaptor.forClass(IAsyncHandler.class);
+        verify(periodic).setOneshotTimer(anyLong(), refetch.capture());
+        verify(chain, never()).doApply(rotated);
+        verify(chain, times(1)).doFailure(any(PolicyFailure.class));
+
+        refetch.getValue().handle(8L);
+        verify(chain, timeout(5000)).doApply(rotated);
+        verify(chain, times(1)).doFailure(any(PolicyFailure.class));
+        Assert.assertEquals(3, fetches.get());
+    }
+
+    @Test
+    public void keysAreKeptWhenTheEndpointHasNone() throws Exception {
+        KeyPair k1 = generateKeyPair();
+        certs = jwks("k1", k1);
+        ApiRequest first = request(token("k1", k1));
+        policy.apply(first, context, config, chain);
+        verify(chain, timeout(5000)).doApply(first);
+
+        // An unknown kid triggers a fetch, which finds no keys array
+        certs = "{}";
+        policy.apply(request(token("k2", generateKeyPair())), context, config, chain);
+        verify(chain, timeout(5000)).doFailure(any(PolicyFailure.class));
+
+        Assert.assertTrue(config.getRealmKeySet().getKeys().containsKey("k1"));
+        ApiRequest accepted = request(token("k1", k1));
+        policy.apply(accepted, context, config, chain);
+        verify(chain).doApply(accepted);
+    }
+
+    @Test
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    public void unusedKeySetsStopRefreshing() throws Exception {
+        KeyPair k1 = generateKeyPair();
+        certs = jwks("k1", k1);
+        ApiRequest first = request(token("k1", k1));
+        policy.apply(first, context, config, chain);
+        verify(chain, timeout(5000)).doApply(first);
+        ArgumentCaptor<IAsyncHandler> timer = ArgumentCaptor.forClass(IAsyncHandler.class);
+        verify(periodic).setPeriodicTimer(anyLong(), anyLong(), timer.capture());
+        PublicKeySet keySet = config.getRealmKeySet();
+
+        // Used since the last refresh
+        timer.getValue().handle(7L);
+        verify(periodic, never()).cancelTimer(anyLong());
+        Assert.assertSame(keySet, PublicKeySet.of(config.getRealmCertsUri(), config.getRealmCertsRefreshInterval() * 1000L));
+
+        // Not used since
+        timer.getValue().handle(7L);
+        verify(periodic).cancelTimer(eq(7L));
+        Assert.assertNotSame(keySet, PublicKeySet.of(config.getRealmCertsUri(), config.getRealmCertsRefreshInterval() * 1000L));
+
+        // Used again
+        ApiRequest again = request(token("k1", k1));
+        policy.apply(again, context, config, chain);
+        verify(chain).doApply(again);
+        verify(periodic, times(2)).setPeriodicTimer(anyLong(), anyLong(), any(IAsyncHandler.class));
+    }
+
+    @Test
+    public void blankCertsUriIsUnset() {
+        config.setRealmCertsUri(" ");
+        Assert.assertNull(config.getRealmKeySet());
+    }
+
+    private static ApiRequest request(String token) {
+        ApiRequest request = new ApiRequest();
+        request.getHeaders().put("Authorization", "Bearer " + token);
+        return request;
+    }
+
+    private static String jwks(String kid, KeyPair keyPair) {
+        RSAPublicKey key = (RSAPublicKey) keyPair.getPublic();
+        return "{\"keys\": [{\"kty\": \"RSA\", \"use\": \"sig\", \"kid\": \"" + kid + "\", \"n\": \""
+                + Base64Url.encode(key.getModulus().toByteArray()) + "\", \"e\": \""
+                + Base64Url.encode(key.getPublicExponent().toByteArray()) + "\"}]}";
+    }
+
+    private static String token(String kid, KeyPair keyPair) throws Exception {
+        AccessToken token = new AccessToken();
+        token.type("Bearer").subject("CN=Client").issuer("apiman-realm");
+        String header = "{\"alg\":\"RS256\",\"typ\":\"JWT\",\"kid\":\"" + kid + "\"}";
+        String input = Base64Url.encode(header.getBytes(StandardCharsets.UTF_8)) + "."
+                + Base64Url.encode(JsonSerialization.writeValueAsBytes(token));
+        Signature signature = Signature.getInstance("SHA256withRSA");
+        signature.initSign(keyPair.getPrivate());
+        signature.update(input.getBytes(StandardCharsets.UTF_8));
+        return input + "." + Base64Url.encode(signature.sign());
+    }
+
+    private static KeyPair generateKeyPair() throws Exception {
+        KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+        generator.initialize(2048);
+        return generator.generateKeyPair();
+    }
+
+    /**
+     * Sends requests from a thread of its own, as the gateway's client does.
+     */
+    private static final class StubHttpClient implements IHttpClientComponent {
+        @Override
+        public IHttpClientRequest request(String endpoint, HttpMethod method,
+                IAsyncResultHandler<IHttpClientResponse> handler) {
+            return new IHttpClientRequest() {
+                @Override
+                public void end() {
+                    new Thread(() -> {
+                        try {
+                            HttpURLConnection connection = (HttpURLConnection) new URL(endpoint).openConnection();
+                            int code = connection.getResponseCode();
+                            String body;
+                            try (InputStream in = connection.getInputStream();
+                                    Scanner scanner = new Scanner(in, "UTF-8")) {
+                                body = scanner.useDelimiter("\\A").next();
+                            }
+                            IHttpClientResponse response = mock(IHttpClientResponse.class);
+                            given(response.getResponseCode()).willReturn(code);
+                            given(response.getBody()).willReturn(body);
+                            handler.handle(AsyncResultImpl.create(response));
+                        } catch (IOException e) {
+                            handler.handle(AsyncResultImpl.create(e, IHttpClientResponse.class));
+                        }
+                    }).start();
+                }
+
+                @Override
+                public void setConnectTimeout(int connectTimeoutMs) {
+                }
+
+                @Override
+                public void setReadTimeout(int readTimeoutMs) {
+                }
+
+                @Override
+                public void addHeader(String header, String value) {
+                }
+
+                @Override
+                public void removeHeader(String header) {
+                }
+
+                @Override
+                public void write(IApimanBuffer buffer) {
+                }
+
+                @Override
+                public void write(byte[] data) {
+                }
+
+                @Override
+                public void write(String body, String charsetName) {
+                }
+            };
+        }
+    }
+}
@@ -0,0 +1,132 @@
+package io.apiman.plugins.transformation_policy;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Pool of byte arrays used by the buffered data handlers to collect bodies.
+ * Arrays come in power-of-two size classes from 4 KiB to 4 MiB, and a few of
+ * each class are kept for reuse, up to 16 MiB in all; larger arrays are not
+ * pooled.
+ * <p>
+ * A running estimate of the body size is also kept per key (an API and a
+ * direction), so that when a body arrives without a Content-Length the first
+ * array handed out is usually big enough to hold all of it.
+ */
+class BufferArena {
+
+    private static final int MIN_CLASS_SHIFT = 12;
+    private static final int MAX_CLASS_SHIFT = 22;
+    private static final int ARRAYS_PER_CLASS = 8;
+    private static final int MAX_ESTIMATES = 1000;
+    private static final long MAX_POOLED_BYTES = 16L * 1024 * 1024;
+
+    private final ArrayBlockingQueue<byte[]>[] pools;
+    private final long maxPooledBytes;
+    private final AtomicLong pooledBytes = new AtomicLong();
+    private final ConcurrentMap<String, AtomicInteger> estimates = new ConcurrentHashMap<>();
+
+    /**
+     * Constructor.
+     */
+    BufferArena() {
+        this(MAX_POOLED_BYTES);
+    }
+
+    /**
+     * Constructor.
+     * @param maxPooledBytes the most bytes kept in the pool at any time
+     */
+    @SuppressWarnings("unchecked")
+    BufferArena(long maxPooledBytes) {
+        this.maxPooledBytes = maxPooledBytes;
+        pools = new ArrayBlockingQueue[MAX_CLASS_SHIFT - MIN_CLASS_SHIFT + 1];
+        for (int i = 0; i < pools.length; i++) {
+            pools[i] = new ArrayBlockingQueue<>(ARRAYS_PER_CLASS);
+        }
+    }
+
+    /**
+     * Returns an array of at least the given size, pooled if there is one.
+     * @param size the minimum size
+     */
+    byte[] acquire(int size) {
+        int sizeClass = sizeClass(size);
+        if (sizeClass < 0) {
+            return new byte[size];
+        }
+        byte[] array = pools[sizeClass].poll();
+        if (array == null) {
+            return new byte[classSize(sizeClass)];
+        }
+        pooledBytes.addAndGet(-array.length);
+        return array;
+    }
+
+    /**
+     * Returns an array to the pool. Arrays that don't match a size class, or
+     * whose class or the pool as a whole is full, are left to the garbage
+     * collector.
+     * @param array an array handed out by {@link #acquire(int)}
+     */
+    void release(byte[] array) {
+        int sizeClass = sizeClass(array.length);
+        if (sizeClass < 0 || classSize(sizeClass) != array.length) {
+            return;
+        }
+        if (pooledBytes.addAndGet(array.length) > maxPooledBytes || !pools[sizeClass].offer(array)) {
+            pooledBytes.addAndGet(-array.length);
+        }
+    }
+
+    /**
+     * @param key the key
+     * @return the estimated body size for the key, or 0 if nothing was recorded yet
+     */
+    int estimate(String key) {
+        AtomicInteger estimate = estimates.get(key);
+        return estimate == null ? 0 : estimate.get();
+    }
+
+    /**
+     * Moves the estimate for the key a quarter of the way towards the size of a
+     * body that has just been collected.
+     * @param key the key
+     * @param size the size of the body
+     */
+    void record(String key, int size) {
+        AtomicInteger estimate = estimates.get(key);
+        if (estimate == null) {
+            if (estimates.size() >= MAX_ESTIMATES) {
+                return;
+            }
+            estimate = estimates.putIfAbsent(key, new AtomicInteger(size));
+            if (estimate == null) {
+                return;
+            }
+        }
+        int current;
+        do {
+            current = estimate.get();
+        } while (!estimate.compareAndSet(current, current + (size - current) / 4));
+    }
+
+    /**
+     * @return the index of the smallest size class holding the given size, or -1 if it's too big to pool
+     */
+    static int sizeClass(int size) {
+        if (size <= 1 << MIN_CLASS_SHIFT) {
+            return 0;
+        }
+        int shift = 32 - Integer.numberOfLeadingZeros(size - 1);
+        return shift > MAX_CLASS_SHIFT ? -1 : shift - MIN_CLASS_SHIFT;
+    }
+
+    private static int classSize(int sizeClass) {
+        return 1 << (sizeClass + MIN_CLASS_SHIFT);
+    }
+
+}
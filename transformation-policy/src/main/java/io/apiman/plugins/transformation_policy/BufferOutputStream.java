@@ -0,0 +1,56 @@
+package io.apiman.plugins.transformation_policy;
+
+import io.apiman.gateway.engine.components.IBufferFactoryComponent;
+import io.apiman.gateway.engine.io.IApimanBuffer;
+
+import java.io.OutputStream;
+
+/**
+ * Collects a transformer's output into a buffer until it is passed downstream.
+ */
+class BufferOutputStream extends OutputStream {
+
+    private final IBufferFactoryComponent bufferFactory;
+    private final int initialSize;
+    private IApimanBuffer buffer;
+
+    /**
+     * Constructor.
+     * @param bufferFactory used to create the buffers
+     * @param initialSize the initial size of each buffer, or zero for the factory's default
+     */
+    BufferOutputStream(IBufferFactoryComponent bufferFactory, int initialSize) {
+        this.bufferFactory = bufferFactory;
+        this.initialSize = initialSize;
+    }
+
+    @Override
+    public void write(int b) {
+        buffer().append((byte) b);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) {
+        if (len > 0) {
+            buffer().append(b, off, len);
+        }
+    }
+
+    private IApimanBuffer buffer() {
+        if (buffer == null) {
+            buffer = initialSize > 0 ? bufferFactory.createBuffer(initialSize) : bufferFactory.createBuffer();
+        }
+        return buffer;
+    }
+
+    /**
+     * Hands over what has been written since the last call.
+     * @return the buffer, or null if nothing was written
+     */
+    IApimanBuffer take() {
+        IApimanBuffer chunk = buffer;
+        buffer = null;
+        return chunk;
+    }
+
+}
@@ -0,0 +1,87 @@
+package io.apiman.plugins.transformation_policy;
+
+import io.apiman.gateway.engine.components.IBufferFactoryComponent;
+import io.apiman.gateway.engine.io.IApimanBuffer;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.security.MessageDigest;
+
+/**
+ * A body collected into an array taken from a {@link BufferArena}. The array
+ * must be given back with {@link #release()} once the body has been used.
+ */
+class PooledBuffer {
+
+    private final BufferArena arena;
+    private byte[] array;
+    private int length;
+
+    /**
+     * Constructor.
+     * @param arena the arena to take arrays from
+     * @param initialSize the expected size of the body, or zero if unknown
+     */
+    PooledBuffer(BufferArena arena, int initialSize) {
+        this.arena = arena;
+        this.array = arena.acquire(initialSize);
+    }
+
+    /**
+     * Appends bytes to the body, moving it to a bigger array if needed.
+     * @param bytes the bytes
+     */
+    void append(byte[] bytes) {
+        int required = length + bytes.length;
+        if (required > array.length) {
+            byte[] grown = arena.acquire(Math.max(required, array.length << 1));
+            System.arraycopy(array, 0, grown, 0, length);
+            arena.release(array);
+            array = grown;
+        }
+        System.arraycopy(bytes, 0, array, length, bytes.length);
+        length = required;
+    }
+
+    /**
+     * @return the size of the body
+     */
+    int length() {
+        return length;
+    }
+
+    /**
+     * @return a stream reading the body, valid until the buffer is released
+     */
+    InputStream newInputStream() {
+        return new ByteArrayInputStream(array, 0, length);
+    }
+
+    /**
+     * @param digest a digest to feed the body to
+     */
+    void update(MessageDigest digest) {
+        digest.update(array, 0, length);
+    }
+
+    /**
+     * @param bufferFactory the buffer factory
+     * @return a copy of the body that can be passed downstream
+     */
+    IApimanBuffer toApimanBuffer(IBufferFactoryComponent bufferFactory) {
+        IApimanBuffer buffer = bufferFactory.createBuffer(length);
+        buffer.append(array, 0, length);
+        return buffer;
+    }
+
+    /**
+     * Gives the array back to the arena.
+     */
+    void release() {
+        if (array != null) {
+            arena.release(array);
+            array = null;
+        }
+    }
+
+}
@@ -0,0 +1,166 @@
+package io.apiman.plugins.transformation_policy;
+
+import io.apiman.plugins.transformation_policy.beans.DataFormat;
+
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Cache of transformation results, for APIs that keep sending the same bodies
+ * (catalogs, reference data and the like). A transformation depends on nothing
+ * but its input, so results are looked up by a digest of the input bytes along
+ * with the direction, the formats and the charset. Each API has its own least
+ * recently used cache, bounded by the total size of the results it holds, and
+ * its own hit and miss counters.
+ * <p>
+ * Only responses to GET requests are cached; request bodies and the responses
+ * to other methods are rarely sent twice.
+ */
+public class TransformationCache {
+
+    private static final String DIGEST_ALGORITHM = "SHA-256"; //$NON-NLS-1$
+    private static final char[] HEX = "0123456789abcdef".toCharArray(); //$NON-NLS-1$
+
+    private final ConcurrentMap<String, ApiCache> caches = new ConcurrentHashMap<>();
+
+    /**
+     * Constructor.
+     */
+    TransformationCache() {
+    }
+
+    /**
+     * Returns the key a body's result is cached under.
+     * @param direction the direction of the body (request or response)
+     * @param inputFormat the format of the body
+     * @param outputFormat the format it is transformed to
+     * @param charset the charset of the body, may be null
+     * @param body the body
+     */
+    static String key(String direction, DataFormat inputFormat, DataFormat outputFormat, Charset charset,
+            PooledBuffer body) {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance(DIGEST_ALGORITHM);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        body.update(digest);
+        StringBuilder key = new StringBuilder(direction).append(':').append(inputFormat).append(':')
+                .append(outputFormat).append(':').append(charset).append(':');
+        for (byte b : digest.digest()) {
+            key.append(HEX[(b >> 4) & 0xf]).append(HEX[b & 0xf]);
+        }
+        return key.toString();
+    }
+
+    /**
+     * @param apiKey the API
+     * @param key the key of the result
+     * @return the cached result, or null if there is none or it has expired
+     */
+    byte[] get(String apiKey, String key) {
+        return cache(apiKey).get(key, System.currentTimeMillis());
+    }
+
+    /**
+     * Caches a result, unless it is bigger than the API's whole cache.
+     * @param apiKey the API
+     * @param key the key of the result
+     * @param result the result
+     * @param maxSize the maximum number of bytes of results cached for the API
+     * @param ttl the number of milliseconds the result is used for
+     */
+    void put(String apiKey, String key, byte[] result, long maxSize, long ttl) {
+        if (result.length > maxSize || ttl <= 0) {
+            return;
+        }
+        cache(apiKey).put(key, result, System.currentTimeMillis() + ttl, maxSize);
+    }
+
+    /**
+     * @param apiKey the API, as organization/api/version
+     * @return the number of lookups that found a result
+     */
+    public long getHits(String apiKey) {
+        ApiCache cache = caches.get(apiKey);
+        return cache == null ? 0 : cache.hits.get();
+    }
+
+    /**
+     * @param apiKey the API, as organization/api/version
+     * @return the number of lookups that didn't find a result
+     */
+    public long getMisses(String apiKey) {
+        ApiCache cache = caches.get(apiKey);
+        return cache == null ? 0 : cache.misses.get();
+    }
+
+    private ApiCache cache(String apiKey) {
+        ApiCache cache = caches.get(apiKey);
+        if (cache == null) {
+            ApiCache created = new ApiCache();
+            cache = caches.putIfAbsent(apiKey, created);
+            if (cache == null) {
+                cache = created;
+            }
+        }
+        return cache;
+    }
+
+    private static final class Entry {
+        final byte[] result;
+        final long expires;
+
+        Entry(byte[] result, long expires) {
+            this.result = result;
+            this.expires = expires;
+        }
+    }
+
+    /**
+     * The results cached for one API, in access order.
+     */
+    private static final class ApiCache {
+        private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+        private long size;
+        final AtomicLong hits = new AtomicLong();
+        final AtomicLong misses = new AtomicLong();
+
+        synchronized byte[] get(String key, long now) {
+            Entry entry = entries.get(key);
+            if (entry != null && entry.expires <= now) {
+                entries.remove(key);
+                size -= entry.result.length;
+                entry = null;
+            }
+            if (entry == null) {
+                misses.incrementAndGet();
+                return null;
+            }
+            hits.incrementAndGet();
+            return entry.result;
+        }
+
+        synchronized void put(String key, byte[] result, long expires, long maxSize) {
+            Entry previous = entries.put(key, new Entry(result, expires));
+            if (previous != null) {
+                size -= previous.result.length;
+            }
+            size += result.length;
+            Iterator<Map.Entry<String, Entry>> eldest = entries.entrySet().iterator();
+            while (size > maxSize && eldest.hasNext()) {
+                size -= eldest.next().getValue().result.length;
+                eldest.remove();
+            }
+        }
+    }
+
+}
@@ -1,5 +1,6 @@
 package io.apiman.plugins.transformation_policy;
 
+import io.apiman.common.logging.IApimanLogger;
 import io.apiman.gateway.engine.beans.ApiRequest;
 import io.apiman.gateway.engine.beans.ApiResponse;
 import io.apiman.gateway.engine.components.IBufferFactoryComponent;
@@ -12,8 +13,12 @@ import io.apiman.gateway.engine.policy.IPolicyChain;
 import io.apiman.gateway.engine.policy.IPolicyContext;
 import io.apiman.plugins.transformation_policy.beans.DataFormat;
 import io.apiman.plugins.transformation_policy.beans.TransformationConfigBean;
+import io.apiman.plugins.transformation_policy.transformer.Charsets;
 import io.apiman.plugins.transformation_policy.transformer.DataTransformer;
 import io.apiman.plugins.transformation_policy.transformer.DataTransformerFactory;
+import io.apiman.plugins.transformation_policy.transformer.StreamingDataTransformer;
+
+import java.nio.charset.Charset;
 
 /**
  * Policy that transforms the data from one format to another.
@@ -24,10 +29,25 @@ public class TransformationPolicy extends AbstractMappedPolicy<TransformationCon
 
     private static final String CLIENT_FORMAT = "clientFormat"; //$NON-NLS-1$
     private static final String SERVER_FORMAT = "serverFormat"; //$NON-NLS-1$
+    private static final String API_KEY = "apiKey"; //$NON-NLS-1$
+    private static final String CACHEABLE = "cacheable"; //$NON-NLS-1$
+    private static final String GET = "GET"; //$NON-NLS-1$
+    private static final String REQUEST = "request"; //$NON-NLS-1$
+    private static final String RESPONSE = "response"; //$NON-NLS-1$
     private static final String CONTENT_TYPE = "Content-Type"; //$NON-NLS-1$
     private static final String CONTENT_LENGTH = "Content-Length"; //$NON-NLS-1$
     private static final String ACCEPT = "Accept"; //$NON-NLS-1$
 
+    private static final BufferArena BUFFER_ARENA = new BufferArena();
+    private static final TransformationCache RESULT_CACHE = new TransformationCache();
+
+    /**
+     * @return the cache of transformation results, for reading its hit and miss counts per API
+     */
+    public static TransformationCache getResultCache() {
+        return RESULT_CACHE;
+    }
+
     @Override
     protected Class<TransformationConfigBean> getConfigurationClass() {
         return TransformationConfigBean.class;
@@ -42,6 +62,8 @@ public class TransformationPolicy extends AbstractMappedPolicy<TransformationCon
         if (isValidTransformation(clientFormat, serverFormat)) {
             context.setAttribute(CLIENT_FORMAT, clientFormat);
             context.setAttribute(SERVER_FORMAT, serverFormat);
+            context.setAttribute(API_KEY, apiKey(request));
+            context.setAttribute(CACHEABLE, GET.equals(request.getType()));
 
             request.getHeaders().put(CONTENT_TYPE, serverFormat.getContentType());
             request.getHeaders().remove(CONTENT_LENGTH);
@@ -60,13 +82,28 @@ public class TransformationPolicy extends AbstractMappedPolicy<TransformationCon
             IPolicyContext context, Object policyConfiguration) {
 
         final IBufferFactoryComponent bufferFactory = context.getComponent(IBufferFactoryComponent.class);
+        // Data handlers are created before doApply runs, so the formats come from the configuration
+        // and the charset from the Content-Type the client sent, which doApply replaces
+        final Charset charset = Charsets.fromContentType(request.getHeaders().get(CONTENT_TYPE));
+        final TransformationConfigBean config = (TransformationConfigBean) policyConfiguration;
+        final DataFormat clientFormat = config == null ? null : config.getClientFormat();
+        final DataFormat serverFormat = config == null ? null : config.getServerFormat();
+        IReadWriteStream<ApiRequest> streamingHandler = getStreamingDataHandler(request, bufferFactory, config,
+                clientFormat, serverFormat, charset);
+        if (streamingHandler != null) {
+            return streamingHandler;
+        }
+
         final int contentLength = request.getHeaders().containsKey(CONTENT_LENGTH)
                 ? Integer.parseInt(request.getHeaders().get(CONTENT_LENGTH))
                 : 0;
+        final String apiKey = apiKey(request);
+        final String sizeKey = REQUEST + ':' + apiKey;
 
         return new AbstractStream<ApiRequest>() {
 
-            private IApimanBuffer readBuffer = bufferFactory.createBuffer(contentLength);
+            private PooledBuffer readBuffer = new PooledBuffer(BUFFER_ARENA,
+                    contentLength > 0 ? contentLength : BUFFER_ARENA.estimate(sizeKey));
 
             @Override
             public ApiRequest getHead() {
@@ -84,21 +121,21 @@ public class TransformationPolicy extends AbstractMappedPolicy<TransformationCon
 
             @Override
             public void end() {
-                final DataFormat clientFormat = (DataFormat) context.getAttribute(CLIENT_FORMAT, null);
-                final DataFormat serverFormat = (DataFormat) context.getAttribute(SERVER_FORMAT, null);
-                
-                if (readBuffer.length() > 0) {
-                    if (isValidTransformation(clientFormat, serverFormat)) {
-                        DataTransformer dataTransformer = DataTransformerFactory.getDataTransformer(clientFormat, serverFormat);
-                        IApimanBuffer writeBuffer = bufferFactory.createBuffer(readBuffer.length());
-    
-                        String data = dataTransformer.transform(new String(readBuffer.getBytes()));
-                        writeBuffer.append(data);
-    
-                        super.write(writeBuffer);
-                    } else {
-                        super.write(readBuffer);
+                try {
+                    if (readBuffer.length() > 0) {
+                        BUFFER_ARENA.record(sizeKey, readBuffer.length());
+                        if (isValidTransformation(clientFormat, serverFormat)) {
+                            IApimanBuffer writeBuffer = transform(readBuffer, false, clientFormat, serverFormat,
+                                    charset, apiKey, config, bufferFactory);
+                            if (writeBuffer != null) {
+                                super.write(writeBuffer);
+                            }
+                        } else {
+                            super.write(readBuffer.toApimanBuffer(bufferFactory));
+                        }
                     }
+                } finally {
+                    readBuffer.release();
                 }
                 super.end();
             }
@@ -130,13 +167,29 @@ public class TransformationPolicy extends AbstractMappedPolicy<TransformationCon
 
         if (isValidTransformation(clientFormat, serverFormat)) {
             final IBufferFactoryComponent bufferFactory = context.getComponent(IBufferFactoryComponent.class);
+            // Read before doApply replaces the Content-Type the server sent
+            final Charset charset = Charsets.fromContentType(response.getHeaders().get(CONTENT_TYPE));
+            IReadWriteStream<ApiResponse> streamingHandler = getStreamingDataHandler(response, bufferFactory,
+                    (TransformationConfigBean) policyConfiguration, serverFormat, clientFormat, charset);
+            if (streamingHandler != null) {
+                return streamingHandler;
+            }
+
             final int contentLength = response.getHeaders().containsKey(CONTENT_LENGTH)
                     ? Integer.parseInt(response.getHeaders().get(CONTENT_LENGTH))
                     : 0;
+            final TransformationConfigBean config = (TransformationConfigBean) policyConfiguration;
+            final String apiKey = context.getAttribute(API_KEY, ""); //$NON-NLS-1$
+            final String sizeKey = RESPONSE + ':' + apiKey;
+            // Only responses to GET requests are cached, as the result of a GET is what gets asked for again
+            final boolean cacheable = config != null && config.isResultCache()
+                    && context.getAttribute(CACHEABLE, false);
+            final IApimanLogger logger = cacheable ? context.getLogger(TransformationPolicy.class) : null;
 
             return new AbstractStream<ApiResponse>() {
 
-                private IApimanBuffer readBuffer = bufferFactory.createBuffer(contentLength);
+                private PooledBuffer readBuffer = new PooledBuffer(BUFFER_ARENA,
+                        contentLength > 0 ? contentLength : BUFFER_ARENA.estimate(sizeKey));
 
                 @Override
                 public ApiResponse getHead() {
@@ -155,14 +208,21 @@ public class TransformationPolicy extends AbstractMappedPolicy<TransformationCon
 
                 @Override
                 public void end() {
-                    if (readBuffer.length() > 0) {
-                        DataTransformer dataTransformer = DataTransformerFactory.getDataTransformer(serverFormat, clientFormat);
-                        IApimanBuffer writeBuffer = bufferFactory.createBuffer(readBuffer.length());
-
-                        String data = dataTransformer.transform(new String(readBuffer.getBytes()));
-                        writeBuffer.append(data);
-
-                        super.write(writeBuffer);
+                    try {
+                        if (readBuffer.length() > 0) {
+                            BUFFER_ARENA.record(sizeKey, readBuffer.length());
+                            IApimanBuffer writeBuffer = transform(readBuffer, cacheable, serverFormat, clientFormat,
+                                    charset, apiKey, config, bufferFactory);
+                            if (writeBuffer != null) {
+                                super.write(writeBuffer);
+                            }
+                            if (cacheable) {
+                                logger.debug("Transformation result cache for {0}: {1} hits, {2} misses", //$NON-NLS-1$
+                                        apiKey, RESULT_CACHE.getHits(apiKey), RESULT_CACHE.getMisses(apiKey));
+                            }
+                        }
+                    } finally {
+                        readBuffer.release();
                     }
                     super.end();
                 }
@@ -172,6 +232,65 @@ public class TransformationPolicy extends AbstractMappedPolicy<TransformationCon
         return null;
     }
 
+    /**
+     * Returns a handler that transforms the body as it arrives, if streaming is
+     * enabled and the body can be transformed that way, or null otherwise. The
+     * streaming parsers only read UTF-8, bodies in other charsets are buffered.
+     */
+    private <H> IReadWriteStream<H> getStreamingDataHandler(H head, IBufferFactoryComponent bufferFactory,
+            TransformationConfigBean config, DataFormat inputFormat, DataFormat outputFormat, Charset charset) {
+        if (config == null || !config.isStreaming() || !isValidTransformation(inputFormat, outputFormat)
+                || !Charsets.isUtf8(charset)) {
+            return null;
+        }
+        StreamingDataTransformer transformer = DataTransformerFactory.getStreamingDataTransformer(inputFormat, outputFormat);
+        if (transformer == null) {
+            return null;
+        }
+        return new TransformingStream<>(head, bufferFactory, transformer, config);
+    }
+
+    /**
+     * Transforms a buffered body, reusing a cached result if the body is
+     * cacheable and the same body was transformed before.
+     * @return the transformed body, or null if it is empty
+     */
+    private static IApimanBuffer transform(PooledBuffer body, boolean cacheable, DataFormat inputFormat,
+            DataFormat outputFormat, Charset charset, String apiKey, TransformationConfigBean config,
+            IBufferFactoryComponent bufferFactory) {
+        String cacheKey = null;
+        if (cacheable) {
+            cacheKey = TransformationCache.key(RESPONSE, inputFormat, outputFormat, charset, body);
+            byte[] cached = RESULT_CACHE.get(apiKey, cacheKey);
+            if (cached != null) {
+                if (cached.length == 0) {
+                    return null;
+                }
+                IApimanBuffer buffer = bufferFactory.createBuffer(cached.length);
+                buffer.append(cached);
+                return buffer;
+            }
+        }
+
+        DataTransformer dataTransformer = DataTransformerFactory.getDataTransformer(inputFormat, outputFormat);
+        BufferOutputStream output = new BufferOutputStream(bufferFactory, body.length());
+        dataTransformer.transform(body.newInputStream(), charset, output);
+        IApimanBuffer result = output.take();
+
+        if (cacheKey != null) {
+            RESULT_CACHE.put(apiKey, cacheKey, result == null ? new byte[0] : result.getBytes(),
+                    config.getResultCacheSize(), config.getResultCacheTtl() * 1000L);
+        }
+        return result;
+    }
+
+    /**
+     * @return the key body sizes are estimated under for the API being called
+     */
+    private static String apiKey(ApiRequest request) {
+        return request.getApiOrgId() + '/' + request.getApiId() + '/' + request.getApiVersion();
+    }
+
     private boolean isValidTransformation(DataFormat clientFormat, DataFormat serverFormat) {
         return clientFormat != null && serverFormat != null && !clientFormat.equals(serverFormat);
     }
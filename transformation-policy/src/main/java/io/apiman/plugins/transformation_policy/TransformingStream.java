@@ -0,0 +1,78 @@
+package io.apiman.plugins.transformation_policy;
+
+import io.apiman.gateway.engine.components.IBufferFactoryComponent;
+import io.apiman.gateway.engine.io.AbstractStream;
+import io.apiman.gateway.engine.io.IAbortable;
+import io.apiman.gateway.engine.io.IApimanBuffer;
+import io.apiman.plugins.transformation_policy.beans.TransformationConfigBean;
+import io.apiman.plugins.transformation_policy.transformer.StreamingDataTransformer;
+import io.apiman.plugins.transformation_policy.transformer.StreamingTransformation;
+
+/**
+ * Data handler that runs a {@link StreamingTransformation} over the body as it
+ * flows through, passing transformed data downstream as soon as it has been
+ * produced rather than once the whole body has arrived. When the exchange is
+ * aborted part way through, the held back output is discarded.
+ *
+ * @param <H> the head type
+ */
+class TransformingStream<H> extends AbstractStream<H> implements IAbortable {
+
+    private final H head;
+    private final BufferOutputStream output;
+    private final StreamingTransformation transformation;
+    private boolean empty = true;
+
+    /**
+     * Constructor.
+     * @param head the request or response
+     * @param bufferFactory used to create the outgoing chunks
+     * @param transformer the transformer to run
+     * @param config the policy configuration
+     */
+    TransformingStream(H head, IBufferFactoryComponent bufferFactory, StreamingDataTransformer transformer,
+            TransformationConfigBean config) {
+        this.head = head;
+        this.output = new BufferOutputStream(bufferFactory, 0);
+        this.transformation = transformer.begin(output, config);
+    }
+
+    @Override
+    public H getHead() {
+        return head;
+    }
+
+    @Override
+    protected void handleHead(H head) {
+    }
+
+    @Override
+    public void write(IApimanBuffer chunk) {
+        empty &= chunk.length() == 0;
+        transformation.write(chunk.getBytes());
+        emit();
+    }
+
+    @Override
+    public void end() {
+        // Like a buffered transformation, an empty body (e.g. of a GET) is passed on as it is
+        if (!empty) {
+            transformation.end();
+            emit();
+        }
+        super.end();
+    }
+
+    @Override
+    public void abort(Throwable t) {
+        transformation.abort();
+    }
+
+    private void emit() {
+        IApimanBuffer chunk = output.take();
+        if (chunk != null) {
+            super.write(chunk);
+        }
+    }
+
+}
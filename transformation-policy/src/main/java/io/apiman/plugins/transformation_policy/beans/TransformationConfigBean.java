@@ -9,10 +9,24 @@ import com.fasterxml.jackson.annotation.JsonProperty;
  */
 public class TransformationConfigBean {
 
+    public static final int DEFAULT_SPILL_THRESHOLD = 1024 * 1024;
+    public static final int DEFAULT_RESULT_CACHE_SIZE = 10 * 1024 * 1024;
+    public static final int DEFAULT_RESULT_CACHE_TTL = 300;
+
     @JsonProperty
     private DataFormat clientFormat;
 	@JsonProperty
     private DataFormat serverFormat;
+    @JsonProperty
+    private boolean streaming;
+    @JsonProperty
+    private int spillThreshold = DEFAULT_SPILL_THRESHOLD;
+    @JsonProperty
+    private boolean resultCache;
+    @JsonProperty
+    private int resultCacheSize = DEFAULT_RESULT_CACHE_SIZE;
+    @JsonProperty
+    private int resultCacheTtl = DEFAULT_RESULT_CACHE_TTL;
 
     /**
      * @return the transformation's client format 
@@ -41,4 +55,76 @@ public class TransformationConfigBean {
     public void setServerFormat(DataFormat serverFormat) {
         this.serverFormat = serverFormat;
     }
+
+    /**
+     * @return whether bodies are transformed as they arrive instead of after being fully buffered
+     */
+    public boolean isStreaming() {
+        return streaming;
+    }
+
+    /**
+     * @param streaming whether bodies are transformed as they arrive instead of after being fully buffered
+     */
+    public void setStreaming(boolean streaming) {
+        this.streaming = streaming;
+    }
+
+    /**
+     * @return the number of bytes of held back output a streaming transformation
+     *         keeps in memory before moving it to a temporary file (0 for no limit)
+     */
+    public int getSpillThreshold() {
+        return spillThreshold;
+    }
+
+    /**
+     * @param spillThreshold the number of bytes of held back output a streaming transformation
+     *         keeps in memory before moving it to a temporary file (0 for no limit)
+     */
+    public void setSpillThreshold(int spillThreshold) {
+        this.spillThreshold = spillThreshold;
+    }
+
+    /**
+     * @return whether the results of buffered response transformations for GET requests are cached by input
+     */
+    public boolean isResultCache() {
+        return resultCache;
+    }
+
+    /**
+     * @param resultCache whether the results of buffered response transformations for GET requests are cached by input
+     */
+    public void setResultCache(boolean resultCache) {
+        this.resultCache = resultCache;
+    }
+
+    /**
+     * @return the maximum number of bytes of results cached for the API
+     */
+    public int getResultCacheSize() {
+        return resultCacheSize;
+    }
+
+    /**
+     * @param resultCacheSize the maximum number of bytes of results cached for the API
+     */
+    public void setResultCacheSize(int resultCacheSize) {
+        this.resultCacheSize = resultCacheSize;
+    }
+
+    /**
+     * @return the number of seconds a cached result is used for
+     */
+    public int getResultCacheTtl() {
+        return resultCacheTtl;
+    }
+
+    /**
+     * @param resultCacheTtl the number of seconds a cached result is used for
+     */
+    public void setResultCacheTtl(int resultCacheTtl) {
+        this.resultCacheTtl = resultCacheTtl;
+    }
 }
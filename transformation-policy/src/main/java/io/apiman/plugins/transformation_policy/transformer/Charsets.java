@@ -0,0 +1,57 @@
+package io.apiman.plugins.transformation_policy.transformer;
+
+import java.nio.charset.Charset;
+import java.nio.charset.IllegalCharsetNameException;
+import java.nio.charset.StandardCharsets;
+import java.nio.charset.UnsupportedCharsetException;
+
+/**
+ * Charset helpers for the transformers.
+ */
+public final class Charsets {
+
+    private static final String CHARSET = "charset"; //$NON-NLS-1$
+
+    private Charsets() {
+    }
+
+    /**
+     * Returns the charset declared by the {@code charset} parameter of a
+     * Content-Type header.
+     * @param contentType the header value, may be null
+     * @return the charset, or null if none is declared or it isn't supported
+     */
+    public static Charset fromContentType(String contentType) {
+        if (contentType == null) {
+            return null;
+        }
+        String[] parameters = contentType.split(";"); //$NON-NLS-1$
+        for (int i = 1; i < parameters.length; i++) {
+            String parameter = parameters[i].trim();
+            int eq = parameter.indexOf('=');
+            if (eq > 0 && CHARSET.equalsIgnoreCase(parameter.substring(0, eq).trim())) {
+                String name = parameter.substring(eq + 1).trim();
+                if (name.length() > 1 && name.startsWith("\"") && name.endsWith("\"")) { //$NON-NLS-1$ //$NON-NLS-2$
+                    name = name.substring(1, name.length() - 1);
+                }
+                try {
+                    return Charset.forName(name);
+                } catch (IllegalCharsetNameException | UnsupportedCharsetException e) {
+                    return null;
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Whether input in the given charset can be handed to the parsers as raw
+     * bytes. An undeclared charset counts, since UTF-8 is the default for JSON
+     * and an XML document declares its own encoding.
+     * @param charset the charset, may be null
+     */
+    public static boolean isUtf8(Charset charset) {
+        return charset == null || StandardCharsets.UTF_8.equals(charset) || StandardCharsets.US_ASCII.equals(charset);
+    }
+
+}
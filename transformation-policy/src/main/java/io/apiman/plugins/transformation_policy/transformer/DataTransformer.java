@@ -1,8 +1,23 @@
 package io.apiman.plugins.transformation_policy.transformer;
 
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
 
+/**
+ * Transforms a complete body from one format to another. Transformers work on
+ * bytes: UTF-8 input is parsed as is and the output is written as UTF-8, so the
+ * body never goes through an intermediate String.
+ */
 public interface DataTransformer {
 
-    String transform(String input);
-    
+    /**
+     * Transforms the input and writes the result to the output, UTF-8 encoded.
+     * @param input the body
+     * @param charset the charset the body is encoded with, or null if it wasn't declared
+     * @param output where the transformed body is written
+     * @throws TransformationException if the input cannot be transformed
+     */
+    void transform(InputStream input, Charset charset, OutputStream output);
+
 }
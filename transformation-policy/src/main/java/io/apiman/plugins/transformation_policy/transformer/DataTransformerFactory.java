@@ -8,6 +8,7 @@ import java.util.Map;
 public class DataTransformerFactory {
 
     private static final Map<DataFormat, Map<DataFormat, DataTransformer>> dataTransformers = new HashMap<>();
+    private static final Map<DataFormat, Map<DataFormat, StreamingDataTransformer>> streamingDataTransformers = new HashMap<>();
     
     static {
         dataTransformers.put(DataFormat.JSON, new HashMap<DataFormat, DataTransformer>());
@@ -15,10 +16,23 @@ public class DataTransformerFactory {
         
         dataTransformers.put(DataFormat.XML, new HashMap<DataFormat, DataTransformer>());
         dataTransformers.get(DataFormat.XML).put(DataFormat.JSON, new XmlToJsonTransformer());
+
+        streamingDataTransformers.put(DataFormat.JSON, new HashMap<DataFormat, StreamingDataTransformer>());
+        streamingDataTransformers.get(DataFormat.JSON).put(DataFormat.XML, new StreamingJsonToXmlTransformer());
+
+        streamingDataTransformers.put(DataFormat.XML, new HashMap<DataFormat, StreamingDataTransformer>());
+        streamingDataTransformers.get(DataFormat.XML).put(DataFormat.JSON, new StreamingXmlToJsonTransformer());
     }
     
     public static DataTransformer getDataTransformer(DataFormat inputFormat, DataFormat outputFormat) {
         return dataTransformers.get(inputFormat).get(outputFormat);
     }
+
+    /**
+     * @return the streaming transformer between the two formats, or null if there is none
+     */
+    public static StreamingDataTransformer getStreamingDataTransformer(DataFormat inputFormat, DataFormat outputFormat) {
+        return streamingDataTransformers.get(inputFormat).get(outputFormat);
+    }
     
 }
@@ -1,28 +1,33 @@
 package io.apiman.plugins.transformation_policy.transformer;
 
-import org.json.JSONArray;
-import org.json.JSONObject;
-import org.json.XML;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
 
-public class JsonToXmlTransformer implements DataTransformer {
+import com.fasterxml.jackson.core.JsonParser;
 
-    private static final String ELEMENT = "element"; //$NON-NLS-1$
+/**
+ * Transforms a complete JSON body to XML, see {@link StreamingJsonToXmlTransformer}
+ * for the conventions followed. UTF-8 input is parsed straight from the bytes,
+ * other charsets are decoded first.
+ */
+public class JsonToXmlTransformer implements DataTransformer {
 
     @Override
-    public String transform(String json) {
-	String ROOT = null;
-        JSONObject jsonObject = null;
-	    if (json.trim().startsWith("{")) { //$NON-NLS-1$
-	        jsonObject = new JSONObject(json);
-	        if (jsonObject.length() > 1) {
-	            ROOT = "root"; //$NON-NLS-1$
-	        }
-	    } else {
-	        JSONArray jsonArray = new JSONArray(json);
-	        jsonObject = new JSONObject().put(ELEMENT, jsonArray);
-	        ROOT = "root";  //$NON-NLS-1$
-	    }
-        return XML.toString(jsonObject, ROOT);
-	}
+    public void transform(InputStream input, Charset charset, OutputStream output) {
+        JsonParser parser;
+        try {
+            if (Charsets.isUtf8(charset)) {
+                parser = StreamingJsonToXmlTransformer.JSON_FACTORY.createParser(input);
+            } else {
+                parser = StreamingJsonToXmlTransformer.JSON_FACTORY.createParser(new InputStreamReader(input, charset));
+            }
+        } catch (IOException e) {
+            throw new TransformationException(e);
+        }
+        StreamingJsonToXmlTransformer.transform(parser, output);
+    }
 
 }
@@ -0,0 +1,101 @@
+package io.apiman.plugins.transformation_policy.transformer;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+
+/**
+ * Output that a streaming transformation has to hold back until it knows where
+ * it belongs. It is kept in memory up to the spill threshold and moved to a
+ * temporary file beyond that, so held back output cannot exhaust the heap.
+ */
+class PendingOutput extends OutputStream {
+
+    private static final int INITIAL_SIZE = 256;
+
+    private final int spillThreshold;
+    private ByteArrayOutputStream memory = new ByteArrayOutputStream(INITIAL_SIZE);
+    private File file;
+    private OutputStream fileOutput;
+
+    /**
+     * Constructor.
+     * @param spillThreshold the number of bytes to hold in memory, or zero (or less) for no limit
+     */
+    PendingOutput(int spillThreshold) {
+        this.spillThreshold = spillThreshold;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        if (file == null && spillThreshold > 0 && memory.size() + 1 > spillThreshold) {
+            spill();
+        }
+        if (file == null) {
+            memory.write(b);
+        } else {
+            fileOutput.write(b);
+        }
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        if (file == null && spillThreshold > 0 && memory.size() + len > spillThreshold) {
+            spill();
+        }
+        if (file == null) {
+            memory.write(b, off, len);
+        } else {
+            fileOutput.write(b, off, len);
+        }
+    }
+
+    /**
+     * Copies everything held so far to the given stream.
+     * @param out the stream
+     * @throws IOException if the spill file cannot be read
+     */
+    void writeTo(OutputStream out) throws IOException {
+        if (file == null) {
+            memory.writeTo(out);
+        } else {
+            fileOutput.flush();
+            Files.copy(file.toPath(), out);
+        }
+    }
+
+    /**
+     * @return whether the output was moved to a temporary file
+     */
+    boolean isSpilled() {
+        return file != null;
+    }
+
+    /**
+     * Releases the held output, deleting the spill file if there is one.
+     */
+    void discard() {
+        memory = null;
+        if (file != null) {
+            try {
+                fileOutput.close();
+            } catch (IOException e) {
+                // Nothing more can be done, the file is deleted regardless
+            }
+            file.delete();
+            file = null;
+        }
+    }
+
+    private void spill() throws IOException {
+        file = File.createTempFile("apiman-transformation-", ".tmp"); //$NON-NLS-1$ //$NON-NLS-2$
+        fileOutput = new BufferedOutputStream(new FileOutputStream(file));
+        memory.writeTo(fileOutput);
+        memory = null;
+    }
+
+}
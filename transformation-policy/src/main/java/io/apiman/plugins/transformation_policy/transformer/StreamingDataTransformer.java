@@ -0,0 +1,22 @@
+package io.apiman.plugins.transformation_policy.transformer;
+
+import io.apiman.plugins.transformation_policy.beans.TransformationConfigBean;
+
+import java.io.OutputStream;
+
+/**
+ * A transformer that converts data incrementally, as it arrives, rather than
+ * requiring the whole body to be buffered first.
+ */
+public interface StreamingDataTransformer {
+
+    /**
+     * Starts a new transformation of a single body.
+     *
+     * @param output where the transformed data should be written
+     * @param config the policy configuration
+     * @return the per-body transformation
+     */
+    StreamingTransformation begin(OutputStream output, TransformationConfigBean config);
+
+}
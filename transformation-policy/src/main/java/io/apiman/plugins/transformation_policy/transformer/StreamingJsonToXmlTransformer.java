@@ -0,0 +1,410 @@
+package io.apiman.plugins.transformation_policy.transformer;
+
+import io.apiman.plugins.transformation_policy.beans.TransformationConfigBean;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.async.ByteArrayFeeder;
+
+/**
+ * Transforms JSON to XML as it arrives. JSON tokens are pulled from a
+ * non-blocking parser as chunks arrive and the corresponding XML is written
+ * out straight away, so memory use is bounded by the nesting depth of the
+ * document rather than by its size. {@link JsonToXmlTransformer} runs the same
+ * transformation over a complete body.
+ * <p>
+ * The output follows the conventions of org.json's {@code XML.toString}, which
+ * the policy has always produced. That is also why a StAX writer isn't used:
+ * those conventions can produce several top-level elements, which a conforming
+ * writer refuses. The one place where output must be held back is a top-level
+ * object: it only gets a {@code <root>} element if it has more than one member,
+ * so its first member is held as {@link PendingOutput} until either a second
+ * member or the end of the object is seen.
+ */
+public class StreamingJsonToXmlTransformer implements StreamingDataTransformer {
+
+    private static final String ROOT = "root"; //$NON-NLS-1$
+    private static final String ELEMENT = "element"; //$NON-NLS-1$
+    private static final String ARRAY = "array"; //$NON-NLS-1$
+    private static final String CONTENT = "content"; //$NON-NLS-1$
+
+    static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+    @Override
+    public StreamingTransformation begin(OutputStream output, TransformationConfigBean config) {
+        JsonParser parser;
+        try {
+            parser = JSON_FACTORY.createNonBlockingByteArrayParser();
+        } catch (IOException e) {
+            throw new TransformationException(e);
+        }
+        return new Transformation(output, config.getSpillThreshold(), parser,
+                (ByteArrayFeeder) parser.getNonBlockingInputFeeder());
+    }
+
+    /**
+     * Transforms a complete document read by a blocking parser, see
+     * {@link JsonToXmlTransformer}. Nothing is spilled, the whole body is in
+     * memory already.
+     */
+    static void transform(JsonParser parser, OutputStream output) {
+        new Transformation(output, 0, parser, null).end();
+    }
+
+    private enum Kind {
+        OBJECT, ARRAY, CONTENT
+    }
+
+    /**
+     * One level of JSON nesting.
+     */
+    private static final class Frame {
+        final Kind kind;
+        /** OBJECT: the element to close at the end (may be null); ARRAY: the wrapping element to close (may be null) */
+        String closeName;
+        /** OBJECT: the current member name; ARRAY: the element name of each item */
+        String name;
+        /** ARRAY: whether nested arrays are wrapped in an element named after the items */
+        boolean wrapNested;
+        /** OBJECT: whether this is the top-level object still waiting for its root element to be decided */
+        boolean rootPending;
+        int members;
+
+        /* CONTENT state */
+        StringBuilder text;
+        boolean contentArray;
+        StringWriter json;
+        JsonGenerator generator;
+        int depth;
+
+        Frame(Kind kind) {
+            this.kind = kind;
+        }
+    }
+
+    private static final class Transformation implements StreamingTransformation {
+
+        private final OutputStream output;
+        private final int spillThreshold;
+        private final JsonParser parser;
+        /** Null when the parser reads from a blocking source */
+        private final ByteArrayFeeder feeder;
+        private final Deque<Frame> frames = new ArrayDeque<>();
+        /** Where XML is currently written: the output, or the held back first member of the top-level object */
+        private OutputStream target;
+        private PendingOutput pending;
+        private boolean started;
+
+        Transformation(OutputStream output, int spillThreshold, JsonParser parser, ByteArrayFeeder feeder) {
+            this.output = output;
+            this.target = output;
+            this.spillThreshold = spillThreshold;
+            this.parser = parser;
+            this.feeder = feeder;
+        }
+
+        @Override
+        public void write(byte[] chunk) {
+            try {
+                feeder.feedInput(chunk, 0, chunk.length);
+                drain();
+            } catch (IOException | RuntimeException e) {
+                throw fail(e);
+            }
+        }
+
+        @Override
+        public void end() {
+            try {
+                if (feeder != null) {
+                    feeder.endOfInput();
+                }
+                drain();
+                if (!started || !frames.isEmpty()) {
+                    throw new TransformationException("Unexpected end of JSON input"); //$NON-NLS-1$
+                }
+                parser.close();
+            } catch (IOException | RuntimeException e) {
+                throw fail(e);
+            }
+        }
+
+        @Override
+        public void abort() {
+            discard();
+            try {
+                parser.close();
+            } catch (IOException e) {
+                // Nothing more to release
+            }
+        }
+
+        private TransformationException fail(Exception e) {
+            discard();
+            return e instanceof TransformationException ? (TransformationException) e : new TransformationException(e);
+        }
+
+        private void discard() {
+            if (pending != null) {
+                pending.discard();
+                pending = null;
+            }
+        }
+
+        private void drain() throws IOException {
+            JsonToken token;
+            while ((token = parser.nextToken()) != null && token != JsonToken.NOT_AVAILABLE) {
+                handle(token);
+            }
+        }
+
+        private void handle(JsonToken token) throws IOException {
+            if (frames.isEmpty()) {
+                if (!started) {
+                    startRoot(token);
+                }
+                // Anything after the top-level value is ignored, as JsonToXmlTransformer does.
+                return;
+            }
+            Frame frame = frames.peek();
+            switch (frame.kind) {
+            case OBJECT:
+                handleObject(frame, token);
+                break;
+            case ARRAY:
+                handleArray(frame, token);
+                break;
+            case CONTENT:
+                handleContent(frame, token);
+                break;
+            }
+        }
+
+        private void startRoot(JsonToken token) throws IOException {
+            started = true;
+            if (token == JsonToken.START_OBJECT) {
+                Frame frame = new Frame(Kind.OBJECT);
+                frame.rootPending = true;
+                pending = new PendingOutput(spillThreshold);
+                target = pending;
+                frames.push(frame);
+            } else if (token == JsonToken.START_ARRAY) {
+                startElement(ROOT);
+                frames.push(array(ELEMENT, ROOT, true));
+            } else {
+                throw new TransformationException("JSON input must be an object or an array"); //$NON-NLS-1$
+            }
+        }
+
+        private void handleObject(Frame frame, JsonToken token) throws IOException {
+            if (token == JsonToken.FIELD_NAME) {
+                if (frame.rootPending && frame.members == 1) {
+                    releaseRoot(true);
+                    frame.rootPending = false;
+                    frame.closeName = ROOT;
+                }
+                frame.name = parser.getCurrentName();
+                frame.members++;
+            } else if (token == JsonToken.END_OBJECT) {
+                frames.pop();
+                if (frame.rootPending) {
+                    releaseRoot(false);
+                } else if (frame.closeName != null) {
+                    endElement(frame.closeName);
+                }
+            } else if (CONTENT.equals(frame.name)) {
+                if (token == JsonToken.START_OBJECT || token == JsonToken.START_ARRAY) {
+                    Frame content = new Frame(Kind.CONTENT);
+                    content.text = new StringBuilder();
+                    content.contentArray = token == JsonToken.START_ARRAY;
+                    if (!content.contentArray) {
+                        startCapture(content);
+                    }
+                    frames.push(content);
+                } else {
+                    characters(scalar(token));
+                }
+            } else {
+                writeValue(frame.name, token);
+            }
+        }
+
+        private void handleArray(Frame frame, JsonToken token) throws IOException {
+            if (token == JsonToken.END_ARRAY) {
+                frames.pop();
+                if (frame.closeName != null) {
+                    endElement(frame.closeName);
+                }
+            } else if (token == JsonToken.START_ARRAY) {
+                if (frame.wrapNested) {
+                    startElement(frame.name);
+                    frames.push(array(ARRAY, frame.name, false));
+                } else {
+                    frames.push(array(ARRAY, null, false));
+                }
+            } else {
+                writeValue(frame.name, token);
+            }
+        }
+
+        private void handleContent(Frame frame, JsonToken token) throws IOException {
+            if (frame.generator != null) {
+                frame.generator.copyCurrentEvent(parser);
+                if (token == JsonToken.START_OBJECT || token == JsonToken.START_ARRAY) {
+                    frame.depth++;
+                } else if (token == JsonToken.END_OBJECT || token == JsonToken.END_ARRAY) {
+                    frame.depth--;
+                }
+                if (frame.depth == 0) {
+                    frame.generator.close();
+                    frame.text.append(frame.json);
+                    frame.generator = null;
+                    if (!frame.contentArray) {
+                        endContent(frame);
+                    }
+                }
+            } else if (token == JsonToken.END_ARRAY) {
+                endContent(frame);
+            } else {
+                if (frame.members++ > 0) {
+                    frame.text.append('\n');
+                }
+                if (token == JsonToken.START_OBJECT || token == JsonToken.START_ARRAY) {
+                    startCapture(frame);
+                } else {
+                    frame.text.append(scalar(token));
+                }
+            }
+        }
+
+        /**
+         * Structured content is written as JSON text, like org.json does.
+         */
+        private void startCapture(Frame frame) throws IOException {
+            frame.json = new StringWriter();
+            frame.generator = JSON_FACTORY.createGenerator(frame.json);
+            frame.generator.copyCurrentEvent(parser);
+            frame.depth = 1;
+        }
+
+        private void endContent(Frame frame) throws IOException {
+            frames.pop();
+            characters(frame.text.toString());
+        }
+
+        /**
+         * Writes a member value (or an array item) as an element with the given name.
+         */
+        private void writeValue(String name, JsonToken token) throws IOException {
+            if (token == JsonToken.START_OBJECT) {
+                startElement(name);
+                Frame frame = new Frame(Kind.OBJECT);
+                frame.closeName = name;
+                frames.push(frame);
+            } else if (token == JsonToken.START_ARRAY) {
+                // Only reachable for members, items are handled by handleArray
+                frames.push(array(name, null, true));
+            } else {
+                String text = scalar(token);
+                if (text.isEmpty()) {
+                    write("<" + name + "/>"); //$NON-NLS-1$ //$NON-NLS-2$
+                } else {
+                    startElement(name);
+                    characters(text);
+                    endElement(name);
+                }
+            }
+        }
+
+        /**
+         * The root element of a top-level object is only known after its first
+         * member: release the held back output, wrapped or not.
+         */
+        private void releaseRoot(boolean wrap) throws IOException {
+            target = output;
+            if (wrap) {
+                startElement(ROOT);
+            }
+            pending.writeTo(output);
+            pending.discard();
+            pending = null;
+        }
+
+        private String scalar(JsonToken token) throws IOException {
+            switch (token) {
+            case VALUE_STRING:
+            case VALUE_NUMBER_INT:
+            case VALUE_NUMBER_FLOAT:
+                return parser.getText();
+            case VALUE_TRUE:
+                return "true"; //$NON-NLS-1$
+            case VALUE_FALSE:
+                return "false"; //$NON-NLS-1$
+            case VALUE_NULL:
+                return "null"; //$NON-NLS-1$
+            default:
+                throw new TransformationException("Unexpected JSON token " + token); //$NON-NLS-1$
+            }
+        }
+
+        private void startElement(String name) throws IOException {
+            write("<" + name + ">"); //$NON-NLS-1$ //$NON-NLS-2$
+        }
+
+        private void endElement(String name) throws IOException {
+            write("</" + name + ">"); //$NON-NLS-1$ //$NON-NLS-2$
+        }
+
+        /**
+         * Writes escaped text, as org.json's {@code XML.escape} does.
+         */
+        private void characters(String text) throws IOException {
+            StringBuilder escaped = new StringBuilder(text.length() + 16);
+            for (int i = 0; i < text.length(); i++) {
+                char c = text.charAt(i);
+                switch (c) {
+                case '&':
+                    escaped.append("&amp;"); //$NON-NLS-1$
+                    break;
+                case '<':
+                    escaped.append("&lt;"); //$NON-NLS-1$
+                    break;
+                case '>':
+                    escaped.append("&gt;"); //$NON-NLS-1$
+                    break;
+                case '"':
+                    escaped.append("&quot;"); //$NON-NLS-1$
+                    break;
+                case '\'':
+                    escaped.append("&apos;"); //$NON-NLS-1$
+                    break;
+                default:
+                    escaped.append(c);
+                }
+            }
+            write(escaped.toString());
+        }
+
+        private void write(String xml) throws IOException {
+            target.write(xml.getBytes(StandardCharsets.UTF_8));
+        }
+
+        private static Frame array(String itemName, String closeName, boolean wrapNested) {
+            Frame frame = new Frame(Kind.ARRAY);
+            frame.name = itemName;
+            frame.closeName = closeName;
+            frame.wrapNested = wrapNested;
+            return frame;
+        }
+    }
+
+}
@@ -0,0 +1,28 @@
+package io.apiman.plugins.transformation_policy.transformer;
+
+/**
+ * The transformation of a single body. Chunks of input are pushed in through
+ * {@link #write(byte[])}; any output that can already be produced is written
+ * (and flushed) to the output stream before the call returns.
+ */
+public interface StreamingTransformation {
+
+    /**
+     * Feeds the next chunk of input.
+     *
+     * @param chunk the input bytes
+     */
+    void write(byte[] chunk);
+
+    /**
+     * Signals the end of input and writes any remaining output.
+     */
+    void end();
+
+    /**
+     * Abandons the transformation before the end of input, releasing any held
+     * back output (including output spilled to disk).
+     */
+    void abort();
+
+}
@@ -0,0 +1,442 @@
+package io.apiman.plugins.transformation_policy.transformer;
+
+import io.apiman.plugins.transformation_policy.beans.TransformationConfigBean;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import com.fasterxml.aalto.AsyncByteArrayFeeder;
+import com.fasterxml.aalto.AsyncXMLInputFactory;
+import com.fasterxml.aalto.AsyncXMLStreamReader;
+import com.fasterxml.aalto.stax.InputFactoryImpl;
+import com.fasterxml.jackson.core.io.JsonStringEncoder;
+
+/**
+ * Transforms XML to JSON as it arrives. XML events are pulled from a
+ * non-blocking StAX reader as chunks arrive and JSON is written out as soon as
+ * its shape is known. {@link XmlToJsonTransformer} runs the same transformation
+ * over a complete body.
+ * <p>
+ * The output follows the conventions of org.json's {@code XML.toJSONObject},
+ * which the policy has always produced: repeated sibling elements (and
+ * attributes) with the same name collapse into an array, text goes into
+ * {@code content}, and an element holding only text becomes that text. Whether
+ * a sibling group is an array is only certain once its parent closes, so each
+ * element's value goes downstream directly when it is part of a group that has
+ * already repeated, and is otherwise held as {@link PendingOutput} until its
+ * parent closes. Held output beyond the configured spill threshold is moved to
+ * a temporary file.
+ * <p>
+ * The non-blocking reader only supports UTF-8 (and US-ASCII) documents.
+ */
+public class StreamingXmlToJsonTransformer implements StreamingDataTransformer {
+
+    private static final String CONTENT = "content"; //$NON-NLS-1$
+
+    private static final byte[] EMPTY_STRING = "\"\"".getBytes(StandardCharsets.UTF_8); //$NON-NLS-1$
+    private static final byte[] TRUE = "true".getBytes(StandardCharsets.UTF_8); //$NON-NLS-1$
+    private static final byte[] FALSE = "false".getBytes(StandardCharsets.UTF_8); //$NON-NLS-1$
+    private static final byte[] NULL = "null".getBytes(StandardCharsets.UTF_8); //$NON-NLS-1$
+
+    static final AsyncXMLInputFactory XML_INPUT_FACTORY = new InputFactoryImpl();
+
+    static {
+        XML_INPUT_FACTORY.setProperty(XMLInputFactory.SUPPORT_DTD, Boolean.FALSE);
+        XML_INPUT_FACTORY.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, Boolean.FALSE);
+    }
+
+    @Override
+    public StreamingTransformation begin(OutputStream output, TransformationConfigBean config) {
+        AsyncXMLStreamReader<AsyncByteArrayFeeder> reader = XML_INPUT_FACTORY.createAsyncForByteArray();
+        return new Transformation(output, config.getSpillThreshold(), reader, reader.getInputFeeder());
+    }
+
+    /**
+     * Transforms a complete document read by a blocking reader, see
+     * {@link XmlToJsonTransformer}. Nothing is spilled, the whole body is in
+     * memory already.
+     */
+    static void transform(XMLStreamReader reader, OutputStream output) {
+        new Transformation(output, 0, reader, null).end();
+    }
+
+    /**
+     * The values seen so far for one key of an element's JSON object.
+     */
+    private static final class Group {
+        final String name;
+        /** The values (comma separated), or null once the group is written directly to the element's output */
+        PendingOutput values;
+        int count;
+
+        Group(String name, PendingOutput values) {
+            this.name = name;
+            this.values = values;
+        }
+    }
+
+    /**
+     * An open element.
+     */
+    private static final class Element {
+        /** Where this element's value is written */
+        final OutputStream output;
+        final Map<String, Group> groups = new LinkedHashMap<>();
+        /** The group being written directly to the output, if any */
+        Group direct;
+        /** Text collected since the last non-text event */
+        final StringBuilder text = new StringBuilder();
+        boolean cdata;
+
+        Element(OutputStream output) {
+            this.output = output;
+        }
+
+        void discard() {
+            for (Group group : groups.values()) {
+                if (group.values != null) {
+                    group.values.discard();
+                }
+            }
+        }
+    }
+
+    private static final class Transformation implements StreamingTransformation {
+
+        private final OutputStream output;
+        private final int spillThreshold;
+        private final XMLStreamReader reader;
+        /** Null when the reader reads from a blocking source */
+        private final AsyncByteArrayFeeder feeder;
+        private final Deque<Element> elements = new ArrayDeque<>();
+        private boolean started;
+        private boolean finished;
+
+        Transformation(OutputStream output, int spillThreshold, XMLStreamReader reader, AsyncByteArrayFeeder feeder) {
+            this.output = output;
+            this.spillThreshold = spillThreshold;
+            this.reader = reader;
+            this.feeder = feeder;
+            this.started = feeder == null;
+        }
+
+        @Override
+        public void write(byte[] chunk) {
+            try {
+                started = true;
+                feeder.feedInput(chunk, 0, chunk.length);
+                drain();
+            } catch (XMLStreamException | IOException | RuntimeException e) {
+                throw fail(e);
+            }
+        }
+
+        @Override
+        public void end() {
+            try {
+                if (!started) {
+                    return;
+                }
+                if (feeder != null) {
+                    feeder.endOfInput();
+                }
+                drain();
+                if (!finished) {
+                    throw new TransformationException("Unexpected end of XML input"); //$NON-NLS-1$
+                }
+                reader.close();
+            } catch (XMLStreamException | IOException | RuntimeException e) {
+                throw fail(e);
+            }
+        }
+
+        private void drain() throws XMLStreamException, IOException {
+            while (!finished) {
+                int event = reader.next();
+                switch (event) {
+                case AsyncXMLStreamReader.EVENT_INCOMPLETE:
+                    return;
+                case XMLStreamConstants.START_ELEMENT:
+                    startElement();
+                    break;
+                case XMLStreamConstants.END_ELEMENT:
+                    endElement();
+                    break;
+                case XMLStreamConstants.CHARACTERS:
+                case XMLStreamConstants.SPACE:
+                    text(false);
+                    break;
+                case XMLStreamConstants.CDATA:
+                    text(true);
+                    break;
+                case XMLStreamConstants.END_DOCUMENT:
+                    finished = true;
+                    break;
+                default:
+                    // Comments, processing instructions and DTDs are skipped, but still end a run of text
+                    if (!elements.isEmpty()) {
+                        flushText(elements.peek());
+                    }
+                    break;
+                }
+            }
+        }
+
+        private void startElement() throws IOException {
+            String name = qualifiedName(reader.getPrefix(), reader.getLocalName());
+            OutputStream elementOutput;
+            if (elements.isEmpty()) {
+                // The document element is the only member of the top-level object
+                output.write('{');
+                writeKey(output, name);
+                elementOutput = output;
+            } else {
+                Element parent = elements.peek();
+                flushText(parent);
+                elementOutput = startValue(parent, name);
+            }
+
+            Element element = new Element(elementOutput);
+            for (int i = 0; i < reader.getNamespaceCount(); i++) {
+                String prefix = reader.getNamespacePrefix(i);
+                String attribute = qualifiedName("xmlns", prefix == null || prefix.isEmpty() ? null : prefix); //$NON-NLS-1$
+                writeLiteral(startValue(element, attribute), reader.getNamespaceURI(i));
+            }
+            for (int i = 0; i < reader.getAttributeCount(); i++) {
+                String attribute = qualifiedName(reader.getAttributePrefix(i), reader.getAttributeLocalName(i));
+                writeLiteral(startValue(element, attribute), reader.getAttributeValue(i));
+            }
+            elements.push(element);
+        }
+
+        private void endElement() throws IOException {
+            Element element = elements.peek();
+            flushText(element);
+            try {
+                writeElementValue(element);
+            } finally {
+                elements.pop();
+                element.discard();
+            }
+            if (elements.isEmpty()) {
+                output.write('}');
+            }
+        }
+
+        private void writeElementValue(Element element) throws IOException {
+            OutputStream out = element.output;
+            if (element.direct != null) {
+                out.write(']');
+                for (Group group : element.groups.values()) {
+                    if (group != element.direct) {
+                        out.write(',');
+                        writeMember(out, group);
+                    }
+                }
+                out.write('}');
+            } else if (element.groups.isEmpty()) {
+                out.write(EMPTY_STRING);
+            } else if (element.groups.size() == 1 && element.groups.containsKey(CONTENT)) {
+                writeGroupValue(out, element.groups.get(CONTENT));
+            } else {
+                out.write('{');
+                boolean first = true;
+                for (Group group : element.groups.values()) {
+                    if (!first) {
+                        out.write(',');
+                    }
+                    writeMember(out, group);
+                    first = false;
+                }
+                out.write('}');
+            }
+        }
+
+        /**
+         * Adds a value to the named group of the element and returns where it
+         * should be written. A group goes direct once it has repeated, as long as
+         * no other group of the element already has.
+         */
+        private OutputStream startValue(Element element, String name) throws IOException {
+            Group group = element.groups.get(name);
+            if (group == null) {
+                group = new Group(name, new PendingOutput(spillThreshold));
+                element.groups.put(name, group);
+            } else if (group == element.direct) {
+                element.output.write(',');
+            } else if (element.direct == null && !CONTENT.equals(name)) {
+                // A lone "content" group collapses into the element's value, so it can't go direct.
+                element.direct = group;
+                element.output.write('{');
+                writeKey(element.output, name);
+                element.output.write('[');
+                group.values.writeTo(element.output);
+                group.values.discard();
+                group.values = null;
+                element.output.write(',');
+            } else {
+                group.values.write(',');
+            }
+            group.count++;
+            return group == element.direct ? element.output : group.values;
+        }
+
+        private void text(boolean cdata) throws IOException {
+            if (elements.isEmpty()) {
+                return;
+            }
+            Element element = elements.peek();
+            if (element.cdata != cdata) {
+                flushText(element);
+                element.cdata = cdata;
+            }
+            element.text.append(reader.getTextCharacters(), reader.getTextStart(), reader.getTextLength());
+        }
+
+        /**
+         * Adds the text collected so far to the element's content: trimmed and
+         * converted like org.json's {@code XML.stringToValue} for text, as is for CDATA.
+         */
+        private void flushText(Element element) throws IOException {
+            if (element.text.length() == 0) {
+                return;
+            }
+            String text = element.text.toString();
+            element.text.setLength(0);
+            if (element.cdata) {
+                writeString(startValue(element, CONTENT), text);
+            } else {
+                text = text.trim();
+                if (!text.isEmpty()) {
+                    writeLiteral(startValue(element, CONTENT), text);
+                }
+            }
+        }
+
+        private void writeMember(OutputStream out, Group group) throws IOException {
+            writeKey(out, group.name);
+            writeGroupValue(out, group);
+        }
+
+        private void writeGroupValue(OutputStream out, Group group) throws IOException {
+            if (group.count > 1) {
+                out.write('[');
+                group.values.writeTo(out);
+                out.write(']');
+            } else {
+                group.values.writeTo(out);
+            }
+        }
+
+        @Override
+        public void abort() {
+            discard();
+            try {
+                reader.close();
+            } catch (XMLStreamException e) {
+                // Nothing more to release
+            }
+        }
+
+        private TransformationException fail(Exception e) {
+            discard();
+            return e instanceof TransformationException ? (TransformationException) e : new TransformationException(e);
+        }
+
+        private void discard() {
+            for (Element element : elements) {
+                element.discard();
+            }
+            elements.clear();
+        }
+    }
+
+    private static String qualifiedName(String prefix, String localName) {
+        if (prefix == null || prefix.isEmpty()) {
+            return localName;
+        }
+        if (localName == null) {
+            return prefix;
+        }
+        return prefix + ':' + localName;
+    }
+
+    private static void writeKey(OutputStream out, String name) throws IOException {
+        writeString(out, name);
+        out.write(':');
+    }
+
+    private static void writeString(OutputStream out, String value) throws IOException {
+        out.write('"');
+        out.write(JsonStringEncoder.getInstance().quoteAsUTF8(value));
+        out.write('"');
+    }
+
+    /**
+     * Writes text as the JSON value org.json's {@code XML.stringToValue}
+     * would have turned it into.
+     */
+    private static void writeLiteral(OutputStream out, String value) throws IOException {
+        if ("true".equalsIgnoreCase(value)) { //$NON-NLS-1$
+            out.write(TRUE);
+        } else if ("false".equalsIgnoreCase(value)) { //$NON-NLS-1$
+            out.write(FALSE);
+        } else if ("null".equalsIgnoreCase(value)) { //$NON-NLS-1$
+            out.write(NULL);
+        } else {
+            String number = toNumber(value);
+            if (number != null) {
+                out.write(number.getBytes(StandardCharsets.US_ASCII));
+            } else {
+                writeString(out, value);
+            }
+        }
+    }
+
+    /**
+     * @return the value as a JSON number, or null if org.json would have kept it as a string
+     */
+    static String toNumber(String value) {
+        if (value.isEmpty()) {
+            return null;
+        }
+        char initial = value.charAt(0);
+        if (initial != '-' && (initial < '0' || initial > '9')) {
+            return null;
+        }
+        try {
+            return Long.valueOf(value).toString().equals(value) ? value : null;
+        } catch (NumberFormatException e) {
+            try {
+                Double number = Double.valueOf(value);
+                if (number.isInfinite() || number.isNaN() || !number.toString().equals(value)) {
+                    return null;
+                }
+                // Trailing zeros are dropped, as JSONObject.numberToString does
+                String string = number.toString();
+                if (string.indexOf('.') > 0 && string.indexOf('e') < 0 && string.indexOf('E') < 0) {
+                    while (string.endsWith("0")) { //$NON-NLS-1$
+                        string = string.substring(0, string.length() - 1);
+                    }
+                    if (string.endsWith(".")) { //$NON-NLS-1$
+                        string = string.substring(0, string.length() - 1);
+                    }
+                }
+                return string;
+            } catch (NumberFormatException e2) {
+                return null;
+            }
+        }
+    }
+
+}
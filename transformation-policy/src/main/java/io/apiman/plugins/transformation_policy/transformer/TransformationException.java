@@ -0,0 +1,26 @@
+package io.apiman.plugins.transformation_policy.transformer;
+
+/**
+ * Thrown when a body cannot be transformed (typically because it is malformed).
+ */
+public class TransformationException extends RuntimeException {
+
+    private static final long serialVersionUID = -4476021463296734853L;
+
+    /**
+     * Constructor.
+     * @param message the message
+     */
+    public TransformationException(String message) {
+        super(message);
+    }
+
+    /**
+     * Constructor.
+     * @param cause the cause
+     */
+    public TransformationException(Throwable cause) {
+        super(cause);
+    }
+
+}
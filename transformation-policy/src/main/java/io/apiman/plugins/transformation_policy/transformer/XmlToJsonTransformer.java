@@ -1,11 +1,35 @@
 package io.apiman.plugins.transformation_policy.transformer;
 
-import org.json.XML;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
 
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+/**
+ * Transforms a complete XML body to JSON, see {@link StreamingXmlToJsonTransformer}
+ * for the conventions followed. Unless the Content-Type declared another charset,
+ * the document is parsed straight from the bytes, in the encoding given by its
+ * XML declaration.
+ */
 public class XmlToJsonTransformer implements DataTransformer {
 
-	public String transform(String xml) {
-		return XML.toJSONObject(xml).toString();
-	}
-	
+    @Override
+    public void transform(InputStream input, Charset charset, OutputStream output) {
+        XMLStreamReader reader;
+        try {
+            if (Charsets.isUtf8(charset)) {
+                reader = StreamingXmlToJsonTransformer.XML_INPUT_FACTORY.createXMLStreamReader(input);
+            } else {
+                // The reader follows the XML declaration when given bytes, but the Content-Type takes precedence
+                reader = StreamingXmlToJsonTransformer.XML_INPUT_FACTORY.createXMLStreamReader(new InputStreamReader(input, charset));
+            }
+        } catch (XMLStreamException e) {
+            throw new TransformationException(e);
+        }
+        StreamingXmlToJsonTransformer.transform(reader, output);
+    }
+
 }
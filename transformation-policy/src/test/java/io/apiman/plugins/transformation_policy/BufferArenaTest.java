@@ -0,0 +1,80 @@
+package io.apiman.plugins.transformation_policy;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import java.nio.charset.StandardCharsets;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.Test;
+
+@SuppressWarnings("nls")
+public class BufferArenaTest {
+
+    private BufferArena arena = new BufferArena();
+
+    @Test
+    public void sizeClasses() {
+        assertEquals(0, BufferArena.sizeClass(0));
+        assertEquals(0, BufferArena.sizeClass(4096));
+        assertEquals(1, BufferArena.sizeClass(4097));
+        assertEquals(10, BufferArena.sizeClass(4 * 1024 * 1024));
+        assertEquals(-1, BufferArena.sizeClass(4 * 1024 * 1024 + 1));
+    }
+
+    @Test
+    public void releasedArraysAreReused() {
+        byte[] array = arena.acquire(5000);
+        assertEquals(8192, array.length);
+        arena.release(array);
+        assertSame(array, arena.acquire(6000));
+        assertNotSame(array, arena.acquire(6000));
+    }
+
+    @Test
+    public void oversizedArraysAreNotPooled() {
+        byte[] array = arena.acquire(5 * 1024 * 1024);
+        assertEquals(5 * 1024 * 1024, array.length);
+        arena.release(array);
+        assertNotSame(array, arena.acquire(5 * 1024 * 1024));
+    }
+
+    @Test
+    public void poolIsCappedInBytes() {
+        BufferArena small = new BufferArena(8192);
+        byte[] first = small.acquire(4096);
+        byte[] second = small.acquire(4096);
+        byte[] third = small.acquire(4096);
+        small.release(first);
+        small.release(second);
+        small.release(third);
+        assertSame(first, small.acquire(4096));
+        assertSame(second, small.acquire(4096));
+        assertNotSame(third, small.acquire(4096));
+    }
+
+    @Test
+    public void estimateFollowsRecordedSizes() {
+        assertEquals(0, arena.estimate("api"));
+        arena.record("api", 10000);
+        assertEquals(10000, arena.estimate("api"));
+        arena.record("api", 20000);
+        assertEquals(12500, arena.estimate("api"));
+    }
+
+    @Test
+    public void pooledBufferGrows() throws Exception {
+        PooledBuffer buffer = new PooledBuffer(arena, 0);
+        StringBuilder expected = new StringBuilder();
+        for (int i = 0; i < 1000; i++) {
+            String line = "line " + i + "\n";
+            expected.append(line);
+            buffer.append(line.getBytes(StandardCharsets.UTF_8));
+        }
+        assertEquals(expected.length(), buffer.length());
+        assertEquals(expected.toString(), IOUtils.toString(buffer.newInputStream(), StandardCharsets.UTF_8));
+        buffer.release();
+    }
+
+}
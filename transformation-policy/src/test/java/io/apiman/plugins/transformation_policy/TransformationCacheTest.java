@@ -0,0 +1,72 @@
+package io.apiman.plugins.transformation_policy;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+
+import io.apiman.plugins.transformation_policy.beans.DataFormat;
+
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Test;
+
+@SuppressWarnings("nls")
+public class TransformationCacheTest {
+
+    private TransformationCache cache = new TransformationCache();
+
+    @Test
+    public void keyDependsOnInputAndDirection() {
+        String key = key("response", "<a>1</a>");
+        assertEquals(key, key("response", "<a>1</a>"));
+        assertNotEquals(key, key("response", "<a>2</a>"));
+        assertNotEquals(key, key("request", "<a>1</a>"));
+    }
+
+    @Test
+    public void hitsAndMisses() {
+        assertNull(cache.get("api", "k"));
+        cache.put("api", "k", bytes("{}"), 100, 60000);
+        assertArrayEquals(bytes("{}"), cache.get("api", "k"));
+        assertNull(cache.get("other", "k"));
+        assertEquals(1, cache.getHits("api"));
+        assertEquals(1, cache.getMisses("api"));
+        assertEquals(1, cache.getMisses("other"));
+    }
+
+    @Test
+    public void leastRecentlyUsedResultsAreDroppedBeyondSize() {
+        cache.put("api", "a", new byte[40], 100, 60000);
+        cache.put("api", "b", new byte[40], 100, 60000);
+        cache.get("api", "a");
+        cache.put("api", "c", new byte[40], 100, 60000);
+        assertNull(cache.get("api", "b"));
+        assertEquals(40, cache.get("api", "a").length);
+        assertEquals(40, cache.get("api", "c").length);
+    }
+
+    @Test
+    public void resultsBiggerThanTheCacheAreNotCached() {
+        cache.put("api", "k", new byte[101], 100, 60000);
+        assertNull(cache.get("api", "k"));
+    }
+
+    @Test
+    public void expiredResultsAreNotUsed() throws Exception {
+        cache.put("api", "k", bytes("{}"), 100, 1);
+        Thread.sleep(10);
+        assertNull(cache.get("api", "k"));
+    }
+
+    private String key(String direction, String body) {
+        PooledBuffer buffer = new PooledBuffer(new BufferArena(), 0);
+        buffer.append(bytes(body));
+        return TransformationCache.key(direction, DataFormat.XML, DataFormat.JSON, null, buffer);
+    }
+
+    private static byte[] bytes(String text) {
+        return text.getBytes(StandardCharsets.UTF_8);
+    }
+
+}
@@ -0,0 +1,208 @@
+package io.apiman.plugins.transformation_policy;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import io.apiman.common.logging.impl.NoOpLoggerFactory;
+import io.apiman.gateway.engine.IComponent;
+import io.apiman.gateway.engine.IComponentRegistry;
+import io.apiman.gateway.engine.beans.ApiRequest;
+import io.apiman.gateway.engine.beans.ApiResponse;
+import io.apiman.gateway.engine.beans.PolicyFailure;
+import io.apiman.gateway.engine.components.IBufferFactoryComponent;
+import io.apiman.gateway.engine.impl.ByteBufferFactoryComponent;
+import io.apiman.gateway.engine.io.ByteBuffer;
+import io.apiman.gateway.engine.io.IAbortable;
+import io.apiman.gateway.engine.io.IReadWriteStream;
+import io.apiman.gateway.engine.policy.IPolicyChain;
+import io.apiman.gateway.engine.policy.IPolicyContext;
+import io.apiman.gateway.engine.policy.PolicyContextImpl;
+import io.apiman.plugins.transformation_policy.beans.TransformationConfigBean;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.junit.Test;
+
+/**
+ * Drives the policy the way the gateway's policy chain does: the data handlers
+ * are created before the policy is applied to the head.
+ */
+@SuppressWarnings("nls")
+public class TransformationPolicyDataHandlerTest {
+
+    private final TransformationPolicy policy = new TransformationPolicy();
+    private final IPolicyContext context = new PolicyContextImpl(new IComponentRegistry() {
+        private final IBufferFactoryComponent bufferFactory = new ByteBufferFactoryComponent();
+
+        @Override
+        public Collection<IComponent> getComponents() {
+            return Collections.<IComponent>singletonList(bufferFactory);
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public <T extends IComponent> T getComponent(Class<T> componentType) {
+            return (T) bufferFactory;
+        }
+    }, new NoOpLoggerFactory());
+
+    @Test
+    public void streamClientJsonRequestToXml() throws Exception {
+        TransformationConfigBean config = policy.parseConfiguration(
+                "{\"clientFormat\": \"JSON\", \"serverFormat\": \"XML\", \"streaming\": true}");
+        ApiRequest request = request("application/json");
+
+        IReadWriteStream<ApiRequest> handler = policy.getRequestDataHandler(request, context, config);
+        policy.apply(request, context, config, new PassingChain<ApiRequest>());
+
+        assertTrue(handler instanceof TransformingStream);
+        assertEquals("<name>apiman</name>",
+                new String(transform(handler, "{\"name\":\"apiman\"}".getBytes(StandardCharsets.UTF_8)),
+                        StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void emptyRequestBodiesAreNotStreamed() throws Exception {
+        TransformationConfigBean config = policy.parseConfiguration(
+                "{\"clientFormat\": \"JSON\", \"serverFormat\": \"XML\", \"streaming\": true}");
+        ApiRequest request = request("application/json");
+
+        IReadWriteStream<ApiRequest> handler = policy.getRequestDataHandler(request, context, config);
+        policy.apply(request, context, config, new PassingChain<ApiRequest>());
+
+        assertEquals(0, transform(handler, new byte[0]).length);
+    }
+
+    @Test
+    public void latin1RequestBodyIsTransformed() throws Exception {
+        TransformationConfigBean config = policy.parseConfiguration(
+                "{\"clientFormat\": \"JSON\", \"serverFormat\": \"XML\", \"streaming\": true}");
+        ApiRequest request = request("application/json; charset=ISO-8859-1");
+
+        IReadWriteStream<ApiRequest> handler = policy.getRequestDataHandler(request, context, config);
+        policy.apply(request, context, config, new PassingChain<ApiRequest>());
+
+        assertEquals("<name>caf\u00e9</name>",
+                new String(transform(handler, "{\"name\":\"caf\u00e9\"}".getBytes(StandardCharsets.ISO_8859_1)),
+                        StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void latin1ResponseBodyIsTransformed() throws Exception {
+        TransformationConfigBean config = policy.parseConfiguration(
+                "{\"clientFormat\": \"JSON\", \"serverFormat\": \"XML\"}");
+        ApiRequest request = request("application/json");
+        policy.apply(request, context, config, new PassingChain<ApiRequest>());
+        ApiResponse response = new ApiResponse();
+        response.getHeaders().put("Content-Type", "application/xml; charset=ISO-8859-1");
+
+        IReadWriteStream<ApiResponse> handler = policy.getResponseDataHandler(response, context, config);
+        policy.apply(response, context, config, new PassingChain<ApiResponse>());
+
+        assertEquals("{\"name\":\"caf\u00e9\"}",
+                new String(transform(handler, "<name>caf\u00e9</name>".getBytes(StandardCharsets.ISO_8859_1)),
+                        StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void spilledOutputIsDeletedWhenAborted() throws Exception {
+        TransformationConfigBean config = policy.parseConfiguration(
+                "{\"clientFormat\": \"JSON\", \"serverFormat\": \"XML\", \"streaming\": true, \"spillThreshold\": 16}");
+        ApiRequest request = request("application/json");
+        Set<String> before = spillFiles();
+
+        IReadWriteStream<ApiRequest> handler = policy.getRequestDataHandler(request, context, config);
+        policy.apply(request, context, config, new PassingChain<ApiRequest>());
+        handler.bodyHandler(chunk -> { });
+        // The first member of the top-level object is held back until its second member arrives
+        char[] value = new char[1024];
+        Arrays.fill(value, 'x');
+        handler.write(new ByteBuffer("{\"first\":\"" + new String(value) + "\""));
+        Set<String> spilled = spillFiles();
+        spilled.removeAll(before);
+        assertFalse(spilled.isEmpty());
+
+        ((IAbortable) handler).abort(new Exception("connection lost"));
+
+        Set<String> after = spillFiles();
+        after.removeAll(before);
+        assertTrue(after.isEmpty());
+    }
+
+    @Test
+    public void onlyResponsesToGetRequestsAreCached() throws Exception {
+        TransformationConfigBean config = policy.parseConfiguration(
+                "{\"clientFormat\": \"JSON\", \"serverFormat\": \"XML\", \"resultCache\": true}");
+        for (String method : new String[] { "POST", "GET", "GET" }) {
+            ApiRequest request = request("application/json");
+            request.setApiId("cached");
+            request.setType(method);
+            policy.apply(request, context, config, new PassingChain<ApiRequest>());
+            ApiResponse response = new ApiResponse();
+            response.getHeaders().put("Content-Type", "application/xml");
+
+            IReadWriteStream<ApiResponse> handler = policy.getResponseDataHandler(response, context, config);
+            policy.apply(response, context, config, new PassingChain<ApiResponse>());
+            transform(handler, "<name>apiman</name>".getBytes(StandardCharsets.UTF_8));
+        }
+
+        assertEquals(1, TransformationPolicy.getResultCache().getHits("org/cached/1.0"));
+        assertEquals(1, TransformationPolicy.getResultCache().getMisses("org/cached/1.0"));
+    }
+
+    private static ApiRequest request(String contentType) {
+        ApiRequest request = new ApiRequest();
+        request.setApiOrgId("org");
+        request.setApiId("api");
+        request.setApiVersion("1.0");
+        request.getHeaders().put("Content-Type", contentType);
+        return request;
+    }
+
+    private static Set<String> spillFiles() {
+        Set<String> names = new HashSet<>();
+        String[] files = new File(System.getProperty("java.io.tmpdir"))
+                .list((dir, name) -> name.startsWith("apiman-transformation-"));
+        if (files != null) {
+            names.addAll(Arrays.asList(files));
+        }
+        return names;
+    }
+
+    private static byte[] transform(IReadWriteStream<?> handler, byte[] body) {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        handler.bodyHandler(chunk -> output.write(chunk.getBytes(), 0, chunk.length()));
+        handler.endHandler(end -> { });
+        handler.write(new ByteBuffer(body));
+        handler.end();
+        return output.toByteArray();
+    }
+
+    private static final class PassingChain<H> implements IPolicyChain<H> {
+        @Override
+        public void doApply(H head) {
+        }
+
+        @Override
+        public void doSkip(H head) {
+        }
+
+        @Override
+        public void doFailure(PolicyFailure failure) {
+            throw new AssertionError(failure.getMessage());
+        }
+
+        @Override
+        public void throwError(Throwable error) {
+            throw new AssertionError(error);
+        }
+    }
+}
@@ -65,6 +65,20 @@ public class TransformationPolicyTest extends ApimanPolicyTest {
         assertEquals(expectedResponse, response.body());
     }
 
+    @Test
+    @Configuration("{\"clientFormat\": \"JSON\", \"serverFormat\": \"XML\", \"resultCache\": true}")
+    @BackEndApi(ProduceXmlBackEndApi.class)
+    public void transformServerXmlResponseToJsonFromCache() throws Throwable {
+        for (int i = 0; i < 2; i++) {
+            PolicyTestRequest request = PolicyTestRequest.build(PolicyTestRequestType.GET, "/some/resource");
+
+            PolicyTestResponse response = send(request);
+
+            assertEquals("application/json", response.header("Content-Type"));
+            assertEquals("{\"name\":\"apiman\"}", response.body());
+        }
+    }
+
     @Test
     @Configuration("{\"clientFormat\": \"JSON\", \"serverFormat\": \"XML\"}")
     @BackEndApi(ConsumeXmlBackEndApi.class)
@@ -127,10 +141,50 @@ public class TransformationPolicyTest extends ApimanPolicyTest {
         
         PolicyTestResponse response = send(request);
         
-        String expectedResponse = "<root><property-1>value-1</property-1><array-1>10</array-1><array-1>5</array-1><array-1>3</array-1><array-1>12</array-1><property-2>value-2</property-2><object-1><p1>v1</p1><p2>v2</p2></object-1></root>";
+        String expectedResponse = "<root><property-1>value-1</property-1><property-2>value-2</property-2><object-1><p1>v1</p1><p2>v2</p2></object-1><array-1>10</array-1><array-1>5</array-1><array-1>3</array-1><array-1>12</array-1></root>";
+        assertEquals("application/xml", response.header("Content-Type"));
+        assertNull(response.header("Content-Length"));
+        assertEquals(expectedResponse, response.body());
+    }
+
+    @Test
+    @Configuration("{\"clientFormat\": \"XML\", \"serverFormat\": \"JSON\", \"streaming\": true}")
+    @BackEndApi(ProduceComplexJsonBackEndApi.class)
+    public void streamComplexServerJsonResponseToXml() throws Throwable {
+        PolicyTestRequest request = PolicyTestRequest.build(PolicyTestRequestType.GET, "/some/resource");
+
+        PolicyTestResponse response = send(request);
+
+        String expectedResponse = "<root><property-1>value-1</property-1><property-2>value-2</property-2><object-1><p1>v1</p1><p2>v2</p2></object-1><array-1>10</array-1><array-1>5</array-1><array-1>3</array-1><array-1>12</array-1></root>";
         assertEquals("application/xml", response.header("Content-Type"));
         assertNull(response.header("Content-Length"));
         assertEquals(expectedResponse, response.body());
     }
 
+    @Test
+    @Configuration("{\"clientFormat\": \"JSON\", \"serverFormat\": \"XML\", \"streaming\": true}")
+    @BackEndApi(ConsumeXmlBackEndApi.class)
+    public void streamClientJsonRequestToXml() throws Throwable {
+        String json = "{\"name\":\"apiman\"}";
+        PolicyTestRequest request = PolicyTestRequest.build(PolicyTestRequestType.POST, "/some/resource");
+        request.header("Content-Type", "application/json");
+        request.header("Content-Length", String.valueOf(json.getBytes("UTF-8").length));
+        request.body(json);
+
+        send(request);
+    }
+
+    @Test
+    @Configuration("{\"clientFormat\": \"JSON\", \"serverFormat\": \"XML\", \"streaming\": true}")
+    @BackEndApi(ProduceEchoXmlResponseBackend.class)
+    public void streamServerEchoXmlResponseToJson() throws Throwable {
+        PolicyTestRequest request = PolicyTestRequest.build(PolicyTestRequestType.GET, "/some/resource");
+
+        PolicyTestResponse response = send(request);
+
+        assertEquals("application/json", response.header("Content-Type"));
+        assertNull(response.header("Content-Length"));
+        assertTrue(response.body().startsWith("{\"echoResponse\":"));
+    }
+
 }
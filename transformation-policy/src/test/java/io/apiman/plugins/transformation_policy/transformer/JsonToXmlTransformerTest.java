@@ -1,6 +1,10 @@
 package io.apiman.plugins.transformation_policy.transformer;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
 
 import org.apache.commons.io.IOUtils;
 import org.custommonkey.xmlunit.XMLTestCase;
@@ -31,15 +35,32 @@ public class JsonToXmlTransformerTest extends XMLTestCase {
         test("jsonToXml-input4.json", "jsonToXml-output4.xml");
     }
 
+    public void test_declaredCharset() throws Exception {
+        String json = "{\"name\":\"caf\u00e9 \u20ac\"}";
+        Charset windows1252 = Charset.forName("windows-1252");
+        assertEquals("<name>caf\u00e9 \u20ac</name>", transform(json.getBytes(windows1252), windows1252));
+    }
+
+    public void test_undeclaredCharsetIsUtf8() throws Exception {
+        String json = "{\"name\":\"caf\u00e9 \u20ac\"}";
+        assertEquals("<name>caf\u00e9 \u20ac</name>", transform(json.getBytes(StandardCharsets.UTF_8), null));
+    }
+
 	private void test(String jsonFileName, String xmlFileName) throws Exception {
 		String json = readFile(jsonFileName);
 		String expectedXml = readFile(xmlFileName);
 
-		String actualXml = transformer.transform(json);
+		String actualXml = transform(json.getBytes(StandardCharsets.UTF_8), StandardCharsets.UTF_8);
 
 		assertXMLEqual(expectedXml, actualXml);
 	}
 
+	private String transform(byte[] json, Charset charset) throws IOException {
+		ByteArrayOutputStream output = new ByteArrayOutputStream();
+		transformer.transform(new ByteArrayInputStream(json), charset, output);
+		return output.toString("UTF-8");
+	}
+
 	private String readFile(String fileName) throws IOException {
 		return IOUtils.toString(getClass().getClassLoader().getResource("jsonToXml/" + fileName), "UTF-8");
 	}
@@ -0,0 +1,99 @@
+package io.apiman.plugins.transformation_policy.transformer;
+
+import io.apiman.plugins.transformation_policy.beans.TransformationConfigBean;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.apache.commons.io.IOUtils;
+import org.custommonkey.xmlunit.XMLTestCase;
+import org.custommonkey.xmlunit.XMLUnit;
+import org.json.JSONObject;
+import org.json.XML;
+
+@SuppressWarnings("nls")
+public class StreamingJsonToXmlTransformerTest extends XMLTestCase {
+
+    static {
+        XMLUnit.setIgnoreWhitespace(true);
+    }
+
+    private StreamingJsonToXmlTransformer transformer = new StreamingJsonToXmlTransformer();
+    private TransformationConfigBean config = new TransformationConfigBean();
+
+    public void test_jsonToXml_1() throws Exception {
+        test("jsonToXml-input1.json", "jsonToXml-output1.xml");
+    }
+
+    public void test_jsonToXml_2() throws Exception {
+        test("jsonToXml-input2.json", "jsonToXml-output2.xml");
+    }
+
+    public void test_jsonToXml_4() throws Exception {
+        test("jsonToXml-input4.json", "jsonToXml-output4.xml");
+    }
+
+    public void test_multipleMembersGetRoot() throws Exception {
+        assertEquals("<root><a>1</a><b>x</b></root>", transform("{\"a\":1,\"b\":\"x\"}", 3));
+    }
+
+    public void test_sameAsOrgJson() throws Exception {
+        String json = "{\"a\":[1,[2,[3,4]],{\"b\":null}],\"c\":{\"content\":[\"x\",{\"y\":true}],\"d\":\"\"},\"e\":\"<&>\"}";
+        assertXMLEqual(XML.toString(new JSONObject(json), "root"), transform(json, 1));
+    }
+
+    public void test_heldBackRootMemberSpills() throws Exception {
+        config.setSpillThreshold(4);
+        test("jsonToXml-input2.json", "jsonToXml-output2.xml");
+    }
+
+    public void test_multiByteCharactersSplitAcrossChunks() throws Exception {
+        assertEquals("<name>été ☃</name>", transform("{\"name\":\"été ☃\"}", 1));
+    }
+
+    public void test_outputIsWrittenBeforeEndOfInput() throws Exception {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        StreamingTransformation transformation = transformer.begin(output, config);
+        transformation.write("[{\"a\":1},{\"a\":".getBytes("UTF-8"));
+        assertTrue(output.toString("UTF-8").startsWith("<root><element><a>1</a></element>"));
+        transformation.write("2}]".getBytes("UTF-8"));
+        transformation.end();
+        assertEquals("<root><element><a>1</a></element><element><a>2</a></element></root>", output.toString("UTF-8"));
+    }
+
+    public void test_truncatedInput() throws Exception {
+        StreamingTransformation transformation = transformer.begin(new ByteArrayOutputStream(), config);
+        transformation.write("{\"a\":[1,".getBytes("UTF-8"));
+        try {
+            transformation.end();
+            fail("Expected a TransformationException");
+        } catch (TransformationException expected) {
+        }
+    }
+
+    private void test(String jsonFileName, String xmlFileName) throws Exception {
+        String json = readFile(jsonFileName);
+        String expectedXml = readFile(xmlFileName);
+
+        String actualXml = transform(json, 7);
+
+        assertXMLEqual(expectedXml, actualXml);
+    }
+
+    private String transform(String json, int chunkSize) throws IOException {
+        byte[] bytes = json.getBytes("UTF-8");
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        StreamingTransformation transformation = transformer.begin(output, config);
+        for (int i = 0; i < bytes.length; i += chunkSize) {
+            transformation.write(Arrays.copyOfRange(bytes, i, Math.min(bytes.length, i + chunkSize)));
+        }
+        transformation.end();
+        return output.toString("UTF-8");
+    }
+
+    private String readFile(String fileName) throws IOException {
+        return IOUtils.toString(getClass().getClassLoader().getResource("jsonToXml/" + fileName), "UTF-8");
+    }
+
+}
@@ -0,0 +1,117 @@
+package io.apiman.plugins.transformation_policy.transformer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import io.apiman.plugins.transformation_policy.beans.TransformationConfigBean;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.apache.commons.io.IOUtils;
+import org.json.XML;
+import org.junit.Test;
+
+@SuppressWarnings("nls")
+public class StreamingXmlToJsonTransformerTest {
+
+    private StreamingXmlToJsonTransformer transformer = new StreamingXmlToJsonTransformer();
+    private TransformationConfigBean config = new TransformationConfigBean();
+
+    @Test
+    public void test_xmlToJson_1() throws Exception {
+        test("xmlToJson-input1.xml", "xmlToJson-output1.json");
+    }
+
+    @Test
+    public void test_xmlToJson_2() throws Exception {
+        test("xmlToJson-input2.xml", "xmlToJson-output2.json");
+    }
+
+    @Test
+    public void test_xmlToJson_3() throws Exception {
+        test("xmlToJson-input3.xml", "xmlToJson-output3.json");
+    }
+
+    @Test
+    public void test_xmlToJson_3_spilled() throws Exception {
+        config.setSpillThreshold(1);
+        test("xmlToJson-input3.xml", "xmlToJson-output3.json");
+    }
+
+    @Test
+    public void test_sameAsOrgJson() throws Exception {
+        String xml = "<?xml version=\"1.0\"?>\n"
+                + "<!-- comment -->\n"
+                + "<a x=\"1\" flag=\"TRUE\" xmlns:p=\"urn:p\">"
+                + "  <x>2</x><y>007</y><x/><content>c</content>"
+                + "  text &amp; more<!-- split --> second<![CDATA[ <raw> ]]>"
+                + "  <p:z n=\"-1.50\">1.50</p:z><p:z>1.0</p:z><w>-0</w><v>null</v>"
+                + "  <u><content>only</content></u><t></t><s a=\"\"/>"
+                + "</a>";
+        assertJsonEquals(XML.toJSONObject(xml).toString(), transform(xml, 3));
+    }
+
+    @Test
+    public void test_multiByteCharactersSplitAcrossChunks() throws Exception {
+        assertEquals("{\"name\":\"été ☃\"}", transform("<name>été ☃</name>", 1));
+    }
+
+    @Test
+    public void test_repeatedElementsAreWrittenBeforeEndOfInput() throws Exception {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        StreamingTransformation transformation = transformer.begin(output, config);
+        transformation.write("<list><item>1</item><item>2</item><item>".getBytes("UTF-8"));
+        assertEquals("{\"list\":{\"item\":[1,2,", output.toString("UTF-8"));
+        transformation.write("3</item><count>3</count></list>".getBytes("UTF-8"));
+        transformation.end();
+        assertEquals("{\"list\":{\"item\":[1,2,3],\"count\":3}}", output.toString("UTF-8"));
+    }
+
+    @Test
+    public void test_truncatedInput() throws Exception {
+        StreamingTransformation transformation = transformer.begin(new ByteArrayOutputStream(), config);
+        transformation.write("<a><b>".getBytes("UTF-8"));
+        try {
+            transformation.end();
+            fail("Expected a TransformationException");
+        } catch (TransformationException expected) {
+        }
+    }
+
+    private void test(String xmlFileName, String jsonFileName) throws Exception {
+        String xml = readFile(xmlFileName);
+        String expectedJson = readFile(jsonFileName);
+
+        String actualJson = transform(xml, 7);
+
+        assertJsonEquals(expectedJson, actualJson);
+    }
+
+    private void assertJsonEquals(String expectedJson, String actualJson) throws IOException {
+        ObjectMapper mapper = new ObjectMapper();
+        JsonNode expectedJsonNode = mapper.readTree(expectedJson);
+        JsonNode actualJsonNode = mapper.readTree(actualJson);
+        assertTrue(actualJson, expectedJsonNode.equals(actualJsonNode));
+    }
+
+    private String transform(String xml, int chunkSize) throws IOException {
+        byte[] bytes = xml.getBytes("UTF-8");
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        StreamingTransformation transformation = transformer.begin(output, config);
+        for (int i = 0; i < bytes.length; i += chunkSize) {
+            transformation.write(Arrays.copyOfRange(bytes, i, Math.min(bytes.length, i + chunkSize)));
+        }
+        transformation.end();
+        return output.toString("UTF-8");
+    }
+
+    private String readFile(String fileName) throws IOException {
+        return IOUtils.toString(getClass().getClassLoader().getResource("xmlToJson/" + fileName), "UTF-8");
+    }
+
+}
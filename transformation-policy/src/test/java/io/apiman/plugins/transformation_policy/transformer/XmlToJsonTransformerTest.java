@@ -1,8 +1,13 @@
 package io.apiman.plugins.transformation_policy.transformer;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
 
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
@@ -29,11 +34,24 @@ public class XmlToJsonTransformerTest {
         test("xmlToJson-input3.xml", "xmlToJson-output3.json");
 	}
 
+    @Test
+    public void test_declaredCharsetOverridesXmlDeclaration() throws Exception {
+        String xml = "<?xml version=\"1.0\" encoding=\"ISO-8859-1\"?><name>caf\u00e9 \u20ac</name>";
+        Charset windows1252 = Charset.forName("windows-1252");
+        assertEquals("{\"name\":\"caf\u00e9 \u20ac\"}", transform(xml.getBytes(windows1252), windows1252));
+    }
+
+    @Test
+    public void test_undeclaredCharsetFollowsXmlDeclaration() throws Exception {
+        String xml = "<?xml version=\"1.0\" encoding=\"ISO-8859-1\"?><name>caf\u00e9</name>";
+        assertEquals("{\"name\":\"caf\u00e9\"}", transform(xml.getBytes(StandardCharsets.ISO_8859_1), null));
+    }
+
 	private void test(String xmlFileName, String jsonFileName) throws Exception {
 		String xml = readFile(xmlFileName);
 		String expectedJson = readFile(jsonFileName);
 
-		String actualJson = transformer.transform(xml);
+		String actualJson = transform(xml.getBytes(StandardCharsets.UTF_8), StandardCharsets.UTF_8);
 
         ObjectMapper mapper = new ObjectMapper();
         JsonNode expectedJsonNode = mapper.readTree(expectedJson);
@@ -41,6 +59,12 @@ public class XmlToJsonTransformerTest {
 		assertTrue(expectedJsonNode.equals(actualJsonNode));
 	}
 
+	private String transform(byte[] xml, Charset charset) throws IOException {
+		ByteArrayOutputStream output = new ByteArrayOutputStream();
+		transformer.transform(new ByteArrayInputStream(xml), charset, output);
+		return output.toString("UTF-8");
+	}
+
 	private String readFile(String fileName) throws IOException {
 		return IOUtils.toString(getClass().getClassLoader().getResource("xmlToJson/" + fileName), "UTF-8");
 	}